@@ -0,0 +1,84 @@
+package com.voxloud.provisioning.benchmark;
+
+import com.voxloud.provisioning.entity.Device;
+import com.voxloud.provisioning.entity.DeviceConfiguration;
+
+/**
+ * Deterministic devices and override fragments shared by the benchmarks.
+ */
+final class BenchmarkFixtures {
+
+    private BenchmarkFixtures() {
+    }
+
+    static DeviceConfiguration baseConfiguration() {
+        return DeviceConfiguration.builder()
+                .username("john")
+                .password("doe")
+                .domain("sip.voxloud.com")
+                .port("5060")
+                .codecs("G711,G729,OPUS")
+                .build();
+    }
+
+    static Device device(Device.DeviceModel model, int index, String overrideFragment) {
+        return new Device(macAddress(index), model, overrideFragment, "user" + index, "secret" + index);
+    }
+
+    static String macAddress(int index) {
+        return String.format("%02x-%02x-%02x-%02x-%02x-%02x",
+                0x0a, 0x00, (index >> 24) & 0xff, (index >> 16) & 0xff, (index >> 8) & 0xff, index & 0xff);
+    }
+
+    /**
+     * Properties fragment overriding domain and port and adding {@code extraKeys - 2} keys.
+     */
+    static String propertiesFragment(int extraKeys) {
+        if (extraKeys == 0) {
+            return null;
+        }
+        StringBuilder fragment = new StringBuilder("domain=sip.anotherdomain.com\nport=5161\n");
+        for (int i = 2; i < extraKeys; i++) {
+            fragment.append("key").append(i).append('=').append("value").append(i).append('\n');
+        }
+        return fragment.toString();
+    }
+
+    /**
+     * JSON fragment overriding domain and port and adding {@code extraKeys - 2} keys of mixed types.
+     */
+    static String jsonFragment(int extraKeys) {
+        if (extraKeys == 0) {
+            return null;
+        }
+        StringBuilder fragment = new StringBuilder("{\"domain\":\"sip.anotherdomain.com\",\"port\":\"5161\"");
+        for (int i = 2; i < extraKeys; i++) {
+            fragment.append(",\"key").append(i).append("\":");
+            if (i % 2 == 0) {
+                fragment.append(i);
+            } else {
+                fragment.append("\"value").append(i).append('"');
+            }
+        }
+        return fragment.append('}').toString();
+    }
+
+    /**
+     * XML fragment overriding domain and port and adding {@code extraKeys - 2} elements, every fourth one nested.
+     */
+    static String xmlFragment(int extraKeys) {
+        if (extraKeys == 0) {
+            return null;
+        }
+        StringBuilder fragment = new StringBuilder("<configuration><domain>sip.anotherdomain.com</domain><port>5161</port>");
+        for (int i = 2; i < extraKeys; i++) {
+            if (i % 4 == 0) {
+                fragment.append("<group").append(i).append(" enabled=\"true\"><key>value").append(i)
+                        .append("</key></group").append(i).append('>');
+            } else {
+                fragment.append("<key").append(i).append(">value").append(i).append("</key").append(i).append('>');
+            }
+        }
+        return fragment.append("</configuration>").toString();
+    }
+}
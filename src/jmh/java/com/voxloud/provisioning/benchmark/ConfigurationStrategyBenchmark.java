@@ -0,0 +1,118 @@
+package com.voxloud.provisioning.benchmark;
+
+import com.voxloud.provisioning.entity.CompiledOverride;
+import com.voxloud.provisioning.entity.Device;
+import com.voxloud.provisioning.entity.DeviceConfiguration;
+import com.voxloud.provisioning.exception.ProvisioningException;
+import com.voxloud.provisioning.service.strategy.ConferenceConfigurationStrategy;
+import com.voxloud.provisioning.service.strategy.CordlessConfigurationStrategy;
+import com.voxloud.provisioning.service.strategy.DeskConfigurationStrategy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendering cost of the desk, conference and cordless strategies, with override fragments of growing size.
+ * {@code overrideKeys = 0} renders without an override; the {@code *Precompiled} variants apply an
+ * override compiled up front, as the service does for loaded devices.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConfigurationStrategyBenchmark {
+
+    @Param({"0", "4", "32"})
+    private int overrideKeys;
+
+    private DeskConfigurationStrategy deskStrategy;
+    private ConferenceConfigurationStrategy conferenceStrategy;
+    private CordlessConfigurationStrategy cordlessStrategy;
+    private Device deskDevice;
+    private Device conferenceDevice;
+    private Device cordlessDevice;
+    private CompiledOverride deskOverride;
+    private CompiledOverride conferenceOverride;
+    private CompiledOverride cordlessOverride;
+
+    @Setup
+    public void setup() throws ProvisioningException {
+        deskStrategy = new DeskConfigurationStrategy();
+        conferenceStrategy = new ConferenceConfigurationStrategy();
+        cordlessStrategy = new CordlessConfigurationStrategy();
+        deskDevice = BenchmarkFixtures.device(Device.DeviceModel.DESK, 1, BenchmarkFixtures.propertiesFragment(overrideKeys));
+        conferenceDevice = BenchmarkFixtures.device(Device.DeviceModel.CONFERENCE, 2, BenchmarkFixtures.jsonFragment(overrideKeys));
+        cordlessDevice = BenchmarkFixtures.device(Device.DeviceModel.CORDLESS, 3, BenchmarkFixtures.xmlFragment(overrideKeys));
+        if (overrideKeys > 0) {
+            deskOverride = deskStrategy.compileOverride(deskDevice.getOverrideFragment());
+            conferenceOverride = conferenceStrategy.compileOverride(conferenceDevice.getOverrideFragment());
+            cordlessOverride = cordlessStrategy.compileOverride(cordlessDevice.getOverrideFragment());
+        }
+    }
+
+    @Benchmark
+    public String desk() throws ProvisioningException {
+        DeviceConfiguration config = BenchmarkFixtures.baseConfiguration();
+        if (overrideKeys == 0) {
+            return deskStrategy.generateConfiguration(deskDevice, config);
+        }
+        return deskStrategy.generateConfigurationWithOverride(deskDevice, config, deskDevice.getOverrideFragment());
+    }
+
+    @Benchmark
+    public String deskPrecompiled() throws ProvisioningException {
+        DeviceConfiguration config = BenchmarkFixtures.baseConfiguration();
+        if (overrideKeys == 0) {
+            return deskStrategy.generateConfiguration(deskDevice, config);
+        }
+        return deskStrategy.generateConfigurationWithOverride(deskDevice, config, deskOverride);
+    }
+
+    @Benchmark
+    public String conference() throws ProvisioningException {
+        DeviceConfiguration config = BenchmarkFixtures.baseConfiguration();
+        if (overrideKeys == 0) {
+            return conferenceStrategy.generateConfiguration(conferenceDevice, config);
+        }
+        return conferenceStrategy.generateConfigurationWithOverride(conferenceDevice, config, conferenceDevice.getOverrideFragment());
+    }
+
+    @Benchmark
+    public String conferencePrecompiled() throws ProvisioningException {
+        DeviceConfiguration config = BenchmarkFixtures.baseConfiguration();
+        if (overrideKeys == 0) {
+            return conferenceStrategy.generateConfiguration(conferenceDevice, config);
+        }
+        return conferenceStrategy.generateConfigurationWithOverride(conferenceDevice, config, conferenceOverride);
+    }
+
+    @Benchmark
+    public String cordless() throws ProvisioningException {
+        DeviceConfiguration config = BenchmarkFixtures.baseConfiguration();
+        if (overrideKeys == 0) {
+            return cordlessStrategy.generateConfiguration(cordlessDevice, config);
+        }
+        return cordlessStrategy.generateConfigurationWithOverride(cordlessDevice, config, cordlessDevice.getOverrideFragment());
+    }
+
+    @Benchmark
+    public String cordlessPrecompiled() throws ProvisioningException {
+        DeviceConfiguration config = BenchmarkFixtures.baseConfiguration();
+        if (overrideKeys == 0) {
+            return cordlessStrategy.generateConfiguration(cordlessDevice, config);
+        }
+        return cordlessStrategy.generateConfigurationWithOverride(cordlessDevice, config, cordlessOverride);
+    }
+}
@@ -0,0 +1,51 @@
+package com.voxloud.provisioning.benchmark;
+
+import com.voxloud.provisioning.entity.Device;
+import com.voxloud.provisioning.exception.ProvisioningException;
+import com.voxloud.provisioning.service.factory.ConfigurationStrategyFactory;
+import com.voxloud.provisioning.service.strategy.ConferenceConfigurationStrategy;
+import com.voxloud.provisioning.service.strategy.ConfigurationStrategy;
+import com.voxloud.provisioning.service.strategy.CordlessConfigurationStrategy;
+import com.voxloud.provisioning.service.strategy.DeskConfigurationStrategy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Strategy resolution per request, alternating between models so the lookup cannot be folded away.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConfigurationStrategyFactoryBenchmark {
+
+    private ConfigurationStrategyFactory factory;
+    private Device.DeviceModel[] models;
+    private int next;
+
+    @Setup
+    public void setup() {
+        factory = new ConfigurationStrategyFactory(Arrays.asList(new DeskConfigurationStrategy(),
+                new ConferenceConfigurationStrategy(), new CordlessConfigurationStrategy()));
+        models = Device.DeviceModel.values();
+    }
+
+    @Benchmark
+    public ConfigurationStrategy getStrategy() throws ProvisioningException {
+        Device.DeviceModel model = models[next++ % models.length];
+        return factory.getStrategy(model);
+    }
+}
@@ -0,0 +1,86 @@
+package com.voxloud.provisioning.benchmark;
+
+import com.voxloud.provisioning.ProvisioningApplication;
+import com.voxloud.provisioning.entity.Device;
+import com.voxloud.provisioning.repository.DeviceRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-device lookup through the JPA derived query ({@code findByMacAddress}, a managed entity in a
+ * persistence context) against the JDBC read path ({@code findForProvisioning}, a detached row mapping).
+ * Both return a device with its compiled override, which is what the render needs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DeviceLookupBenchmark {
+
+    @Param({"10000"})
+    private int devices;
+
+    private ConfigurableApplicationContext context;
+    private DeviceRepository deviceRepository;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        context = new SpringApplicationBuilder(ProvisioningApplication.class)
+                .web(WebApplicationType.NONE)
+                // Command-line arguments, so they take precedence over application.properties
+                .run(
+                        "--spring.datasource.url=jdbc:h2:mem:lookup-benchmark;DB_CLOSE_DELAY=-1",
+                        "--spring.datasource.initialization-mode=never",
+                        "--logging.level.com.voxloud.provisioning=WARN");
+        deviceRepository = context.getBean(DeviceRepository.class);
+
+        // Half of the inventory carries an override fragment, compiled on both paths
+        List<Device> inventory = new ArrayList<>(devices);
+        for (int i = 0; i < devices; i++) {
+            inventory.add(BenchmarkFixtures.device(Device.DeviceModel.DESK, i,
+                    i % 2 == 0 ? BenchmarkFixtures.propertiesFragment(4) : null));
+        }
+        deviceRepository.saveAll(inventory);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public Optional<Device> entity() {
+        return deviceRepository.findByMacAddress(randomMacAddress());
+    }
+
+    @Benchmark
+    public Optional<Device> readOnly() {
+        return deviceRepository.findForProvisioning(randomMacAddress());
+    }
+
+    private String randomMacAddress() {
+        return BenchmarkFixtures.macAddress(ThreadLocalRandom.current().nextInt(devices));
+    }
+}
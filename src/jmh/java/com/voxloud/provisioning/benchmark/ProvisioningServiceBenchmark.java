@@ -0,0 +1,92 @@
+package com.voxloud.provisioning.benchmark;
+
+import com.voxloud.provisioning.ProvisioningApplication;
+import com.voxloud.provisioning.cache.RenderedConfigurationCache;
+import com.voxloud.provisioning.entity.Device;
+import com.voxloud.provisioning.exception.DeviceNotFoundException;
+import com.voxloud.provisioning.exception.ProvisioningException;
+import com.voxloud.provisioning.repository.DeviceRepository;
+import com.voxloud.provisioning.service.ProvisioningService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full {@link ProvisioningService#getProvisioningFile} path against a seeded in-memory H2 database.
+ * With {@code cached = false} the device's cache entry is invalidated before every call, so each
+ * invocation pays the repository lookup and the render.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProvisioningServiceBenchmark {
+
+    @Param({"10000"})
+    private int devices;
+
+    @Param({"true", "false"})
+    private boolean cached;
+
+    private ConfigurableApplicationContext context;
+    private ProvisioningService provisioningService;
+    private RenderedConfigurationCache renderedConfigurationCache;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        context = new SpringApplicationBuilder(ProvisioningApplication.class)
+                .web(WebApplicationType.NONE)
+                // Command-line arguments, so they take precedence over application.properties
+                .run(
+                        "--spring.datasource.url=jdbc:h2:mem:benchmark;DB_CLOSE_DELAY=-1",
+                        "--spring.datasource.initialization-mode=never",
+                        "--logging.level.com.voxloud.provisioning=WARN");
+        provisioningService = context.getBean(ProvisioningService.class);
+        renderedConfigurationCache = context.getBean(RenderedConfigurationCache.class);
+
+        // Half of the inventory, desk and conference alike, carries an override fragment
+        List<Device> inventory = new ArrayList<>(devices);
+        for (int i = 0; i < devices; i++) {
+            boolean desk = i % 2 == 0;
+            boolean override = i % 4 < 2;
+            inventory.add(BenchmarkFixtures.device(
+                    desk ? Device.DeviceModel.DESK : Device.DeviceModel.CONFERENCE, i,
+                    override ? (desk ? BenchmarkFixtures.propertiesFragment(4) : BenchmarkFixtures.jsonFragment(4)) : null));
+        }
+        context.getBean(DeviceRepository.class).saveAll(inventory);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public String getProvisioningFile() throws DeviceNotFoundException, ProvisioningException {
+        String macAddress = BenchmarkFixtures.macAddress(ThreadLocalRandom.current().nextInt(devices));
+        if (!cached) {
+            renderedConfigurationCache.invalidate(macAddress);
+        }
+        return provisioningService.getProvisioningFile(macAddress);
+    }
+}
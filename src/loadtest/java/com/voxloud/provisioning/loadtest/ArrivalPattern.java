@@ -0,0 +1,57 @@
+package com.voxloud.provisioning.loadtest;
+
+/**
+ * When each request of a run is due, as nanosecond offsets from the start of the run. The load generator is
+ * open-loop: requests are sent on schedule whether or not earlier ones have completed, and latency is measured
+ * from the scheduled time, so a stalled server shows up as latency instead of as a lower request rate.
+ */
+enum ArrivalPattern {
+    /**
+     * A whole site booting at once: all requests arrive uniformly within the spike window.
+     */
+    SPIKE {
+        @Override
+        long[] schedule(LoadTestOptions options) {
+            long[] offsets = new long[options.getRequests()];
+            long window = options.getSpikeWindowMillis() * 1_000_000L;
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] = window * i / offsets.length;
+            }
+            return offsets;
+        }
+    },
+    /**
+     * A constant rate of {@code rate} requests per second.
+     */
+    STEADY {
+        @Override
+        long[] schedule(LoadTestOptions options) {
+            long[] offsets = new long[options.getRequests()];
+            double interval = 1_000_000_000d / options.getRate();
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] = (long) (i * interval);
+            }
+            return offsets;
+        }
+    },
+    /**
+     * Rate growing linearly from zero to {@code rate} requests per second, e.g. phones coming back after a
+     * rolling power restore.
+     */
+    RAMP {
+        @Override
+        long[] schedule(LoadTestOptions options) {
+            // With rate(t) = rate * t / T the run issues rate * T / 2 requests, and request i is due once the
+            // integral rate * t^2 / 2T reaches i: t = sqrt(2 * i * T / rate)
+            int requests = options.getRequests();
+            double duration = 2d * requests / options.getRate();
+            long[] offsets = new long[requests];
+            for (int i = 0; i < requests; i++) {
+                offsets[i] = (long) (Math.sqrt(2d * i * duration / options.getRate()) * 1_000_000_000d);
+            }
+            return offsets;
+        }
+    };
+
+    abstract long[] schedule(LoadTestOptions options);
+}
@@ -0,0 +1,198 @@
+package com.voxloud.provisioning.loadtest;
+
+import com.voxloud.provisioning.ProvisioningApplication;
+import com.voxloud.provisioning.entity.Device;
+import com.voxloud.provisioning.repository.DeviceRepository;
+import com.voxloud.provisioning.util.MacAddress;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Boot-storm load test: starts the application on a loopback port against a private in-memory H2 database,
+ * seeds an inventory and replays many phones fetching their configuration at once.
+ * <p>
+ * Requests follow an {@link ArrivalPattern} and are sent open-loop. Two latency histograms are recorded:
+ * {@code latency}, from the scheduled send time (what a phone experiences, including time spent waiting for a
+ * free client connection), and {@code serviceTime}, from the actual send. Results are written to
+ * {@code <output>/<timestamp>-<pattern>[-label].json} plus one {@code .hgrm} percentile distribution per histogram.
+ * <p>
+ * Run with: {@code mvn -Ploadtest test-compile exec:exec -Dloadtest.args="--pattern=spike --devices=20000"}
+ */
+public final class BootStormLoadTest {
+    private static final long KNOWN_BASE = 0x0a0000000000L;
+    private static final long UNKNOWN_BASE = 0x0b0000000000L;
+    private static final int SEED_BATCH_SIZE = 1_000;
+
+    private final LoadTestOptions options;
+    private final ConcurrentHistogram latency = new ConcurrentHistogram(3);
+    private final ConcurrentHistogram serviceTime = new ConcurrentHistogram(3);
+    private final Map<String, LongAdder> outcomes = new ConcurrentHashMap<>();
+
+    private BootStormLoadTest(LoadTestOptions options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadTestOptions options = LoadTestOptions.parse(args);
+        // Passed as command-line arguments, so they take precedence over application.properties
+        List<String> arguments = new ArrayList<>();
+        arguments.add("--server.port=0");
+        arguments.add("--spring.datasource.url=jdbc:h2:mem:loadtest;DB_CLOSE_DELAY=-1");
+        arguments.add("--spring.datasource.initialization-mode=never");
+        arguments.add("--logging.level.com.voxloud.provisioning=WARN");
+        // Runs with more requests than devices hit the same phones repeatedly, which the per-device limit would
+        // shed; measure the service unless the limiter is asked for explicitly
+        if (options.getApplicationProperties().stream()
+                .noneMatch(property -> property.startsWith("provisioning.ratelimit.enabled="))) {
+            arguments.add("--provisioning.ratelimit.enabled=false");
+        }
+        for (String property : options.getApplicationProperties()) {
+            arguments.add("--" + property);
+        }
+
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(ProvisioningApplication.class)
+                .run(arguments.toArray(new String[0]))) {
+            int port = ((ServletWebServerApplicationContext) context).getWebServer().getPort();
+            seed(context.getBean(DeviceRepository.class), options);
+
+            BootStormLoadTest loadTest = new BootStormLoadTest(options);
+            LoadTestReport report = loadTest.run("http://127.0.0.1:" + port + "/api/v1/provisioning/");
+            Path written = report.write();
+            System.out.println(report.summary());
+            System.out.println("Results written to " + written);
+        }
+    }
+
+    private static void seed(DeviceRepository deviceRepository, LoadTestOptions options) {
+        long start = System.currentTimeMillis();
+        Random random = new Random(42);
+        List<Device> batch = new ArrayList<>(SEED_BATCH_SIZE);
+        for (int i = 0; i < options.getDevices(); i++) {
+            boolean conference = random.nextDouble() < options.getConferenceShare();
+            boolean override = random.nextDouble() < options.getOverrideShare();
+            String fragment = !override ? null : conference
+                    ? "{\"domain\":\"sip.anotherdomain.com\",\"port\":\"5161\",\"timeout\":10}"
+                    : "domain=sip.anotherdomain.com\nport=5161\ntimeout=10";
+            batch.add(new Device(MacAddress.format(KNOWN_BASE + i),
+                    conference ? Device.DeviceModel.CONFERENCE : Device.DeviceModel.DESK,
+                    fragment, "user" + i, "secret" + i));
+            if (batch.size() == SEED_BATCH_SIZE) {
+                deviceRepository.saveAll(batch);
+                batch.clear();
+            }
+        }
+        deviceRepository.saveAll(batch);
+        System.out.printf("Seeded %d devices in %d ms%n", options.getDevices(), System.currentTimeMillis() - start);
+    }
+
+    private LoadTestReport run(String baseUrl) throws InterruptedException {
+        String[] targets = targets();
+        long[] schedule = options.getPattern().schedule(options);
+
+        AtomicInteger threadSequence = new AtomicInteger();
+        ExecutorService clients = Executors.newFixedThreadPool(options.getConcurrency(), runnable -> {
+            Thread thread = new Thread(runnable, "loadtest-client-" + threadSequence.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+        for (int i = 0; i < schedule.length; i++) {
+            long due = start + schedule[i];
+            long wait;
+            while ((wait = due - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            String url = baseUrl + targets[i];
+            clients.execute(() -> send(url, due));
+        }
+        clients.shutdown();
+        clients.awaitTermination(1, TimeUnit.HOURS);
+        long elapsed = System.nanoTime() - start;
+
+        Map<String, Long> counts = new TreeMap<>();
+        outcomes.forEach((outcome, count) -> counts.put(outcome, count.sum()));
+        return new LoadTestReport(options, elapsed, counts, latency.copy(), serviceTime.copy());
+    }
+
+    /**
+     * One target per request: every known device in random order (repeated if there are more requests than
+     * devices), with {@code unknownShare} of the requests replaced by MACs that are not in the inventory.
+     */
+    private String[] targets() {
+        Random random = new Random(7);
+        int[] devices = new int[options.getDevices()];
+        for (int i = 0; i < devices.length; i++) {
+            devices[i] = i;
+        }
+        for (int i = devices.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = devices[i];
+            devices[i] = devices[j];
+            devices[j] = swap;
+        }
+
+        String[] targets = new String[options.getRequests()];
+        for (int i = 0; i < targets.length; i++) {
+            boolean unknown = devices.length == 0 || random.nextDouble() < options.getUnknownShare();
+            targets[i] = MacAddress.format(unknown ? UNKNOWN_BASE + i : KNOWN_BASE + devices[i % devices.length]);
+        }
+        return targets;
+    }
+
+    private void send(String url, long due) {
+        long sent = System.nanoTime();
+        String outcome;
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) new URL(url).openConnection();
+            connection.setConnectTimeout(options.getConnectTimeoutMillis());
+            connection.setReadTimeout(options.getReadTimeoutMillis());
+            int status = connection.getResponseCode();
+            drain(status < 400 ? connection.getInputStream() : connection.getErrorStream());
+            outcome = String.valueOf(status);
+        } catch (IOException e) {
+            outcome = e.getClass().getSimpleName();
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+        long completed = System.nanoTime();
+        latency.recordValue(completed - due);
+        serviceTime.recordValue(completed - sent);
+        outcomes.computeIfAbsent(outcome, key -> new LongAdder()).increment();
+    }
+
+    private static void drain(InputStream body) throws IOException {
+        if (body == null) {
+            return;
+        }
+        // Reading to the end lets HttpURLConnection return the connection to its keep-alive pool
+        try (InputStream in = body) {
+            byte[] buffer = new byte[8192];
+            while (in.read(buffer) >= 0) {
+                // discard
+            }
+        }
+    }
+}
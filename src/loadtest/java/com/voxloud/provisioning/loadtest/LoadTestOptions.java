@@ -0,0 +1,73 @@
+package com.voxloud.provisioning.loadtest;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Load test parameters, parsed from {@code --name=value} arguments. Any {@code --app.<property>=<value>}
+ * argument is passed on to the application under test, e.g. {@code --app.provisioning.execution.mode=virtual}.
+ */
+@Data
+class LoadTestOptions {
+    /** Devices seeded into the inventory. */
+    private int devices = 10_000;
+    /** Share of seeded devices that are CONFERENCE phones; the rest are DESK phones. */
+    private double conferenceShare = 0.2;
+    /** Share of seeded devices that carry an override fragment. */
+    private double overrideShare = 0.25;
+    /** Share of requests for MAC addresses that are not in the inventory. */
+    private double unknownShare = 0.05;
+
+    private ArrivalPattern pattern = ArrivalPattern.SPIKE;
+    /** Total requests; defaults to one per seeded device, i.e. every phone boots once. */
+    private int requests = -1;
+    /** Target request rate for STEADY, and the rate reached at the end of a RAMP. */
+    private double rate = 1_000;
+    /** Window over which a SPIKE's requests arrive. */
+    private long spikeWindowMillis = 1_000;
+    /** Upper bound on requests in flight; requests beyond it queue in the client, as phones would wait. */
+    private int concurrency = 1_000;
+    private int connectTimeoutMillis = 5_000;
+    private int readTimeoutMillis = 30_000;
+
+    private String outputDirectory = "target/loadtest";
+    private String label = "";
+    private List<String> applicationProperties = new ArrayList<>();
+
+    static LoadTestOptions parse(String[] args) {
+        LoadTestOptions options = new LoadTestOptions();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Expected --name=value but got: " + arg);
+            }
+            String name = arg.substring(2, arg.indexOf('='));
+            String value = arg.substring(arg.indexOf('=') + 1);
+            if (name.startsWith("app.")) {
+                options.applicationProperties.add(name.substring(4) + "=" + value);
+                continue;
+            }
+            switch (name) {
+                case "devices": options.devices = Integer.parseInt(value); break;
+                case "conference-share": options.conferenceShare = Double.parseDouble(value); break;
+                case "override-share": options.overrideShare = Double.parseDouble(value); break;
+                case "unknown-share": options.unknownShare = Double.parseDouble(value); break;
+                case "pattern": options.pattern = ArrivalPattern.valueOf(value.toUpperCase()); break;
+                case "requests": options.requests = Integer.parseInt(value); break;
+                case "rate": options.rate = Double.parseDouble(value); break;
+                case "spike-window-ms": options.spikeWindowMillis = Long.parseLong(value); break;
+                case "concurrency": options.concurrency = Integer.parseInt(value); break;
+                case "connect-timeout-ms": options.connectTimeoutMillis = Integer.parseInt(value); break;
+                case "read-timeout-ms": options.readTimeoutMillis = Integer.parseInt(value); break;
+                case "output": options.outputDirectory = value; break;
+                case "label": options.label = value; break;
+                default: throw new IllegalArgumentException("Unknown option: --" + name);
+            }
+        }
+        if (options.requests < 0) {
+            options.requests = options.devices;
+        }
+        return options;
+    }
+}
@@ -0,0 +1,108 @@
+package com.voxloud.provisioning.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Result of one load test run: throughput, outcome counts and latency percentiles, written as JSON so runs
+ * can be compared, plus HdrHistogram percentile distributions ({@code .hgrm}, values in milliseconds) that can
+ * be plotted with the HdrHistogram plotter.
+ */
+class LoadTestReport {
+    private static final double NANOS_PER_MILLI = 1_000_000d;
+
+    private final LoadTestOptions options;
+    private final long elapsedNanos;
+    private final Map<String, Long> outcomes;
+    private final Histogram latency;
+    private final Histogram serviceTime;
+    private final Date finishedAt = new Date();
+
+    LoadTestReport(LoadTestOptions options, long elapsedNanos, Map<String, Long> outcomes,
+                   Histogram latency, Histogram serviceTime) {
+        this.options = options;
+        this.elapsedNanos = elapsedNanos;
+        this.outcomes = outcomes;
+        this.latency = latency;
+        this.serviceTime = serviceTime;
+    }
+
+    /**
+     * Writes the JSON report and the percentile distributions.
+     *
+     * @return the path of the JSON report
+     */
+    Path write() throws IOException {
+        Path directory = Paths.get(options.getOutputDirectory());
+        Files.createDirectories(directory);
+        String name = new SimpleDateFormat("yyyyMMdd-HHmmss").format(finishedAt) + "-"
+                + options.getPattern().name().toLowerCase()
+                + (options.getLabel().isEmpty() ? "" : "-" + options.getLabel());
+
+        Path report = directory.resolve(name + ".json");
+        new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(report.toFile(), toMap());
+        writeDistribution(directory.resolve(name + "-latency.hgrm"), latency);
+        writeDistribution(directory.resolve(name + "-service-time.hgrm"), serviceTime);
+        return report;
+    }
+
+    String summary() {
+        return String.format("%s: %d requests in %.2f s (%.1f req/s), outcomes %s%n"
+                        + "  latency      p50 %.2f ms  p99 %.2f ms  p99.9 %.2f ms  max %.2f ms%n"
+                        + "  service time p50 %.2f ms  p99 %.2f ms  p99.9 %.2f ms  max %.2f ms",
+                options.getPattern(), latency.getTotalCount(), elapsedNanos / 1e9, throughput(), outcomes,
+                millis(latency.getValueAtPercentile(50)), millis(latency.getValueAtPercentile(99)),
+                millis(latency.getValueAtPercentile(99.9)), millis(latency.getMaxValue()),
+                millis(serviceTime.getValueAtPercentile(50)), millis(serviceTime.getValueAtPercentile(99)),
+                millis(serviceTime.getValueAtPercentile(99.9)), millis(serviceTime.getMaxValue()));
+    }
+
+    private Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("finishedAt", finishedAt.getTime());
+        map.put("options", options);
+        map.put("elapsedSeconds", elapsedNanos / 1e9);
+        map.put("requests", latency.getTotalCount());
+        map.put("throughputPerSecond", throughput());
+        map.put("outcomes", outcomes);
+        map.put("latencyMillis", percentiles(latency));
+        map.put("serviceTimeMillis", percentiles(serviceTime));
+        return map;
+    }
+
+    private double throughput() {
+        return latency.getTotalCount() / (elapsedNanos / 1e9);
+    }
+
+    private static Map<String, Double> percentiles(Histogram histogram) {
+        Map<String, Double> percentiles = new LinkedHashMap<>();
+        percentiles.put("mean", histogram.getMean() / NANOS_PER_MILLI);
+        for (double percentile : new double[]{50, 90, 99, 99.9, 99.99}) {
+            percentiles.put("p" + (percentile == Math.rint(percentile) ? String.valueOf((int) percentile) : String.valueOf(percentile)),
+                    millis(histogram.getValueAtPercentile(percentile)));
+        }
+        percentiles.put("max", millis(histogram.getMaxValue()));
+        return percentiles;
+    }
+
+    private static double millis(long nanos) {
+        return nanos / NANOS_PER_MILLI;
+    }
+
+    private static void writeDistribution(Path path, Histogram histogram) throws IOException {
+        try (PrintStream out = new PrintStream(Files.newOutputStream(path), false, "UTF-8")) {
+            histogram.outputPercentileDistribution(out, NANOS_PER_MILLI);
+        }
+    }
+}
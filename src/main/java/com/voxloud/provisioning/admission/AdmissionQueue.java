@@ -0,0 +1,125 @@
+package com.voxloud.provisioning.admission;
+
+import com.voxloud.provisioning.exception.AdmissionRejectedException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded work queue in front of the provisioning service.
+ * <p>
+ * A fixed number of workers drain a queue of at most {@code provisioning.admission.queue-depth} requests.
+ * Submissions that find the queue full, and queued requests that waited longer than
+ * {@code provisioning.admission.max-queue-wait-ms} before a worker picked them up, fail fast with
+ * {@link AdmissionRejectedException} instead of piling up until clients time out.
+ * <p>
+ * Publishes {@code provisioning.admission.queue.depth}, {@code provisioning.admission.active},
+ * {@code provisioning.admission.queue.wait} and {@code provisioning.admission.rejected{reason}}.
+ */
+@Component
+@ConditionalOnProperty(name = "provisioning.admission.enabled", havingValue = "true")
+@Slf4j
+public class AdmissionQueue implements DisposableBean {
+    private final ThreadPoolExecutor executor;
+    private final long maxQueueWaitNanos;
+    private final Timer queueWait;
+    private final Counter rejectedQueueFull;
+    private final Counter rejectedQueueTimeout;
+
+    @Autowired
+    public AdmissionQueue(@Value("${provisioning.admission.workers:16}") int workers,
+                          @Value("${provisioning.admission.queue-depth:256}") int queueDepth,
+                          @Value("${provisioning.admission.max-queue-wait-ms:1000}") long maxQueueWaitMillis,
+                          MeterRegistry meterRegistry) {
+        this.executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueDepth), new WorkerThreadFactory(),
+                new ThreadPoolExecutor.AbortPolicy());
+        this.maxQueueWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxQueueWaitMillis);
+
+        Gauge.builder("provisioning.admission.queue.depth", executor, e -> e.getQueue().size())
+                .description("Requests waiting for an admission worker")
+                .register(meterRegistry);
+        Gauge.builder("provisioning.admission.active", executor, ThreadPoolExecutor::getActiveCount)
+                .description("Requests currently being processed by admission workers")
+                .register(meterRegistry);
+        this.queueWait = Timer.builder("provisioning.admission.queue.wait")
+                .description("Time requests spent queued before a worker picked them up")
+                .register(meterRegistry);
+        this.rejectedQueueFull = rejectedCounter(meterRegistry, "queue_full");
+        this.rejectedQueueTimeout = rejectedCounter(meterRegistry, "queue_timeout");
+        log.info("Admission control enabled: {} workers, queue depth {}, max queue wait {} ms",
+                workers, queueDepth, maxQueueWaitMillis);
+    }
+
+    /**
+     * Queues {@code task} for execution. The returned future fails with {@link AdmissionRejectedException} if
+     * the task is shed, and with whatever the task threw otherwise.
+     */
+    public <T> CompletableFuture<T> submit(Callable<T> task) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        long enqueuedAt = System.nanoTime();
+        try {
+            executor.execute(() -> {
+                long waited = System.nanoTime() - enqueuedAt;
+                queueWait.record(waited, TimeUnit.NANOSECONDS);
+                if (waited > maxQueueWaitNanos) {
+                    rejectedQueueTimeout.increment();
+                    result.completeExceptionally(new AdmissionRejectedException("Request exceeded the maximum queue wait"));
+                    return;
+                }
+                try {
+                    result.complete(task.call());
+                } catch (Throwable e) {
+                    result.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejectedQueueFull.increment();
+            result.completeExceptionally(new AdmissionRejectedException("Admission queue is full"));
+        }
+        return result;
+    }
+
+    public int queueDepth() {
+        return executor.getQueue().size();
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdown();
+    }
+
+    private static Counter rejectedCounter(MeterRegistry meterRegistry, String reason) {
+        return Counter.builder("provisioning.admission.rejected")
+                .description("Requests shed by admission control")
+                .tag("reason", reason)
+                .register(meterRegistry);
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger sequence = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "admission-" + sequence.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
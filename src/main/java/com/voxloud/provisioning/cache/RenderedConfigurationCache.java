@@ -0,0 +1,228 @@
+package com.voxloud.provisioning.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.voxloud.provisioning.entity.ConfigurationVersion;
+import com.voxloud.provisioning.entity.RenderedConfiguration;
+import com.voxloud.provisioning.event.DeviceChangedEvent;
+import com.voxloud.provisioning.exception.DeviceNotFoundException;
+import com.voxloud.provisioning.exception.ProvisioningException;
+import com.voxloud.provisioning.util.MacAddress;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.BiConsumer;
+
+/**
+ * Bounded cache of fully rendered provisioning files, keyed by MAC address.
+ * <p>
+ * Entries are weighed by the length of their body plus that of the compressed forms computed for it so far
+ * (see {@link #reweigh}), and evicted once the configured total weight is exceeded. Every
+ * {@link DeviceChangedEvent} invalidates the affected MAC; loads that raced with an invalidation of the same MAC
+ * are discarded instead of being cached, so a stale rendering can never outlive the write that replaced it.
+ * Invalidations are counted per stripe of MAC addresses ({@value #GENERATION_STRIPES} stripes), so a steady
+ * stream of device edits only costs the loads of the few MACs sharing a stripe with them, not every load in
+ * flight.
+ * Hit, miss and eviction counters are published to Micrometer as {@code cache.*{cache=provisioning.rendered}}.
+ * <p>
+ * Alongside the bodies a much smaller per-MAC version index is kept, so conditional requests can be
+ * answered even after the body itself has been evicted.
+ * <p>
+ * Concurrent misses for the same MAC are coalesced into a single load (see {@link SingleFlight}). MACs whose
+ * load found no device are remembered for a short time ({@code provisioning.cache.negative-ttl-ms}) so repeated
+ * requests from unknown devices do not reach the database; saving the device clears the entry.
+ */
+@Component
+@Slf4j
+public class RenderedConfigurationCache {
+    public static final String CACHE_NAME = "provisioning.rendered";
+    public static final String VERSION_INDEX_NAME = "provisioning.versions";
+    public static final String NEGATIVE_CACHE_NAME = "provisioning.missing";
+    static final int GENERATION_STRIPES = 4096;
+
+    private final Cache<String, RenderedConfiguration> cache;
+    private final Cache<String, ConfigurationVersion> versions;
+    private final Cache<String, Boolean> missing;
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+    private final SingleFlight singleFlight;
+
+    @Autowired
+    public RenderedConfigurationCache(@Value("${provisioning.cache.max-weight:16777216}") long maxWeight,
+                                      @Value("${provisioning.cache.version-index-size:100000}") long versionIndexSize,
+                                      @Value("${provisioning.cache.coalescing-timeout-ms:5000}") long coalescingTimeoutMillis,
+                                      @Value("${provisioning.cache.negative-ttl-ms:30000}") long negativeTtlMillis,
+                                      @Value("${provisioning.cache.negative-size:100000}") long negativeSize,
+                                      MeterRegistry meterRegistry) {
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxWeight)
+                .weigher((String macAddress, RenderedConfiguration configuration) ->
+                        macAddress.length() + configuration.getBody().length() + configuration.encodedSize())
+                .recordStats()
+                .build();
+        this.versions = Caffeine.newBuilder()
+                .maximumSize(versionIndexSize)
+                .recordStats()
+                .build();
+        this.missing = Caffeine.newBuilder()
+                .expireAfterWrite(negativeTtlMillis, TimeUnit.MILLISECONDS)
+                .maximumSize(negativeSize)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, CACHE_NAME);
+        CaffeineCacheMetrics.monitor(meterRegistry, versions, VERSION_INDEX_NAME);
+        CaffeineCacheMetrics.monitor(meterRegistry, missing, NEGATIVE_CACHE_NAME);
+        this.singleFlight = new SingleFlight(coalescingTimeoutMillis, meterRegistry);
+    }
+
+    public RenderedConfiguration get(String macAddress, ConfigurationLoader loader)
+            throws DeviceNotFoundException, ProvisioningException {
+        RenderedConfiguration cached = cache.getIfPresent(macAddress);
+        return cached != null ? cached : load(macAddress, loader);
+    }
+
+    /**
+     * Loads and stores the configuration for {@code macAddress} without looking in the cache first; for callers
+     * that already did. Concurrent loads of the same MAC are coalesced.
+     */
+    public RenderedConfiguration load(String macAddress, ConfigurationLoader loader)
+            throws DeviceNotFoundException, ProvisioningException {
+        long generation = generation(macAddress);
+        return singleFlight.execute(macAddress, generation, () -> {
+            try {
+                return put(macAddress, loader.load(macAddress), generation);
+            } catch (DeviceNotFoundException e) {
+                putMissing(macAddress, generation);
+                throw e;
+            }
+        });
+    }
+
+    public RenderedConfiguration getIfPresent(String macAddress) {
+        return cache.getIfPresent(macAddress);
+    }
+
+    /**
+     * Current invalidation generation of {@code macAddress}. Callers that load outside of {@link #get} must
+     * capture it before reading the device's data and hand it back to {@link #put}.
+     */
+    public long generation(String macAddress) {
+        return generations.get(stripe(macAddress));
+    }
+
+    /**
+     * Stores a configuration loaded while {@code macAddress} was at {@code generation}. If the MAC was
+     * invalidated since then the entry is dropped again, because it may have been rendered from data that has
+     * just changed.
+     *
+     * @return the configuration as stored, possibly carrying the Last-Modified of an identical earlier version
+     */
+    public RenderedConfiguration put(String macAddress, RenderedConfiguration configuration, long generation) {
+        // Re-rendering identical content (e.g. after eviction) keeps the original Last-Modified
+        ConfigurationVersion previous = versions.getIfPresent(macAddress);
+        if (previous != null && previous.getEtag().equals(configuration.getVersion().getEtag())) {
+            configuration = configuration.withVersion(previous);
+        }
+        cache.put(macAddress, configuration);
+        versions.put(macAddress, configuration.getVersion());
+
+        if (generation(macAddress) != generation) {
+            cache.invalidate(macAddress);
+            versions.invalidate(macAddress);
+        }
+        return configuration;
+    }
+
+    /**
+     * Weighs the entry of {@code macAddress} again after a compressed form was added to {@code configuration}, so
+     * it counts against the maximum weight. Nothing happens if the entry has been replaced or evicted meanwhile.
+     */
+    public void reweigh(String macAddress, RenderedConfiguration configuration) {
+        cache.asMap().replace(macAddress, configuration, configuration);
+    }
+
+    /**
+     * @return the total weight of the cached configurations
+     */
+    public long weightedSize() {
+        // Weight changes are applied by Caffeine's maintenance, which may still be pending
+        cache.cleanUp();
+        return cache.policy().eviction().map(eviction -> eviction.weightedSize().orElse(0)).orElse(0L);
+    }
+
+    /**
+     * @return whether a recent load for {@code macAddress} found no device and nothing has been saved for it since
+     */
+    public boolean isKnownMissing(String macAddress) {
+        return missing.getIfPresent(macAddress) != null;
+    }
+
+    /**
+     * Remembers that no device exists for {@code macAddress}, unless it was invalidated since {@code generation}.
+     */
+    public void putMissing(String macAddress, long generation) {
+        missing.put(macAddress, Boolean.TRUE);
+        if (generation(macAddress) != generation) {
+            missing.invalidate(macAddress);
+        }
+    }
+
+    /**
+     * Looks up the current version of a device's configuration without rendering it.
+     */
+    public Optional<ConfigurationVersion> getVersion(String macAddress) {
+        return Optional.ofNullable(versions.getIfPresent(macAddress));
+    }
+
+    public void invalidate(String macAddress) {
+        generations.incrementAndGet(stripe(macAddress));
+        cache.invalidate(macAddress);
+        versions.invalidate(macAddress);
+        missing.invalidate(macAddress);
+    }
+
+    public void invalidateAll() {
+        for (int i = 0; i < GENERATION_STRIPES; i++) {
+            generations.incrementAndGet(i);
+        }
+        cache.invalidateAll();
+        versions.invalidateAll();
+        missing.invalidateAll();
+    }
+
+    /**
+     * Hands every cached configuration to {@code action}; a weakly consistent view under concurrent updates.
+     */
+    public void forEach(BiConsumer<String, RenderedConfiguration> action) {
+        cache.asMap().forEach(action);
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    private static int stripe(String macAddress) {
+        int hash = macAddress.hashCode();
+        return (hash ^ (hash >>> 16)) & (GENERATION_STRIPES - 1);
+    }
+
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void onDeviceChanged(DeviceChangedEvent event) {
+        log.debug("Invalidating rendered configuration for device: {}", event.getMacAddress());
+        invalidate(MacAddress.normalize(event.getMacAddress()));
+    }
+
+    @FunctionalInterface
+    public interface ConfigurationLoader {
+        RenderedConfiguration load(String macAddress) throws DeviceNotFoundException, ProvisioningException;
+    }
+}
@@ -0,0 +1,111 @@
+package com.voxloud.provisioning.cache;
+
+import com.voxloud.provisioning.entity.RenderedConfiguration;
+import com.voxloud.provisioning.exception.DeviceNotFoundException;
+import com.voxloud.provisioning.exception.ProvisioningException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Coalesces concurrent loads of the same MAC address: the first caller runs the load on its own thread and
+ * every caller arriving while it is in flight waits for and shares its outcome, including a
+ * {@link DeviceNotFoundException}.
+ * <p>
+ * A flight is only joined by callers that observed the same invalidation generation of its MAC as the leader
+ * (see {@link RenderedConfigurationCache#generation}); anyone who arrives after that MAC was invalidated loads on
+ * their own, since the flight may be reading the data that was just replaced. Changes to other devices do not
+ * split a flight. Waiters give up after the configured timeout and load on their own as well.
+ */
+class SingleFlight {
+    private final Map<String, Flight> inFlight = new ConcurrentHashMap<>();
+    private final long timeoutNanos;
+    private final Counter coalesced;
+    private final Counter timeouts;
+
+    SingleFlight(long timeoutMillis, MeterRegistry meterRegistry) {
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.coalesced = Counter.builder("provisioning.coalescing.coalesced")
+                .description("Requests served by a load already in flight for the same MAC address")
+                .register(meterRegistry);
+        this.timeouts = Counter.builder("provisioning.coalescing.timeouts")
+                .description("Coalesced requests that stopped waiting and loaded on their own")
+                .register(meterRegistry);
+        Gauge.builder("provisioning.coalescing.in-flight", inFlight, Map::size)
+                .description("Distinct MAC addresses currently being loaded")
+                .register(meterRegistry);
+    }
+
+    /**
+     * @param generation the generation of {@code macAddress} the caller observed before reading device data
+     */
+    RenderedConfiguration execute(String macAddress, long generation, Load load)
+            throws DeviceNotFoundException, ProvisioningException {
+        Flight flight = new Flight(generation);
+        Flight leader = inFlight.putIfAbsent(macAddress, flight);
+        if (leader == null) {
+            try {
+                RenderedConfiguration result = load.run();
+                flight.complete(result);
+                return result;
+            } catch (Throwable e) {
+                flight.completeExceptionally(e);
+                throw e;
+            } finally {
+                inFlight.remove(macAddress, flight);
+            }
+        }
+        if (leader.generation != generation) {
+            return load.run();
+        }
+
+        coalesced.increment();
+        try {
+            return leader.get(timeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            timeouts.increment();
+            return load.run();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ProvisioningException("Interrupted while waiting for configuration of " + macAddress);
+        } catch (ExecutionException e) {
+            throw rethrow(e.getCause());
+        }
+    }
+
+    private static ProvisioningException rethrow(Throwable cause) throws DeviceNotFoundException, ProvisioningException {
+        if (cause instanceof DeviceNotFoundException) {
+            throw (DeviceNotFoundException) cause;
+        }
+        if (cause instanceof ProvisioningException) {
+            throw (ProvisioningException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new ProvisioningException(String.valueOf(cause));
+    }
+
+    @FunctionalInterface
+    interface Load {
+        RenderedConfiguration run() throws DeviceNotFoundException, ProvisioningException;
+    }
+
+    private static class Flight extends CompletableFuture<RenderedConfiguration> {
+        private final long generation;
+
+        Flight(long generation) {
+            this.generation = generation;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.voxloud.provisioning.changelog;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.UUID;
+
+/**
+ * Records writes to {@code device} rows and provisioning profiles in the {@code device_change} table, in the
+ * transaction of the write, so that other nodes sharing the database can invalidate what they derived from those
+ * rows (see {@link DeviceChangeLogTailer}).
+ * <p>
+ * Writers call this directly rather than reacting to {@code DeviceChangedEvent}s: the log row must commit or
+ * roll back together with the change, and JPA raises its callbacks while flushing, after before-commit
+ * listeners have already run. Does nothing unless {@code provisioning.changelog.enabled} is set.
+ */
+@Component
+@Slf4j
+public class DeviceChangeLog {
+    private static final String INSERT_SQL =
+            "INSERT INTO device_change (mac_address, deleted, origin, changed_at) VALUES (?, ?, ?, CURRENT_TIMESTAMP)";
+    private static final String INSERT_PROFILE_SQL =
+            "INSERT INTO device_change (profile_id, deleted, origin, changed_at) VALUES (?, ?, ?, CURRENT_TIMESTAMP)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final boolean enabled;
+    private final String nodeId;
+
+    @Autowired
+    public DeviceChangeLog(JdbcTemplate jdbcTemplate,
+                           @Value("${provisioning.changelog.enabled:false}") boolean enabled,
+                           @Value("${provisioning.changelog.node-id:}") String nodeId) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.enabled = enabled;
+        this.nodeId = nodeId.isEmpty() ? UUID.randomUUID().toString() : nodeId;
+        if (enabled) {
+            log.info("Recording device changes as node {}", this.nodeId);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public void record(String macAddress, boolean deleted) {
+        if (enabled) {
+            jdbcTemplate.update(INSERT_SQL, macAddress, deleted, nodeId);
+        }
+    }
+
+    /**
+     * Records a write to a provisioning profile; it affects every device in the profile and in the profiles
+     * below it.
+     */
+    public void recordProfile(String profileId, boolean deleted) {
+        if (enabled) {
+            jdbcTemplate.update(INSERT_PROFILE_SQL, profileId, deleted, nodeId);
+        }
+    }
+
+    /**
+     * Records saves of many devices with a single batch statement.
+     */
+    public void recordSaved(Collection<String> macAddresses) {
+        if (enabled) {
+            jdbcTemplate.batchUpdate(INSERT_SQL, macAddresses, macAddresses.size(), (statement, macAddress) -> {
+                statement.setString(1, macAddress);
+                statement.setBoolean(2, false);
+                statement.setString(3, nodeId);
+            });
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.voxloud.provisioning.changelog;
+
+import com.voxloud.provisioning.cache.RenderedConfigurationCache;
+import com.voxloud.provisioning.entity.DeviceChange;
+import com.voxloud.provisioning.event.DeviceChangedEvent;
+import com.voxloud.provisioning.index.DeviceIndex;
+import com.voxloud.provisioning.index.KnownDeviceFilter;
+import com.voxloud.provisioning.profile.ProfileRegistry;
+import com.voxloud.provisioning.repository.DeviceChangeRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tails the shared {@code device_change} log and replays changes made by other nodes as remote
+ * {@link DeviceChangedEvent}s, so the rendered configuration cache, the device index and the known-device
+ * filter of this node follow writes made anywhere in the cluster. Profile changes are replayed by invalidating
+ * the profile in the {@link ProfileRegistry}, which publishes a change for every device below it.
+ * <p>
+ * Ids are allocated at insert but become visible at commit, so a transaction that commits late can surface
+ * below ids already applied. Skipped ids are therefore remembered and re-read for
+ * {@code provisioning.changelog.gap-timeout-ms} (after which they are taken to be rolled back).
+ * <p>
+ * A node that falls more than {@code provisioning.changelog.full-resync-threshold} changes behind, or whose
+ * position has been pruned from the log ({@code provisioning.changelog.retention}), drops all derived state and
+ * reloads it instead of replaying the backlog.
+ * <p>
+ * Publishes {@code provisioning.changelog.lag} (changes not yet applied), {@code provisioning.changelog.propagation}
+ * (time from commit on the origin node to application here) and {@code provisioning.changelog.resyncs}.
+ */
+@Component
+@ConditionalOnProperty(name = "provisioning.changelog.enabled", havingValue = "true")
+@Slf4j
+public class DeviceChangeLogTailer {
+    private final DeviceChangeRepository changeRepository;
+    private final DeviceChangeLog changeLog;
+    private final ApplicationEventPublisher eventPublisher;
+    private final RenderedConfigurationCache renderedConfigurationCache;
+    private final DeviceIndex deviceIndex;
+    private final KnownDeviceFilter knownDevices;
+    private final ProfileRegistry profileRegistry;
+    private final int pageSize;
+    private final long fullResyncThreshold;
+    private final long gapTimeoutMillis;
+    private final Duration retention;
+
+    private final Map<Long, Long> gaps = new LinkedHashMap<>();
+    private final AtomicLong lag = new AtomicLong();
+    private final Timer propagation;
+    private final Counter resyncs;
+    private volatile long lastAppliedId = -1;
+
+    @Autowired
+    public DeviceChangeLogTailer(DeviceChangeRepository changeRepository, DeviceChangeLog changeLog,
+                                 ApplicationEventPublisher eventPublisher,
+                                 RenderedConfigurationCache renderedConfigurationCache,
+                                 DeviceIndex deviceIndex, KnownDeviceFilter knownDevices,
+                                 ProfileRegistry profileRegistry,
+                                 @Value("${provisioning.changelog.page-size:1000}") int pageSize,
+                                 @Value("${provisioning.changelog.full-resync-threshold:100000}") long fullResyncThreshold,
+                                 @Value("${provisioning.changelog.gap-timeout-ms:60000}") long gapTimeoutMillis,
+                                 @Value("${provisioning.changelog.retention:P7D}") Duration retention,
+                                 MeterRegistry meterRegistry) {
+        this.changeRepository = changeRepository;
+        this.changeLog = changeLog;
+        this.eventPublisher = eventPublisher;
+        this.renderedConfigurationCache = renderedConfigurationCache;
+        this.deviceIndex = deviceIndex;
+        this.knownDevices = knownDevices;
+        this.profileRegistry = profileRegistry;
+        this.pageSize = pageSize;
+        this.fullResyncThreshold = fullResyncThreshold;
+        this.gapTimeoutMillis = gapTimeoutMillis;
+        this.retention = retention;
+        Gauge.builder("provisioning.changelog.lag", lag, AtomicLong::get)
+                .description("Changes in the device change log not yet applied on this node")
+                .register(meterRegistry);
+        this.propagation = Timer.builder("provisioning.changelog.propagation")
+                .description("Time from a change committing on another node to being applied on this one")
+                .register(meterRegistry);
+        this.resyncs = Counter.builder("provisioning.changelog.resyncs")
+                .description("Full reloads of derived state after falling too far behind the change log")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Starts tailing from the current end of the log. Runs before the index and the known-device filter load,
+     * so every change they might miss is replayed.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    public synchronized void start() {
+        lastAppliedId = changeRepository.findMaxId();
+        log.info("Tailing device change log from id {} as node {}", lastAppliedId, changeLog.getNodeId());
+    }
+
+    @Scheduled(fixedDelayString = "${provisioning.changelog.poll-interval-ms:1000}")
+    public synchronized void poll() {
+        if (lastAppliedId < 0) {
+            return;
+        }
+        long maxId = changeRepository.findMaxId();
+        long minId = changeRepository.findMinId();
+        if (maxId - lastAppliedId > fullResyncThreshold || (minId > lastAppliedId + 1 && lastAppliedId > 0)) {
+            resync(maxId);
+            return;
+        }
+
+        recheckGaps();
+        while (true) {
+            List<DeviceChange> changes = changeRepository.findByIdGreaterThanOrderByIdAsc(
+                    lastAppliedId, PageRequest.of(0, pageSize));
+            for (DeviceChange change : changes) {
+                // Larger jumps are identity cache skips after a database restart, not uncommitted transactions
+                if (change.getId() - lastAppliedId <= pageSize) {
+                    long now = System.currentTimeMillis();
+                    for (long missing = lastAppliedId + 1; missing < change.getId(); missing++) {
+                        gaps.put(missing, now);
+                    }
+                }
+                apply(change);
+                lastAppliedId = change.getId();
+            }
+            if (changes.size() < pageSize) {
+                break;
+            }
+        }
+        lag.set(Math.max(0, changeRepository.findMaxId() - lastAppliedId) + gaps.size());
+    }
+
+    @Scheduled(fixedDelayString = "${provisioning.changelog.prune-interval-ms:3600000}")
+    public void prune() {
+        int pruned = changeRepository.deleteByChangedAtBefore(Instant.now().minus(retention));
+        if (pruned > 0) {
+            log.info("Pruned {} device changes older than {}", pruned, retention);
+        }
+    }
+
+    public long getLastAppliedId() {
+        return lastAppliedId;
+    }
+
+    private void recheckGaps() {
+        if (gaps.isEmpty()) {
+            return;
+        }
+        for (DeviceChange change : changeRepository.findAllById(gaps.keySet())) {
+            gaps.remove(change.getId());
+            apply(change);
+        }
+        long expiry = System.currentTimeMillis() - gapTimeoutMillis;
+        for (Iterator<Long> firstSeen = gaps.values().iterator(); firstSeen.hasNext(); ) {
+            if (firstSeen.next() < expiry) {
+                firstSeen.remove();
+            }
+        }
+    }
+
+    private void apply(DeviceChange change) {
+        if (changeLog.getNodeId().equals(change.getOrigin())) {
+            return;
+        }
+        if (change.getProfileId() != null) {
+            profileRegistry.invalidate(change.getProfileId());
+        } else {
+            eventPublisher.publishEvent(DeviceChangedEvent.remote(change.getMacAddress(), change.isDeleted()));
+        }
+        propagation.record(Duration.between(change.getChangedAt(), Instant.now()));
+    }
+
+    private void resync(long maxId) {
+        log.warn("Device change log is {} changes ahead of this node (last applied {}), reloading all device state",
+                maxId - lastAppliedId, lastAppliedId);
+        resyncs.increment();
+        lastAppliedId = maxId;
+        gaps.clear();
+        profileRegistry.invalidateAll();
+        renderedConfigurationCache.invalidateAll();
+        deviceIndex.load();
+        knownDevices.rebuild();
+        lag.set(0);
+    }
+}
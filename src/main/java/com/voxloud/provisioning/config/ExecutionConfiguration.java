@@ -0,0 +1,38 @@
+package com.voxloud.provisioning.config;
+
+import com.voxloud.provisioning.util.VirtualThreads;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Selects the threads HTTP requests (and thereby {@code ProvisioningController} and the provisioning service)
+ * run on.
+ * <p>
+ * By default Tomcat uses its bounded pool of platform threads ({@code server.tomcat.max-threads}). With
+ * {@code provisioning.execution.mode=virtual} every request gets its own virtual thread, so threads blocked on
+ * JDBC no longer cap concurrency; database concurrency is then bounded only by the connection pool
+ * ({@code spring.datasource.hikari.maximum-pool-size}) and admission by {@code server.tomcat.max-connections}.
+ * Requires running on Java 21 or later; startup fails otherwise.
+ */
+@Configuration
+@Slf4j
+public class ExecutionConfiguration {
+
+    @Bean(destroyMethod = "shutdown")
+    @ConditionalOnProperty(name = "provisioning.execution.mode", havingValue = "virtual")
+    public ExecutorService virtualThreadRequestExecutor() {
+        log.info("Serving HTTP requests on virtual threads");
+        return VirtualThreads.newVirtualThreadPerTaskExecutor();
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "provisioning.execution.mode", havingValue = "virtual")
+    public TomcatProtocolHandlerCustomizer<?> virtualThreadProtocolHandlerCustomizer(ExecutorService virtualThreadRequestExecutor) {
+        return protocolHandler -> protocolHandler.setExecutor(virtualThreadRequestExecutor);
+    }
+}
@@ -0,0 +1,27 @@
+package com.voxloud.provisioning.config;
+
+import com.voxloud.provisioning.ratelimit.ProvisioningRateLimiter;
+import com.voxloud.provisioning.ratelimit.RateLimitInterceptor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Puts the device-facing provisioning endpoints behind the {@link ProvisioningRateLimiter}. Web slices that do not
+ * load the limiter serve the endpoints unlimited.
+ */
+@Configuration
+public class RateLimitConfiguration implements WebMvcConfigurer {
+    private final ObjectProvider<ProvisioningRateLimiter> rateLimiter;
+
+    public RateLimitConfiguration(ObjectProvider<ProvisioningRateLimiter> rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        rateLimiter.ifAvailable(limiter ->
+                registry.addInterceptor(new RateLimitInterceptor(limiter)).addPathPatterns("/api/v1/provisioning/**"));
+    }
+}
@@ -0,0 +1,15 @@
+package com.voxloud.provisioning.config;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * Background jobs ({@code @Scheduled}) only run when something needs them, so single-node deployments and
+ * tests keep no scheduler threads.
+ */
+@Configuration
+@EnableScheduling
+@ConditionalOnExpression("${provisioning.changelog.enabled:false} or ${provisioning.snapshot.enabled:false}")
+public class SchedulingConfiguration {
+}
@@ -0,0 +1,92 @@
+package com.voxloud.provisioning.controller;
+
+import com.voxloud.provisioning.admission.AdmissionQueue;
+import com.voxloud.provisioning.exception.AdmissionRejectedException;
+import com.voxloud.provisioning.metrics.ProvisioningMetrics;
+import com.voxloud.provisioning.mirror.StaticMirror;
+import com.voxloud.provisioning.service.ProvisioningService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Serves provisioning requests through the {@link AdmissionQueue} instead of on the request thread.
+ * <p>
+ * The servlet thread is released as soon as the request is queued. Shed requests are answered immediately
+ * with {@code provisioning.admission.rejection-status} (503 by default) and a {@code Retry-After} spread over
+ * {@code retry-after-seconds .. retry-after-seconds + retry-after-jitter-seconds}, so phones that were turned
+ * away together do not all come back in the same second.
+ */
+@RestController
+@RequestMapping("/api/v1/provisioning")
+@ConditionalOnProperty(name = "provisioning.admission.enabled", havingValue = "true")
+@Slf4j
+public class AsyncProvisioningController {
+
+    private final ProvisioningResponseBuilder responseBuilder;
+    private final AdmissionQueue admissionQueue;
+    private final ProvisioningMetrics metrics;
+    private final HttpStatus rejectionStatus;
+    private final int retryAfterSeconds;
+    private final int retryAfterJitterSeconds;
+
+    @Autowired
+    public AsyncProvisioningController(ProvisioningService provisioningService,
+                                       AdmissionQueue admissionQueue,
+                                       ProvisioningMetrics metrics,
+                                       ObjectProvider<StaticMirror> mirror,
+                                       @Value("${provisioning.http.max-age:0}") long maxAgeSeconds,
+                                       @Value("${provisioning.compression.enabled:true}") boolean compressionEnabled,
+                                       @Value("${provisioning.compression.min-size:1024}") int compressionMinSize,
+                                       @Value("${provisioning.compression.level:9}") int compressionLevel,
+                                       @Value("${provisioning.admission.rejection-status:503}") int rejectionStatus,
+                                       @Value("${provisioning.admission.retry-after-seconds:5}") int retryAfterSeconds,
+                                       @Value("${provisioning.admission.retry-after-jitter-seconds:10}") int retryAfterJitterSeconds) {
+        this.responseBuilder = new ProvisioningResponseBuilder(provisioningService, metrics, mirror.getIfAvailable(),
+                maxAgeSeconds, compressionEnabled, compressionMinSize, compressionLevel);
+        this.admissionQueue = admissionQueue;
+        this.metrics = metrics;
+        this.rejectionStatus = HttpStatus.valueOf(rejectionStatus);
+        this.retryAfterSeconds = retryAfterSeconds;
+        this.retryAfterJitterSeconds = retryAfterJitterSeconds;
+    }
+
+    @GetMapping("/{macAddress}")
+    public CompletableFuture<ResponseEntity<?>> getDeviceConfiguration(
+            @PathVariable String macAddress,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        long start = System.nanoTime();
+        return admissionQueue.<ResponseEntity<?>>submit(() -> responseBuilder.build(macAddress, ifNoneMatch, acceptEncoding))
+                .exceptionally(e -> {
+                    Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    if (cause instanceof AdmissionRejectedException) {
+                        log.debug("Shedding request for device {}: {}", macAddress, cause.getMessage());
+                        metrics.recordRequest(ProvisioningMetrics.Outcome.REJECTED, start);
+                        return rejected();
+                    }
+                    throw e instanceof CompletionException ? (CompletionException) e : new CompletionException(e);
+                });
+    }
+
+    private ResponseEntity<?> rejected() {
+        int retryAfter = retryAfterSeconds + ThreadLocalRandom.current().nextInt(retryAfterJitterSeconds + 1);
+        return ResponseEntity.status(rejectionStatus)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfter))
+                .build();
+    }
+}
@@ -0,0 +1,75 @@
+package com.voxloud.provisioning.controller;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.voxloud.provisioning.service.ProvisioningService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.List;
+
+@RestController
+@RequestMapping("/api/v1/provisioning")
+@Slf4j
+public class BatchProvisioningController {
+    public static final MediaType APPLICATION_NDJSON = MediaType.valueOf("application/x-ndjson");
+
+    private final ProvisioningService provisioningService;
+    private final ObjectWriter resultWriter;
+    private final int maxBatchSize;
+
+    @Autowired
+    public BatchProvisioningController(ProvisioningService provisioningService, ObjectMapper objectMapper,
+                                       @Value("${provisioning.batch.max-size:10000}") int maxBatchSize) {
+        this.provisioningService = provisioningService;
+        // The response stays open between lines, so Jackson must not close it after each result
+        this.resultWriter = objectMapper.writer()
+                .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Provisions a list of MAC addresses in one round trip. The response is streamed as NDJSON, one
+     * {@link com.voxloud.provisioning.entity.BatchProvisioningResult} per line, in completion order.
+     */
+    @PostMapping("/batch")
+    public ResponseEntity<StreamingResponseBody> getDeviceConfigurations(@RequestBody List<String> macAddresses) {
+        if (macAddresses.size() > maxBatchSize) {
+            log.warn("Rejected batch of {} devices, limit is {}", macAddresses.size(), maxBatchSize);
+            return ResponseEntity.badRequest().build();
+        }
+
+        StreamingResponseBody body = outputStream -> {
+            OutputStream out = new BufferedOutputStream(outputStream);
+            try {
+                provisioningService.provisionBatch(macAddresses, result -> {
+                    try {
+                        resultWriter.writeValue(out, result);
+                        out.write('\n');
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            out.flush();
+        };
+        return ResponseEntity.ok().contentType(APPLICATION_NDJSON).body(body);
+    }
+}
@@ -0,0 +1,40 @@
+package com.voxloud.provisioning.controller;
+
+import com.voxloud.provisioning.warmup.CacheWarmer;
+import com.voxloud.provisioning.warmup.CacheWarmupStatus;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping("/api/v1/admin/cache/warmup")
+public class CacheWarmupController {
+
+    private final CacheWarmer cacheWarmer;
+
+    @Autowired
+    public CacheWarmupController(CacheWarmer cacheWarmer) {
+        this.cacheWarmer = cacheWarmer;
+    }
+
+    /**
+     * Starts pre-warming the rendered configuration cache in the background. With {@code invalidate=true} every
+     * cached configuration is dropped first, so the whole inventory is re-rendered (e.g. after a change to the
+     * rendering settings). Answers {@code 409 Conflict} while a run is in progress.
+     */
+    @PostMapping
+    public ResponseEntity<CacheWarmupStatus> start(@RequestParam(defaultValue = "false") boolean invalidate) {
+        boolean started = cacheWarmer.start(invalidate);
+        return ResponseEntity.status(started ? HttpStatus.ACCEPTED : HttpStatus.CONFLICT).body(cacheWarmer.status());
+    }
+
+    @GetMapping
+    public CacheWarmupStatus status() {
+        return cacheWarmer.status();
+    }
+}
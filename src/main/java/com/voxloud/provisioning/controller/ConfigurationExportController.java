@@ -0,0 +1,61 @@
+package com.voxloud.provisioning.controller;
+
+import com.voxloud.provisioning.entity.Device;
+import com.voxloud.provisioning.export.ConfigurationExportService;
+import com.voxloud.provisioning.export.ExportFilter;
+import com.voxloud.provisioning.export.ExportFormat;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.WebAsyncTask;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedOutputStream;
+import java.io.OutputStream;
+
+@RestController
+@RequestMapping("/api/v1/export")
+public class ConfigurationExportController {
+
+    private final ConfigurationExportService exportService;
+    private final long timeoutMillis;
+
+    @Autowired
+    public ConfigurationExportController(ConfigurationExportService exportService,
+                                         @Value("${provisioning.export.timeout-ms:-1}") long timeoutMillis) {
+        this.exportService = exportService;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Streams the rendered configurations of all devices, optionally of one {@code model} and/or with MAC addresses
+     * starting with {@code macPrefix}, as a zip or tar archive with a {@code manifest.json} listing the devices that
+     * could not be rendered.
+     * <p>
+     * Runs under {@code provisioning.export.timeout-ms} rather than {@code spring.mvc.async.request-timeout}, which
+     * is sized for provisioning requests and would cut a large archive off.
+     */
+    @GetMapping("/configurations")
+    public WebAsyncTask<Void> exportConfigurations(
+            @RequestParam(defaultValue = "ZIP") ExportFormat format,
+            @RequestParam(required = false) Device.DeviceModel model,
+            @RequestParam(required = false) String macPrefix,
+            HttpServletResponse response) {
+        ExportFilter filter = new ExportFilter(model, macPrefix);
+        response.setContentType(format.getContentType().toString());
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.builder("attachment")
+                .filename("configurations." + format.getExtension())
+                .build().toString());
+        return new WebAsyncTask<>(timeoutMillis, () -> {
+            OutputStream out = new BufferedOutputStream(response.getOutputStream(), 1 << 16);
+            exportService.export(out, format, filter);
+            out.flush();
+            return null;
+        });
+    }
+}
@@ -0,0 +1,40 @@
+package com.voxloud.provisioning.controller;
+
+import com.voxloud.provisioning.importer.DeviceImportReport;
+import com.voxloud.provisioning.importer.DeviceImportService;
+import com.voxloud.provisioning.importer.ImportFormat;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+
+@RestController
+@RequestMapping("/api/v1/devices")
+public class DeviceImportController {
+
+    private final DeviceImportService deviceImportService;
+
+    @Autowired
+    public DeviceImportController(DeviceImportService deviceImportService) {
+        this.deviceImportService = deviceImportService;
+    }
+
+    /**
+     * Imports the devices in the request body, streamed as {@code text/csv} or {@code application/x-ndjson}
+     * (see {@link ImportFormat}). Rows that fail validation are listed in the report; the rest are imported.
+     */
+    @PostMapping("/import")
+    public ResponseEntity<DeviceImportReport> importDevices(
+            @RequestHeader(value = HttpHeaders.CONTENT_TYPE, required = false) MediaType contentType,
+            HttpServletRequest request) throws IOException {
+        return ResponseEntity.ok(deviceImportService.importDevices(request.getInputStream(),
+                ImportFormat.fromContentType(contentType)));
+    }
+}
@@ -1,39 +1,48 @@
 package com.voxloud.provisioning.controller;
 
-import com.voxloud.provisioning.exception.DeviceNotFoundException;
-import com.voxloud.provisioning.exception.ProvisioningException;
+import com.voxloud.provisioning.metrics.ProvisioningMetrics;
+import com.voxloud.provisioning.mirror.StaticMirror;
 import com.voxloud.provisioning.service.ProvisioningService;
-import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
+/**
+ * Serves provisioning requests synchronously on the request thread. Replaced by
+ * {@link AsyncProvisioningController} when admission control is enabled.
+ */
 @RestController
 @RequestMapping("/api/v1/provisioning")
-@Slf4j
+@ConditionalOnProperty(name = "provisioning.admission.enabled", havingValue = "false", matchIfMissing = true)
 public class ProvisioningController {
 
-    private final ProvisioningService provisioningService;
+    private final ProvisioningResponseBuilder responseBuilder;
 
     @Autowired
-    public ProvisioningController(ProvisioningService provisioningService) {
-        this.provisioningService = provisioningService;
+    public ProvisioningController(ProvisioningService provisioningService,
+                                  ProvisioningMetrics metrics,
+                                  ObjectProvider<StaticMirror> mirror,
+                                  @Value("${provisioning.http.max-age:0}") long maxAgeSeconds,
+                                  @Value("${provisioning.compression.enabled:true}") boolean compressionEnabled,
+                                  @Value("${provisioning.compression.min-size:1024}") int compressionMinSize,
+                                  @Value("${provisioning.compression.level:9}") int compressionLevel) {
+        this.responseBuilder = new ProvisioningResponseBuilder(provisioningService, metrics, mirror.getIfAvailable(),
+                maxAgeSeconds, compressionEnabled, compressionMinSize, compressionLevel);
     }
 
     @GetMapping("/{macAddress}")
-    public ResponseEntity<String> getDeviceConfiguration(@PathVariable String macAddress) {
-        try {
-            String configuration = provisioningService.getProvisioningFile(macAddress);
-            return ResponseEntity.ok(configuration);
-        } catch (DeviceNotFoundException e) {
-            log.warn("Device not found: {}", e.getMessage());
-            return ResponseEntity.notFound().build();
-        } catch (ProvisioningException e) {
-            log.error("Error provisioning device: {}", e.getMessage());
-            return ResponseEntity.badRequest().body(e.getMessage());
-        }
+    public ResponseEntity<?> getDeviceConfiguration(
+            @PathVariable String macAddress,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        return responseBuilder.build(macAddress, ifNoneMatch, acceptEncoding);
     }
-}
\ No newline at end of file
+}
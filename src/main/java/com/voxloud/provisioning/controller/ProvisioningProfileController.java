@@ -0,0 +1,73 @@
+package com.voxloud.provisioning.controller;
+
+import com.voxloud.provisioning.entity.ProvisioningProfile;
+import com.voxloud.provisioning.exception.DeviceNotFoundException;
+import com.voxloud.provisioning.exception.ProvisioningException;
+import com.voxloud.provisioning.profile.ProfileService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("/api/v1/admin/profiles")
+public class ProvisioningProfileController {
+
+    private final ProfileService profileService;
+
+    @Autowired
+    public ProvisioningProfileController(ProfileService profileService) {
+        this.profileService = profileService;
+    }
+
+    @GetMapping
+    public List<ProvisioningProfile> list() {
+        return profileService.findAll();
+    }
+
+    @GetMapping("/{profileId}")
+    public ResponseEntity<ProvisioningProfile> get(@PathVariable String profileId) {
+        return ResponseEntity.of(profileService.find(profileId));
+    }
+
+    /**
+     * Creates or replaces a tenant or site profile. Devices below it are re-rendered on their next request.
+     */
+    @PutMapping("/{profileId}")
+    public ProvisioningProfile save(@PathVariable String profileId, @RequestBody ProvisioningProfile profile)
+            throws ProvisioningException {
+        profile.setId(profileId);
+        return profileService.save(profile);
+    }
+
+    /**
+     * Deletes a profile that no site or device uses any more; {@code 400} while one still does.
+     */
+    @DeleteMapping("/{profileId}")
+    public ResponseEntity<Void> delete(@PathVariable String profileId) throws ProvisioningException {
+        return profileService.delete(profileId)
+                ? ResponseEntity.noContent().build()
+                : ResponseEntity.notFound().build();
+    }
+
+    @PutMapping("/{profileId}/devices/{macAddress}")
+    public ResponseEntity<Void> assign(@PathVariable String profileId, @PathVariable String macAddress)
+            throws DeviceNotFoundException, ProvisioningException {
+        profileService.assign(macAddress, profileId);
+        return ResponseEntity.noContent().build();
+    }
+
+    @DeleteMapping("/{profileId}/devices/{macAddress}")
+    public ResponseEntity<Void> unassign(@PathVariable String profileId, @PathVariable String macAddress)
+            throws DeviceNotFoundException, ProvisioningException {
+        profileService.unassign(macAddress, profileId);
+        return ResponseEntity.noContent().build();
+    }
+}
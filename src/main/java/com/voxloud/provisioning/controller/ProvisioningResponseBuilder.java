@@ -0,0 +1,254 @@
+package com.voxloud.provisioning.controller;
+
+import com.voxloud.provisioning.entity.ConfigurationVersion;
+import com.voxloud.provisioning.entity.ContentEncoding;
+import com.voxloud.provisioning.entity.EncodedBody;
+import com.voxloud.provisioning.entity.RenderedConfiguration;
+import com.voxloud.provisioning.exception.ProvisioningException;
+import com.voxloud.provisioning.metrics.ProvisioningMetrics;
+import com.voxloud.provisioning.metrics.ProvisioningMetrics.Outcome;
+import com.voxloud.provisioning.mirror.MirrorEntry;
+import com.voxloud.provisioning.mirror.MirroredFile;
+import com.voxloud.provisioning.mirror.StaticMirror;
+import com.voxloud.provisioning.service.ProvisioningService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.StringUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds the HTTP response for a single provisioning request; shared by the synchronous and the asynchronous
+ * provisioning controllers.
+ * <p>
+ * Conditional requests whose {@code If-None-Match} matches the last rendered version are answered with
+ * {@code 304 Not Modified} before anything is rendered; a match detected after rendering is turned into a 304
+ * by Spring from the ETag on the response.
+ * <p>
+ * Bodies of at least {@code compressionMinSize} bytes are sent gzip- or deflate-encoded when the client's
+ * {@code Accept-Encoding} allows it. The compressed bytes are produced once per configuration version and kept on
+ * the {@link RenderedConfiguration}. Like nginx, compressed responses carry the weak form of the ETag, since their
+ * bytes differ from the identity representation; {@code If-None-Match} is compared weakly either way.
+ * <p>
+ * With a {@link StaticMirror}, devices it holds are answered from their mirror files, including the {@code .gz}
+ * variant, without a lookup or rendering. These responses carry no {@code Last-Modified}, so the ETag check made
+ * here is the only conditional check; the file itself is only opened when the body is written.
+ */
+@Slf4j
+class ProvisioningResponseBuilder {
+    private static final MediaType TEXT_PLAIN_UTF8 = new MediaType(MediaType.TEXT_PLAIN, StandardCharsets.UTF_8);
+
+    private final ProvisioningService provisioningService;
+    private final ProvisioningMetrics metrics;
+    private final StaticMirror mirror;
+    private final CacheControl cacheControl;
+    private final boolean compressionEnabled;
+    private final int compressionMinSize;
+    private final int compressionLevel;
+
+    /**
+     * @param mirror {@code null} unless the static mirror is enabled
+     */
+    ProvisioningResponseBuilder(ProvisioningService provisioningService, ProvisioningMetrics metrics,
+                                StaticMirror mirror, long maxAgeSeconds, boolean compressionEnabled,
+                                int compressionMinSize, int compressionLevel) {
+        this.provisioningService = provisioningService;
+        this.metrics = metrics;
+        this.mirror = mirror;
+        this.compressionEnabled = compressionEnabled;
+        this.compressionMinSize = compressionMinSize;
+        this.compressionLevel = compressionLevel;
+        this.cacheControl = maxAgeSeconds > 0
+                ? CacheControl.maxAge(maxAgeSeconds, TimeUnit.SECONDS).cachePrivate().mustRevalidate()
+                : CacheControl.noCache().cachePrivate();
+    }
+
+    ResponseEntity<?> build(String macAddress, String ifNoneMatch, String acceptEncoding) {
+        long start = System.nanoTime();
+        if (mirror != null) {
+            Optional<MirrorEntry> entry = mirror.find(macAddress);
+            if (entry.isPresent()) {
+                ResponseEntity<?> response = buildFromMirror(entry.get(), ifNoneMatch, acceptEncoding, start);
+                if (response != null) {
+                    return response;
+                }
+            }
+        }
+        try {
+            if (ifNoneMatch != null) {
+                Optional<ConfigurationVersion> version = provisioningService.findConfigurationVersion(macAddress);
+                if (version.isPresent() && etagMatches(ifNoneMatch, version.get().getEtag())) {
+                    metrics.recordRequest(Outcome.NOT_MODIFIED, start);
+                    return withVersionHeaders(ResponseEntity.status(HttpStatus.NOT_MODIFIED), version.get()).build();
+                }
+            }
+
+            Optional<RenderedConfiguration> configuration = provisioningService.findRenderedConfiguration(macAddress);
+            if (!configuration.isPresent()) {
+                // Unknown devices are routine (scanners, misconfigured DHCP clients); not worth a WARN each
+                log.debug("Device not found: {}", macAddress);
+                metrics.recordRequest(Outcome.NOT_FOUND, start);
+                return ResponseEntity.notFound().build();
+            }
+            RenderedConfiguration rendered = configuration.get();
+            metrics.recordResponseSize(rendered.getBody());
+            EncodedBody encoded = encode(macAddress, rendered, acceptEncoding);
+            metrics.recordRequest(Outcome.OK, start);
+            if (encoded != null) {
+                return ResponseEntity.ok()
+                        .eTag("W/" + rendered.getVersion().getEtag())
+                        .lastModified(rendered.getVersion().getLastModified())
+                        .cacheControl(cacheControl)
+                        .varyBy(HttpHeaders.ACCEPT_ENCODING)
+                        .header(HttpHeaders.CONTENT_ENCODING, encoded.getEncoding().getToken())
+                        .contentType(TEXT_PLAIN_UTF8)
+                        .body(encoded.getBytes());
+            }
+            return withVersionHeaders(ResponseEntity.ok(), rendered.getVersion()).body(rendered.getBody());
+        } catch (ProvisioningException e) {
+            log.error("Error provisioning device: {}", e.getMessage());
+            metrics.recordRequest(Outcome.ERROR, start);
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    /**
+     * @return the response, or {@code null} if the mirror file was replaced or removed since {@code entry} was
+     * looked up
+     */
+    private ResponseEntity<?> buildFromMirror(MirrorEntry entry, String ifNoneMatch, String acceptEncoding,
+                                              long start) {
+        if (ifNoneMatch != null && etagMatches(ifNoneMatch, entry.getEtag())) {
+            metrics.recordRequest(Outcome.NOT_MODIFIED, start);
+            return withMirrorHeaders(ResponseEntity.status(HttpStatus.NOT_MODIFIED), entry.getEtag()).build();
+        }
+        boolean gzip = compressionEnabled && entry.hasGzip() && negotiate(acceptEncoding) == ContentEncoding.GZIP;
+        MirroredFile file;
+        try {
+            file = mirror.file(entry, gzip);
+        } catch (IOException e) {
+            log.debug("Not serving device {} from the mirror: {}", entry.getMacAddress(), e.getMessage());
+            return null;
+        }
+        metrics.recordRequest(Outcome.OK, start);
+        if (gzip) {
+            return withMirrorHeaders(ResponseEntity.ok(), "W/" + entry.getEtag())
+                    .header(HttpHeaders.CONTENT_ENCODING, ContentEncoding.GZIP.getToken())
+                    .contentType(TEXT_PLAIN_UTF8)
+                    .body(file);
+        }
+        return withMirrorHeaders(ResponseEntity.ok(), entry.getEtag()).contentType(TEXT_PLAIN_UTF8).body(file);
+    }
+
+    private ResponseEntity.BodyBuilder withMirrorHeaders(ResponseEntity.BodyBuilder builder, String etag) {
+        builder.eTag(etag).cacheControl(cacheControl);
+        return compressionEnabled ? builder.varyBy(HttpHeaders.ACCEPT_ENCODING) : builder;
+    }
+
+    private ResponseEntity.BodyBuilder withVersionHeaders(ResponseEntity.BodyBuilder builder, ConfigurationVersion version) {
+        builder.eTag(version.getEtag())
+                .lastModified(version.getLastModified())
+                .cacheControl(cacheControl);
+        return compressionEnabled ? builder.varyBy(HttpHeaders.ACCEPT_ENCODING) : builder;
+    }
+
+    /**
+     * @return the compressed body to send, or {@code null} to send the body as is
+     */
+    private EncodedBody encode(String macAddress, RenderedConfiguration configuration, String acceptEncoding) {
+        // Characters, not bytes; close enough for a threshold and avoids encoding bodies that are sent as they are
+        if (!compressionEnabled || configuration.getBody().length() < compressionMinSize) {
+            return null;
+        }
+        ContentEncoding encoding = negotiate(acceptEncoding);
+        if (encoding == null) {
+            return null;
+        }
+        EncodedBody encoded = configuration.getEncodedBody(encoding);
+        boolean reused = encoded != null;
+        if (!reused) {
+            encoded = configuration.encode(encoding, compressionLevel);
+            metrics.recordCompression(encoded);
+            provisioningService.compressedFormAdded(macAddress, configuration);
+        }
+        if (!encoded.isSmaller()) {
+            return null;
+        }
+        metrics.recordCompressedResponse(encoded, reused);
+        return encoded;
+    }
+
+    /**
+     * @return the accepted encoding with the highest quality value, preferring earlier {@link ContentEncoding}s on
+     * ties; {@code null} if none is acceptable
+     */
+    static ContentEncoding negotiate(String acceptEncoding) {
+        if (!StringUtils.hasText(acceptEncoding)) {
+            return null;
+        }
+        ContentEncoding[] encodings = ContentEncoding.values();
+        double[] qualities = new double[encodings.length];
+        Arrays.fill(qualities, -1);
+        double wildcard = -1;
+        for (String entry : StringUtils.commaDelimitedListToStringArray(acceptEncoding)) {
+            String[] parameters = entry.split(";");
+            String coding = parameters[0].trim().toLowerCase(Locale.ROOT);
+            double quality = 1;
+            for (int i = 1; i < parameters.length; i++) {
+                String parameter = parameters[i].trim();
+                if (parameter.startsWith("q=") || parameter.startsWith("Q=")) {
+                    try {
+                        quality = Double.parseDouble(parameter.substring(2));
+                    } catch (NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+            if (coding.equals("*")) {
+                wildcard = quality;
+            } else if (coding.equals("x-gzip")) {
+                qualities[ContentEncoding.GZIP.ordinal()] = quality;
+            } else {
+                for (ContentEncoding encoding : encodings) {
+                    if (encoding.getToken().equals(coding)) {
+                        qualities[encoding.ordinal()] = quality;
+                    }
+                }
+            }
+        }
+
+        ContentEncoding best = null;
+        double bestQuality = 0;
+        for (ContentEncoding encoding : encodings) {
+            double quality = qualities[encoding.ordinal()] >= 0 ? qualities[encoding.ordinal()] : wildcard;
+            if (quality > bestQuality) {
+                best = encoding;
+                bestQuality = quality;
+            }
+        }
+        return best;
+    }
+
+    private static boolean etagMatches(String ifNoneMatch, String etag) {
+        for (String candidate : StringUtils.commaDelimitedListToStringArray(ifNoneMatch)) {
+            candidate = candidate.trim();
+            if (candidate.equals("*") || stripWeakPrefix(candidate).equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String stripWeakPrefix(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+}
@@ -0,0 +1,30 @@
+package com.voxloud.provisioning.controller;
+
+import com.voxloud.provisioning.ratelimit.ProvisioningRateLimiter;
+import com.voxloud.provisioning.ratelimit.RateLimitReport;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping("/api/v1/admin/rate-limit")
+public class RateLimitController {
+
+    private final ProvisioningRateLimiter rateLimiter;
+
+    @Autowired
+    public RateLimitController(ProvisioningRateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * Devices and source addresses rejected most often since startup, for finding phones stuck in a reboot loop.
+     * Counts are approximate once more keys have been rejected than the limiter tracks.
+     */
+    @GetMapping("/offenders")
+    public RateLimitReport offenders(@RequestParam(defaultValue = "20") int limit) {
+        return rateLimiter.offenders(limit);
+    }
+}
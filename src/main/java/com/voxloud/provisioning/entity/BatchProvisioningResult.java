@@ -0,0 +1,36 @@
+package com.voxloud.provisioning.entity;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Value;
+
+/**
+ * Outcome of provisioning a single MAC address as part of a batch request.
+ */
+@Value
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BatchProvisioningResult {
+    String macAddress;
+    Status status;
+    String etag;
+    String configuration;
+    String error;
+
+    public static BatchProvisioningResult ok(String macAddress, RenderedConfiguration configuration) {
+        return new BatchProvisioningResult(macAddress, Status.OK, configuration.getVersion().getEtag(),
+                configuration.getBody(), null);
+    }
+
+    public static BatchProvisioningResult notFound(String macAddress) {
+        return new BatchProvisioningResult(macAddress, Status.NOT_FOUND, null, null, null);
+    }
+
+    public static BatchProvisioningResult error(String macAddress, String error) {
+        return new BatchProvisioningResult(macAddress, Status.ERROR, null, null, error);
+    }
+
+    public enum Status {
+        OK,
+        NOT_FOUND,
+        ERROR
+    }
+}
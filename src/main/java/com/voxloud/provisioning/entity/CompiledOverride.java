@@ -0,0 +1,43 @@
+package com.voxloud.provisioning.entity;
+
+import lombok.Value;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Parsed, immutable form of a device override fragment.
+ * <p>
+ * Fragments are compiled once when a {@link Device} is written or loaded; rendering only has to layer the
+ * precompiled values on top of the base {@link DeviceConfiguration}.
+ */
+@Value
+public class CompiledOverride {
+    String domain;
+    String port;
+    Map<String, Object> additionalProperties;
+
+    public CompiledOverride(String domain, String port, Map<String, Object> additionalProperties) {
+        this.domain = domain;
+        this.port = port;
+        this.additionalProperties = Collections.unmodifiableMap(additionalProperties);
+    }
+
+    public DeviceConfiguration applyTo(DeviceConfiguration config) {
+        // The base map is shared by every device of a profile; only copy it when there is something to add
+        Map<String, Object> mergedProperties = additionalProperties;
+        if (additionalProperties.isEmpty() && config.getAdditionalProperties() != null) {
+            mergedProperties = config.getAdditionalProperties();
+        } else if (config.getAdditionalProperties() != null && !config.getAdditionalProperties().isEmpty()) {
+            mergedProperties = new LinkedHashMap<>(config.getAdditionalProperties());
+            mergedProperties.putAll(additionalProperties);
+        }
+
+        return config.toBuilder()
+                .domain(domain != null ? domain : config.getDomain())
+                .port(port != null ? port : config.getPort())
+                .additionalProperties(mergedProperties)
+                .build();
+    }
+}
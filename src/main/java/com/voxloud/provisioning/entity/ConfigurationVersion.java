@@ -0,0 +1,12 @@
+package com.voxloud.provisioning.entity;
+
+import lombok.Value;
+
+/**
+ * Identity of a rendered configuration: a strong ETag over its content and the time that content first appeared.
+ */
+@Value
+public class ConfigurationVersion {
+    String etag;
+    long lastModified;
+}
@@ -0,0 +1,71 @@
+package com.voxloud.provisioning.entity;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * HTTP content codings a rendered configuration can be served in, in order of preference.
+ */
+public enum ContentEncoding {
+    GZIP("gzip") {
+        @Override
+        OutputStream wrap(OutputStream out, int level) throws IOException {
+            return new GZIPOutputStream(out) {
+                {
+                    def.setLevel(level);
+                }
+            };
+        }
+    },
+    /**
+     * HTTP {@code deflate} is the zlib format (RFC 1950), i.e. a {@link Deflater} with its header and checksum.
+     */
+    DEFLATE("deflate") {
+        @Override
+        OutputStream wrap(OutputStream out, int level) {
+            // DeflaterOutputStream only ends Deflaters it created itself; without end() the native zlib state
+            // is held until finalization
+            return new DeflaterOutputStream(out, new Deflater(level)) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        def.end();
+                    }
+                }
+            };
+        }
+    };
+
+    private final String token;
+
+    ContentEncoding(String token) {
+        this.token = token;
+    }
+
+    /**
+     * @return the {@code Content-Encoding} / {@code Accept-Encoding} token
+     */
+    public String getToken() {
+        return token;
+    }
+
+    public byte[] compress(byte[] bytes, int level) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(Math.max(64, bytes.length / 3));
+        try (OutputStream out = wrap(buffer, level)) {
+            out.write(bytes);
+        } catch (IOException e) {
+            // In-memory streams do not fail
+            throw new UncheckedIOException(e);
+        }
+        return buffer.toByteArray();
+    }
+
+    abstract OutputStream wrap(OutputStream out, int level) throws IOException;
+}
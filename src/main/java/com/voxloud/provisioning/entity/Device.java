@@ -2,18 +2,24 @@ package com.voxloud.provisioning.entity;
 
 import javax.persistence.Column;
 import javax.persistence.Entity;
+import javax.persistence.EntityListeners;
 import javax.persistence.EnumType;
 import javax.persistence.Enumerated;
 import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import javax.persistence.Transient;
 
-import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
 import lombok.NoArgsConstructor;
+import lombok.ToString;
 
 @Entity
+@Table(indexes = @Index(name = "idx_device_profile_id", columnList = "profile_id"))
+@EntityListeners(DeviceEntityListener.class)
 @Data
 @NoArgsConstructor
-@AllArgsConstructor
 public class Device {
 
     @Id
@@ -33,8 +39,44 @@ public class Device {
     @Column(nullable = false)
     private String password;
 
+    /**
+     * The {@link ProvisioningProfile} (tenant or site) the device inherits its settings from; {@code null} for
+     * devices that only use the global settings.
+     */
+    @Column(name = "profile_id")
+    private String profileId;
+
+    @Transient
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private CompiledOverride compiledOverride;
+
+    public Device(String macAddress, DeviceModel model, String overrideFragment, String username, String password) {
+        this.macAddress = macAddress;
+        this.model = model;
+        this.overrideFragment = overrideFragment;
+        this.username = username;
+        this.password = password;
+    }
+
+    public void setOverrideFragment(String overrideFragment) {
+        this.overrideFragment = overrideFragment;
+        this.compiledOverride = null;
+    }
+
+    /**
+     * Detached copy, including the compiled override, safe to keep beyond the persistence context.
+     */
+    public Device copy() {
+        Device copy = new Device(macAddress, model, overrideFragment, username, password);
+        copy.profileId = profileId;
+        copy.compiledOverride = compiledOverride;
+        return copy;
+    }
+
     public enum DeviceModel {
         CONFERENCE,
-        DESK
+        DESK,
+        CORDLESS
     }
 }
\ No newline at end of file
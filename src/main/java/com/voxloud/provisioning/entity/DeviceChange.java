@@ -0,0 +1,52 @@
+package com.voxloud.provisioning.entity;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import java.time.Instant;
+
+/**
+ * One write to a {@link Device} row or a {@link ProvisioningProfile}, as recorded in the shared change log. Ids
+ * grow monotonically, so nodes can tail the log by remembering the last id they applied.
+ */
+@Entity
+@Table(name = "device_change", indexes = @Index(name = "idx_device_change_changed_at", columnList = "changed_at"))
+@Data
+@NoArgsConstructor
+public class DeviceChange {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    /**
+     * The device written; {@code null} for a profile change.
+     */
+    @Column(name = "mac_address")
+    private String macAddress;
+
+    /**
+     * The profile written, for a profile change.
+     */
+    @Column(name = "profile_id")
+    private String profileId;
+
+    @Column(nullable = false)
+    private boolean deleted;
+
+    /**
+     * Node that made the change; it has already applied it locally.
+     */
+    @Column(nullable = false)
+    private String origin;
+
+    @Column(name = "changed_at", nullable = false)
+    private Instant changedAt;
+}
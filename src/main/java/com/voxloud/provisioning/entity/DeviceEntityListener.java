@@ -0,0 +1,77 @@
+package com.voxloud.provisioning.entity;
+
+import com.voxloud.provisioning.changelog.DeviceChangeLog;
+import com.voxloud.provisioning.event.DeviceChangedEvent;
+import com.voxloud.provisioning.exception.InvalidOverrideFragmentException;
+import com.voxloud.provisioning.exception.ProvisioningException;
+import com.voxloud.provisioning.service.strategy.OverrideFragmentCompiler;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+
+import javax.persistence.PostLoad;
+import javax.persistence.PostPersist;
+import javax.persistence.PostRemove;
+import javax.persistence.PostUpdate;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
+
+/**
+ * Turns JPA lifecycle callbacks on {@link Device} into {@link DeviceChangedEvent}s so that derived
+ * state (rendered configurations, indexes) can be invalidated without the writers knowing about it.
+ * <p>
+ * Override fragments are compiled here as well: malformed fragments are rejected on write, and loaded
+ * devices carry their compiled override so the request path never parses fragment text.
+ * <p>
+ * Writes are also recorded in the {@link DeviceChangeLog}, inside the writing transaction.
+ */
+@Component
+@Slf4j
+public class DeviceEntityListener {
+    private final ApplicationEventPublisher eventPublisher;
+    private final OverrideFragmentCompiler overrideFragmentCompiler;
+    private final DeviceChangeLog changeLog;
+
+    @Autowired
+    public DeviceEntityListener(ApplicationEventPublisher eventPublisher, OverrideFragmentCompiler overrideFragmentCompiler,
+                                DeviceChangeLog changeLog) {
+        this.eventPublisher = eventPublisher;
+        this.overrideFragmentCompiler = overrideFragmentCompiler;
+        this.changeLog = changeLog;
+    }
+
+    @PrePersist
+    @PreUpdate
+    public void validateOverrideFragment(Device device) {
+        try {
+            device.setCompiledOverride(overrideFragmentCompiler.compile(device));
+        } catch (ProvisioningException e) {
+            throw new InvalidOverrideFragmentException("Invalid override fragment for device "
+                    + device.getMacAddress() + ": " + e.getMessage());
+        }
+    }
+
+    @PostLoad
+    public void compileOverrideFragment(Device device) {
+        try {
+            device.setCompiledOverride(overrideFragmentCompiler.compile(device));
+        } catch (ProvisioningException e) {
+            // Rows written before validation existed; the request path reports the error
+            log.warn("Stored override fragment for device {} is invalid: {}", device.getMacAddress(), e.getMessage());
+        }
+    }
+
+    @PostPersist
+    @PostUpdate
+    public void onDeviceSaved(Device device) {
+        changeLog.record(device.getMacAddress(), false);
+        eventPublisher.publishEvent(DeviceChangedEvent.saved(device.copy()));
+    }
+
+    @PostRemove
+    public void onDeviceRemoved(Device device) {
+        changeLog.record(device.getMacAddress(), true);
+        eventPublisher.publishEvent(DeviceChangedEvent.deleted(device.getMacAddress()));
+    }
+}
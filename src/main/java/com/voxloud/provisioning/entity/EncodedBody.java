@@ -0,0 +1,21 @@
+package com.voxloud.provisioning.entity;
+
+import lombok.Value;
+
+/**
+ * A rendered body compressed with one {@link ContentEncoding}, together with what it took to produce it.
+ */
+@Value
+public class EncodedBody {
+    ContentEncoding encoding;
+    byte[] bytes;
+    int identityLength;
+    long compressionNanos;
+
+    /**
+     * @return whether the encoded form is smaller than the body itself, i.e. worth sending
+     */
+    public boolean isSmaller() {
+        return bytes.length < identityLength;
+    }
+}
@@ -0,0 +1,59 @@
+package com.voxloud.provisioning.entity;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+
+/**
+ * One node of the profile hierarchy between the global {@code provisioning.*} settings and the device: a tenant,
+ * or a site within a tenant. Every column left {@code null} is inherited from the parent node, or from the global
+ * settings for a tenant. {@code properties} holds additional configuration entries in
+ * {@code java.util.Properties} format; they are rendered by every device model.
+ */
+@Entity
+@Table(name = "provisioning_profile",
+        indexes = @Index(name = "idx_provisioning_profile_parent_id", columnList = "parent_id"))
+@Data
+@NoArgsConstructor
+public class ProvisioningProfile {
+
+    @Id
+    private String id;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private Level level;
+
+    /**
+     * The tenant of a site; {@code null} for tenants.
+     */
+    @Column(name = "parent_id")
+    private String parentId;
+
+    private String domain;
+
+    private String port;
+
+    private String codecs;
+
+    @Column(length = 4096)
+    private String properties;
+
+    public ProvisioningProfile(String id, Level level, String parentId) {
+        this.id = id;
+        this.level = level;
+        this.parentId = parentId;
+    }
+
+    public enum Level {
+        TENANT,
+        SITE
+    }
+}
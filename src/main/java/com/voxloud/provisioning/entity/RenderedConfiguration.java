@@ -0,0 +1,88 @@
+package com.voxloud.provisioning.entity;
+
+import lombok.AccessLevel;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+import lombok.Value;
+import org.springframework.util.DigestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Final provisioning file for a device together with its {@link ConfigurationVersion}.
+ * <p>
+ * Compressed forms of the body are computed on first request and kept with it, so they live exactly as long as
+ * this version of the configuration does in the cache.
+ */
+@Value
+public class RenderedConfiguration {
+    String body;
+    ConfigurationVersion version;
+
+    @Getter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    AtomicReferenceArray<EncodedBody> encodedBodies;
+
+    private RenderedConfiguration(String body, ConfigurationVersion version, AtomicReferenceArray<EncodedBody> encodedBodies) {
+        this.body = body;
+        this.version = version;
+        this.encodedBodies = encodedBodies;
+    }
+
+    public static RenderedConfiguration of(String body) {
+        String etag = "\"" + DigestUtils.md5DigestAsHex(body.getBytes(StandardCharsets.UTF_8)) + "\"";
+        return new RenderedConfiguration(body, new ConfigurationVersion(etag, System.currentTimeMillis()),
+                new AtomicReferenceArray<>(ContentEncoding.values().length));
+    }
+
+    /**
+     * For a body whose version, ETag included, was stored with it; the body is not digested again.
+     */
+    public static RenderedConfiguration of(String body, ConfigurationVersion version) {
+        return new RenderedConfiguration(body, version, new AtomicReferenceArray<>(ContentEncoding.values().length));
+    }
+
+    public RenderedConfiguration withVersion(ConfigurationVersion version) {
+        // Same body, so the compressed forms carry over
+        return new RenderedConfiguration(body, version, encodedBodies);
+    }
+
+    /**
+     * @return the body in {@code encoding} if it has already been compressed, otherwise {@code null}
+     */
+    public EncodedBody getEncodedBody(ContentEncoding encoding) {
+        return encodedBodies.get(encoding.ordinal());
+    }
+
+    /**
+     * @return bytes held by the compressed forms computed so far
+     */
+    public int encodedSize() {
+        int size = 0;
+        for (int i = 0; i < encodedBodies.length(); i++) {
+            EncodedBody encoded = encodedBodies.get(i);
+            if (encoded != null) {
+                size += encoded.getBytes().length;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Compresses the body in {@code encoding} unless that has already been done. Concurrent first callers may
+     * each compress; the first result stored is kept and returned to all of them.
+     */
+    public EncodedBody encode(ContentEncoding encoding, int level) {
+        EncodedBody encoded = getEncodedBody(encoding);
+        if (encoded != null) {
+            return encoded;
+        }
+        long start = System.nanoTime();
+        byte[] identity = body.getBytes(StandardCharsets.UTF_8);
+        encoded = new EncodedBody(encoding, encoding.compress(identity, level), identity.length, System.nanoTime() - start);
+        return encodedBodies.compareAndSet(encoding.ordinal(), null, encoded) ? encoded : getEncodedBody(encoding);
+    }
+}
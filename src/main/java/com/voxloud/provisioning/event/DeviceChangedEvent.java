@@ -0,0 +1,51 @@
+package com.voxloud.provisioning.event;
+
+import com.voxloud.provisioning.entity.Device;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Published whenever a {@link Device} row is inserted, updated or deleted, and for every device below a
+ * provisioning profile that changed.
+ * <p>
+ * Events raised from JPA callbacks carry the device state after the change, or {@code deleted = true}.
+ * Writers that bypass JPA, like the importer, publish the state they wrote as well. Events that only name the
+ * MAC make listeners needing the new state re-read it.
+ * Events replayed from the change log of another node are marked {@code remote} and never carry the device.
+ */
+@Getter
+@ToString
+public class DeviceChangedEvent {
+    private final String macAddress;
+    @ToString.Exclude
+    private final Device device;
+    private final boolean deleted;
+    private final boolean remote;
+
+    public DeviceChangedEvent(String macAddress) {
+        this(macAddress, null, false);
+    }
+
+    public DeviceChangedEvent(String macAddress, Device device, boolean deleted) {
+        this(macAddress, device, deleted, false);
+    }
+
+    private DeviceChangedEvent(String macAddress, Device device, boolean deleted, boolean remote) {
+        this.macAddress = macAddress;
+        this.device = device;
+        this.deleted = deleted;
+        this.remote = remote;
+    }
+
+    public static DeviceChangedEvent saved(Device device) {
+        return new DeviceChangedEvent(device.getMacAddress(), device, false);
+    }
+
+    public static DeviceChangedEvent deleted(String macAddress) {
+        return new DeviceChangedEvent(macAddress, null, true);
+    }
+
+    public static DeviceChangedEvent remote(String macAddress, boolean deleted) {
+        return new DeviceChangedEvent(macAddress, null, deleted, true);
+    }
+}
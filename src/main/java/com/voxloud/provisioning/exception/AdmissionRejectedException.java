@@ -0,0 +1,11 @@
+package com.voxloud.provisioning.exception;
+
+/**
+ * Raised when a request is shed by the admission queue, either because the queue is full or because it
+ * waited longer than the configured latency target before a worker picked it up.
+ */
+public class AdmissionRejectedException extends RuntimeException {
+    public AdmissionRejectedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,11 @@
+package com.voxloud.provisioning.exception;
+
+/**
+ * Raised when a device is written with an override fragment that its model's strategy cannot parse.
+ * Unchecked because it is thrown from JPA lifecycle callbacks.
+ */
+public class InvalidOverrideFragmentException extends RuntimeException {
+    public InvalidOverrideFragmentException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,17 @@
+package com.voxloud.provisioning.exception;
+
+/**
+ * Raised when a provisioning request exceeds the rate limit of its device or source address.
+ */
+public class RateLimitedException extends RuntimeException {
+    private final long retryAfterSeconds;
+
+    public RateLimitedException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -0,0 +1,14 @@
+package com.voxloud.provisioning.export;
+
+import java.io.IOException;
+
+/**
+ * Sequential writer of archive entries. {@link #finish()} completes the archive without closing the underlying
+ * stream, which belongs to the caller.
+ */
+interface ArchiveWriter {
+
+    void write(String name, byte[] content, long lastModified) throws IOException;
+
+    void finish() throws IOException;
+}
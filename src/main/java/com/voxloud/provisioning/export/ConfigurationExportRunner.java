@@ -0,0 +1,65 @@
+package com.voxloud.provisioning.export;
+
+import com.voxloud.provisioning.entity.Device;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Locale;
+
+/**
+ * Command-line export: with {@code --provisioning.export.file=<path>} the application writes the rendered
+ * configurations to a zip (or, for a {@code .tar} path, tar) archive and exits, with status 1 if any device
+ * failed to render. {@code --provisioning.export.model} and {@code --provisioning.export.mac-prefix} restrict
+ * the export. Combine with {@code --spring.main.web-application-type=none} to skip starting the HTTP server.
+ */
+@Component
+@ConditionalOnProperty(name = "provisioning.export.file")
+@Slf4j
+public class ConfigurationExportRunner implements ApplicationRunner {
+    private final ConfigurationExportService exportService;
+    private final ConfigurableApplicationContext context;
+    private final String file;
+    private final String model;
+    private final String macPrefix;
+
+    @Autowired
+    public ConfigurationExportRunner(ConfigurationExportService exportService, ConfigurableApplicationContext context,
+                                     @Value("${provisioning.export.file}") String file,
+                                     @Value("${provisioning.export.model:}") String model,
+                                     @Value("${provisioning.export.mac-prefix:}") String macPrefix) {
+        this.exportService = exportService;
+        this.context = context;
+        this.file = file;
+        this.model = model;
+        this.macPrefix = macPrefix;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) throws Exception {
+        ExportFilter filter = new ExportFilter(
+                StringUtils.hasText(model) ? Device.DeviceModel.valueOf(model.trim().toUpperCase(Locale.ROOT)) : null,
+                StringUtils.hasText(macPrefix) ? macPrefix.trim() : null);
+        ExportManifest manifest;
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(Paths.get(file)), 1 << 16)) {
+            manifest = exportService.export(out, ExportFormat.fromFileName(file), filter);
+        }
+        for (ExportManifest.Failure failure : manifest.getFailures()) {
+            log.warn("Not exported {} ({}): {}", failure.getMacAddress(), failure.getStatus(), failure.getError());
+        }
+        log.info("Wrote {} configurations to {}", manifest.getExported(), file);
+        int exitCode = manifest.getFailed() == 0 ? 0 : 1;
+        System.exit(SpringApplication.exit(context, () -> exitCode));
+    }
+}
@@ -0,0 +1,221 @@
+package com.voxloud.provisioning.export;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.voxloud.provisioning.entity.BatchProvisioningResult;
+import com.voxloud.provisioning.entity.Device;
+import com.voxloud.provisioning.exception.ProvisioningException;
+import com.voxloud.provisioning.repository.DeviceRepository;
+import com.voxloud.provisioning.service.ProvisioningService;
+import com.voxloud.provisioning.service.factory.ConfigurationStrategyFactory;
+import com.voxloud.provisioning.util.MacAddress;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Streams the rendered configurations of (a filtered part of) the inventory into an archive, one
+ * {@code <mac>.<ext>} entry per device plus a closing {@code manifest.json} (see {@link ExportManifest}).
+ * <p>
+ * Devices are paged from the repository and rendered in chunks of {@code provisioning.export.chunk-size} on
+ * {@code provisioning.export.parallelism} threads through {@link ProvisioningService#provisionBatch}, which serves
+ * cached configurations as they are and renders the rest through the configuration strategies. At most two chunks
+ * per thread are in flight, and entries are written as soon as their chunk is done, in inventory order, so memory
+ * stays bounded however large the inventory.
+ */
+@Service
+@Slf4j
+public class ConfigurationExportService implements DisposableBean {
+    static final String MANIFEST_NAME = "manifest.json";
+
+    private final DeviceRepository deviceRepository;
+    private final ProvisioningService provisioningService;
+    private final ConfigurationStrategyFactory strategyFactory;
+    private final ObjectMapper manifestMapper;
+    private final int parallelism;
+    private final int chunkSize;
+    private final int pageSize;
+    private final int maxReportedFailures;
+    private final ExecutorService renderers;
+
+    @Autowired
+    public ConfigurationExportService(DeviceRepository deviceRepository, ProvisioningService provisioningService,
+                                      ConfigurationStrategyFactory strategyFactory, ObjectMapper objectMapper,
+                                      @Value("${provisioning.export.parallelism:4}") int parallelism,
+                                      @Value("${provisioning.export.chunk-size:200}") int chunkSize,
+                                      @Value("${provisioning.index.load-page-size:10000}") int pageSize,
+                                      @Value("${provisioning.export.max-reported-failures:10000}") int maxReportedFailures) {
+        this.deviceRepository = deviceRepository;
+        this.provisioningService = provisioningService;
+        this.strategyFactory = strategyFactory;
+        this.manifestMapper = objectMapper.copy().enable(SerializationFeature.INDENT_OUTPUT);
+        this.parallelism = parallelism;
+        this.chunkSize = chunkSize;
+        this.pageSize = pageSize;
+        this.maxReportedFailures = maxReportedFailures;
+        AtomicInteger sequence = new AtomicInteger();
+        this.renderers = Executors.newFixedThreadPool(parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "export-" + sequence.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Writes the archive to {@code out}, which is left open.
+     */
+    public ExportManifest export(OutputStream out, ExportFormat format, ExportFilter filter) throws IOException {
+        long start = System.currentTimeMillis();
+        ExportManifest manifest = new ExportManifest();
+        manifest.setGeneratedAt(Instant.ofEpochMilli(start).toString());
+        manifest.setFilter(filter);
+        Map<Device.DeviceModel, String> extensions = new EnumMap<>(Device.DeviceModel.class);
+
+        ArchiveWriter archive = format.open(out);
+        Deque<Future<Chunk>> inFlight = new ArrayDeque<>();
+        try {
+            Slice<Device> page = findPage(filter, PageRequest.of(0, pageSize, Sort.by("macAddress")));
+            List<Device> pending = new ArrayList<>(chunkSize);
+            while (true) {
+                for (Device device : page) {
+                    pending.add(device);
+                    if (pending.size() == chunkSize) {
+                        submit(pending, inFlight, archive, manifest, extensions);
+                        pending = new ArrayList<>(chunkSize);
+                    }
+                }
+                if (!page.hasNext()) {
+                    break;
+                }
+                page = findPage(filter, page.nextPageable());
+            }
+            if (!pending.isEmpty()) {
+                submit(pending, inFlight, archive, manifest, extensions);
+            }
+            while (!inFlight.isEmpty()) {
+                write(inFlight.removeFirst(), archive, manifest, extensions);
+            }
+
+            manifest.setDurationMillis(System.currentTimeMillis() - start);
+            archive.write(MANIFEST_NAME, manifestMapper.writeValueAsBytes(manifest), start);
+            archive.finish();
+        } finally {
+            inFlight.forEach(future -> future.cancel(true));
+        }
+        log.info("Exported {} configurations ({} failed) in {} ms", manifest.getExported(), manifest.getFailed(),
+                manifest.getDurationMillis());
+        return manifest;
+    }
+
+    private Slice<Device> findPage(ExportFilter filter, Pageable pageable) {
+        String macPattern = filter.macPrefixPattern();
+        if (macPattern != null) {
+            return deviceRepository.findByModelAndBareMacAddressLike(filter.getModel(), macPattern, pageable);
+        }
+        return filter.getModel() == null
+                ? deviceRepository.findAllBy(pageable)
+                : deviceRepository.findByModel(filter.getModel(), pageable);
+    }
+
+    private void submit(List<Device> devices, Deque<Future<Chunk>> inFlight, ArchiveWriter archive,
+                        ExportManifest manifest, Map<Device.DeviceModel, String> extensions) throws IOException {
+        if (inFlight.size() >= parallelism * 2) {
+            write(inFlight.removeFirst(), archive, manifest, extensions);
+        }
+        Map<String, Device.DeviceModel> models = new HashMap<>(devices.size() * 2);
+        List<String> macAddresses = new ArrayList<>(devices.size());
+        for (Device device : devices) {
+            String macAddress = MacAddress.normalize(device.getMacAddress());
+            models.put(macAddress, device.getModel());
+            macAddresses.add(macAddress);
+        }
+        inFlight.addLast(renderers.submit(() -> {
+            List<BatchProvisioningResult> results = new ArrayList<>(macAddresses.size());
+            provisioningService.provisionBatch(macAddresses, results::add);
+            return new Chunk(models, results);
+        }));
+    }
+
+    private void write(Future<Chunk> future, ArchiveWriter archive, ExportManifest manifest,
+                       Map<Device.DeviceModel, String> extensions) throws IOException {
+        Chunk chunk;
+        try {
+            chunk = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Export interrupted");
+        } catch (ExecutionException e) {
+            // provisionBatch reports per-device failures itself; this is the repository or the pool failing
+            throw new IOException("Rendering failed: " + e.getCause().getMessage(), e.getCause());
+        }
+
+        long now = System.currentTimeMillis();
+        for (BatchProvisioningResult result : chunk.results) {
+            if (result.getStatus() != BatchProvisioningResult.Status.OK) {
+                // NOT_FOUND: deleted since the page was read
+                manifest.fail(result.getMacAddress(), result.getStatus().name(), result.getError(), maxReportedFailures);
+                continue;
+            }
+            Device.DeviceModel model = chunk.models.get(result.getMacAddress());
+            String extension;
+            try {
+                extension = extension(model, extensions);
+            } catch (ProvisioningException e) {
+                manifest.fail(result.getMacAddress(), BatchProvisioningResult.Status.ERROR.name(), e.getMessage(),
+                        maxReportedFailures);
+                continue;
+            }
+            archive.write(result.getMacAddress() + "." + extension,
+                    result.getConfiguration().getBytes(StandardCharsets.UTF_8), now);
+            manifest.setExported(manifest.getExported() + 1);
+        }
+    }
+
+    private String extension(Device.DeviceModel model, Map<Device.DeviceModel, String> extensions) throws ProvisioningException {
+        String extension = extensions.get(model);
+        if (extension == null) {
+            extension = strategyFactory.getStrategy(model).getFileExtension();
+            extensions.put(model, extension);
+        }
+        return extension;
+    }
+
+    @Override
+    public void destroy() {
+        renderers.shutdownNow();
+    }
+
+    private static final class Chunk {
+        private final Map<String, Device.DeviceModel> models;
+        private final List<BatchProvisioningResult> results;
+
+        private Chunk(Map<String, Device.DeviceModel> models, List<BatchProvisioningResult> results) {
+            this.models = models;
+            this.results = results;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.voxloud.provisioning.export;
+
+import com.voxloud.provisioning.entity.Device;
+import lombok.Value;
+
+import java.util.Locale;
+
+/**
+ * Selects the devices to export: those of {@code model} (all models if {@code null}) whose MAC address starts with
+ * {@code macPrefix} (all if {@code null}). Prefixes are matched ignoring case and separators, so {@code AA:BB}
+ * selects {@code aa-bb-cc-dd-ee-ff}.
+ */
+@Value
+public class ExportFilter {
+    Device.DeviceModel model;
+    String macPrefix;
+
+    /**
+     * @return {@code macPrefix} as a pattern for {@code DeviceRepository.findByModelAndBareMacAddressLike}, or
+     * {@code null} if there is none
+     */
+    public String macPrefixPattern() {
+        if (macPrefix == null) {
+            return null;
+        }
+        String bare = macPrefix.replaceAll("[-:.]", "").toLowerCase(Locale.ROOT);
+        return bare.replaceAll("([\\\\%_])", "\\\\$1") + "%";
+    }
+}
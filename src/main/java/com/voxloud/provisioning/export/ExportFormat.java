@@ -0,0 +1,47 @@
+package com.voxloud.provisioning.export;
+
+import org.springframework.http.MediaType;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+
+/**
+ * Archive formats configurations can be exported in.
+ */
+public enum ExportFormat {
+    ZIP("zip", MediaType.valueOf("application/zip")) {
+        @Override
+        ArchiveWriter open(OutputStream out) {
+            return new ZipArchiveWriter(out);
+        }
+    },
+    TAR("tar", MediaType.valueOf("application/x-tar")) {
+        @Override
+        ArchiveWriter open(OutputStream out) {
+            return new TarArchiveWriter(out);
+        }
+    };
+
+    private final String extension;
+    private final MediaType contentType;
+
+    ExportFormat(String extension, MediaType contentType) {
+        this.extension = extension;
+        this.contentType = contentType;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    public MediaType getContentType() {
+        return contentType;
+    }
+
+    abstract ArchiveWriter open(OutputStream out) throws IOException;
+
+    public static ExportFormat fromFileName(String fileName) {
+        return fileName.toLowerCase(Locale.ROOT).endsWith(".tar") ? TAR : ZIP;
+    }
+}
@@ -0,0 +1,41 @@
+package com.voxloud.provisioning.export;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Data;
+import lombok.Value;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Summary of an export, written as {@code manifest.json} at the end of the archive. Devices that could not be
+ * rendered are listed here instead of aborting the export; at most {@code maxReportedFailures} of them.
+ */
+@Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ExportManifest {
+    private String generatedAt;
+    private ExportFilter filter;
+    private long exported;
+    private long failed;
+    private boolean failuresTruncated;
+    private final List<Failure> failures = new ArrayList<>();
+    private long durationMillis;
+
+    void fail(String macAddress, String status, String error, int maxReportedFailures) {
+        failed++;
+        if (failures.size() < maxReportedFailures) {
+            failures.add(new Failure(macAddress, status, error));
+        } else {
+            failuresTruncated = true;
+        }
+    }
+
+    @Value
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class Failure {
+        String macAddress;
+        String status;
+        String error;
+    }
+}
@@ -0,0 +1,76 @@
+package com.voxloud.provisioning.export;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Minimal POSIX ustar writer for regular files with names of up to 100 bytes, which is all an export needs.
+ */
+class TarArchiveWriter implements ArchiveWriter {
+    private static final int BLOCK_SIZE = 512;
+
+    private final OutputStream out;
+
+    TarArchiveWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void write(String name, byte[] content, long lastModified) throws IOException {
+        byte[] header = new byte[BLOCK_SIZE];
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        if (nameBytes.length > 100) {
+            throw new IOException("Entry name too long for tar: " + name);
+        }
+        System.arraycopy(nameBytes, 0, header, 0, nameBytes.length);
+        octal(header, 100, 8, 0644);
+        octal(header, 108, 8, 0);
+        octal(header, 116, 8, 0);
+        octal(header, 124, 12, content.length);
+        octal(header, 136, 12, lastModified / 1000);
+        header[156] = '0';
+        ascii(header, 257, "ustar\0");
+        ascii(header, 263, "00");
+
+        // Checksum over the header with the checksum field itself taken as spaces
+        for (int i = 148; i < 156; i++) {
+            header[i] = ' ';
+        }
+        long checksum = 0;
+        for (byte b : header) {
+            checksum += b & 0xff;
+        }
+        octal(header, 148, 7, checksum);
+
+        out.write(header);
+        out.write(content);
+        int padding = (BLOCK_SIZE - content.length % BLOCK_SIZE) % BLOCK_SIZE;
+        out.write(new byte[padding]);
+    }
+
+    @Override
+    public void finish() throws IOException {
+        // End of archive: two zero blocks
+        out.write(new byte[2 * BLOCK_SIZE]);
+        out.flush();
+    }
+
+    /**
+     * Zero-padded octal number of {@code length - 1} digits followed by a NUL.
+     */
+    private static void octal(byte[] header, int offset, int length, long value) {
+        String digits = Long.toOctalString(value);
+        int pad = length - 1 - digits.length();
+        for (int i = 0; i < pad; i++) {
+            header[offset + i] = '0';
+        }
+        ascii(header, offset + pad, digits);
+        header[offset + length - 1] = 0;
+    }
+
+    private static void ascii(byte[] header, int offset, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(bytes, 0, header, offset, bytes.length);
+    }
+}
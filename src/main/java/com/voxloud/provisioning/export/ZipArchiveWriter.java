@@ -0,0 +1,28 @@
+package com.voxloud.provisioning.export;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+class ZipArchiveWriter implements ArchiveWriter {
+    private final ZipOutputStream zip;
+
+    ZipArchiveWriter(OutputStream out) {
+        this.zip = new ZipOutputStream(out);
+    }
+
+    @Override
+    public void write(String name, byte[] content, long lastModified) throws IOException {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setTime(lastModified);
+        zip.putNextEntry(entry);
+        zip.write(content);
+        zip.closeEntry();
+    }
+
+    @Override
+    public void finish() throws IOException {
+        zip.finish();
+    }
+}
@@ -0,0 +1,37 @@
+package com.voxloud.provisioning.importer;
+
+import lombok.Data;
+import lombok.Value;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Outcome of an import: row counts and the rows that were rejected. Only the first {@code maxErrors}
+ * rejections are listed, so the report stays small however bad the input is.
+ */
+@Data
+public class DeviceImportReport {
+    private long rowsRead;
+    private long imported;
+    private long rejected;
+    private boolean errorsTruncated;
+    private final List<RowError> errors = new ArrayList<>();
+    private long durationMillis;
+
+    void reject(long row, String macAddress, String message, int maxErrors) {
+        rejected++;
+        if (errors.size() < maxErrors) {
+            errors.add(new RowError(row, macAddress, message));
+        } else {
+            errorsTruncated = true;
+        }
+    }
+
+    @Value
+    public static class RowError {
+        long row;
+        String macAddress;
+        String message;
+    }
+}
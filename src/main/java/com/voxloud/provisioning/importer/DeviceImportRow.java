@@ -0,0 +1,20 @@
+package com.voxloud.provisioning.importer;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import lombok.Data;
+
+/**
+ * One device as read from an import file, before validation. All fields are text so that a bad value is
+ * reported against its row instead of failing the parser.
+ */
+@Data
+@JsonIgnoreProperties(ignoreUnknown = true)
+@JsonPropertyOrder({"macAddress", "model", "username", "password", "overrideFragment"})
+public class DeviceImportRow {
+    private String macAddress;
+    private String model;
+    private String username;
+    private String password;
+    private String overrideFragment;
+}
@@ -0,0 +1,53 @@
+package com.voxloud.provisioning.importer;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.stereotype.Component;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Command-line import: with {@code --provisioning.import.file=<path>} the application imports the file, logs
+ * the report and exits, with status 1 if any row was rejected. Combine with
+ * {@code --spring.main.web-application-type=none} to skip starting the HTTP server.
+ */
+@Component
+@ConditionalOnProperty(name = "provisioning.import.file")
+@Slf4j
+public class DeviceImportRunner implements ApplicationRunner {
+    private final DeviceImportService deviceImportService;
+    private final ConfigurableApplicationContext context;
+    private final String file;
+
+    @Autowired
+    public DeviceImportRunner(DeviceImportService deviceImportService, ConfigurableApplicationContext context,
+                              @Value("${provisioning.import.file}") String file) {
+        this.deviceImportService = deviceImportService;
+        this.context = context;
+        this.file = file;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) throws Exception {
+        DeviceImportReport report;
+        try (InputStream in = Files.newInputStream(Paths.get(file))) {
+            report = deviceImportService.importDevices(in, ImportFormat.fromFileName(file));
+        }
+        for (DeviceImportReport.RowError error : report.getErrors()) {
+            log.warn("Rejected row {} ({}): {}", error.getRow(), error.getMacAddress(), error.getMessage());
+        }
+        if (report.isErrorsTruncated()) {
+            log.warn("{} more rejected rows not listed", report.getRejected() - report.getErrors().size());
+        }
+        int exitCode = report.getRejected() == 0 ? 0 : 1;
+        System.exit(SpringApplication.exit(context, () -> exitCode));
+    }
+}
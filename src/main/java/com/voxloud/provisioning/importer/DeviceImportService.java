@@ -0,0 +1,227 @@
+package com.voxloud.provisioning.importer;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.dataformat.csv.CsvMapper;
+import com.fasterxml.jackson.dataformat.csv.CsvSchema;
+import com.voxloud.provisioning.changelog.DeviceChangeLog;
+import com.voxloud.provisioning.entity.Device;
+import com.voxloud.provisioning.event.DeviceChangedEvent;
+import com.voxloud.provisioning.exception.ProvisioningException;
+import com.voxloud.provisioning.service.strategy.OverrideFragmentCompiler;
+import com.voxloud.provisioning.util.MacAddress;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Streams devices from a CSV or NDJSON file into the inventory.
+ * <p>
+ * Every row is validated on its own, including its override fragment against the strategy of its model; bad
+ * rows are listed in the {@link DeviceImportReport} and do not stop the import. Valid rows are upserted with
+ * JDBC batch statements, one transaction per {@code provisioning.import.chunk-size} rows, so memory use does
+ * not depend on the size of the file. MAC addresses are stored in canonical form.
+ * <p>
+ * The writes bypass JPA, so every imported device is recorded in the {@link DeviceChangeLog} and a
+ * {@link DeviceChangedEvent} is published for it; listeners see it once its chunk has committed. The upsert
+ * leaves columns the file does not carry, such as the profile, as they were; those are read back for the whole
+ * chunk with one query, so the events carry complete devices and listeners do not go back to the database.
+ */
+@Service
+@Slf4j
+public class DeviceImportService {
+    // H2 upsert; other databases need their MERGE/ON CONFLICT equivalent
+    static final String UPSERT_SQL = "MERGE INTO device (mac_address, model, username, password, override_fragment) "
+            + "KEY (mac_address) VALUES (?, ?, ?, ?, ?)";
+    static final String PROFILE_IDS_SQL = "SELECT mac_address, profile_id FROM device "
+            + "WHERE mac_address IN (:macAddresses) AND profile_id IS NOT NULL";
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final OverrideFragmentCompiler overrideFragmentCompiler;
+    private final ApplicationEventPublisher eventPublisher;
+    private final DeviceChangeLog changeLog;
+    private final ObjectReader jsonRowReader;
+    private final ObjectReader csvRowReader;
+    private final int chunkSize;
+    private final int maxErrors;
+
+    @Autowired
+    public DeviceImportService(NamedParameterJdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate,
+                               OverrideFragmentCompiler overrideFragmentCompiler,
+                               ApplicationEventPublisher eventPublisher, DeviceChangeLog changeLog,
+                               ObjectMapper objectMapper,
+                               @Value("${provisioning.import.chunk-size:1000}") int chunkSize,
+                               @Value("${provisioning.import.max-reported-errors:1000}") int maxErrors) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.overrideFragmentCompiler = overrideFragmentCompiler;
+        this.eventPublisher = eventPublisher;
+        this.changeLog = changeLog;
+        this.jsonRowReader = objectMapper.readerFor(DeviceImportRow.class);
+        this.csvRowReader = new CsvMapper().readerFor(DeviceImportRow.class)
+                .with(CsvSchema.emptySchema().withHeader());
+        this.chunkSize = chunkSize;
+        this.maxErrors = maxErrors;
+    }
+
+    public DeviceImportReport importDevices(InputStream in, ImportFormat format) throws IOException {
+        long start = System.currentTimeMillis();
+        DeviceImportReport report = new DeviceImportReport();
+        List<Device> chunk = new ArrayList<>(chunkSize);
+        RowSink sink = (row, fields) -> {
+            report.setRowsRead(report.getRowsRead() + 1);
+            try {
+                chunk.add(validate(fields));
+            } catch (InvalidRowException e) {
+                report.reject(row, fields.getMacAddress(), e.getMessage(), maxErrors);
+                return;
+            }
+            if (chunk.size() == chunkSize) {
+                write(chunk);
+                report.setImported(report.getImported() + chunk.size());
+                chunk.clear();
+            }
+        };
+
+        if (format == ImportFormat.CSV) {
+            readCsv(in, sink, report);
+        } else {
+            readNdjson(in, sink, report);
+        }
+        if (!chunk.isEmpty()) {
+            write(chunk);
+            report.setImported(report.getImported() + chunk.size());
+        }
+
+        report.setDurationMillis(System.currentTimeMillis() - start);
+        log.info("Imported {} devices ({} rows read, {} rejected) in {} ms",
+                report.getImported(), report.getRowsRead(), report.getRejected(), report.getDurationMillis());
+        return report;
+    }
+
+    private void readCsv(InputStream in, RowSink sink, DeviceImportReport report) throws IOException {
+        long row = 0;
+        try (MappingIterator<DeviceImportRow> rows = csvRowReader.readValues(in)) {
+            while (true) {
+                row++;
+                DeviceImportRow fields;
+                try {
+                    if (!rows.hasNextValue()) {
+                        break;
+                    }
+                    fields = rows.nextValue();
+                } catch (JsonProcessingException e) {
+                    // The CSV parser cannot resynchronise after malformed quoting; stop at the broken row
+                    report.setRowsRead(report.getRowsRead() + 1);
+                    report.reject(row, null, "Unreadable row, import stopped: " + e.getOriginalMessage(), maxErrors);
+                    break;
+                }
+                sink.accept(row, fields);
+            }
+        }
+    }
+
+    private void readNdjson(InputStream in, RowSink sink, DeviceImportReport report) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        long row = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            row++;
+            DeviceImportRow fields;
+            try {
+                fields = jsonRowReader.readValue(line);
+            } catch (JsonProcessingException e) {
+                report.setRowsRead(report.getRowsRead() + 1);
+                report.reject(row, null, "Unreadable row: " + e.getOriginalMessage(), maxErrors);
+                continue;
+            }
+            sink.accept(row, fields);
+        }
+    }
+
+    private Device validate(DeviceImportRow row) throws InvalidRowException {
+        long macAddress = MacAddress.parse(StringUtils.trim(row.getMacAddress()));
+        if (macAddress == MacAddress.INVALID) {
+            throw new InvalidRowException("Invalid MAC address: " + row.getMacAddress());
+        }
+        Device.DeviceModel model;
+        try {
+            model = Device.DeviceModel.valueOf(StringUtils.trimToEmpty(row.getModel()).toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new InvalidRowException("Unknown model: " + row.getModel());
+        }
+        if (StringUtils.isBlank(row.getUsername())) {
+            throw new InvalidRowException("Missing username");
+        }
+        if (StringUtils.isBlank(row.getPassword())) {
+            throw new InvalidRowException("Missing password");
+        }
+
+        Device device = new Device(MacAddress.format(macAddress), model,
+                StringUtils.defaultIfBlank(row.getOverrideFragment(), null), row.getUsername(), row.getPassword());
+        try {
+            device.setCompiledOverride(overrideFragmentCompiler.compile(device));
+        } catch (ProvisioningException e) {
+            throw new InvalidRowException("Invalid override fragment: " + e.getMessage());
+        }
+        return device;
+    }
+
+    private void write(List<Device> chunk) {
+        transactionTemplate.execute(status -> {
+            jdbcTemplate.getJdbcTemplate().batchUpdate(UPSERT_SQL, chunk, chunk.size(), (statement, device) -> {
+                statement.setString(1, device.getMacAddress());
+                statement.setString(2, device.getModel().name());
+                statement.setString(3, device.getUsername());
+                statement.setString(4, device.getPassword());
+                statement.setString(5, device.getOverrideFragment());
+            });
+            List<String> macAddresses = chunk.stream().map(Device::getMacAddress).collect(Collectors.toList());
+            Map<String, String> profileIds = new HashMap<>();
+            jdbcTemplate.query(PROFILE_IDS_SQL, Collections.singletonMap("macAddresses", macAddresses),
+                    (RowCallbackHandler) resultSet -> profileIds.put(resultSet.getString(1), resultSet.getString(2)));
+            changeLog.recordSaved(macAddresses);
+            for (Device device : chunk) {
+                device.setProfileId(profileIds.get(device.getMacAddress()));
+                eventPublisher.publishEvent(DeviceChangedEvent.saved(device));
+            }
+            return null;
+        });
+    }
+
+    @FunctionalInterface
+    private interface RowSink {
+        void accept(long row, DeviceImportRow fields);
+    }
+
+    private static class InvalidRowException extends Exception {
+        InvalidRowException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.voxloud.provisioning.importer;
+
+import org.springframework.http.MediaType;
+
+import java.util.Locale;
+
+/**
+ * Supported import file formats.
+ * <ul>
+ *     <li>{@code CSV}: RFC 4180 with a header row naming the columns {@code macAddress}, {@code model},
+ *     {@code username}, {@code password} and optionally {@code overrideFragment}, in any order. Fragments
+ *     spanning several lines must be quoted.</li>
+ *     <li>{@code NDJSON}: one JSON object per line with the same field names.</li>
+ * </ul>
+ */
+public enum ImportFormat {
+    CSV,
+    NDJSON;
+
+    public static final MediaType TEXT_CSV = MediaType.valueOf("text/csv");
+
+    public static ImportFormat fromContentType(MediaType contentType) {
+        if (contentType != null && TEXT_CSV.isCompatibleWith(contentType)) {
+            return CSV;
+        }
+        return NDJSON;
+    }
+
+    public static ImportFormat fromFileName(String fileName) {
+        return fileName.toLowerCase(Locale.ROOT).endsWith(".csv") ? CSV : NDJSON;
+    }
+}
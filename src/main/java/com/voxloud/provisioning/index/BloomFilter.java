@@ -0,0 +1,91 @@
+package com.voxloud.provisioning.index;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bloom filter over 64-bit keys, safe for concurrent {@link #put} and {@link #mightContain}.
+ * <p>
+ * Sized from the expected number of insertions and the target false-positive rate, capped at a maximum
+ * number of bytes (which raises the effective false-positive rate if the cap is hit). Bit positions are derived
+ * by double hashing from a single 64-bit mix of the key.
+ */
+class BloomFilter {
+    private final AtomicLongArray words;
+    private final long bitCount;
+    private final int hashCount;
+    private final LongAdder insertions = new LongAdder();
+
+    private BloomFilter(long bitCount, int hashCount) {
+        this.words = new AtomicLongArray((int) ((bitCount + 63) >>> 6));
+        this.bitCount = (long) words.length() << 6;
+        this.hashCount = hashCount;
+    }
+
+    static BloomFilter create(long expectedInsertions, double falsePositiveRate, long maxBytes) {
+        long n = Math.max(1, expectedInsertions);
+        long optimalBits = (long) Math.ceil(-n * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        long bits = Math.max(64, Math.min(optimalBits, Math.min(maxBytes * 8, (long) Integer.MAX_VALUE << 6)));
+        int hashes = Math.max(1, (int) Math.round((double) bits / n * Math.log(2)));
+        return new BloomFilter(bits, Math.min(hashes, 16));
+    }
+
+    void put(long key) {
+        long hash = mix(key);
+        int hash1 = (int) hash;
+        int hash2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashCount; i++) {
+            long bit = position(hash1, hash2, i);
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long current;
+            do {
+                current = words.get(word);
+                if ((current & mask) != 0) {
+                    break;
+                }
+            } while (!words.compareAndSet(word, current, current | mask));
+        }
+        insertions.increment();
+    }
+
+    boolean mightContain(long key) {
+        long hash = mix(key);
+        int hash1 = (int) hash;
+        int hash2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashCount; i++) {
+            long bit = position(hash1, hash2, i);
+            if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    long byteSize() {
+        return bitCount >>> 3;
+    }
+
+    /**
+     * @return the false-positive rate expected for the number of keys inserted so far
+     */
+    double expectedFalsePositiveRate() {
+        return Math.pow(1 - Math.exp(-hashCount * (double) insertions.sum() / bitCount), hashCount);
+    }
+
+    private long position(int hash1, int hash2, int i) {
+        long combined = hash1 + (long) i * hash2;
+        return (combined < 0 ? ~combined : combined) % bitCount;
+    }
+
+    private static long mix(long key) {
+        // MurmurHash3 finalizer, as in LongKeyedTable
+        long h = key;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
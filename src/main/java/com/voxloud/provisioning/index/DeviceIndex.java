@@ -0,0 +1,262 @@
+package com.voxloud.provisioning.index;
+
+import com.voxloud.provisioning.entity.Device;
+import com.voxloud.provisioning.event.DeviceChangedEvent;
+import com.voxloud.provisioning.repository.DeviceRepository;
+import com.voxloud.provisioning.util.MacAddress;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+
+/**
+ * In-memory index of the whole device inventory keyed by the packed 48-bit MAC address.
+ * <p>
+ * The index is loaded once the application is ready and then kept in sync through {@link DeviceChangedEvent}s.
+ * Lookups normalise the MAC first, so {@code AA:BB:CC:DD:EE:FF} finds a device stored as
+ * {@code aa-bb-cc-dd-ee-ff}. Rows whose key is not a MAC address are not indexed; until the index is loaded,
+ * and for such keys, callers fall back to {@link DeviceRepository}.
+ * <p>
+ * Reads are lock-free in the common case (optimistic {@link StampedLock} reads); writes are serialised.
+ * <p>
+ * The index can also be seeded from a snapshot ({@link #restore(Collection)}) so that it answers lookups before
+ * the repository has been read; {@link #load()} then replaces the restored devices with the repository's view.
+ * <p>
+ * Entries are detached {@link Device} copies rather than a packed record, so lookups hand out what they hold
+ * without building a new object. That costs about 270 bytes of heap per device with short credentials and no
+ * override (measured with 500,000 devices on a 64-bit JVM with compressed oops), roughly 80 of them for the MAC
+ * string the key already encodes. Profile ids are shared between the devices of a profile, which saves another
+ * 64 bytes for every device that has one.
+ */
+@Component
+@Slf4j
+public class DeviceIndex {
+    private final DeviceRepository deviceRepository;
+    private final boolean enabled;
+    private final int loadPageSize;
+    private final StampedLock lock = new StampedLock();
+    private final Set<String> changedDuringLoad = ConcurrentHashMap.newKeySet();
+    private final Map<String, String> profileIds = new ConcurrentHashMap<>();
+
+    private volatile LongKeyedTable<Device> table;
+    private volatile boolean loading;
+
+    @Autowired
+    public DeviceIndex(DeviceRepository deviceRepository,
+                       @Value("${provisioning.index.enabled:true}") boolean enabled,
+                       @Value("${provisioning.index.load-page-size:10000}") int loadPageSize,
+                       MeterRegistry meterRegistry) {
+        this.deviceRepository = deviceRepository;
+        this.enabled = enabled;
+        this.loadPageSize = loadPageSize;
+        Gauge.builder("provisioning.index.size", this, DeviceIndex::size)
+                .description("Devices held in the in-memory MAC index")
+                .register(meterRegistry);
+    }
+
+    public boolean isReady() {
+        return table != null;
+    }
+
+    /**
+     * @return the device for {@code macAddress}; empty if it is unknown. Only meaningful when
+     * {@link #isReady()} and {@link #isIndexable(String)} both hold.
+     */
+    public Optional<Device> find(String macAddress) {
+        long key = MacAddress.parse(macAddress);
+        if (key == MacAddress.INVALID) {
+            return Optional.empty();
+        }
+
+        long stamp = lock.tryOptimisticRead();
+        LongKeyedTable<Device> current = table;
+        // May race with a writer; the probe is bounded and a torn answer is caught by the stamp check below
+        Device device = current != null ? current.get(key) : null;
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                device = table != null ? table.get(key) : null;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return Optional.ofNullable(device);
+    }
+
+    public static boolean isIndexable(String macAddress) {
+        return MacAddress.parse(macAddress) != MacAddress.INVALID;
+    }
+
+    public int size() {
+        LongKeyedTable<Device> current = table;
+        return current == null ? 0 : current.size();
+    }
+
+    /**
+     * Serves {@code devices} until {@link #load()} completes. Ignored if the index is disabled or already loaded.
+     *
+     * @return whether the devices were installed
+     */
+    public boolean restore(Collection<Device> devices) {
+        if (!enabled) {
+            return false;
+        }
+        LongKeyedTable<Device> restored = new LongKeyedTable<>(devices.size());
+        for (Device device : devices) {
+            long key = MacAddress.parse(device.getMacAddress());
+            if (key != MacAddress.INVALID) {
+                restored.put(key, shareProfileId(device));
+            }
+        }
+
+        long stamp = lock.writeLock();
+        try {
+            if (table != null) {
+                return false;
+            }
+            table = restored;
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Hands every indexed device to {@code action}, under the read lock; writers wait until it returns.
+     */
+    public void forEach(Consumer<Device> action) {
+        long stamp = lock.readLock();
+        try {
+            if (table != null) {
+                table.forEach(action);
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        if (!enabled) {
+            log.info("Device index disabled, lookups go to the repository");
+            return;
+        }
+        long start = System.currentTimeMillis();
+        loading = true;
+        changedDuringLoad.clear();
+
+        LongKeyedTable<Device> loaded = new LongKeyedTable<>((int) Math.min(Integer.MAX_VALUE / 2, deviceRepository.count()));
+        int skipped = 0;
+        Slice<Device> page = deviceRepository.findAll(PageRequest.of(0, loadPageSize, Sort.by("macAddress")));
+        while (true) {
+            for (Device device : page) {
+                long key = MacAddress.parse(device.getMacAddress());
+                if (key == MacAddress.INVALID) {
+                    skipped++;
+                } else {
+                    loaded.put(key, shareProfileId(device.copy()));
+                }
+            }
+            if (!page.hasNext()) {
+                break;
+            }
+            page = deviceRepository.findAll(page.nextPageable());
+        }
+
+        long stamp = lock.writeLock();
+        try {
+            table = loaded;
+            loading = false;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+
+        // Writes that committed while we were paging may not be reflected in the pages we read
+        for (String macAddress : changedDuringLoad) {
+            refresh(macAddress);
+        }
+        changedDuringLoad.clear();
+        log.info("Indexed {} devices in {} ms ({} rows without a MAC address key)",
+                loaded.size(), System.currentTimeMillis() - start, skipped);
+    }
+
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void onDeviceChanged(DeviceChangedEvent event) {
+        if (!enabled || !isIndexable(event.getMacAddress())) {
+            return;
+        }
+        if (loading) {
+            changedDuringLoad.add(event.getMacAddress());
+        }
+        if (event.isDeleted()) {
+            remove(event.getMacAddress());
+        } else if (event.getDevice() != null) {
+            put(event.getDevice());
+        } else {
+            refresh(event.getMacAddress());
+        }
+    }
+
+    private void refresh(String macAddress) {
+        Optional<Device> device = deviceRepository.findById(macAddress);
+        if (device.isPresent()) {
+            put(device.get().copy());
+        } else {
+            remove(macAddress);
+        }
+    }
+
+    private void put(Device device) {
+        long stamp = lock.writeLock();
+        try {
+            if (table != null) {
+                table.put(MacAddress.parse(device.getMacAddress()), shareProfileId(device));
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Replaces the profile id of {@code device} with the instance already held for it, so that the devices of a
+     * profile do not each keep their own copy of the string.
+     */
+    private Device shareProfileId(Device device) {
+        String profileId = device.getProfileId();
+        if (profileId != null) {
+            String shared = profileIds.putIfAbsent(profileId, profileId);
+            if (shared != null) {
+                device.setProfileId(shared);
+            }
+        }
+        return device;
+    }
+
+    private void remove(String macAddress) {
+        long stamp = lock.writeLock();
+        try {
+            if (table != null) {
+                table.remove(MacAddress.parse(macAddress));
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package com.voxloud.provisioning.index;
+
+import com.voxloud.provisioning.event.DeviceChangedEvent;
+import com.voxloud.provisioning.repository.DeviceRepository;
+import com.voxloud.provisioning.util.MacAddress;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bloom filter of every MAC address in the inventory, so lookups for unknown devices can be answered without
+ * touching the database.
+ * <p>
+ * {@link #mightContain(String)} never returns {@code false} for a device that exists: the filter is built once
+ * the application is ready and every saved device is added after commit. Deleted devices cannot be removed
+ * from a Bloom filter, so after {@code provisioning.bloom.rebuild-after-deletes} deletions the filter is
+ * rebuilt from the repository, on a background thread so the delete that crosses the threshold does not pay for
+ * the scan. Until the first build completes every MAC is reported as possibly known.
+ * <p>
+ * Size is derived from {@code provisioning.bloom.expected-insertions} (or the inventory size, if larger) and
+ * {@code provisioning.bloom.false-positive-rate}, capped at {@code provisioning.bloom.max-memory-bytes}.
+ */
+@Component
+@Slf4j
+public class KnownDeviceFilter implements DisposableBean {
+    private final DeviceRepository deviceRepository;
+    private final boolean enabled;
+    private final long expectedInsertions;
+    private final double falsePositiveRate;
+    private final long maxMemoryBytes;
+    private final long rebuildAfterDeletes;
+    private final int loadPageSize;
+    private final Set<String> addedDuringBuild = ConcurrentHashMap.newKeySet();
+    private final AtomicLong deletesSinceBuild = new AtomicLong();
+    private final AtomicBoolean rebuildScheduled = new AtomicBoolean();
+    private final ExecutorService executor;
+    private final Counter rejected;
+
+    private volatile BloomFilter filter;
+    private volatile boolean building;
+
+    @Autowired
+    public KnownDeviceFilter(DeviceRepository deviceRepository,
+                             @Value("${provisioning.bloom.enabled:true}") boolean enabled,
+                             @Value("${provisioning.bloom.expected-insertions:1000000}") long expectedInsertions,
+                             @Value("${provisioning.bloom.false-positive-rate:0.01}") double falsePositiveRate,
+                             @Value("${provisioning.bloom.max-memory-bytes:8388608}") long maxMemoryBytes,
+                             @Value("${provisioning.bloom.rebuild-after-deletes:100000}") long rebuildAfterDeletes,
+                             @Value("${provisioning.index.load-page-size:10000}") int loadPageSize,
+                             MeterRegistry meterRegistry) {
+        this.deviceRepository = deviceRepository;
+        this.enabled = enabled;
+        this.expectedInsertions = expectedInsertions;
+        this.falsePositiveRate = falsePositiveRate;
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.rebuildAfterDeletes = rebuildAfterDeletes;
+        this.loadPageSize = loadPageSize;
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "known-device-filter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Gauge.builder("provisioning.bloom.memory", this, f -> f.filter == null ? 0 : f.filter.byteSize())
+                .description("Bytes held by the known-device Bloom filter")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("provisioning.bloom.false-positive-rate", this,
+                f -> f.filter == null ? 1 : f.filter.expectedFalsePositiveRate())
+                .description("Expected false-positive rate of the known-device Bloom filter")
+                .register(meterRegistry);
+        this.rejected = Counter.builder("provisioning.bloom.rejected")
+                .description("Lookups answered as unknown by the known-device Bloom filter")
+                .register(meterRegistry);
+    }
+
+    /**
+     * @return {@code false} only if no device with this MAC address exists
+     */
+    public boolean mightContain(String macAddress) {
+        BloomFilter current = filter;
+        if (current == null || current.mightContain(keyOf(macAddress))) {
+            return true;
+        }
+        rejected.increment();
+        return false;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void rebuild() {
+        if (!enabled) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        building = true;
+        addedDuringBuild.clear();
+        deletesSinceBuild.set(0);
+
+        BloomFilter built = BloomFilter.create(Math.max(expectedInsertions, deviceRepository.count()),
+                falsePositiveRate, maxMemoryBytes);
+        long count = 0;
+        Slice<String> page = deviceRepository.findAllMacAddresses(PageRequest.of(0, loadPageSize));
+        while (true) {
+            for (String macAddress : page) {
+                built.put(keyOf(macAddress));
+                count++;
+            }
+            if (!page.hasNext()) {
+                break;
+            }
+            page = deviceRepository.findAllMacAddresses(page.nextPageable());
+        }
+
+        filter = built;
+        building = false;
+        // Devices saved while we were paging may be missing from the pages we read
+        for (String macAddress : addedDuringBuild) {
+            built.put(keyOf(macAddress));
+        }
+        addedDuringBuild.clear();
+        log.info("Built known-device filter over {} devices in {} ms ({} bytes, expected false-positive rate {})",
+                count, System.currentTimeMillis() - start, built.byteSize(),
+                String.format("%.4f", built.expectedFalsePositiveRate()));
+    }
+
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void onDeviceChanged(DeviceChangedEvent event) {
+        if (!enabled) {
+            return;
+        }
+        if (event.isDeleted()) {
+            if (deletesSinceBuild.incrementAndGet() >= rebuildAfterDeletes && filter != null) {
+                scheduleRebuild();
+            }
+            return;
+        }
+        if (building) {
+            addedDuringBuild.add(event.getMacAddress());
+        }
+        BloomFilter current = filter;
+        if (current != null) {
+            current.put(keyOf(event.getMacAddress()));
+        }
+    }
+
+    private void scheduleRebuild() {
+        if (!rebuildScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    rebuild();
+                } catch (RuntimeException e) {
+                    // The current filter stays valid, it only reports more deleted devices as possibly known
+                    log.error("Could not rebuild known-device filter: {}", e.getMessage(), e);
+                } finally {
+                    rebuildScheduled.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Shutting down
+            rebuildScheduled.set(false);
+        }
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        executor.shutdown();
+        if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+            executor.shutdownNow();
+        }
+    }
+
+    private static long keyOf(String macAddress) {
+        long address = MacAddress.parse(macAddress);
+        if (address != MacAddress.INVALID) {
+            return address;
+        }
+        // Keys that are not MAC addresses hash by their exact text (64-bit FNV-1a), with the top bit set so
+        // they never coincide with a packed address
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < macAddress.length(); i++) {
+            hash ^= macAddress.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash | Long.MIN_VALUE;
+    }
+}
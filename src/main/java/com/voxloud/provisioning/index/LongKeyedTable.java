@@ -0,0 +1,172 @@
+package com.voxloud.provisioning.index;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Open-addressing hash table with primitive {@code long} keys and linear probing.
+ * <p>
+ * Keys live in a flat {@code long[]} next to a parallel value array, so an entry costs two array slots
+ * instead of a boxed key, a map node and a key object. Negative keys are reserved ({@code -1} marks an
+ * empty slot); removals use backward-shift deletion, so there are no tombstones and probe sequences stay short.
+ * Writers must be serialised; {@link #get(long)} may race with them. See {@link DeviceIndex} for the concurrent
+ * wrapper.
+ */
+class LongKeyedTable<V> {
+    private static final long EMPTY = -1L;
+    private static final float LOAD_FACTOR = 0.6f;
+
+    /**
+     * Keys, values and mask are replaced together, and a resized table is filled before it is published, so a
+     * reader racing with a writer (see {@link DeviceIndex#find(String)}) always probes arrays that match its mask
+     * and contain {@code EMPTY} slots.
+     */
+    private volatile Slots slots;
+    private int size;
+    private int resizeThreshold;
+
+    LongKeyedTable(int expectedSize) {
+        int capacity = tableSizeFor(expectedSize);
+        slots = new Slots(capacity);
+        resizeThreshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Safe to call concurrently with a writer: the probe is bounded by the table length, so a torn view yields a
+     * wrong answer (which the caller has to detect) rather than an endless loop or an out-of-bounds read.
+     */
+    @SuppressWarnings("unchecked")
+    V get(long key) {
+        Slots current = slots;
+        long[] keys = current.keys;
+        int slot = slot(key, current.mask);
+        for (int probe = 0; probe < keys.length; probe++) {
+            long candidate = keys[slot];
+            if (candidate == key) {
+                return (V) current.values[slot];
+            }
+            if (candidate == EMPTY) {
+                return null;
+            }
+            slot = (slot + 1) & current.mask;
+        }
+        return null;
+    }
+
+    void put(long key, V value) {
+        if (key < 0) {
+            throw new IllegalArgumentException("Negative keys are reserved: " + key);
+        }
+        if (slots.insert(key, value) && ++size > resizeThreshold) {
+            rehash(slots.keys.length * 2);
+        }
+    }
+
+    void remove(long key) {
+        Slots current = slots;
+        long[] keys = current.keys;
+        Object[] values = current.values;
+        int mask = current.mask;
+        int slot = slot(key, mask);
+        while (keys[slot] != key) {
+            if (keys[slot] == EMPTY) {
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        // Shift following entries of the probe chain back into the hole
+        int hole = slot;
+        int next = (hole + 1) & mask;
+        while (keys[next] != EMPTY) {
+            int home = slot(keys[next], mask);
+            // Move the entry unless its home slot lies cyclically in (hole, next]
+            boolean homeBetween = hole <= next ? (home > hole && home <= next) : (home > hole || home <= next);
+            if (!homeBetween) {
+                keys[hole] = keys[next];
+                values[hole] = values[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[hole] = EMPTY;
+        values[hole] = null;
+        size--;
+    }
+
+    @SuppressWarnings("unchecked")
+    void forEach(Consumer<? super V> action) {
+        Slots current = slots;
+        for (int i = 0; i < current.keys.length; i++) {
+            if (current.keys[i] != EMPTY) {
+                action.accept((V) current.values[i]);
+            }
+        }
+    }
+
+    private static int slot(long key, int mask) {
+        // MurmurHash3 finalizer; MAC addresses share vendor prefixes, so the low bits alone cluster badly
+        long h = key;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (int) h & mask;
+    }
+
+    private void rehash(int capacity) {
+        Slots old = slots;
+        Slots resized = new Slots(capacity);
+        for (int i = 0; i < old.keys.length; i++) {
+            if (old.keys[i] != EMPTY) {
+                resized.insert(old.keys[i], old.values[i]);
+            }
+        }
+        slots = resized;
+        resizeThreshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int tableSizeFor(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(16, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        return Math.max(16, capacity);
+    }
+
+    private static final class Slots {
+        private final long[] keys;
+        private final Object[] values;
+        private final int mask;
+
+        private Slots(int capacity) {
+            long[] keys = new long[capacity];
+            Arrays.fill(keys, EMPTY);
+            this.keys = keys;
+            this.values = new Object[capacity];
+            this.mask = capacity - 1;
+        }
+
+        /**
+         * @return whether {@code key} was added rather than updated
+         */
+        private boolean insert(long key, Object value) {
+            int slot = slot(key, mask);
+            while (true) {
+                long candidate = keys[slot];
+                if (candidate == key) {
+                    values[slot] = value;
+                    return false;
+                }
+                if (candidate == EMPTY) {
+                    values[slot] = value;
+                    keys[slot] = key;
+                    return true;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+    }
+}
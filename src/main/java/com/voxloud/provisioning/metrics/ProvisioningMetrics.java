@@ -0,0 +1,151 @@
+package com.voxloud.provisioning.metrics;
+
+import com.voxloud.provisioning.entity.ContentEncoding;
+import com.voxloud.provisioning.entity.Device;
+import com.voxloud.provisioning.entity.EncodedBody;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Meters for the provisioning hot path:
+ * <ul>
+ *     <li>{@code provisioning.request} - end-to-end latency of a provisioning request</li>
+ *     <li>{@code provisioning.requests{outcome}} - requests by outcome</li>
+ *     <li>{@code provisioning.response.size} - rendered body size in bytes</li>
+ *     <li>{@code provisioning.lookup{source}} - device lookup time, from the in-memory index or the repository</li>
+ *     <li>{@code provisioning.render{model}} - strategy render time per device model</li>
+ *     <li>{@code provisioning.override.apply{model}} - time spent compiling and applying override fragments</li>
+ *     <li>{@code provisioning.compression{encoding}} - time spent compressing a configuration version, once</li>
+ *     <li>{@code provisioning.compression.ratio{encoding}} - rendered size divided by compressed size</li>
+ *     <li>{@code provisioning.compression.bytes.saved{encoding}} - bytes not sent thanks to compression</li>
+ *     <li>{@code provisioning.compression.cpu.saved{encoding}} - compression time avoided by serving stored
+ *     compressed bodies instead of compressing per response</li>
+ * </ul>
+ * Percentile histograms are switched on for all of them through
+ * {@code management.metrics.distribution.percentiles-histogram.provisioning}.
+ */
+@Component
+public class ProvisioningMetrics {
+
+    public enum Outcome {
+        OK, NOT_MODIFIED, NOT_FOUND, ERROR, REJECTED
+    }
+
+    public enum LookupSource {
+        INDEX, REPOSITORY
+    }
+
+    private final Timer requestTimer;
+    private final DistributionSummary responseSize;
+    private final Map<Outcome, Counter> outcomes = new EnumMap<>(Outcome.class);
+    private final Map<LookupSource, Timer> lookupTimers = new EnumMap<>(LookupSource.class);
+    private final Map<Device.DeviceModel, Timer> renderTimers = new EnumMap<>(Device.DeviceModel.class);
+    private final Map<Device.DeviceModel, Timer> overrideTimers = new EnumMap<>(Device.DeviceModel.class);
+    private final Map<ContentEncoding, Timer> compressionTimers = new EnumMap<>(ContentEncoding.class);
+    private final Map<ContentEncoding, DistributionSummary> compressionRatios = new EnumMap<>(ContentEncoding.class);
+    private final Map<ContentEncoding, Counter> compressionBytesSaved = new EnumMap<>(ContentEncoding.class);
+    private final Map<ContentEncoding, Counter> compressionCpuSaved = new EnumMap<>(ContentEncoding.class);
+
+    @Autowired
+    public ProvisioningMetrics(MeterRegistry meterRegistry) {
+        this.requestTimer = Timer.builder("provisioning.request")
+                .description("End-to-end latency of provisioning requests")
+                .register(meterRegistry);
+        this.responseSize = DistributionSummary.builder("provisioning.response.size")
+                .description("Size of rendered provisioning files")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        for (Outcome outcome : Outcome.values()) {
+            outcomes.put(outcome, Counter.builder("provisioning.requests")
+                    .description("Provisioning requests by outcome")
+                    .tag("outcome", tagValue(outcome))
+                    .register(meterRegistry));
+        }
+        for (LookupSource source : LookupSource.values()) {
+            lookupTimers.put(source, Timer.builder("provisioning.lookup")
+                    .description("Device lookup time")
+                    .tag("source", tagValue(source))
+                    .register(meterRegistry));
+        }
+        for (Device.DeviceModel model : Device.DeviceModel.values()) {
+            renderTimers.put(model, Timer.builder("provisioning.render")
+                    .description("Configuration render time per device model")
+                    .tag("model", tagValue(model))
+                    .register(meterRegistry));
+            overrideTimers.put(model, Timer.builder("provisioning.override.apply")
+                    .description("Time spent compiling and applying override fragments")
+                    .tag("model", tagValue(model))
+                    .register(meterRegistry));
+        }
+        for (ContentEncoding encoding : ContentEncoding.values()) {
+            compressionTimers.put(encoding, Timer.builder("provisioning.compression")
+                    .description("Time spent compressing a configuration version")
+                    .tag("encoding", encoding.getToken())
+                    .register(meterRegistry));
+            compressionRatios.put(encoding, DistributionSummary.builder("provisioning.compression.ratio")
+                    .description("Rendered size divided by compressed size")
+                    .tag("encoding", encoding.getToken())
+                    .register(meterRegistry));
+            compressionBytesSaved.put(encoding, Counter.builder("provisioning.compression.bytes.saved")
+                    .description("Response bytes saved by compression")
+                    .baseUnit("bytes")
+                    .tag("encoding", encoding.getToken())
+                    .register(meterRegistry));
+            compressionCpuSaved.put(encoding, Counter.builder("provisioning.compression.cpu.saved")
+                    .description("Compression time avoided by reusing stored compressed bodies")
+                    .baseUnit("seconds")
+                    .tag("encoding", encoding.getToken())
+                    .register(meterRegistry));
+        }
+    }
+
+    public void recordRequest(Outcome outcome, long startNanos) {
+        requestTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        outcomes.get(outcome).increment();
+    }
+
+    public void recordResponseSize(String body) {
+        // Provisioning files are ASCII in practice; counting characters avoids encoding every body twice
+        responseSize.record(body.length());
+    }
+
+    public void recordLookup(LookupSource source, long startNanos) {
+        lookupTimers.get(source).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordRender(Device.DeviceModel model, long startNanos) {
+        renderTimers.get(model).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordOverrideApply(Device.DeviceModel model, long startNanos) {
+        overrideTimers.get(model).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordCompression(EncodedBody encoded) {
+        compressionTimers.get(encoded.getEncoding()).record(encoded.getCompressionNanos(), TimeUnit.NANOSECONDS);
+        compressionRatios.get(encoded.getEncoding()).record((double) encoded.getIdentityLength() / encoded.getBytes().length);
+    }
+
+    /**
+     * @param reused whether the compressed body was stored by an earlier request rather than compressed for this one
+     */
+    public void recordCompressedResponse(EncodedBody encoded, boolean reused) {
+        compressionBytesSaved.get(encoded.getEncoding()).increment(encoded.getIdentityLength() - encoded.getBytes().length);
+        if (reused) {
+            compressionCpuSaved.get(encoded.getEncoding()).increment(encoded.getCompressionNanos() / 1e9);
+        }
+    }
+
+    private static String tagValue(Enum<?> value) {
+        return value.name().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,22 @@
+package com.voxloud.provisioning.mirror;
+
+import lombok.Value;
+
+/**
+ * A device's files in the {@link StaticMirror}: {@code fileName} holds the rendered configuration and, if
+ * {@code gzipLength} is not negative, {@code fileName.gz} its gzip-compressed form. {@code inputHash} digests
+ * the device row and the render fingerprint the files were rendered from.
+ */
+@Value
+public class MirrorEntry {
+    String macAddress;
+    String fileName;
+    String inputHash;
+    String etag;
+    long length;
+    long gzipLength;
+
+    public boolean hasGzip() {
+        return gzipLength >= 0;
+    }
+}
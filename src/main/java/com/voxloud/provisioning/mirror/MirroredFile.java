@@ -0,0 +1,72 @@
+package com.voxloud.provisioning.mirror;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Response body backed by a mirror file, written by {@link MirroredFileHttpMessageConverter}. Nothing is opened
+ * until the body is written, so a response that never gets that far (turned into a 304, timed out, aborted by
+ * the client) holds no file handle.
+ * <p>
+ * The mirror replaces files rather than writing into them, and a file whose length no longer matches is refused.
+ * One replaced by a file of the same length between the lookup and the write is sent under the old headers; its
+ * device changed in that instant and the next request gets the new ETag.
+ */
+public final class MirroredFile {
+    private final Path path;
+    private final long length;
+
+    private MirroredFile(Path path, long length) {
+        this.path = path;
+        this.length = length;
+    }
+
+    /**
+     * @throws IOException if {@code file} does not exist or is not {@code length} bytes long, i.e. is not the file
+     *                     the caller expects
+     */
+    public static MirroredFile of(Path file, long length) throws IOException {
+        MirroredFile mirroredFile = new MirroredFile(file, length);
+        mirroredFile.verify();
+        return mirroredFile;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * @throws IOException if the file is gone or its length changed
+     */
+    void verify() throws IOException {
+        if (Files.size(path) != length) {
+            throw new IOException("Mirror file " + path + " changed");
+        }
+    }
+
+    /**
+     * Copies the file to {@code target} through a buffer.
+     */
+    public void transferTo(OutputStream target) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() != length) {
+                throw new IOException("Mirror file " + path + " changed");
+            }
+            WritableByteChannel out = Channels.newChannel(target);
+            long position = 0;
+            while (position < length) {
+                position += channel.transferTo(position, length - position, out);
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.voxloud.provisioning.mirror;
+
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+
+/**
+ * Writes {@link MirroredFile} bodies.
+ * <p>
+ * On a Tomcat connector that supports it, the file is handed to Tomcat's sendfile through the
+ * {@code org.apache.tomcat.sendfile.*} request attributes, and Tomcat sends it once the request returns, with
+ * {@code sendfile(2)} on the NIO connector, so the bytes never pass through the heap. Tomcat only does so at the
+ * end of an ordinary dispatch; responses written in an async dispatch (see {@code AsyncProvisioningController})
+ * and on other containers copy the file through a buffer instead.
+ */
+@Component
+public class MirroredFileHttpMessageConverter extends AbstractHttpMessageConverter<MirroredFile> {
+    static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    public MirroredFileHttpMessageConverter() {
+        super(MediaType.ALL);
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return MirroredFile.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    protected boolean canRead(MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    protected MirroredFile readInternal(Class<? extends MirroredFile> clazz, HttpInputMessage inputMessage) {
+        throw new HttpMessageNotReadableException("Mirror files are response bodies only", inputMessage);
+    }
+
+    @Override
+    protected Long getContentLength(MirroredFile file, MediaType contentType) {
+        return file.getLength();
+    }
+
+    @Override
+    protected void writeInternal(MirroredFile file, HttpOutputMessage outputMessage) throws IOException {
+        HttpServletRequest request = sendfileRequest();
+        if (request == null) {
+            file.transferTo(outputMessage.getBody());
+            return;
+        }
+        // Nothing is committed yet, so a file that went away still fails the request rather than the transfer
+        file.verify();
+        request.setAttribute(SENDFILE_FILENAME, file.getPath().toRealPath().toString());
+        request.setAttribute(SENDFILE_START, 0L);
+        request.setAttribute(SENDFILE_END, file.getLength());
+    }
+
+    /**
+     * @return the current request if Tomcat will send a file named in its attributes, otherwise {@code null}
+     */
+    private static HttpServletRequest sendfileRequest() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (!(attributes instanceof ServletRequestAttributes)) {
+            return null;
+        }
+        HttpServletRequest request = ((ServletRequestAttributes) attributes).getRequest();
+        return request.getDispatcherType() == DispatcherType.REQUEST
+                && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT)) ? request : null;
+    }
+}
@@ -0,0 +1,473 @@
+package com.voxloud.provisioning.mirror;
+
+import com.voxloud.provisioning.entity.BatchProvisioningResult;
+import com.voxloud.provisioning.entity.ContentEncoding;
+import com.voxloud.provisioning.entity.Device;
+import com.voxloud.provisioning.event.DeviceChangedEvent;
+import com.voxloud.provisioning.exception.ProvisioningException;
+import com.voxloud.provisioning.profile.ProfileRegistry;
+import com.voxloud.provisioning.repository.DeviceRepository;
+import com.voxloud.provisioning.service.ProvisioningService;
+import com.voxloud.provisioning.service.factory.ConfigurationStrategyFactory;
+import com.voxloud.provisioning.util.MacAddress;
+import com.voxloud.provisioning.util.RenderFingerprint;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.util.DigestUtils;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps a directory of rendered configurations, {@code <mac>.cfg} or {@code <mac>.json} per device (plus
+ * {@code .gz} for bodies worth compressing), that the provisioning endpoints serve from without touching the
+ * repository or the renderers, and that a plain static web server can serve as a fallback tier.
+ * <p>
+ * The mirror is incremental: {@code .mirror-index} records, per device, a hash of the device row, of its resolved
+ * profile and of the render settings ({@link RenderFingerprint}) its files were rendered from. Once the
+ * application is ready the inventory is paged and only devices whose hash differs, or whose files are missing,
+ * are rendered again; devices no longer in the inventory lose their files. Afterwards every {@link DeviceChangedEvent} takes the
+ * device out of service at once and re-renders it in the background.
+ * <p>
+ * A device is only served from the mirror once it has been checked against the repository in this run, so a
+ * mirror left behind by an earlier run never serves stale files. All disk work happens on a single
+ * {@code static-mirror} thread; files are written next to their destination and atomically moved into place.
+ * <p>
+ * Publishes {@code provisioning.mirror.files}, {@code provisioning.mirror.renders} and
+ * {@code provisioning.mirror.hits}.
+ */
+@Component
+@ConditionalOnProperty(name = "provisioning.mirror.enabled", havingValue = "true")
+@Slf4j
+public class StaticMirror implements DisposableBean {
+    static final String INDEX_NAME = ".mirror-index";
+    static final String GZIP_SUFFIX = ".gz";
+    /**
+     * Keys that are safe as file names; every canonical MAC address is.
+     */
+    private static final Pattern MIRRORABLE = Pattern.compile("[A-Za-z0-9][A-Za-z0-9_-]*");
+
+    private final DeviceRepository deviceRepository;
+    private final ProvisioningService provisioningService;
+    private final ConfigurationStrategyFactory strategyFactory;
+    private final ProfileRegistry profileRegistry;
+    private final Path directory;
+    private final String renderFingerprint;
+    private final int chunkSize;
+    private final int pageSize;
+    private final boolean compressionEnabled;
+    private final int compressionMinSize;
+    private final int compressionLevel;
+    private final ExecutorService executor;
+    private final Counter renders;
+    private final Counter hits;
+
+    /**
+     * Entries verified against the repository in this run; read by request threads.
+     */
+    private final Map<String, MirrorEntry> entries = new ConcurrentHashMap<>();
+    /**
+     * Everything on disk, as recorded in the index file; only touched on the mirror thread.
+     */
+    private Map<String, MirrorEntry> recorded;
+    private final Map<Device.DeviceModel, String> extensions = new EnumMap<>(Device.DeviceModel.class);
+
+    private final AtomicLong changeSequence = new AtomicLong();
+    private final Map<String, Long> pendingChanges = new ConcurrentHashMap<>();
+
+    @Autowired
+    public StaticMirror(DeviceRepository deviceRepository, ProvisioningService provisioningService,
+                        ConfigurationStrategyFactory strategyFactory, ProfileRegistry profileRegistry,
+                        @Value("${provisioning.mirror.path:provisioning-mirror}") String directory,
+                        @Value("${provisioning.mirror.chunk-size:200}") int chunkSize,
+                        @Value("${provisioning.index.load-page-size:10000}") int pageSize,
+                        @Value("${provisioning.compression.enabled:true}") boolean compressionEnabled,
+                        @Value("${provisioning.compression.min-size:1024}") int compressionMinSize,
+                        @Value("${provisioning.compression.level:9}") int compressionLevel,
+                        @Value("${provisioning.domain}") String domain,
+                        @Value("${provisioning.port}") String port,
+                        @Value("${provisioning.codecs}") String codecs,
+                        @Value("${provisioning.format.conference.pretty-print:true}") boolean prettyPrint,
+                        MeterRegistry meterRegistry) {
+        this.deviceRepository = deviceRepository;
+        this.provisioningService = provisioningService;
+        this.strategyFactory = strategyFactory;
+        this.profileRegistry = profileRegistry;
+        this.directory = Paths.get(directory);
+        this.renderFingerprint = RenderFingerprint.of(domain, port, codecs, prettyPrint);
+        this.chunkSize = chunkSize;
+        this.pageSize = pageSize;
+        this.compressionEnabled = compressionEnabled;
+        this.compressionMinSize = compressionMinSize;
+        this.compressionLevel = compressionLevel;
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "static-mirror");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Gauge.builder("provisioning.mirror.files", entries, Map::size)
+                .description("Devices served from the static mirror")
+                .register(meterRegistry);
+        this.renders = Counter.builder("provisioning.mirror.renders")
+                .description("Configurations rendered into the static mirror")
+                .register(meterRegistry);
+        this.hits = Counter.builder("provisioning.mirror.hits")
+                .description("Provisioning responses sent from static mirror files")
+                .register(meterRegistry);
+    }
+
+    /**
+     * @return the mirror entry to serve {@code macAddress} from; empty if the device is not (yet) mirrored
+     */
+    public Optional<MirrorEntry> find(String macAddress) {
+        return Optional.ofNullable(entries.get(MacAddress.normalize(macAddress)));
+    }
+
+    /**
+     * The identity or gzip file of {@code entry}, to send as a response body; counted as a hit.
+     *
+     * @throws IOException if the file is gone or no longer the one {@code entry} describes; callers fall back to
+     *                     rendering
+     */
+    public MirroredFile file(MirrorEntry entry, boolean gzip) throws IOException {
+        MirroredFile file = gzip
+                ? MirroredFile.of(directory.resolve(entry.getFileName() + GZIP_SUFFIX), entry.getGzipLength())
+                : MirroredFile.of(directory.resolve(entry.getFileName()), entry.getLength());
+        hits.increment();
+        return file;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        executor.execute(this::synchronize);
+    }
+
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void onDeviceChanged(DeviceChangedEvent event) {
+        String key = MacAddress.normalize(event.getMacAddress());
+        pendingChanges.put(key, changeSequence.incrementAndGet());
+        entries.remove(key);
+        try {
+            executor.execute(() -> refresh(event));
+        } catch (RejectedExecutionException e) {
+            // Shutting down; the next start reconciles the directory
+        }
+    }
+
+    /**
+     * Brings the whole directory in line with the repository, rendering only devices that changed.
+     */
+    void synchronize() {
+        long start = System.currentTimeMillis();
+        long sequence = changeSequence.get();
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            log.error("Cannot create mirror directory {}: {}", directory, e.getMessage());
+            return;
+        }
+        if (recorded == null) {
+            recorded = readIndex();
+        }
+
+        Set<String> seen = new HashSet<>();
+        List<Device> stale = new ArrayList<>(chunkSize);
+        int rendered = 0;
+        Slice<Device> page = deviceRepository.findAllBy(PageRequest.of(0, pageSize, Sort.by("macAddress")));
+        while (true) {
+            for (Device device : page) {
+                String key = MacAddress.normalize(device.getMacAddress());
+                if (!MIRRORABLE.matcher(key).matches()) {
+                    continue;
+                }
+                seen.add(key);
+                if (!reuse(key, inputHash(device), sequence)) {
+                    stale.add(device);
+                }
+                if (stale.size() == chunkSize) {
+                    rendered += render(stale, sequence);
+                    stale.clear();
+                }
+            }
+            if (!page.hasNext()) {
+                break;
+            }
+            page = deviceRepository.findAllBy(page.nextPageable());
+        }
+        rendered += render(stale, sequence);
+
+        List<String> removed = new ArrayList<>();
+        for (String key : recorded.keySet()) {
+            if (!seen.contains(key)) {
+                removed.add(key);
+            }
+        }
+        removed.forEach(this::remove);
+        writeIndex();
+        log.info("Synchronized static mirror {} in {} ms: {} devices, {} rendered, {} removed",
+                directory, System.currentTimeMillis() - start, seen.size(), rendered, removed.size());
+    }
+
+    private void refresh(DeviceChangedEvent event) {
+        String key = MacAddress.normalize(event.getMacAddress());
+        long sequence = changeSequence.get();
+        try {
+            if (recorded == null || !MIRRORABLE.matcher(key).matches()) {
+                // Changes before the first synchronization are picked up by it
+                return;
+            }
+            Optional<Device> device = event.isDeleted()
+                    ? Optional.empty()
+                    : event.getDevice() != null
+                    ? Optional.of(event.getDevice())
+                    : deviceRepository.findForProvisioning(event.getMacAddress());
+            if (!device.isPresent()) {
+                remove(key);
+            } else if (!reuse(key, inputHash(device.get()), sequence)) {
+                render(Collections.singletonList(device.get()), sequence);
+            }
+        } catch (RuntimeException e) {
+            log.error("Could not refresh mirror files of device {}: {}", key, e.getMessage());
+        } finally {
+            pendingChanges.computeIfPresent(key, (k, changed) -> changed <= sequence ? null : changed);
+        }
+    }
+
+    /**
+     * Serves the recorded files of {@code key} if they were rendered from {@code inputHash} and are still there.
+     */
+    private boolean reuse(String key, String inputHash, long sequence) {
+        MirrorEntry entry = recorded.get(key);
+        if (entry == null || !entry.getInputHash().equals(inputHash)
+                || !Files.exists(directory.resolve(entry.getFileName()))) {
+            return false;
+        }
+        publish(entry, sequence);
+        return true;
+    }
+
+    /**
+     * @return the number of devices written
+     */
+    private int render(List<Device> devices, long sequence) {
+        if (devices.isEmpty()) {
+            return 0;
+        }
+        Map<String, Device> byKey = new HashMap<>(devices.size() * 2);
+        for (Device device : devices) {
+            byKey.put(MacAddress.normalize(device.getMacAddress()), device);
+        }
+        int[] written = new int[1];
+        provisioningService.provisionBatch(new ArrayList<>(byKey.keySet()), result -> {
+            String key = result.getMacAddress();
+            if (result.getStatus() != BatchProvisioningResult.Status.OK) {
+                if (result.getStatus() == BatchProvisioningResult.Status.ERROR) {
+                    log.warn("Not mirroring device {}: {}", key, result.getError());
+                }
+                remove(key);
+                return;
+            }
+            try {
+                write(byKey.get(key), result, sequence);
+                written[0]++;
+            } catch (IOException | ProvisioningException e) {
+                log.error("Could not write mirror files of device {}: {}", key, e.getMessage());
+                remove(key);
+            }
+        });
+        renders.increment(written[0]);
+        return written[0];
+    }
+
+    private void write(Device device, BatchProvisioningResult result, long sequence)
+            throws IOException, ProvisioningException {
+        String key = result.getMacAddress();
+        String fileName = key + "." + extension(device.getModel());
+        byte[] body = result.getConfiguration().getBytes(StandardCharsets.UTF_8);
+        writeAtomically(directory.resolve(fileName), body);
+
+        long gzipLength = -1;
+        Path gzipFile = directory.resolve(fileName + GZIP_SUFFIX);
+        if (compressionEnabled && body.length >= compressionMinSize) {
+            byte[] compressed = ContentEncoding.GZIP.compress(body, compressionLevel);
+            if (compressed.length < body.length) {
+                writeAtomically(gzipFile, compressed);
+                gzipLength = compressed.length;
+            }
+        }
+        if (gzipLength < 0) {
+            Files.deleteIfExists(gzipFile);
+        }
+
+        MirrorEntry entry = new MirrorEntry(key, fileName, inputHash(device), result.getEtag(), body.length,
+                gzipLength);
+        MirrorEntry previous = recorded.put(key, entry);
+        if (previous != null && !previous.getFileName().equals(fileName)) {
+            // The model, and with it the file extension, changed
+            deleteFiles(previous);
+        }
+        publish(entry, sequence);
+    }
+
+    private String extension(Device.DeviceModel model) throws ProvisioningException {
+        String extension = extensions.get(model);
+        if (extension == null) {
+            extension = strategyFactory.getStrategy(model).getFileExtension();
+            extensions.put(model, extension);
+        }
+        return extension;
+    }
+
+    /**
+     * Serves {@code entry} unless its device changed after {@code sequence}, i.e. after the work that produced
+     * the entry started; the refresh queued for that change publishes the device again.
+     */
+    private void publish(MirrorEntry entry, long sequence) {
+        String key = entry.getMacAddress();
+        entries.put(key, entry);
+        Long changed = pendingChanges.get(key);
+        if (changed != null && changed > sequence) {
+            entries.remove(key, entry);
+        }
+    }
+
+    private void remove(String key) {
+        entries.remove(key);
+        MirrorEntry entry = recorded.remove(key);
+        if (entry != null) {
+            deleteFiles(entry);
+        }
+    }
+
+    private void deleteFiles(MirrorEntry entry) {
+        try {
+            Files.deleteIfExists(directory.resolve(entry.getFileName()));
+            Files.deleteIfExists(directory.resolve(entry.getFileName() + GZIP_SUFFIX));
+        } catch (IOException e) {
+            log.warn("Could not delete mirror files of device {}: {}", entry.getMacAddress(), e.getMessage());
+        }
+    }
+
+    private String inputHash(Device device) {
+        String inputs = String.join("\u0000", renderFingerprint, profileDigest(device), device.getMacAddress(),
+                device.getModel().name(), String.valueOf(device.getOverrideFragment()), device.getUsername(),
+                device.getPassword());
+        return DigestUtils.md5DigestAsHex(inputs.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String profileDigest(Device device) {
+        try {
+            return profileRegistry.resolve(device.getProfileId()).getDigest();
+        } catch (ProvisioningException e) {
+            // Rendering fails for the same reason, so the device is not mirrored
+            return "";
+        }
+    }
+
+    private void writeAtomically(Path path, byte[] content) throws IOException {
+        Path temporary = Files.createTempFile(directory, "." + path.getFileName(), ".tmp");
+        try {
+            Files.write(temporary, content);
+            Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * One tab-separated line per device: MAC, file name, input hash, ETag, length, gzip length.
+     */
+    private Map<String, MirrorEntry> readIndex() {
+        Map<String, MirrorEntry> index = new HashMap<>();
+        try {
+            for (String line : Files.readAllLines(directory.resolve(INDEX_NAME), StandardCharsets.UTF_8)) {
+                String[] fields = line.split("\t");
+                if (fields.length != 6) {
+                    continue;
+                }
+                try {
+                    index.put(fields[0], new MirrorEntry(fields[0], fields[1], fields[2], fields[3],
+                            Long.parseLong(fields[4]), Long.parseLong(fields[5])));
+                } catch (NumberFormatException e) {
+                    // Damaged line; the device is rendered again
+                }
+            }
+        } catch (NoSuchFileException e) {
+            log.info("No mirror index in {}, rendering every device", directory);
+        } catch (IOException e) {
+            log.warn("Ignoring mirror index in {}: {}", directory, e.getMessage());
+        }
+        return index;
+    }
+
+    private void writeIndex() {
+        Path path = directory.resolve(INDEX_NAME);
+        try {
+            Path temporary = Files.createTempFile(directory, INDEX_NAME, ".tmp");
+            try {
+                try (BufferedWriter writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+                    for (MirrorEntry entry : recorded.values()) {
+                        writer.write(String.join("\t", entry.getMacAddress(), entry.getFileName(),
+                                entry.getInputHash(), entry.getEtag(), String.valueOf(entry.getLength()),
+                                String.valueOf(entry.getGzipLength())));
+                        writer.newLine();
+                    }
+                }
+                Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+        } catch (IOException e) {
+            log.error("Could not write mirror index {}: {}", path, e.getMessage());
+        }
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        executor.shutdown();
+        if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+            executor.shutdownNow();
+            return;
+        }
+        if (recorded != null) {
+            // Devices refreshed since the last synchronization
+            writeIndex();
+        }
+    }
+}
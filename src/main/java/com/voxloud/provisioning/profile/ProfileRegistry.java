@@ -0,0 +1,173 @@
+package com.voxloud.provisioning.profile;
+
+import com.voxloud.provisioning.entity.Device;
+import com.voxloud.provisioning.entity.ProvisioningProfile;
+import com.voxloud.provisioning.event.DeviceChangedEvent;
+import com.voxloud.provisioning.exception.ProvisioningException;
+import com.voxloud.provisioning.repository.DeviceRepository;
+import com.voxloud.provisioning.repository.ProvisioningProfileRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Resolves the profile hierarchy (global settings, tenant, site) into {@link ResolvedProfile}s.
+ * <p>
+ * Each node is read from the repository and merged with its already-resolved parent once, on first use, and then
+ * kept until {@link #invalidate(String)} is called for it or one of its ancestors. Invalidation also publishes a
+ * {@link DeviceChangedEvent} for every device below the node, so their rendered configurations are dropped; the
+ * node is evicted first, so a rendering that races with the change never outlives it. Resolutions that raced with
+ * an invalidation are not kept.
+ * <p>
+ * Publishes {@code provisioning.profiles.resolved}.
+ */
+@Component
+@Slf4j
+public class ProfileRegistry {
+    /**
+     * Tenant and site; anything deeper can only come from rows edited behind the service's back.
+     */
+    private static final int MAX_DEPTH = 2;
+
+    private final ProvisioningProfileRepository profileRepository;
+    private final DeviceRepository deviceRepository;
+    private final ApplicationEventPublisher eventPublisher;
+    private final ResolvedProfile global;
+    private final int pageSize;
+    private final Map<String, ResolvedProfile> resolved = new ConcurrentHashMap<>();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    @Autowired
+    public ProfileRegistry(ProvisioningProfileRepository profileRepository, DeviceRepository deviceRepository,
+                           ApplicationEventPublisher eventPublisher,
+                           @Value("${provisioning.domain}") String domain,
+                           @Value("${provisioning.port}") String port,
+                           @Value("${provisioning.codecs}") String codecs,
+                           @Value("${provisioning.index.load-page-size:10000}") int pageSize,
+                           MeterRegistry meterRegistry) {
+        this.profileRepository = profileRepository;
+        this.deviceRepository = deviceRepository;
+        this.eventPublisher = eventPublisher;
+        this.global = ResolvedProfile.global(domain, port, codecs);
+        this.pageSize = pageSize;
+        Gauge.builder("provisioning.profiles.resolved", resolved, Map::size)
+                .description("Profile nodes held merged in memory")
+                .register(meterRegistry);
+    }
+
+    public ResolvedProfile global() {
+        return global;
+    }
+
+    /**
+     * @param profileId the profile of a device; {@code null} for the global settings
+     * @throws ProvisioningException if the profile, or one of its ancestors, does not exist or is malformed
+     */
+    public ResolvedProfile resolve(String profileId) throws ProvisioningException {
+        if (profileId == null) {
+            return global;
+        }
+        ResolvedProfile cached = resolved.get(profileId);
+        return cached != null ? cached : load(profileId, 0);
+    }
+
+    private ResolvedProfile load(String profileId, int depth) throws ProvisioningException {
+        if (depth >= MAX_DEPTH) {
+            throw new ProvisioningException("Profile hierarchy above " + profileId + " is deeper than tenant and site");
+        }
+        long generation = invalidations.get();
+        Optional<ProvisioningProfile> profile = profileRepository.findById(profileId);
+        if (!profile.isPresent()) {
+            throw new ProvisioningException("Unknown provisioning profile: " + profileId);
+        }
+
+        String parentId = profile.get().getParentId();
+        ResolvedProfile parent = global;
+        if (parentId != null) {
+            ResolvedProfile cachedParent = resolved.get(parentId);
+            parent = cachedParent != null ? cachedParent : load(parentId, depth + 1);
+        }
+        ResolvedProfile node = parent.extend(profile.get());
+
+        resolved.put(profileId, node);
+        if (invalidations.get() != generation) {
+            resolved.remove(profileId, node);
+        }
+        return node;
+    }
+
+    /**
+     * Drops the merged state of {@code profileId} and of every node below it, then publishes a change for every
+     * device those nodes provision. Call after the write to the profile has committed.
+     */
+    public void invalidate(String profileId) {
+        invalidations.incrementAndGet();
+        resolved.values().removeIf(node -> node.inheritsFrom(profileId));
+
+        Set<String> affected = new LinkedHashSet<>();
+        Deque<String> pending = new ArrayDeque<>();
+        pending.add(profileId);
+        while (!pending.isEmpty()) {
+            String id = pending.poll();
+            if (affected.add(id)) {
+                profileRepository.findByParentId(id).forEach(child -> pending.add(child.getId()));
+            }
+        }
+
+        int devices = 0;
+        Slice<Device> page = deviceRepository.findByProfileIdIn(affected,
+                PageRequest.of(0, pageSize, Sort.by("macAddress")));
+        while (true) {
+            for (Device device : page) {
+                eventPublisher.publishEvent(DeviceChangedEvent.saved(device.copy()));
+                devices++;
+            }
+            if (!page.hasNext()) {
+                break;
+            }
+            page = deviceRepository.findByProfileIdIn(affected, page.nextPageable());
+        }
+        log.info("Invalidated provisioning profile {} ({} profiles, {} devices)", profileId, affected.size(), devices);
+    }
+
+    /**
+     * Drops the merged state of every node without publishing anything, for callers that drop every rendered
+     * configuration themselves.
+     */
+    public void invalidateAll() {
+        invalidations.incrementAndGet();
+        resolved.clear();
+    }
+
+    /**
+     * Digest of every stored profile; rendered output kept across restarts is only reused while it is unchanged.
+     */
+    public String fingerprint() {
+        StringBuilder inputs = new StringBuilder();
+        for (ProvisioningProfile profile : profileRepository.findAll(Sort.by("id"))) {
+            inputs.append(String.join("\u0000", profile.getId(), profile.getLevel().name(),
+                    String.valueOf(profile.getParentId()), String.valueOf(profile.getDomain()),
+                    String.valueOf(profile.getPort()), String.valueOf(profile.getCodecs()),
+                    String.valueOf(profile.getProperties()))).append('\n');
+        }
+        return DigestUtils.md5DigestAsHex(inputs.toString().getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,157 @@
+package com.voxloud.provisioning.profile;
+
+import com.voxloud.provisioning.changelog.DeviceChangeLog;
+import com.voxloud.provisioning.entity.Device;
+import com.voxloud.provisioning.entity.ProvisioningProfile;
+import com.voxloud.provisioning.exception.DeviceNotFoundException;
+import com.voxloud.provisioning.exception.ProvisioningException;
+import com.voxloud.provisioning.repository.DeviceRepository;
+import com.voxloud.provisioning.repository.ProvisioningProfileRepository;
+import com.voxloud.provisioning.util.MacAddress;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+/**
+ * Writes to the profile hierarchy. Tenants have no parent and sites belong to a tenant; nodes that still have
+ * sites or devices below them cannot be deleted. Every write is recorded in the {@link DeviceChangeLog}, for
+ * other nodes, and invalidates the node in the {@link ProfileRegistry} once it has committed.
+ */
+@Service
+@Slf4j
+public class ProfileService {
+    private static final Pattern PROFILE_ID = Pattern.compile("[A-Za-z0-9][A-Za-z0-9_.-]*");
+
+    private final ProvisioningProfileRepository profileRepository;
+    private final DeviceRepository deviceRepository;
+    private final ProfileRegistry profileRegistry;
+    private final DeviceChangeLog changeLog;
+    private final TransactionTemplate transactionTemplate;
+
+    @Autowired
+    public ProfileService(ProvisioningProfileRepository profileRepository, DeviceRepository deviceRepository,
+                          ProfileRegistry profileRegistry, DeviceChangeLog changeLog,
+                          TransactionTemplate transactionTemplate) {
+        this.profileRepository = profileRepository;
+        this.deviceRepository = deviceRepository;
+        this.profileRegistry = profileRegistry;
+        this.changeLog = changeLog;
+        this.transactionTemplate = transactionTemplate;
+    }
+
+    public List<ProvisioningProfile> findAll() {
+        return profileRepository.findAll();
+    }
+
+    public Optional<ProvisioningProfile> find(String profileId) {
+        return profileRepository.findById(profileId);
+    }
+
+    /**
+     * Creates or replaces a profile.
+     *
+     * @throws ProvisioningException if the profile does not fit into the hierarchy or its properties are malformed
+     */
+    public ProvisioningProfile save(ProvisioningProfile profile) throws ProvisioningException {
+        validate(profile);
+        ProvisioningProfile saved = transactionTemplate.execute(status -> {
+            ProvisioningProfile written = profileRepository.save(profile);
+            changeLog.recordProfile(written.getId(), false);
+            return written;
+        });
+        log.info("Saved {} profile {}", saved.getLevel(), saved.getId());
+        profileRegistry.invalidate(saved.getId());
+        return saved;
+    }
+
+    /**
+     * @return whether the profile existed
+     * @throws ProvisioningException if sites or devices still use the profile
+     */
+    public boolean delete(String profileId) throws ProvisioningException {
+        if (!profileRepository.existsById(profileId)) {
+            return false;
+        }
+        if (profileRepository.existsByParentId(profileId)) {
+            throw new ProvisioningException("Profile " + profileId + " still has sites");
+        }
+        if (deviceRepository.existsByProfileId(profileId)) {
+            throw new ProvisioningException("Profile " + profileId + " is still assigned to devices");
+        }
+        transactionTemplate.execute(status -> {
+            profileRepository.deleteById(profileId);
+            changeLog.recordProfile(profileId, true);
+            return null;
+        });
+        log.info("Deleted profile {}", profileId);
+        profileRegistry.invalidate(profileId);
+        return true;
+    }
+
+    /**
+     * Moves a device into {@code profileId}, or back to the global settings if it is {@code null}. Goes through
+     * JPA, so the change is published and recorded like any other device write.
+     */
+    public Device assign(String macAddress, String profileId) throws DeviceNotFoundException, ProvisioningException {
+        if (profileId != null && !profileRepository.existsById(profileId)) {
+            throw new ProvisioningException("Unknown provisioning profile: " + profileId);
+        }
+        Device device = deviceRepository.findById(MacAddress.normalize(macAddress))
+                .orElseThrow(() -> new DeviceNotFoundException("Device with MAC address " + macAddress + " not found"));
+        if (Objects.equals(device.getProfileId(), profileId)) {
+            return device;
+        }
+        device.setProfileId(profileId);
+        return deviceRepository.save(device);
+    }
+
+    /**
+     * Moves a device in {@code profileId} back to the global settings.
+     *
+     * @throws ProvisioningException if the device is not in {@code profileId}
+     */
+    public Device unassign(String macAddress, String profileId) throws DeviceNotFoundException, ProvisioningException {
+        Device device = deviceRepository.findById(MacAddress.normalize(macAddress))
+                .orElseThrow(() -> new DeviceNotFoundException("Device with MAC address " + macAddress + " not found"));
+        if (!profileId.equals(device.getProfileId())) {
+            throw new ProvisioningException("Device " + macAddress + " is not assigned to profile " + profileId);
+        }
+        device.setProfileId(null);
+        return deviceRepository.save(device);
+    }
+
+    private void validate(ProvisioningProfile profile) throws ProvisioningException {
+        if (profile.getId() == null || !PROFILE_ID.matcher(profile.getId()).matches()) {
+            throw new ProvisioningException("Invalid profile id: " + profile.getId());
+        }
+        if (profile.getLevel() == null) {
+            throw new ProvisioningException("Profile " + profile.getId() + " has no level");
+        }
+        if (profile.getLevel() == ProvisioningProfile.Level.TENANT) {
+            if (profile.getParentId() != null) {
+                throw new ProvisioningException("Tenant " + profile.getId() + " cannot have a parent");
+            }
+        } else {
+            Optional<ProvisioningProfile> parent = profile.getParentId() == null
+                    ? Optional.empty()
+                    : profileRepository.findById(profile.getParentId());
+            if (!parent.isPresent() || parent.get().getLevel() != ProvisioningProfile.Level.TENANT) {
+                throw new ProvisioningException("Site " + profile.getId() + " must belong to an existing tenant");
+            }
+            if (profileRepository.existsByParentId(profile.getId())) {
+                throw new ProvisioningException("Profile " + profile.getId() + " has sites and must stay a tenant");
+            }
+        }
+        if (StringUtils.isBlank(profile.getProperties())) {
+            profile.setProperties(null);
+        }
+        ResolvedProfile.parseProperties(profile.getProperties());
+    }
+}
@@ -0,0 +1,141 @@
+package com.voxloud.provisioning.profile;
+
+import com.voxloud.provisioning.entity.Device;
+import com.voxloud.provisioning.entity.DeviceConfiguration;
+import com.voxloud.provisioning.entity.ProvisioningProfile;
+import com.voxloud.provisioning.exception.ProvisioningException;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
+import lombok.Value;
+import org.springframework.util.DigestUtils;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+
+/**
+ * The effective settings of one node of the profile hierarchy: the global settings with every layer from the
+ * tenant down to this node merged in.
+ * <p>
+ * Instances are immutable and share structure with their parent: a layer that sets no properties reuses its
+ * parent's map, and rendering a device only wraps the shared values in a {@link DeviceConfiguration} together
+ * with the device's credentials. {@code digest} changes whenever any value a rendering depends on does.
+ */
+@Value
+public class ResolvedProfile {
+    /**
+     * Keys that have dedicated columns, or come from the device, and so cannot be set as properties.
+     */
+    private static final List<String> RESERVED_KEYS = Arrays.asList("username", "password", "domain", "port", "codecs");
+
+    /**
+     * {@code null} for the global settings.
+     */
+    String id;
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    ResolvedProfile parent;
+    String domain;
+    String port;
+    String codecs;
+    Map<String, Object> properties;
+    String digest;
+
+    private ResolvedProfile(String id, ResolvedProfile parent, String domain, String port, String codecs,
+                            Map<String, Object> properties) {
+        this.id = id;
+        this.parent = parent;
+        this.domain = domain;
+        this.port = port;
+        this.codecs = codecs;
+        this.properties = properties;
+
+        StringBuilder inputs = new StringBuilder()
+                .append(parent != null ? parent.digest : "").append('\u0000')
+                .append(domain).append('\u0000').append(port).append('\u0000').append(codecs);
+        properties.forEach((key, value) -> inputs.append('\u0000').append(key).append('=').append(value));
+        this.digest = DigestUtils.md5DigestAsHex(inputs.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static ResolvedProfile global(String domain, String port, String codecs) {
+        return new ResolvedProfile(null, null, domain, port, codecs, Collections.<String, Object>emptyMap());
+    }
+
+    /**
+     * Layers {@code profile} on top of this node.
+     *
+     * @throws ProvisioningException if the profile's properties cannot be parsed
+     */
+    public ResolvedProfile extend(ProvisioningProfile profile) throws ProvisioningException {
+        Map<String, String> layer = parseProperties(profile.getProperties());
+        Map<String, Object> merged = properties;
+        if (!layer.isEmpty()) {
+            merged = new LinkedHashMap<>(properties);
+            merged.putAll(layer);
+            merged = Collections.unmodifiableMap(merged);
+        }
+        return new ResolvedProfile(profile.getId(), this,
+                profile.getDomain() != null ? profile.getDomain() : domain,
+                profile.getPort() != null ? profile.getPort() : port,
+                profile.getCodecs() != null ? profile.getCodecs() : codecs,
+                merged);
+    }
+
+    /**
+     * @return whether this node is {@code profileId} or lies below it
+     */
+    public boolean inheritsFrom(String profileId) {
+        for (ResolvedProfile node = this; node != null; node = node.parent) {
+            if (profileId.equals(node.id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The base configuration of {@code device}; everything except the credentials is shared with this node.
+     */
+    public DeviceConfiguration configurationFor(Device device) {
+        return DeviceConfiguration.builder()
+                .username(device.getUsername())
+                .password(device.getPassword())
+                .domain(domain)
+                .port(port)
+                .codecs(codecs)
+                .additionalProperties(properties)
+                .build();
+    }
+
+    /**
+     * Parses the {@code properties} column of a profile, in key order so renderings are stable.
+     *
+     * @throws ProvisioningException if the text is malformed or sets a reserved key
+     */
+    static Map<String, String> parseProperties(String text) throws ProvisioningException {
+        if (text == null || text.trim().isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Properties properties = new Properties();
+        try {
+            properties.load(new StringReader(text));
+        } catch (IOException | IllegalArgumentException e) {
+            throw new ProvisioningException("Failed to parse profile properties: " + e.getMessage());
+        }
+        Map<String, String> parsed = new LinkedHashMap<>();
+        for (String key : new TreeSet<>(properties.stringPropertyNames())) {
+            if (RESERVED_KEYS.contains(key)) {
+                throw new ProvisioningException("Profile properties cannot set '" + key + "'");
+            }
+            parsed.put(key, properties.getProperty(key));
+        }
+        return parsed;
+    }
+}
@@ -0,0 +1,86 @@
+package com.voxloud.provisioning.ratelimit;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Approximate top-k of rejected keys in bounded memory, using the Space-Saving algorithm: each stripe keeps at
+ * most {@code capacity} counters, and a key that is not counted yet replaces the smallest counter, inheriting
+ * its count as the error bound. Keys that are rejected often therefore stay listed while the long tail of
+ * occasional offenders keeps displacing each other.
+ * <p>
+ * Only rejected requests are recorded. Keys are spread over independently locked stripes, so a flood of
+ * rejections from many sources does not serialise on one lock.
+ */
+final class OffenderTracker {
+    private static final int STRIPES = 16;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    OffenderTracker(int capacity) {
+        int perStripe = Math.max(1, (capacity + STRIPES - 1) / STRIPES);
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(perStripe);
+        }
+    }
+
+    void record(String key, long nowMillis) {
+        stripes[(key.hashCode() & 0x7fffffff) % STRIPES].record(key, nowMillis);
+    }
+
+    /**
+     * @return up to {@code limit} keys, most rejected first
+     */
+    List<RateLimitOffender> top(int limit) {
+        List<RateLimitOffender> offenders = new ArrayList<>();
+        for (Stripe stripe : stripes) {
+            stripe.snapshot(offenders);
+        }
+        offenders.sort(Comparator.comparingLong(RateLimitOffender::getRejected).reversed());
+        int count = Math.max(0, limit);
+        return offenders.size() > count ? new ArrayList<>(offenders.subList(0, count)) : offenders;
+    }
+
+    private static final class Stripe {
+        private final int capacity;
+        private final Map<String, long[]> counters;
+
+        private Stripe(int capacity) {
+            this.capacity = capacity;
+            this.counters = new HashMap<>(capacity * 2);
+        }
+
+        /**
+         * Counters are {@code {rejected, error, lastRejectedAt}}.
+         */
+        private synchronized void record(String key, long nowMillis) {
+            long[] counter = counters.get(key);
+            if (counter == null) {
+                long minimum = 0;
+                if (counters.size() >= capacity) {
+                    String smallest = null;
+                    for (Map.Entry<String, long[]> entry : counters.entrySet()) {
+                        if (smallest == null || entry.getValue()[0] < minimum) {
+                            smallest = entry.getKey();
+                            minimum = entry.getValue()[0];
+                        }
+                    }
+                    counters.remove(smallest);
+                }
+                counter = new long[]{minimum, minimum, 0};
+                counters.put(key, counter);
+            }
+            counter[0]++;
+            counter[2] = nowMillis;
+        }
+
+        private synchronized void snapshot(List<RateLimitOffender> offenders) {
+            counters.forEach((key, counter) -> offenders.add(
+                    new RateLimitOffender(key, counter[0], counter[1], Instant.ofEpochMilli(counter[2]))));
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.voxloud.provisioning.ratelimit;
+
+import com.voxloud.provisioning.entity.Device;
+import com.voxloud.provisioning.index.DeviceIndex;
+import com.voxloud.provisioning.util.MacAddress;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Token-bucket rate limits for provisioning requests, per device and per source address.
+ * <p>
+ * Each device may make {@code provisioning.ratelimit.device.burst} requests at once and
+ * {@code provisioning.ratelimit.device.requests-per-minute} on average; both can be set per model under
+ * {@code provisioning.ratelimit.device.<model>.*}. The model is taken from the {@link DeviceIndex}; unknown devices,
+ * and all devices until the index is loaded, get the default limits.
+ * <p>
+ * Source addresses are only limited if {@code provisioning.ratelimit.source.enabled} is set, by
+ * {@code provisioning.ratelimit.source.*}, which has to leave room for a whole site booting behind one NAT address.
+ * The address is the servlet request's remote address: behind a load balancer or reverse proxy that is the proxy,
+ * and every device would share its bucket, unless {@code server.forward-headers-strategy} (or a
+ * {@code RemoteIpValve}) is set up to take the client address from the forwarded headers.
+ * <p>
+ * Buckets live in two fixed-size {@link TokenBucketTable}s of {@code provisioning.ratelimit.table-size} slots, so
+ * memory stays bounded however many devices and addresses there are. The price is that a key finding the four
+ * slots it may use all held by buckets that have not refilled yet shares the first of them: the keys involved
+ * are then limited together, more strictly than configured. Slots free up as buckets refill, so the table only
+ * needs to exceed the number of keys draining a bucket at the same time, not the inventory. Rejected keys are
+ * counted in an {@link OffenderTracker} for {@link #offenders(int)}.
+ * <p>
+ * Publishes {@code provisioning.ratelimit.rejected{scope}}.
+ */
+@Component
+@Slf4j
+public class ProvisioningRateLimiter {
+    private final DeviceIndex deviceIndex;
+    private final boolean enabled;
+    private final RateLimit deviceLimit;
+    private final Map<Device.DeviceModel, RateLimit> modelLimits = new EnumMap<>(Device.DeviceModel.class);
+    private final boolean limitsVaryByModel;
+    private final boolean sourceEnabled;
+    private final RateLimit sourceLimit;
+    private final TokenBucketTable deviceBuckets;
+    private final TokenBucketTable sourceBuckets;
+    private final OffenderTracker deviceOffenders;
+    private final OffenderTracker sourceOffenders;
+    private final Counter deviceRejections;
+    private final Counter sourceRejections;
+
+    @Autowired
+    public ProvisioningRateLimiter(DeviceIndex deviceIndex, Environment environment,
+                                   @Value("${provisioning.ratelimit.enabled:true}") boolean enabled,
+                                   @Value("${provisioning.ratelimit.table-size:65536}") int tableSize,
+                                   @Value("${provisioning.ratelimit.device.requests-per-minute:30}") int deviceRate,
+                                   @Value("${provisioning.ratelimit.device.burst:10}") int deviceBurst,
+                                   @Value("${provisioning.ratelimit.source.enabled:false}") boolean sourceEnabled,
+                                   @Value("${provisioning.ratelimit.source.requests-per-minute:60000}") int sourceRate,
+                                   @Value("${provisioning.ratelimit.source.burst:1000}") int sourceBurst,
+                                   @Value("${provisioning.ratelimit.offenders-size:128}") int offendersSize,
+                                   MeterRegistry meterRegistry) {
+        this.deviceIndex = deviceIndex;
+        this.enabled = enabled;
+        this.deviceLimit = new RateLimit(deviceRate, deviceBurst);
+        this.sourceEnabled = sourceEnabled;
+        this.sourceLimit = new RateLimit(sourceRate, sourceBurst);
+
+        long deviceRefillMillis = deviceLimit.refillMillis();
+        for (Device.DeviceModel model : Device.DeviceModel.values()) {
+            String prefix = "provisioning.ratelimit.device." + model.name().toLowerCase(Locale.ROOT) + ".";
+            RateLimit limit = new RateLimit(
+                    environment.getProperty(prefix + "requests-per-minute", Integer.class, deviceRate),
+                    environment.getProperty(prefix + "burst", Integer.class, deviceBurst));
+            modelLimits.put(model, limit);
+            deviceRefillMillis = Math.max(deviceRefillMillis, limit.refillMillis());
+        }
+        this.limitsVaryByModel = !Collections.singleton(deviceLimit).containsAll(modelLimits.values());
+
+        long now = System.currentTimeMillis();
+        this.deviceBuckets = new TokenBucketTable(tableSize, deviceRefillMillis, now);
+        this.sourceBuckets = sourceEnabled ? new TokenBucketTable(tableSize, sourceLimit.refillMillis(), now) : null;
+        this.deviceOffenders = new OffenderTracker(offendersSize);
+        this.sourceOffenders = new OffenderTracker(offendersSize);
+        this.deviceRejections = rejectionCounter("device", meterRegistry);
+        this.sourceRejections = rejectionCounter("source", meterRegistry);
+        if (enabled) {
+            log.info("Rate limiting provisioning requests: {} per device ({}), {} per source address",
+                    deviceLimit, modelLimits, sourceEnabled ? sourceLimit : "none");
+        }
+    }
+
+    private static Counter rejectionCounter(String scope, MeterRegistry meterRegistry) {
+        return Counter.builder("provisioning.ratelimit.rejected")
+                .description("Provisioning requests rejected by the rate limiter")
+                .tag("scope", scope)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Takes a token for a request for {@code macAddress} from {@code sourceAddress}.
+     *
+     * @param sourceAddress the client address; {@code null} to only limit the device. Ignored unless source
+     *                      limits are enabled
+     * @return {@code 0} if the request may proceed, otherwise the seconds after which it should be retried
+     */
+    public long acquire(String macAddress, String sourceAddress) {
+        if (!enabled) {
+            return 0;
+        }
+        long now = System.currentTimeMillis();
+        long address = MacAddress.parse(macAddress);
+        long key = address != MacAddress.INVALID ? address : TokenBucketTable.hash(macAddress);
+        long waitMillis = deviceBuckets.tryAcquire(key, limitFor(address, macAddress), now);
+        if (waitMillis > 0) {
+            deviceRejections.increment();
+            deviceOffenders.record(address != MacAddress.INVALID ? MacAddress.format(address) : macAddress, now);
+            return toRetryAfterSeconds(waitMillis);
+        }
+
+        if (sourceEnabled && sourceAddress != null) {
+            waitMillis = sourceBuckets.tryAcquire(TokenBucketTable.hash(sourceAddress), sourceLimit, now);
+            if (waitMillis > 0) {
+                sourceRejections.increment();
+                sourceOffenders.record(sourceAddress, now);
+                return toRetryAfterSeconds(waitMillis);
+            }
+        }
+        return 0;
+    }
+
+    private RateLimit limitFor(long address, String macAddress) {
+        if (!limitsVaryByModel || address == MacAddress.INVALID || !deviceIndex.isReady()) {
+            return deviceLimit;
+        }
+        Optional<Device> device = deviceIndex.find(macAddress);
+        return device.isPresent() ? modelLimits.get(device.get().getModel()) : deviceLimit;
+    }
+
+    private static long toRetryAfterSeconds(long waitMillis) {
+        return Math.max(1, (waitMillis + 999) / 1000);
+    }
+
+    /**
+     * @return the {@code limit} most rejected devices and source addresses
+     */
+    public RateLimitReport offenders(int limit) {
+        return new RateLimitReport(enabled, deviceOffenders.top(limit), sourceOffenders.top(limit));
+    }
+}
@@ -0,0 +1,34 @@
+package com.voxloud.provisioning.ratelimit;
+
+import lombok.Value;
+
+/**
+ * A token bucket: at most {@code burst} requests at once, refilled at {@code requestsPerMinute}.
+ */
+@Value
+public class RateLimit {
+    private static final int MAX_REQUESTS_PER_MINUTE = 1_000_000;
+
+    int requestsPerMinute;
+    int burst;
+
+    public RateLimit(int requestsPerMinute, int burst) {
+        if (requestsPerMinute < 1 || requestsPerMinute > MAX_REQUESTS_PER_MINUTE) {
+            throw new IllegalArgumentException("requests-per-minute must be between 1 and " + MAX_REQUESTS_PER_MINUTE
+                    + ", was " + requestsPerMinute);
+        }
+        if (burst < 1 || burst > TokenBucketTable.MAX_BURST) {
+            throw new IllegalArgumentException("burst must be between 1 and " + TokenBucketTable.MAX_BURST
+                    + ", was " + burst);
+        }
+        this.requestsPerMinute = requestsPerMinute;
+        this.burst = burst;
+    }
+
+    /**
+     * Milliseconds an empty bucket takes to fill up again.
+     */
+    long refillMillis() {
+        return (burst * TokenBucketTable.TOKEN + requestsPerMinute - 1) / requestsPerMinute;
+    }
+}
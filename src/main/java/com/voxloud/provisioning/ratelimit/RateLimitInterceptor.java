@@ -0,0 +1,42 @@
+package com.voxloud.provisioning.ratelimit;
+
+import com.voxloud.provisioning.exception.RateLimitedException;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Map;
+
+/**
+ * Applies the {@link ProvisioningRateLimiter} to handlers mapped with a {@code {macAddress}} path variable, before
+ * any lookup or rendering is done. The dispatch that completes an asynchronous request is not counted again.
+ */
+public class RateLimitInterceptor implements HandlerInterceptor {
+    private final ProvisioningRateLimiter rateLimiter;
+
+    public RateLimitInterceptor(ProvisioningRateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        if (request.getDispatcherType() == DispatcherType.ASYNC) {
+            return true;
+        }
+        @SuppressWarnings("unchecked")
+        Map<String, String> variables =
+                (Map<String, String>) request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+        String macAddress = variables != null ? variables.get("macAddress") : null;
+        if (macAddress == null) {
+            return true;
+        }
+        long retryAfterSeconds = rateLimiter.acquire(macAddress, request.getRemoteAddr());
+        if (retryAfterSeconds > 0) {
+            throw new RateLimitedException("Too many provisioning requests for device " + macAddress,
+                    retryAfterSeconds);
+        }
+        return true;
+    }
+}
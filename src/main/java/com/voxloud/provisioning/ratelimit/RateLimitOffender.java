@@ -0,0 +1,17 @@
+package com.voxloud.provisioning.ratelimit;
+
+import lombok.Value;
+
+import java.time.Instant;
+
+/**
+ * A MAC or source address whose requests were rejected. Counts are approximate: {@code rejected} may exceed the
+ * true count by at most {@code error}, for keys that entered the list by displacing another one.
+ */
+@Value
+public class RateLimitOffender {
+    String key;
+    long rejected;
+    long error;
+    Instant lastRejectedAt;
+}
@@ -0,0 +1,15 @@
+package com.voxloud.provisioning.ratelimit;
+
+import lombok.Value;
+
+import java.util.List;
+
+/**
+ * Top offenders of the provisioning rate limits, by device and by source address.
+ */
+@Value
+public class RateLimitReport {
+    boolean enabled;
+    List<RateLimitOffender> devices;
+    List<RateLimitOffender> sources;
+}
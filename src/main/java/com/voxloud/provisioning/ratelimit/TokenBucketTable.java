@@ -0,0 +1,133 @@
+package com.voxloud.provisioning.ratelimit;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size, lock-free table of token buckets keyed by a 64-bit key.
+ * <p>
+ * Each slot is two longs: the key and the bucket state, {@code (time << 26) | tokens}, updated by compare-and-set.
+ * Tokens are counted in 1/60000ths, so a limit of {@code n} requests per minute refills exactly {@code n} units
+ * per millisecond. A key probes a few consecutive slots; a slot whose bucket has been idle long enough to refill
+ * completely holds no information and is taken over by the next key that needs one, so the table only has to
+ * hold the keys that are currently draining their bucket. If every probed slot is busy the key shares the first
+ * one, which can only make the limit stricter for the keys involved.
+ */
+final class TokenBucketTable {
+    static final long TOKEN = 60_000;
+    static final int MAX_BURST = (int) (((1L << 26) - 1) / TOKEN);
+
+    private static final int TOKEN_BITS = 26;
+    private static final long TOKEN_MASK = (1L << TOKEN_BITS) - 1;
+    private static final int PROBES = 4;
+    /**
+     * Slot times are relative to a point a day before the table was created, so a never-used slot (state 0)
+     * reads as a long-idle, full bucket.
+     */
+    private static final long EPOCH_OFFSET_MILLIS = 24 * 60 * 60 * 1000L;
+
+    private final AtomicLongArray keys;
+    private final AtomicLongArray states;
+    private final int mask;
+    private final long epochMillis;
+    private final long reclaimAfterMillis;
+
+    /**
+     * @param size               slots, rounded up to a power of two
+     * @param reclaimAfterMillis idle time after which any bucket in the table is full again
+     */
+    TokenBucketTable(int size, long reclaimAfterMillis, long nowMillis) {
+        int capacity = Integer.highestOneBit(Math.max(PROBES, size) - 1) << 1;
+        this.keys = new AtomicLongArray(capacity);
+        this.states = new AtomicLongArray(capacity);
+        this.mask = capacity - 1;
+        this.epochMillis = nowMillis - EPOCH_OFFSET_MILLIS;
+        this.reclaimAfterMillis = reclaimAfterMillis;
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Takes a token from the bucket of {@code key}.
+     *
+     * @return {@code 0} if a token was taken, otherwise the milliseconds until one will be available
+     */
+    long tryAcquire(long key, RateLimit limit, long nowMillis) {
+        long tag = mix(key);
+        if (tag == 0) {
+            tag = 1;
+        }
+        long now = nowMillis - epochMillis;
+        int home = (int) tag & mask;
+        int reclaimable = -1;
+        for (int probe = 0; probe < PROBES; probe++) {
+            int slot = (home + probe) & mask;
+            long resident = keys.get(slot);
+            if (resident == tag) {
+                return consume(slot, limit, now);
+            }
+            if (resident == 0) {
+                if (keys.compareAndSet(slot, 0, tag) || keys.get(slot) == tag) {
+                    return consume(slot, limit, now);
+                }
+            } else if (reclaimable < 0 && now - (states.get(slot) >>> TOKEN_BITS) >= reclaimAfterMillis) {
+                reclaimable = slot;
+            }
+        }
+        // The idle bucket left behind refills to full for the new key as well, so it can be used as it is
+        if (reclaimable >= 0) {
+            long resident = keys.get(reclaimable);
+            if (resident == tag || keys.compareAndSet(reclaimable, resident, tag)) {
+                return consume(reclaimable, limit, now);
+            }
+        }
+        return consume(home, limit, now);
+    }
+
+    private long consume(int slot, RateLimit limit, long now) {
+        long capacity = limit.getBurst() * TOKEN;
+        long rate = limit.getRequestsPerMinute();
+        while (true) {
+            long state = states.get(slot);
+            long last = state >>> TOKEN_BITS;
+            long tokens = Math.min(state & TOKEN_MASK, capacity);
+            long elapsed = Math.max(0, now - last);
+            // elapsed * rate cannot overflow: elapsed < 2^38 and rate is bounded by RateLimit
+            long available = elapsed > (capacity - tokens) / rate
+                    ? capacity
+                    : Math.min(capacity, tokens + elapsed * rate);
+            if (available < TOKEN) {
+                return (TOKEN - available + rate - 1) / rate;
+            }
+            long next = (Math.max(now, last) << TOKEN_BITS) | (available - TOKEN);
+            if (states.compareAndSet(slot, state, next)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * 64-bit finalizer of MurmurHash3; spreads MAC addresses, whose high bits are a handful of vendor prefixes.
+     */
+    static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+
+    /**
+     * 64-bit FNV-1a of {@code text}, for keys that are not MAC addresses.
+     */
+    static long hash(String text) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < text.length(); i++) {
+            hash ^= text.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
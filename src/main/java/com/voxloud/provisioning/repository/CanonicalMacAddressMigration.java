@@ -0,0 +1,82 @@
+package com.voxloud.provisioning.repository;
+
+import com.voxloud.provisioning.changelog.DeviceChangeLog;
+import com.voxloud.provisioning.util.MacAddress;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+
+/**
+ * Rewrites {@code device} rows whose MAC address is stored in another notation ({@code AA:BB:CC:DD:EE:FF},
+ * {@code aabb.ccdd.eeff}, ...) to the canonical form of {@link MacAddress}, once at startup.
+ * <p>
+ * Everything that looks devices up in SQL ({@link DeviceLookupRepository}, {@code findById}, the importer's
+ * upsert) matches the primary key exactly with a canonical MAC, so that the lookup stays an index seek. That only
+ * finds every device once older rows have been brought into the same form. Rows whose canonical form is already
+ * taken by another row are left as they are and logged, since picking one of the two would lose data; ids that
+ * are not MAC addresses at all are not touched.
+ * <p>
+ * Runs before anything reads the inventory: the index and the Bloom filter load on application ready, and
+ * {@code SnapshotManager} depends on this bean.
+ */
+@Component
+@Slf4j
+public class CanonicalMacAddressMigration implements InitializingBean {
+    // Only rows that cannot be canonical: wrong separators, wrong length or upper-case digits
+    private static final String SELECT_SQL = "SELECT mac_address FROM device "
+            + "WHERE mac_address NOT LIKE '__-__-__-__-__-__' OR mac_address <> LOWER(mac_address)";
+    private static final String UPDATE_SQL = "UPDATE device SET mac_address = ? WHERE mac_address = ?";
+
+    private final DeviceRepository deviceRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final DeviceChangeLog changeLog;
+
+    @Autowired
+    public CanonicalMacAddressMigration(DeviceRepository deviceRepository, JdbcTemplate jdbcTemplate,
+                                        TransactionTemplate transactionTemplate, DeviceChangeLog changeLog) {
+        this.deviceRepository = deviceRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.changeLog = changeLog;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        migrate();
+    }
+
+    /**
+     * @return the number of rows rewritten
+     */
+    public int migrate() {
+        List<String> candidates = jdbcTemplate.queryForList(SELECT_SQL, String.class);
+        int migrated = 0;
+        for (String stored : candidates) {
+            long macAddress = MacAddress.parse(stored);
+            if (macAddress == MacAddress.INVALID) {
+                continue;
+            }
+            String canonical = MacAddress.format(macAddress);
+            if (deviceRepository.existsById(canonical)) {
+                log.warn("Device {} is stored twice, also as {}; leaving both rows as they are", canonical, stored);
+                continue;
+            }
+            transactionTemplate.execute(status -> {
+                jdbcTemplate.update(UPDATE_SQL, canonical, stored);
+                changeLog.record(canonical, false);
+                return null;
+            });
+            migrated++;
+        }
+        if (migrated > 0) {
+            log.info("Rewrote {} device MAC addresses to canonical form", migrated);
+        }
+        return migrated;
+    }
+}
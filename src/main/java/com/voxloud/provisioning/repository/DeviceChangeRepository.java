@@ -0,0 +1,29 @@
+package com.voxloud.provisioning.repository;
+
+import com.voxloud.provisioning.entity.DeviceChange;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.List;
+
+@Repository
+public interface DeviceChangeRepository extends JpaRepository<DeviceChange, Long> {
+    List<DeviceChange> findByIdGreaterThanOrderByIdAsc(long id, Pageable pageable);
+
+    @Query("select coalesce(max(c.id), 0) from DeviceChange c")
+    long findMaxId();
+
+    @Query("select coalesce(min(c.id), 0) from DeviceChange c")
+    long findMinId();
+
+    @Modifying
+    @Transactional
+    @Query("delete from DeviceChange c where c.changedAt < :cutoff")
+    int deleteByChangedAtBefore(@Param("cutoff") Instant cutoff);
+}
@@ -0,0 +1,22 @@
+package com.voxloud.provisioning.repository;
+
+import com.voxloud.provisioning.entity.Device;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Read-only lookups for the provisioning path. Devices are mapped straight from a prepared statement into
+ * detached {@link Device}s: no persistence context, no dirty-checking snapshot, no flush. Anything that
+ * writes goes through the JPA methods of {@link DeviceRepository}.
+ * <p>
+ * MAC addresses are matched exactly, so callers pass them in canonical form; rows stored in other notations are
+ * rewritten at startup by {@link CanonicalMacAddressMigration}.
+ */
+public interface DeviceLookupRepository {
+
+    Optional<Device> findForProvisioning(String macAddress);
+
+    List<Device> findAllForProvisioning(Collection<String> macAddresses);
+}
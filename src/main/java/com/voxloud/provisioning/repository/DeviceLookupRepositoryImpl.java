@@ -0,0 +1,65 @@
+package com.voxloud.provisioning.repository;
+
+import com.voxloud.provisioning.entity.Device;
+import com.voxloud.provisioning.exception.ProvisioningException;
+import com.voxloud.provisioning.service.strategy.OverrideFragmentCompiler;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * JDBC implementation of {@link DeviceLookupRepository}, picked up by Spring Data as a fragment of
+ * {@link DeviceRepository}. Mirrors the entity's {@code @PostLoad} callback by compiling the override fragment,
+ * so devices read here are interchangeable with those loaded through JPA.
+ */
+@Slf4j
+class DeviceLookupRepositoryImpl implements DeviceLookupRepository {
+    private static final String SELECT_SQL =
+            "SELECT mac_address, model, override_fragment, username, password, profile_id FROM device";
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final RowMapper<Device> rowMapper;
+
+    @Autowired
+    DeviceLookupRepositoryImpl(NamedParameterJdbcTemplate jdbcTemplate, OverrideFragmentCompiler overrideFragmentCompiler) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.rowMapper = (resultSet, rowNum) -> {
+            Device device = new Device(
+                    resultSet.getString(1),
+                    Device.DeviceModel.valueOf(resultSet.getString(2)),
+                    resultSet.getString(3),
+                    resultSet.getString(4),
+                    resultSet.getString(5));
+            device.setProfileId(resultSet.getString(6));
+            try {
+                device.setCompiledOverride(overrideFragmentCompiler.compile(device));
+            } catch (ProvisioningException e) {
+                // Rows written before validation existed; the request path reports the error
+                log.warn("Stored override fragment for device {} is invalid: {}", device.getMacAddress(), e.getMessage());
+            }
+            return device;
+        };
+    }
+
+    @Override
+    public Optional<Device> findForProvisioning(String macAddress) {
+        List<Device> devices = jdbcTemplate.getJdbcTemplate()
+                .query(SELECT_SQL + " WHERE mac_address = ?", rowMapper, macAddress);
+        return devices.isEmpty() ? Optional.empty() : Optional.of(devices.get(0));
+    }
+
+    @Override
+    public List<Device> findAllForProvisioning(Collection<String> macAddresses) {
+        if (macAddresses.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return jdbcTemplate.query(SELECT_SQL + " WHERE mac_address IN (:macAddresses)",
+                Collections.singletonMap("macAddresses", macAddresses), rowMapper);
+    }
+}
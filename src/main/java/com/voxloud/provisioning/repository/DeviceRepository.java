@@ -1,12 +1,42 @@
 package com.voxloud.provisioning.repository;
 
 import com.voxloud.provisioning.entity.Device;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 @Repository
-public interface DeviceRepository extends JpaRepository<com.voxloud.provisioning.entity.Device, String> {
+public interface DeviceRepository extends JpaRepository<com.voxloud.provisioning.entity.Device, String>, DeviceLookupRepository {
     Optional<Device> findByMacAddress(String macAddress);
+
+    List<Device> findByMacAddressIn(Collection<String> macAddresses);
+
+    Slice<Device> findAllBy(Pageable pageable);
+
+    Slice<Device> findByModel(Device.DeviceModel model, Pageable pageable);
+
+    Slice<Device> findByProfileIdIn(Collection<String> profileIds, Pageable pageable);
+
+    boolean existsByProfileId(String profileId);
+
+    /**
+     * @param pattern a {@code like} pattern, with {@code \} as escape character, matched against the lower-case
+     *                MAC address without {@code -}, {@code :} or {@code .} separators, whatever notation the row uses
+     * @param model   the model to restrict to, or {@code null} for all
+     */
+    @Query("select d from Device d where (:model is null or d.model = :model) and lower(function('replace', "
+            + "function('replace', function('replace', d.macAddress, '-', ''), ':', ''), '.', '')) "
+            + "like :pattern escape '\\'")
+    Slice<Device> findByModelAndBareMacAddressLike(@Param("model") Device.DeviceModel model,
+                                                   @Param("pattern") String pattern, Pageable pageable);
+
+    @Query("select d.macAddress from Device d order by d.macAddress")
+    Slice<String> findAllMacAddresses(Pageable pageable);
 }
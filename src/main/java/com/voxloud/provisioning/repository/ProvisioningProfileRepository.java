@@ -0,0 +1,14 @@
+package com.voxloud.provisioning.repository;
+
+import com.voxloud.provisioning.entity.ProvisioningProfile;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface ProvisioningProfileRepository extends JpaRepository<ProvisioningProfile, String> {
+    List<ProvisioningProfile> findByParentId(String parentId);
+
+    boolean existsByParentId(String parentId);
+}
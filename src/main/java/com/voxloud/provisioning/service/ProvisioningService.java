@@ -1,9 +1,43 @@
 package com.voxloud.provisioning.service;
 
+import com.voxloud.provisioning.entity.BatchProvisioningResult;
+import com.voxloud.provisioning.entity.ConfigurationVersion;
+import com.voxloud.provisioning.entity.RenderedConfiguration;
 import com.voxloud.provisioning.exception.DeviceNotFoundException;
 import com.voxloud.provisioning.exception.ProvisioningException;
 
+import java.util.Collection;
+import java.util.Optional;
+import java.util.function.Consumer;
+
 public interface ProvisioningService {
 
-    String getProvisioningFile(String macAddress) throws DeviceNotFoundException, ProvisioningException;;
+    String getProvisioningFile(String macAddress) throws DeviceNotFoundException, ProvisioningException;
+
+    RenderedConfiguration getRenderedConfiguration(String macAddress) throws DeviceNotFoundException, ProvisioningException;
+
+    /**
+     * Like {@link #getRenderedConfiguration(String)}, but reports an unknown device as an empty result. Most
+     * unknown MACs are answered from memory, without a database query or an exception.
+     */
+    Optional<RenderedConfiguration> findRenderedConfiguration(String macAddress) throws ProvisioningException;
+
+    /**
+     * Returns the version of the last configuration rendered for a device, if still known, without
+     * touching the database or the configuration strategies.
+     */
+    Optional<ConfigurationVersion> findConfigurationVersion(String macAddress);
+
+    /**
+     * Accounts for a compressed form that has just been added to {@code configuration}, the rendered configuration
+     * of {@code macAddress}, in the memory bound of the cache holding it.
+     */
+    void compressedFormAdded(String macAddress, RenderedConfiguration configuration);
+
+    /**
+     * Provisions many devices at once, resolving all cache misses with a single multi-MAC query per chunk.
+     * One result per distinct MAC address is handed to {@code resultConsumer} as soon as it is available;
+     * unknown or failing devices are reported there rather than aborting the batch.
+     */
+    void provisionBatch(Collection<String> macAddresses, Consumer<BatchProvisioningResult> resultConsumer);
 }
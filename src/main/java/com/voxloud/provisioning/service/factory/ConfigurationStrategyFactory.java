@@ -2,33 +2,39 @@ package com.voxloud.provisioning.service.factory;
 
 import com.voxloud.provisioning.entity.Device;
 import com.voxloud.provisioning.exception.ProvisioningException;
-import com.voxloud.provisioning.service.strategy.ConferenceConfigurationStrategy;
 import com.voxloud.provisioning.service.strategy.ConfigurationStrategy;
-import com.voxloud.provisioning.service.strategy.DeskConfigurationStrategy;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Resolves the {@link ConfigurationStrategy} for a device model from a registry of all strategy beans, keyed by
+ * {@link ConfigurationStrategy#getSupportedModel()}. Supporting a new model takes a new strategy bean and nothing
+ * here.
+ */
 @Component
 public class ConfigurationStrategyFactory {
-    private final DeskConfigurationStrategy deskStrategy;
-    private final ConferenceConfigurationStrategy conferenceStrategy;
+    private final Map<Device.DeviceModel, ConfigurationStrategy> strategies = new EnumMap<>(Device.DeviceModel.class);
 
     @Autowired
-    public ConfigurationStrategyFactory(
-            DeskConfigurationStrategy deskStrategy,
-            ConferenceConfigurationStrategy conferenceStrategy) {
-        this.deskStrategy = deskStrategy;
-        this.conferenceStrategy = conferenceStrategy;
+    public ConfigurationStrategyFactory(Collection<? extends ConfigurationStrategy> strategies) {
+        for (ConfigurationStrategy strategy : strategies) {
+            ConfigurationStrategy previous = this.strategies.put(strategy.getSupportedModel(), strategy);
+            if (previous != null) {
+                throw new IllegalStateException("Both " + previous.getClass().getSimpleName() + " and "
+                        + strategy.getClass().getSimpleName() + " render " + strategy.getSupportedModel());
+            }
+        }
     }
 
     public ConfigurationStrategy getStrategy(Device.DeviceModel deviceModel) throws ProvisioningException {
-        switch (deviceModel) {
-            case DESK:
-                return deskStrategy;
-            case CONFERENCE:
-                return conferenceStrategy;
-            default:
-                throw new ProvisioningException("Unsupported device type: " + deviceModel);
+        ConfigurationStrategy strategy = strategies.get(deviceModel);
+        if (strategy == null) {
+            throw new ProvisioningException("Unsupported device type: " + deviceModel);
         }
+        return strategy;
     }
 }
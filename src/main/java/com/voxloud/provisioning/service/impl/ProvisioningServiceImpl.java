@@ -1,64 +1,236 @@
 package com.voxloud.provisioning.service.impl;
 
+import com.voxloud.provisioning.cache.RenderedConfigurationCache;
+import com.voxloud.provisioning.entity.BatchProvisioningResult;
+import com.voxloud.provisioning.entity.CompiledOverride;
+import com.voxloud.provisioning.entity.ConfigurationVersion;
 import com.voxloud.provisioning.entity.Device;
 import com.voxloud.provisioning.entity.DeviceConfiguration;
+import com.voxloud.provisioning.entity.RenderedConfiguration;
 import com.voxloud.provisioning.exception.DeviceNotFoundException;
 import com.voxloud.provisioning.exception.ProvisioningException;
+import com.voxloud.provisioning.index.DeviceIndex;
+import com.voxloud.provisioning.index.KnownDeviceFilter;
+import com.voxloud.provisioning.metrics.ProvisioningMetrics;
+import com.voxloud.provisioning.profile.ProfileRegistry;
 import com.voxloud.provisioning.repository.DeviceRepository;
 import com.voxloud.provisioning.service.ProvisioningService;
 import com.voxloud.provisioning.service.factory.ConfigurationStrategyFactory;
 import com.voxloud.provisioning.service.strategy.ConfigurationStrategy;
+import com.voxloud.provisioning.util.MacAddress;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+
 @Service
 @Slf4j
 public class ProvisioningServiceImpl implements ProvisioningService {
     private final DeviceRepository deviceRepository;
     private final ConfigurationStrategyFactory strategyFactory;
+    private final RenderedConfigurationCache renderedConfigurationCache;
+    private final DeviceIndex deviceIndex;
+    private final KnownDeviceFilter knownDevices;
+    private final ProfileRegistry profileRegistry;
+    private final ProvisioningMetrics metrics;
 
-    @Value("${provisioning.domain}")
-    private String domain;
-
-    @Value("${provisioning.port}")
-    private String port;
-
-    @Value("${provisioning.codecs}")
-    private String codecs;
+    @Value("${provisioning.batch.query-chunk-size:1000}")
+    private int batchQueryChunkSize = 1000;
 
     @Autowired
-    public ProvisioningServiceImpl(DeviceRepository deviceRepository, ConfigurationStrategyFactory strategyFactory) {
+    public ProvisioningServiceImpl(DeviceRepository deviceRepository, ConfigurationStrategyFactory strategyFactory,
+                                   RenderedConfigurationCache renderedConfigurationCache, DeviceIndex deviceIndex,
+                                   KnownDeviceFilter knownDevices, ProfileRegistry profileRegistry,
+                                   ProvisioningMetrics metrics) {
         this.deviceRepository = deviceRepository;
         this.strategyFactory = strategyFactory;
+        this.renderedConfigurationCache = renderedConfigurationCache;
+        this.deviceIndex = deviceIndex;
+        this.knownDevices = knownDevices;
+        this.profileRegistry = profileRegistry;
+        this.metrics = metrics;
     }
 
     @Override
     public String getProvisioningFile(String macAddress) throws DeviceNotFoundException, ProvisioningException {
-        log.info("Fetching configuration for device with MAC: {}", macAddress);
+        return getRenderedConfiguration(macAddress).getBody();
+    }
 
-        // Find device in repository
-        Device device = deviceRepository.findByMacAddress(macAddress)
+    @Override
+    public RenderedConfiguration getRenderedConfiguration(String macAddress) throws DeviceNotFoundException, ProvisioningException {
+        return findRenderedConfiguration(macAddress)
                 .orElseThrow(() -> new DeviceNotFoundException("Device with MAC address " + macAddress + " not found"));
+    }
+
+    @Override
+    public Optional<RenderedConfiguration> findRenderedConfiguration(String macAddress) throws ProvisioningException {
+        String key = MacAddress.normalize(macAddress);
+        RenderedConfiguration cached = renderedConfigurationCache.getIfPresent(key);
+        if (cached != null) {
+            return Optional.of(cached);
+        }
+        if (isKnownAbsent(key)) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(renderedConfigurationCache.load(key, this::renderProvisioningFile));
+        } catch (DeviceNotFoundException e) {
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public Optional<ConfigurationVersion> findConfigurationVersion(String macAddress) {
+        return renderedConfigurationCache.getVersion(MacAddress.normalize(macAddress));
+    }
+
+    @Override
+    public void compressedFormAdded(String macAddress, RenderedConfiguration configuration) {
+        renderedConfigurationCache.reweigh(MacAddress.normalize(macAddress), configuration);
+    }
+
+    @Override
+    public void provisionBatch(Collection<String> macAddresses, Consumer<BatchProvisioningResult> resultConsumer) {
+        Set<String> distinct = new LinkedHashSet<>();
+        macAddresses.forEach(macAddress -> distinct.add(MacAddress.normalize(macAddress)));
+
+        List<String> misses = new ArrayList<>();
+        List<Device> indexed = new ArrayList<>();
+        Map<String, Long> generations = new HashMap<>(distinct.size() * 2);
+        for (String macAddress : distinct) {
+            generations.put(macAddress, renderedConfigurationCache.generation(macAddress));
+            RenderedConfiguration cached = renderedConfigurationCache.getIfPresent(macAddress);
+            if (cached != null) {
+                resultConsumer.accept(BatchProvisioningResult.ok(macAddress, cached));
+            } else if (isKnownAbsent(macAddress)) {
+                resultConsumer.accept(BatchProvisioningResult.notFound(macAddress));
+            } else if (deviceIndex.isReady() && DeviceIndex.isIndexable(macAddress)) {
+                Optional<Device> device = deviceIndex.find(macAddress);
+                if (device.isPresent()) {
+                    indexed.add(device.get());
+                } else {
+                    resultConsumer.accept(BatchProvisioningResult.notFound(macAddress));
+                }
+            } else {
+                misses.add(macAddress);
+            }
+        }
+        renderBatch(indexed, generations, resultConsumer);
 
-        // Create base configuration from app properties and device data
-        DeviceConfiguration baseConfig = DeviceConfiguration.builder()
-                .username(device.getUsername())
-                .password(device.getPassword())
-                .domain(domain)
-                .port(port)
-                .codecs(codecs)
-                .build();
+        for (int from = 0; from < misses.size(); from += batchQueryChunkSize) {
+            List<String> chunk = misses.subList(from, Math.min(from + batchQueryChunkSize, misses.size()));
+            for (String macAddress : chunk) {
+                generations.put(macAddress, renderedConfigurationCache.generation(macAddress));
+            }
+            List<Device> devices = deviceRepository.findAllForProvisioning(chunk);
+
+            Set<String> found = new HashSet<>();
+            devices.forEach(device -> found.add(MacAddress.normalize(device.getMacAddress())));
+            for (String macAddress : chunk) {
+                if (!found.contains(macAddress)) {
+                    renderedConfigurationCache.putMissing(macAddress, generations.get(macAddress));
+                    resultConsumer.accept(BatchProvisioningResult.notFound(macAddress));
+                }
+            }
+            renderBatch(devices, generations, resultConsumer);
+        }
+    }
+
+    private void renderBatch(List<Device> devices, Map<String, Long> generations, Consumer<BatchProvisioningResult> resultConsumer) {
+        Map<Device.DeviceModel, List<Device>> devicesByModel = new EnumMap<>(Device.DeviceModel.class);
+        for (Device device : devices) {
+            devicesByModel.computeIfAbsent(device.getModel(), model -> new ArrayList<>()).add(device);
+        }
+
+        for (Map.Entry<Device.DeviceModel, List<Device>> group : devicesByModel.entrySet()) {
+            ConfigurationStrategy strategy;
+            try {
+                strategy = strategyFactory.getStrategy(group.getKey());
+            } catch (ProvisioningException e) {
+                group.getValue().forEach(device -> resultConsumer.accept(
+                        BatchProvisioningResult.error(MacAddress.normalize(device.getMacAddress()), e.getMessage())));
+                continue;
+            }
+
+            for (Device device : group.getValue()) {
+                String macAddress = MacAddress.normalize(device.getMacAddress());
+                try {
+                    RenderedConfiguration configuration = renderedConfigurationCache.put(
+                            macAddress, render(device, strategy), generations.get(macAddress));
+                    resultConsumer.accept(BatchProvisioningResult.ok(macAddress, configuration));
+                } catch (ProvisioningException e) {
+                    resultConsumer.accept(BatchProvisioningResult.error(macAddress, e.getMessage()));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return whether the device is known not to exist, from the Bloom filter or the negative cache
+     */
+    private boolean isKnownAbsent(String macAddress) {
+        return !knownDevices.mightContain(macAddress) || renderedConfigurationCache.isKnownMissing(macAddress);
+    }
+
+    private RenderedConfiguration renderProvisioningFile(String macAddress) throws DeviceNotFoundException, ProvisioningException {
+        log.info("Fetching configuration for device with MAC: {}", macAddress);
+
+        // Find device in the index, or the repository if it cannot answer
+        Device device = findDevice(macAddress)
+                .orElseThrow(() -> new DeviceNotFoundException("Device with MAC address " + macAddress + " not found"));
 
         // Get appropriate strategy for device type
         ConfigurationStrategy strategy = strategyFactory.getStrategy(device.getModel());
 
+        return render(device, strategy);
+    }
+
+    private Optional<Device> findDevice(String macAddress) {
+        long start = System.nanoTime();
+        if (deviceIndex.isReady() && DeviceIndex.isIndexable(macAddress)) {
+            Optional<Device> device = deviceIndex.find(macAddress);
+            metrics.recordLookup(ProvisioningMetrics.LookupSource.INDEX, start);
+            return device;
+        }
+        Optional<Device> device = deviceRepository.findForProvisioning(macAddress);
+        metrics.recordLookup(ProvisioningMetrics.LookupSource.REPOSITORY, start);
+        return device;
+    }
+
+    private RenderedConfiguration render(Device device, ConfigurationStrategy strategy) throws ProvisioningException {
+        long start = System.nanoTime();
+        RenderedConfiguration configuration = RenderedConfiguration.of(renderBody(device, strategy));
+        metrics.recordRender(device.getModel(), start);
+        return configuration;
+    }
+
+    private String renderBody(Device device, ConfigurationStrategy strategy) throws ProvisioningException {
+        // Base configuration shared by the device's profile, plus the device's credentials
+        DeviceConfiguration baseConfig = profileRegistry.resolve(device.getProfileId()).configurationFor(device);
+
         // Generate configuration (with or without override)
         if (StringUtils.isNotBlank(device.getOverrideFragment())) {
-            log.info("Applying override fragment for device: {}", macAddress);
-            return strategy.generateConfigurationWithOverride(device, baseConfig, device.getOverrideFragment());
+            log.info("Applying override fragment for device: {}", device.getMacAddress());
+            long start = System.nanoTime();
+            CompiledOverride override = device.getCompiledOverride() != null
+                    ? device.getCompiledOverride()
+                    : strategy.compileOverride(device.getOverrideFragment());
+            String body = strategy.generateConfigurationWithOverride(device, baseConfig, override);
+            metrics.recordOverrideApply(device.getModel(), start);
+            return body;
         } else {
             return strategy.generateConfiguration(device, baseConfig);
         }
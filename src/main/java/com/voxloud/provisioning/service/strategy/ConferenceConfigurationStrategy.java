@@ -1,92 +1,140 @@
 package com.voxloud.provisioning.service.strategy;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SegmentedStringWriter;
+import com.fasterxml.jackson.core.util.DefaultPrettyPrinter;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ArrayNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.voxloud.provisioning.entity.CompiledOverride;
 import com.voxloud.provisioning.entity.Device;
 import com.voxloud.provisioning.entity.DeviceConfiguration;
 import com.voxloud.provisioning.exception.ProvisioningException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import java.io.IOException;
-import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 
+/**
+ * Renders conference phone configurations as JSON.
+ * <p>
+ * Output is written field by field through a streaming {@link JsonGenerator} into Jackson's recycled buffers
+ * instead of building an {@code ObjectNode} tree first. The result is identical to serialising the equivalent
+ * tree: additional properties that reuse a standard key replace its value in place. Pretty-printing is on by
+ * default and can be switched off with {@code provisioning.format.conference.pretty-print=false}.
+ */
 @Component
 public class ConferenceConfigurationStrategy implements ConfigurationStrategy {
+    private static final String[] STANDARD_KEYS = {"username", "password", "domain", "port", "codecs"};
+
     private final ObjectMapper objectMapper = new ObjectMapper();
+    private final JsonFactory jsonFactory = objectMapper.getFactory();
+    private final boolean prettyPrint;
+    private volatile SplitCodecs splitCodecs = new SplitCodecs("", new String[0]);
+
+    public ConferenceConfigurationStrategy() {
+        this(true);
+    }
+
+    @Autowired
+    public ConferenceConfigurationStrategy(@Value("${provisioning.format.conference.pretty-print:true}") boolean prettyPrint) {
+        this.prettyPrint = prettyPrint;
+    }
+
+    @Override
+    public Device.DeviceModel getSupportedModel() {
+        return Device.DeviceModel.CONFERENCE;
+    }
+
+    @Override
+    public String getFileExtension() {
+        return "json";
+    }
 
     @Override
     public String generateConfiguration(Device device, DeviceConfiguration config) throws ProvisioningException {
         try {
-            ObjectNode rootNode = objectMapper.createObjectNode();
-
-            rootNode.put("username", config.getUsername());
-            rootNode.put("password", config.getPassword());
-            rootNode.put("domain", config.getDomain());
-            rootNode.put("port", config.getPort());
-
-            // Handle codecs as array
-            String[] codecsArray = config.getCodecs().split(",");
-            ArrayNode codecsNode = rootNode.putArray("codecs");
-            Arrays.stream(codecsArray).forEach(codecsNode::add);
-
-            // Add additional properties
-            if (config.getAdditionalProperties() != null) {
-                for (Map.Entry<String, Object> entry : config.getAdditionalProperties().entrySet()) {
-                    addJsonNode(rootNode, entry.getKey(), entry.getValue());
+            Map<String, Object> additionalProperties = config.getAdditionalProperties() != null
+                    ? config.getAdditionalProperties()
+                    : Collections.<String, Object>emptyMap();
+
+            SegmentedStringWriter writer = new SegmentedStringWriter(jsonFactory._getBufferRecycler());
+            try (JsonGenerator generator = jsonFactory.createGenerator(writer)) {
+                if (prettyPrint) {
+                    generator.setPrettyPrinter(new DefaultPrettyPrinter());
                 }
-            }
+                generator.writeStartObject();
+
+                writeStandardField(generator, "username", config.getUsername(), additionalProperties);
+                writeStandardField(generator, "password", config.getPassword(), additionalProperties);
+                writeStandardField(generator, "domain", config.getDomain(), additionalProperties);
+                writeStandardField(generator, "port", config.getPort(), additionalProperties);
 
-            return objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(rootNode);
+                // Handle codecs as array
+                if (additionalProperties.containsKey("codecs")) {
+                    writeField(generator, "codecs", additionalProperties.get("codecs"));
+                } else {
+                    generator.writeArrayFieldStart("codecs");
+                    for (String codec : splitCodecs(config.getCodecs())) {
+                        generator.writeString(codec);
+                    }
+                    generator.writeEndArray();
+                }
+
+                // Add additional properties
+                for (Map.Entry<String, Object> entry : additionalProperties.entrySet()) {
+                    if (!isStandardKey(entry.getKey())) {
+                        writeField(generator, entry.getKey(), entry.getValue());
+                    }
+                }
+
+                generator.writeEndObject();
+            }
+            return writer.getAndClear();
         } catch (Exception e) {
             throw new ProvisioningException("Failed to generate JSON configuration: " + e.getMessage());
         }
     }
 
     @Override
-    public String generateConfigurationWithOverride(Device device, DeviceConfiguration config, String overrideFragment) throws ProvisioningException {
+    public CompiledOverride compileOverride(String overrideFragment) throws ProvisioningException {
+        JsonNode overrideNode;
         try {
-            JsonNode overrideNode = objectMapper.readTree(overrideFragment);
-
-            // Apply overrides to config
-            Iterator<Map.Entry<String, JsonNode>> fields = overrideNode.fields();
-            while (fields.hasNext()) {
-                Map.Entry<String, JsonNode> entry = fields.next();
-                String key = entry.getKey();
-                JsonNode value = entry.getValue();
-
-                switch (key) {
-                    case "domain":
-                        config.setDomain(value.asText());
-                        break;
-                    case "port":
-                        config.setPort(value.asText());
-                        break;
-                    default:
-                        if (config.getAdditionalProperties() == null) {
-                            config = DeviceConfiguration.builder()
-                                    .username(config.getUsername())
-                                    .password(config.getPassword())
-                                    .domain(config.getDomain())
-                                    .port(config.getPort())
-                                    .codecs(config.getCodecs())
-                                    .build();
-                            config.setAdditionalProperties(new HashMap<>());
-                            config.getAdditionalProperties().put(key, parseJsonValue(value));
-                        } else {
-                            config.getAdditionalProperties().put(key, parseJsonValue(value));
-                        }
-                }
-            }
-
-            return generateConfiguration(device, config);
+            overrideNode = objectMapper.readTree(overrideFragment);
         } catch (IOException e) {
             throw new ProvisioningException("Failed to parse override fragment: " + e.getMessage());
         }
+        if (overrideNode == null || !overrideNode.isObject()) {
+            throw new ProvisioningException("Failed to parse override fragment: expected a JSON object");
+        }
+
+        String domain = null;
+        String port = null;
+        Map<String, Object> additionalProperties = new HashMap<>();
+        Iterator<Map.Entry<String, JsonNode>> fields = overrideNode.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> entry = fields.next();
+            String key = entry.getKey();
+            JsonNode value = entry.getValue();
+
+            switch (key) {
+                case "domain":
+                    domain = value.asText();
+                    break;
+                case "port":
+                    port = value.asText();
+                    break;
+                default:
+                    additionalProperties.put(key, parseJsonValue(value));
+            }
+        }
+
+        return new CompiledOverride(domain, port, additionalProperties);
     }
 
     private Object parseJsonValue(JsonNode node) {
@@ -105,17 +153,58 @@ public class ConferenceConfigurationStrategy implements ConfigurationStrategy {
         }
     }
 
-    private void addJsonNode(ObjectNode parentNode, String key, Object value) {
+    private void writeStandardField(JsonGenerator generator, String key, String value,
+                                    Map<String, Object> additionalProperties) throws IOException {
+        if (additionalProperties.containsKey(key)) {
+            writeField(generator, key, additionalProperties.get(key));
+        } else {
+            generator.writeStringField(key, value);
+        }
+    }
+
+    private void writeField(JsonGenerator generator, String key, Object value) throws IOException {
+        generator.writeFieldName(key);
         if (value instanceof Integer) {
-            parentNode.put(key, (Integer) value);
+            generator.writeNumber((Integer) value);
         } else if (value instanceof Long) {
-            parentNode.put(key, (Long) value);
+            generator.writeNumber((Long) value);
         } else if (value instanceof Double) {
-            parentNode.put(key, (Double) value);
+            generator.writeNumber((Double) value);
         } else if (value instanceof Boolean) {
-            parentNode.put(key, (Boolean) value);
+            generator.writeBoolean((Boolean) value);
         } else {
-            parentNode.put(key, String.valueOf(value));
+            generator.writeString(String.valueOf(value));
+        }
+    }
+
+    private static boolean isStandardKey(String key) {
+        for (String standardKey : STANDARD_KEYS) {
+            if (standardKey.equals(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The codecs list is the same for nearly every device, so the split result is kept for the last input.
+     */
+    private String[] splitCodecs(String codecs) {
+        SplitCodecs current = splitCodecs;
+        if (!current.source.equals(codecs)) {
+            current = new SplitCodecs(codecs, codecs.split(","));
+            splitCodecs = current;
+        }
+        return current.codecs;
+    }
+
+    private static final class SplitCodecs {
+        private final String source;
+        private final String[] codecs;
+
+        private SplitCodecs(String source, String[] codecs) {
+            this.source = source;
+            this.codecs = codecs;
         }
     }
-}
\ No newline at end of file
+}
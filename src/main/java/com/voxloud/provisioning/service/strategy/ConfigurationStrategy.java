@@ -1,11 +1,35 @@
 package com.voxloud.provisioning.service.strategy;
 
+import com.voxloud.provisioning.entity.CompiledOverride;
 import com.voxloud.provisioning.entity.Device;
 import com.voxloud.provisioning.entity.DeviceConfiguration;
 import com.voxloud.provisioning.exception.ProvisioningException;
 
 public interface ConfigurationStrategy {
+    /**
+     * The device model this strategy renders; the strategy factory registers every strategy bean under it.
+     */
+    Device.DeviceModel getSupportedModel();
+
     String generateConfiguration(Device device, DeviceConfiguration config) throws ProvisioningException;
 
-    String generateConfigurationWithOverride(Device device, DeviceConfiguration config, String overrideFragment) throws ProvisioningException;
+    /**
+     * Parses and validates an override fragment in this strategy's format.
+     */
+    CompiledOverride compileOverride(String overrideFragment) throws ProvisioningException;
+
+    /**
+     * Extension for files holding configurations of this format, e.g. in exports.
+     */
+    default String getFileExtension() {
+        return "cfg";
+    }
+
+    default String generateConfigurationWithOverride(Device device, DeviceConfiguration config, CompiledOverride override) throws ProvisioningException {
+        return generateConfiguration(device, override.applyTo(config));
+    }
+
+    default String generateConfigurationWithOverride(Device device, DeviceConfiguration config, String overrideFragment) throws ProvisioningException {
+        return generateConfigurationWithOverride(device, config, compileOverride(overrideFragment));
+    }
 }
@@ -0,0 +1,274 @@
+package com.voxloud.provisioning.service.strategy;
+
+import com.voxloud.provisioning.entity.CompiledOverride;
+import com.voxloud.provisioning.entity.Device;
+import com.voxloud.provisioning.entity.DeviceConfiguration;
+import com.voxloud.provisioning.exception.ProvisioningException;
+import org.springframework.stereotype.Component;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Renders cordless (DECT) phone configurations as XML.
+ * <p>
+ * Output is written element by element through a StAX {@link XMLStreamWriter}, indented by two spaces; no DOM is
+ * built. Override fragments are XML documents whose root's child elements are merged into the configuration at
+ * element level: a child named like a standard element replaces it in place, a child named like a property of the
+ * base configuration (e.g. one set by a profile) replaces that property as a whole, and any other child is
+ * appended. Fragments are read with a StAX reader with DTDs and external entities disabled.
+ */
+@Component
+public class CordlessConfigurationStrategy implements ConfigurationStrategy {
+    private static final String ROOT_ELEMENT = "configuration";
+    private static final String[] STANDARD_KEYS = {"username", "password", "domain", "port", "codecs"};
+    /**
+     * Line break and indentation by nesting depth.
+     */
+    private static final String[] INDENTS = {"\n", "\n  ", "\n    ", "\n      ", "\n        "};
+
+    private final XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
+    private final XMLInputFactory inputFactory;
+
+    public CordlessConfigurationStrategy() {
+        inputFactory = XMLInputFactory.newInstance();
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        inputFactory.setProperty(XMLInputFactory.IS_COALESCING, true);
+    }
+
+    @Override
+    public Device.DeviceModel getSupportedModel() {
+        return Device.DeviceModel.CORDLESS;
+    }
+
+    @Override
+    public String getFileExtension() {
+        return "xml";
+    }
+
+    @Override
+    public String generateConfiguration(Device device, DeviceConfiguration config) throws ProvisioningException {
+        Map<String, Object> additionalProperties = config.getAdditionalProperties() != null
+                ? config.getAdditionalProperties()
+                : Collections.<String, Object>emptyMap();
+        if (config.getCodecs() == null && !additionalProperties.containsKey("codecs")) {
+            throw new ProvisioningException("Failed to generate XML configuration: no codecs");
+        }
+
+        StringWriter out = new StringWriter(512);
+        try {
+            XMLStreamWriter writer = outputFactory.createXMLStreamWriter(out);
+            writer.writeStartDocument("UTF-8", "1.0");
+            writer.writeCharacters("\n");
+            writer.writeStartElement(ROOT_ELEMENT);
+
+            writeStandardElement(writer, "username", config.getUsername(), additionalProperties);
+            writeStandardElement(writer, "password", config.getPassword(), additionalProperties);
+            writeStandardElement(writer, "domain", config.getDomain(), additionalProperties);
+            writeStandardElement(writer, "port", config.getPort(), additionalProperties);
+            if (additionalProperties.containsKey("codecs")) {
+                writeValue(writer, "codecs", additionalProperties.get("codecs"), 1);
+            } else {
+                indent(writer, 1);
+                writer.writeStartElement("codecs");
+                for (String codec : config.getCodecs().split(",")) {
+                    writeValue(writer, "codec", codec, 2);
+                }
+                indent(writer, 1);
+                writer.writeEndElement();
+            }
+
+            for (Map.Entry<String, Object> entry : additionalProperties.entrySet()) {
+                if (!isStandardKey(entry.getKey())) {
+                    writeValue(writer, entry.getKey(), entry.getValue(), 1);
+                }
+            }
+
+            indent(writer, 0);
+            writer.writeEndElement();
+            writer.writeEndDocument();
+            writer.close();
+        } catch (XMLStreamException e) {
+            throw new ProvisioningException("Failed to generate XML configuration: " + e.getMessage());
+        }
+        return out.append('\n').toString();
+    }
+
+    @Override
+    public String generateConfigurationWithOverride(Device device, DeviceConfiguration config, CompiledOverride override)
+            throws ProvisioningException {
+        return generateConfiguration(device, override.applyTo(config));
+    }
+
+    @Override
+    public CompiledOverride compileOverride(String overrideFragment) throws ProvisioningException {
+        String domain = null;
+        String port = null;
+        Map<String, Object> additionalProperties = new LinkedHashMap<>();
+        try {
+            XMLStreamReader reader = inputFactory.createXMLStreamReader(new StringReader(overrideFragment));
+            try {
+                reader.nextTag();
+                while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+                    XmlElement element = readElement(reader);
+                    boolean leaf = element.getChildren().isEmpty() && element.getAttributes().isEmpty();
+                    switch (element.getName()) {
+                        case "domain":
+                            domain = leafText(element, leaf);
+                            break;
+                        case "port":
+                            port = leafText(element, leaf);
+                            break;
+                        default:
+                            // Plain text elements behave like properties; anything richer is replayed as is
+                            additionalProperties.put(element.getName(), leaf ? element.getText() : element);
+                    }
+                }
+                while (reader.hasNext()) {
+                    reader.next();
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new ProvisioningException("Failed to parse override fragment: " + e.getMessage());
+        }
+        return new CompiledOverride(domain, port, additionalProperties);
+    }
+
+    private static XmlElement readElement(XMLStreamReader reader) throws XMLStreamException {
+        String name = reader.getLocalName();
+        Map<String, String> attributes = new LinkedHashMap<>();
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            attributes.put(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+        }
+        StringBuilder text = new StringBuilder();
+        List<XmlElement> children = new ArrayList<>();
+        while (true) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    children.add(readElement(reader));
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    text.append(reader.getText());
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    return new XmlElement(name, attributes, text.toString(), children);
+                default:
+                    // Comments and processing instructions
+            }
+        }
+    }
+
+    private static String leafText(XmlElement element, boolean leaf) throws ProvisioningException {
+        if (!leaf) {
+            throw new ProvisioningException("Failed to parse override fragment: <" + element.getName()
+                    + "> must only contain text");
+        }
+        return element.getText();
+    }
+
+    private void writeStandardElement(XMLStreamWriter writer, String name, String value,
+                                      Map<String, Object> additionalProperties)
+            throws XMLStreamException, ProvisioningException {
+        writeValue(writer, name, additionalProperties.containsKey(name) ? additionalProperties.get(name) : value, 1);
+    }
+
+    private void writeValue(XMLStreamWriter writer, String name, Object value, int depth)
+            throws XMLStreamException, ProvisioningException {
+        if (value instanceof XmlElement) {
+            writeElement(writer, (XmlElement) value, depth);
+            return;
+        }
+        if (!isElementName(name)) {
+            throw new ProvisioningException("Failed to generate XML configuration: invalid element name " + name);
+        }
+        indent(writer, depth);
+        if (value == null) {
+            writer.writeEmptyElement(name);
+        } else {
+            writer.writeStartElement(name);
+            writer.writeCharacters(String.valueOf(value));
+            writer.writeEndElement();
+        }
+    }
+
+    private void writeElement(XMLStreamWriter writer, XmlElement element, int depth) throws XMLStreamException {
+        indent(writer, depth);
+        boolean empty = element.getChildren().isEmpty() && (element.getText() == null || element.getText().isEmpty());
+        if (empty) {
+            writer.writeEmptyElement(element.getName());
+        } else {
+            writer.writeStartElement(element.getName());
+        }
+        for (Map.Entry<String, String> attribute : element.getAttributes().entrySet()) {
+            writer.writeAttribute(attribute.getKey(), attribute.getValue());
+        }
+        if (empty) {
+            return;
+        }
+        if (element.getChildren().isEmpty()) {
+            writer.writeCharacters(element.getText());
+        } else {
+            for (XmlElement child : element.getChildren()) {
+                writeElement(writer, child, depth + 1);
+            }
+            indent(writer, depth);
+        }
+        writer.writeEndElement();
+    }
+
+    private static void indent(XMLStreamWriter writer, int depth) throws XMLStreamException {
+        if (depth < INDENTS.length) {
+            writer.writeCharacters(INDENTS[depth]);
+            return;
+        }
+        StringBuilder indent = new StringBuilder(INDENTS[INDENTS.length - 1]);
+        for (int i = INDENTS.length - 1; i < depth; i++) {
+            indent.append("  ");
+        }
+        writer.writeCharacters(indent.toString());
+    }
+
+    /**
+     * Accepts the subset of XML names made of ASCII letters, digits, {@code _}, {@code -} and {@code .}, not
+     * starting with a digit, {@code -} or {@code .}; namespace prefixes are not supported.
+     */
+    private static boolean isElementName(String name) {
+        if (name.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            boolean letter = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+            boolean other = (c >= '0' && c <= '9') || c == '-' || c == '.';
+            if (!letter && (i == 0 || !other)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isStandardKey(String key) {
+        for (String standardKey : STANDARD_KEYS) {
+            if (standardKey.equals(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -1,5 +1,8 @@
 package com.voxloud.provisioning.service.strategy;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.voxloud.provisioning.entity.CompiledOverride;
 import com.voxloud.provisioning.entity.Device;
 import com.voxloud.provisioning.entity.DeviceConfiguration;
 import com.voxloud.provisioning.exception.ProvisioningException;
@@ -7,69 +10,189 @@ import org.springframework.stereotype.Component;
 
 import java.io.IOException;
 import java.io.StringReader;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Properties;
 
+/**
+ * Renders desk phone configurations in {@code java.util.Properties} format.
+ * <p>
+ * The {@code domain}, {@code port} and {@code codecs} lines are the same for every device of a provisioning
+ * profile that does not override them, so they are compiled once per set of base values into a {@link Template}
+ * and copied into a per-thread buffer as a single segment; only the per-device slots are escaped and appended
+ * individually. Templates are kept for up to {@value #MAX_TEMPLATES} sets of base values, so devices of
+ * different profiles rendered in turn do not recompile each other's. Keys and values are escaped so that the
+ * output reads back through {@link Properties#load} to the same entries.
+ */
 @Component
 public class DeskConfigurationStrategy implements ConfigurationStrategy {
+    private static final int MAX_POOLED_BUFFER_CAPACITY = 16 * 1024;
+    private static final int MAX_TEMPLATES = 1024;
+
+    private static final ThreadLocal<StringBuilder> BUFFERS = ThreadLocal.withInitial(() -> new StringBuilder(256));
+
+    private final Cache<List<String>, Template> templates = Caffeine.newBuilder()
+            .maximumSize(MAX_TEMPLATES)
+            .build();
+
+    @Override
+    public Device.DeviceModel getSupportedModel() {
+        return Device.DeviceModel.DESK;
+    }
 
     @Override
     public String generateConfiguration(Device device, DeviceConfiguration config) {
-        StringBuilder configBuilder = new StringBuilder();
+        return render(config, templateFor(config));
+    }
 
-        configBuilder.append("username=").append(config.getUsername()).append("\n");
-        configBuilder.append("password=").append(config.getPassword()).append("\n");
-        configBuilder.append("domain=").append(config.getDomain()).append("\n");
-        configBuilder.append("port=").append(config.getPort()).append("\n");
-        configBuilder.append("codecs=").append(config.getCodecs()).append("\n");
+    @Override
+    public String generateConfigurationWithOverride(Device device, DeviceConfiguration config, CompiledOverride override) {
+        // The base configuration carries the provisioning.* values the template is compiled from
+        return render(override.applyTo(config), templateFor(config));
+    }
+
+    private String render(DeviceConfiguration config, Template template) {
+        StringBuilder configBuilder = BUFFERS.get();
+        configBuilder.setLength(0);
+
+        appendEntry(configBuilder, "username", config.getUsername());
+        appendEntry(configBuilder, "password", config.getPassword());
+        if (template.matches(config)) {
+            configBuilder.append(template.staticSegment);
+        } else {
+            appendEntry(configBuilder, "domain", config.getDomain());
+            appendEntry(configBuilder, "port", config.getPort());
+            appendEntry(configBuilder, "codecs", config.getCodecs());
+        }
 
         if (config.getAdditionalProperties() != null) {
             for (Map.Entry<String, Object> entry : config.getAdditionalProperties().entrySet()) {
-                configBuilder.append(entry.getKey()).append("=").append(entry.getValue()).append("\n");
+                appendEntry(configBuilder, entry.getKey(), entry.getValue());
+            }
+        }
+
+        String configuration = configBuilder.toString();
+        if (configBuilder.capacity() > MAX_POOLED_BUFFER_CAPACITY) {
+            BUFFERS.remove();
+        }
+        return configuration;
+    }
+
+    private Template templateFor(DeviceConfiguration config) {
+        return templates.get(Arrays.asList(config.getDomain(), config.getPort(), config.getCodecs()),
+                values -> new Template(values.get(0), values.get(1), values.get(2)));
+    }
+
+    private static void appendEntry(StringBuilder builder, String key, Object value) {
+        appendEscaped(builder, key, true);
+        builder.append('=');
+        appendEscaped(builder, String.valueOf(value), false);
+        builder.append('\n');
+    }
+
+    /**
+     * Escapes the characters {@link Properties#load} would otherwise interpret: line terminators, tabs, form
+     * feeds and backslashes everywhere; leading whitespace in values; and separators, comment markers and spaces
+     * in keys. Everything else, including non-ASCII text, is written as is.
+     */
+    private static void appendEscaped(StringBuilder builder, String text, boolean isKey) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '\\':
+                    builder.append("\\\\");
+                    break;
+                case '\n':
+                    builder.append("\\n");
+                    break;
+                case '\r':
+                    builder.append("\\r");
+                    break;
+                case '\t':
+                    builder.append("\\t");
+                    break;
+                case '\f':
+                    builder.append("\\f");
+                    break;
+                case ' ':
+                    if (isKey || i == 0) {
+                        builder.append('\\');
+                    }
+                    builder.append(c);
+                    break;
+                case '=':
+                case ':':
+                case '#':
+                case '!':
+                    if (isKey) {
+                        builder.append('\\');
+                    }
+                    builder.append(c);
+                    break;
+                default:
+                    builder.append(c);
             }
         }
+    }
+
+    /**
+     * Precompiled, escaped {@code domain}, {@code port} and {@code codecs} lines for one set of base values.
+     */
+    private static final class Template {
+        private final String domain;
+        private final String port;
+        private final String codecs;
+        private final String staticSegment;
+
+        private Template(String domain, String port, String codecs) {
+            this.domain = domain;
+            this.port = port;
+            this.codecs = codecs;
 
-        return configBuilder.toString();
+            StringBuilder segment = new StringBuilder();
+            appendEntry(segment, "domain", domain);
+            appendEntry(segment, "port", port);
+            appendEntry(segment, "codecs", codecs);
+            this.staticSegment = segment.toString();
+        }
+
+        private boolean matches(DeviceConfiguration config) {
+            return Objects.equals(domain, config.getDomain())
+                    && Objects.equals(port, config.getPort())
+                    && Objects.equals(codecs, config.getCodecs());
+        }
     }
 
     @Override
-    public String generateConfigurationWithOverride(Device device, DeviceConfiguration config, String overrideFragment) throws ProvisioningException {
+    public CompiledOverride compileOverride(String overrideFragment) throws ProvisioningException {
         Properties overrideProps = new Properties();
         try {
             overrideProps.load(new StringReader(overrideFragment));
-        } catch (IOException e) {
+        } catch (IOException | IllegalArgumentException e) {
             throw new ProvisioningException("Failed to parse override fragment: " + e.getMessage());
         }
 
-        // Apply overrides to config
+        String domain = null;
+        String port = null;
+        Map<String, Object> additionalProperties = new HashMap<>();
         for (String key : overrideProps.stringPropertyNames()) {
             String value = overrideProps.getProperty(key);
 
             switch (key) {
                 case "domain":
-                    config.setDomain(value);
+                    domain = value;
                     break;
                 case "port":
-                    config.setPort(value);
+                    port = value;
                     break;
                 default:
-                    if (config.getAdditionalProperties() == null) {
-                        config = DeviceConfiguration.builder()
-                                .username(config.getUsername())
-                                .password(config.getPassword())
-                                .domain(config.getDomain())
-                                .port(config.getPort())
-                                .codecs(config.getCodecs())
-                                .build();
-                        config.setAdditionalProperties(new HashMap<>());
-                        config.getAdditionalProperties().put(key, value);
-                    } else {
-                        config.getAdditionalProperties().put(key, value);
-                    }
+                    additionalProperties.put(key, value);
             }
         }
 
-        return generateConfiguration(device, config);
+        return new CompiledOverride(domain, port, additionalProperties);
     }
 }
\ No newline at end of file
@@ -0,0 +1,32 @@
+package com.voxloud.provisioning.service.strategy;
+
+import com.voxloud.provisioning.entity.CompiledOverride;
+import com.voxloud.provisioning.entity.Device;
+import com.voxloud.provisioning.exception.ProvisioningException;
+import com.voxloud.provisioning.service.factory.ConfigurationStrategyFactory;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Compiles a device's override fragment with the strategy matching its model.
+ */
+@Component
+public class OverrideFragmentCompiler {
+    private final ConfigurationStrategyFactory strategyFactory;
+
+    @Autowired
+    public OverrideFragmentCompiler(ConfigurationStrategyFactory strategyFactory) {
+        this.strategyFactory = strategyFactory;
+    }
+
+    /**
+     * @return the compiled override, or {@code null} if the device has no override fragment
+     */
+    public CompiledOverride compile(Device device) throws ProvisioningException {
+        if (StringUtils.isBlank(device.getOverrideFragment())) {
+            return null;
+        }
+        return strategyFactory.getStrategy(device.getModel()).compileOverride(device.getOverrideFragment());
+    }
+}
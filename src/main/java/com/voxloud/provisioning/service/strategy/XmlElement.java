@@ -0,0 +1,26 @@
+package com.voxloud.provisioning.service.strategy;
+
+import lombok.Value;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable XML element of a compiled override fragment, replayed through the writer when rendering. Only
+ * elements, attributes and text are kept; an element with child elements has no text.
+ */
+@Value
+public class XmlElement {
+    String name;
+    Map<String, String> attributes;
+    String text;
+    List<XmlElement> children;
+
+    public XmlElement(String name, Map<String, String> attributes, String text, List<XmlElement> children) {
+        this.name = name;
+        this.attributes = Collections.unmodifiableMap(attributes);
+        this.text = children.isEmpty() ? text : null;
+        this.children = Collections.unmodifiableList(children);
+    }
+}
@@ -0,0 +1,22 @@
+package com.voxloud.provisioning.snapshot;
+
+import com.voxloud.provisioning.entity.Device;
+import com.voxloud.provisioning.entity.RenderedConfiguration;
+import lombok.Value;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Point-in-time copy of the device inventory and, optionally, of rendered configurations keyed by normalised MAC.
+ * <p>
+ * {@code renderFingerprint} identifies the settings the configurations were rendered with; rendered entries
+ * from a snapshot taken under different settings are not restored.
+ */
+@Value
+public class InventorySnapshot {
+    long createdAt;
+    String renderFingerprint;
+    List<Device> devices;
+    Map<String, RenderedConfiguration> rendered;
+}
@@ -0,0 +1,198 @@
+package com.voxloud.provisioning.snapshot;
+
+import com.voxloud.provisioning.entity.ConfigurationVersion;
+import com.voxloud.provisioning.entity.Device;
+import com.voxloud.provisioning.entity.RenderedConfiguration;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Binary format of an {@link InventorySnapshot}.
+ * <p>
+ * A fixed 40-byte header (magic, format version, creation time, device and rendered counts, payload length and
+ * CRC-32 of the payload) is followed by the payload: the render fingerprint, the devices, then the rendered
+ * configurations. Strings are a length-prefixed UTF-8, {@code -1} standing for {@code null}.
+ * <p>
+ * Files are written next to their destination and atomically moved into place, so readers never see a partial
+ * snapshot. They are read through a read-only memory mapping, which spares a copy through a read buffer but not
+ * the decoding: every entry becomes a heap object, since that is what the index and the cache hold. A file is
+ * rejected as a whole if anything does not add up. Rendered entries keep the ETag they were written with.
+ */
+final class SnapshotFile {
+    static final int MAGIC = 0x50565331; // "PVS1"
+    static final int FORMAT_VERSION = 2;
+    static final int HEADER_SIZE = 40;
+
+    private SnapshotFile() {
+    }
+
+    static void write(Path path, InventorySnapshot snapshot) throws IOException {
+        Path directory = path.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temporary = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                channel.position(HEADER_SIZE);
+                CRC32 crc = new CRC32();
+                CountingOutputStream counter = new CountingOutputStream(
+                        new CheckedOutputStream(Channels.newOutputStream(channel), crc));
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(counter, 1 << 16));
+                writeString(out, snapshot.getRenderFingerprint());
+                for (Device device : snapshot.getDevices()) {
+                    writeString(out, device.getMacAddress());
+                    writeString(out, device.getModel().name());
+                    writeString(out, device.getOverrideFragment());
+                    writeString(out, device.getUsername());
+                    writeString(out, device.getPassword());
+                    writeString(out, device.getProfileId());
+                }
+                for (Map.Entry<String, RenderedConfiguration> entry : snapshot.getRendered().entrySet()) {
+                    ConfigurationVersion version = entry.getValue().getVersion();
+                    writeString(out, entry.getKey());
+                    writeString(out, version.getEtag());
+                    out.writeLong(version.getLastModified());
+                    writeString(out, entry.getValue().getBody());
+                }
+                out.flush();
+
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+                        .putInt(MAGIC)
+                        .putInt(FORMAT_VERSION)
+                        .putLong(snapshot.getCreatedAt())
+                        .putInt(snapshot.getDevices().size())
+                        .putInt(snapshot.getRendered().size())
+                        .putLong(counter.count)
+                        .putLong(crc.getValue());
+                header.flip();
+                channel.write(header, 0);
+                channel.force(true);
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * @throws IOException if the file cannot be read or is not a complete, intact snapshot of this format
+     */
+    static InventorySnapshot read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE) {
+                throw new IOException("Truncated snapshot header");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not a snapshot file");
+            }
+            int formatVersion = buffer.getInt();
+            if (formatVersion != FORMAT_VERSION) {
+                throw new IOException("Unsupported snapshot format version " + formatVersion);
+            }
+            long createdAt = buffer.getLong();
+            int deviceCount = buffer.getInt();
+            int renderedCount = buffer.getInt();
+            long payloadLength = buffer.getLong();
+            long checksum = buffer.getLong();
+            if (payloadLength != size - HEADER_SIZE || deviceCount < 0 || renderedCount < 0) {
+                throw new IOException("Snapshot header does not match the file (" + size + " bytes)");
+            }
+
+            CRC32 crc = new CRC32();
+            crc.update(buffer.duplicate());
+            if (crc.getValue() != checksum) {
+                throw new IOException("Snapshot checksum mismatch");
+            }
+
+            try {
+                String renderFingerprint = readString(buffer);
+                List<Device> devices = new ArrayList<>(deviceCount);
+                for (int i = 0; i < deviceCount; i++) {
+                    String macAddress = readString(buffer);
+                    Device.DeviceModel model = Device.DeviceModel.valueOf(readString(buffer));
+                    String overrideFragment = readString(buffer);
+                    Device device = new Device(macAddress, model, overrideFragment, readString(buffer),
+                            readString(buffer));
+                    device.setProfileId(readString(buffer));
+                    devices.add(device);
+                }
+                Map<String, RenderedConfiguration> rendered = new LinkedHashMap<>(renderedCount * 2);
+                for (int i = 0; i < renderedCount; i++) {
+                    String macAddress = readString(buffer);
+                    ConfigurationVersion version = new ConfigurationVersion(readString(buffer), buffer.getLong());
+                    rendered.put(macAddress, RenderedConfiguration.of(readString(buffer), version));
+                }
+                if (buffer.hasRemaining()) {
+                    throw new IOException("Unexpected data after the last snapshot entry");
+                }
+                return new InventorySnapshot(createdAt, renderFingerprint, devices, rendered);
+            } catch (RuntimeException e) {
+                // Buffer underflow, unknown model, ...: the checksum matched, so the writer was broken
+                throw new IOException("Malformed snapshot: " + e, e);
+            }
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > buffer.remaining()) {
+            throw new IllegalStateException("String of " + length + " bytes overruns the snapshot");
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
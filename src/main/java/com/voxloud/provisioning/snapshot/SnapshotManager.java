@@ -0,0 +1,272 @@
+package com.voxloud.provisioning.snapshot;
+
+import com.voxloud.provisioning.cache.RenderedConfigurationCache;
+import com.voxloud.provisioning.entity.Device;
+import com.voxloud.provisioning.entity.RenderedConfiguration;
+import com.voxloud.provisioning.event.DeviceChangedEvent;
+import com.voxloud.provisioning.exception.ProvisioningException;
+import com.voxloud.provisioning.index.DeviceIndex;
+import com.voxloud.provisioning.profile.ProfileRegistry;
+import com.voxloud.provisioning.repository.DeviceRepository;
+import com.voxloud.provisioning.service.strategy.OverrideFragmentCompiler;
+import com.voxloud.provisioning.util.RenderFingerprint;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Warm restarts from an {@link InventorySnapshot} on local disk.
+ * <p>
+ * Once all beans exist, before the web server starts, the snapshot at {@code provisioning.snapshot.path} is
+ * read (see {@link SnapshotFile}), verified and used to seed the {@link DeviceIndex}, with override fragments
+ * compiled as on a JPA load, and, if it was taken with the same render settings and provisioning profiles, the
+ * {@link RenderedConfigurationCache}. The database stays the source of truth: a snapshot that is missing,
+ * corrupt, older than {@code provisioning.snapshot.max-age} or whose device count differs from the repository's
+ * is ignored, and once the application is ready every restored device is compared with the repository and
+ * differences are published as {@link DeviceChangedEvent}s, which evicts whatever was restored from stale rows.
+ * <p>
+ * Serving from the snapshot right away is the point, so the web server starts before that comparison: until it
+ * has finished, a device whose row changed while the node was down is answered from its snapshot state. The
+ * device count check only catches inventories that grew or shrank.
+ * <p>
+ * The snapshot is rewritten every {@code provisioning.snapshot.interval-ms} and on shutdown, from the index (or
+ * the repository if the index is disabled) and the cache.
+ * <p>
+ * Publishes {@code provisioning.snapshot.restore{result}} and {@code provisioning.snapshot.write}.
+ */
+@Component
+@ConditionalOnProperty(name = "provisioning.snapshot.enabled", havingValue = "true")
+@DependsOn("canonicalMacAddressMigration")
+@Slf4j
+public class SnapshotManager implements SmartInitializingSingleton, DisposableBean {
+
+    enum RestoreResult {
+        RESTORED, MISSING, STALE, CORRUPT
+    }
+
+    private final DeviceRepository deviceRepository;
+    private final DeviceIndex deviceIndex;
+    private final RenderedConfigurationCache renderedConfigurationCache;
+    private final ProfileRegistry profileRegistry;
+    private final OverrideFragmentCompiler overrideFragmentCompiler;
+    private final ApplicationEventPublisher eventPublisher;
+    private final Path path;
+    private final boolean includeRendered;
+    private final Duration maxAge;
+    private final int pageSize;
+    private final String renderFingerprint;
+    private final Map<RestoreResult, Counter> restoreResults = new HashMap<>();
+    private final Timer writeTimer;
+
+    private volatile Map<String, Device> restoredDevices = Collections.emptyMap();
+    private volatile boolean ready;
+
+    @Autowired
+    public SnapshotManager(DeviceRepository deviceRepository, DeviceIndex deviceIndex,
+                           RenderedConfigurationCache renderedConfigurationCache, ProfileRegistry profileRegistry,
+                           OverrideFragmentCompiler overrideFragmentCompiler, ApplicationEventPublisher eventPublisher,
+                           @Value("${provisioning.snapshot.path:provisioning-snapshot.bin}") String path,
+                           @Value("${provisioning.snapshot.include-rendered:true}") boolean includeRendered,
+                           @Value("${provisioning.snapshot.max-age:PT24H}") Duration maxAge,
+                           @Value("${provisioning.index.load-page-size:10000}") int pageSize,
+                           @Value("${provisioning.domain}") String domain,
+                           @Value("${provisioning.port}") String port,
+                           @Value("${provisioning.codecs}") String codecs,
+                           @Value("${provisioning.format.conference.pretty-print:true}") boolean prettyPrint,
+                           MeterRegistry meterRegistry) {
+        this.deviceRepository = deviceRepository;
+        this.deviceIndex = deviceIndex;
+        this.renderedConfigurationCache = renderedConfigurationCache;
+        this.profileRegistry = profileRegistry;
+        this.overrideFragmentCompiler = overrideFragmentCompiler;
+        this.eventPublisher = eventPublisher;
+        this.path = Paths.get(path);
+        this.includeRendered = includeRendered;
+        this.maxAge = maxAge;
+        this.pageSize = pageSize;
+        this.renderFingerprint = RenderFingerprint.of(domain, port, codecs, prettyPrint);
+        for (RestoreResult result : RestoreResult.values()) {
+            restoreResults.put(result, Counter.builder("provisioning.snapshot.restore")
+                    .description("Snapshot restore attempts at startup by result")
+                    .tag("result", result.name().toLowerCase(Locale.ROOT))
+                    .register(meterRegistry));
+        }
+        this.writeTimer = Timer.builder("provisioning.snapshot.write")
+                .description("Time to write the inventory snapshot")
+                .register(meterRegistry);
+    }
+
+    /**
+     * The render settings together with the current state of the profile hierarchy, which lives in the database
+     * and may have changed while the node was down.
+     */
+    String getRenderFingerprint() {
+        return renderFingerprint + "/" + profileRegistry.fingerprint();
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        restoreResults.get(restore()).increment();
+    }
+
+    RestoreResult restore() {
+        long start = System.nanoTime();
+        InventorySnapshot snapshot;
+        try {
+            snapshot = SnapshotFile.read(path);
+        } catch (NoSuchFileException e) {
+            log.info("No snapshot at {}, starting cold", path);
+            return RestoreResult.MISSING;
+        } catch (IOException e) {
+            log.warn("Ignoring snapshot {}: {}", path, e.getMessage());
+            return RestoreResult.CORRUPT;
+        }
+
+        Duration age = Duration.ofMillis(System.currentTimeMillis() - snapshot.getCreatedAt());
+        if (age.compareTo(maxAge) > 0) {
+            log.warn("Ignoring snapshot {}: taken {} ago, more than {}", path, age, maxAge);
+            return RestoreResult.STALE;
+        }
+        long inventorySize = deviceRepository.count();
+        if (inventorySize != snapshot.getDevices().size()) {
+            log.warn("Ignoring snapshot {}: {} devices, the repository holds {}",
+                    path, snapshot.getDevices().size(), inventorySize);
+            return RestoreResult.STALE;
+        }
+
+        for (Device device : snapshot.getDevices()) {
+            try {
+                device.setCompiledOverride(overrideFragmentCompiler.compile(device));
+            } catch (ProvisioningException e) {
+                // As for rows loaded through JPA; the request path reports the error
+                log.warn("Snapshot override fragment for device {} is invalid: {}", device.getMacAddress(),
+                        e.getMessage());
+            }
+        }
+        if (!deviceIndex.restore(snapshot.getDevices())) {
+            return RestoreResult.STALE;
+        }
+        Map<String, Device> restored = new HashMap<>(snapshot.getDevices().size() * 2);
+        snapshot.getDevices().forEach(device -> restored.put(device.getMacAddress(), device));
+        restoredDevices = restored;
+
+        int renderedRestored = 0;
+        if (includeRendered && getRenderFingerprint().equals(snapshot.getRenderFingerprint())) {
+            for (Map.Entry<String, RenderedConfiguration> entry : snapshot.getRendered().entrySet()) {
+                renderedConfigurationCache.put(entry.getKey(), entry.getValue(),
+                        renderedConfigurationCache.generation(entry.getKey()));
+            }
+            renderedRestored = snapshot.getRendered().size();
+        }
+        log.info("Restored {} devices and {} rendered configurations from snapshot {} (taken {} ago) in {} ms",
+                restored.size(), renderedRestored, path, age, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return RestoreResult.RESTORED;
+    }
+
+    /**
+     * Compares the restored devices with the repository and publishes a change for every device that differs,
+     * was added or was removed since the snapshot was taken.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void reconcile() {
+        ready = true;
+        Map<String, Device> restored = new HashMap<>(restoredDevices);
+        restoredDevices = Collections.emptyMap();
+        if (restored.isEmpty()) {
+            return;
+        }
+        int changed = 0;
+        Slice<Device> page = deviceRepository.findAll(PageRequest.of(0, pageSize, Sort.by("macAddress")));
+        while (true) {
+            for (Device device : page) {
+                Device snapshotDevice = restored.remove(device.getMacAddress());
+                if (!Objects.equals(snapshotDevice, device)) {
+                    eventPublisher.publishEvent(DeviceChangedEvent.saved(device.copy()));
+                    changed++;
+                }
+            }
+            if (!page.hasNext()) {
+                break;
+            }
+            page = deviceRepository.findAll(page.nextPageable());
+        }
+        for (String macAddress : restored.keySet()) {
+            eventPublisher.publishEvent(DeviceChangedEvent.deleted(macAddress));
+            changed++;
+        }
+        log.info("Reconciled snapshot with the repository: {} devices changed since it was taken", changed);
+    }
+
+    @Scheduled(fixedDelayString = "${provisioning.snapshot.interval-ms:300000}",
+            initialDelayString = "${provisioning.snapshot.interval-ms:300000}")
+    public synchronized void write() {
+        if (!ready) {
+            return;
+        }
+        long start = System.nanoTime();
+        List<Device> devices = new ArrayList<>();
+        if (deviceIndex.isReady()) {
+            deviceIndex.forEach(devices::add);
+        } else {
+            Slice<Device> page = deviceRepository.findAll(PageRequest.of(0, pageSize, Sort.by("macAddress")));
+            while (true) {
+                page.forEach(device -> devices.add(device.copy()));
+                if (!page.hasNext()) {
+                    break;
+                }
+                page = deviceRepository.findAll(page.nextPageable());
+            }
+        }
+        // Taken before collecting the cache, so a profile change in between can only discard entries on restore
+        String fingerprint = getRenderFingerprint();
+        Map<String, RenderedConfiguration> rendered = new LinkedHashMap<>();
+        if (includeRendered) {
+            renderedConfigurationCache.forEach(rendered::put);
+        }
+
+        try {
+            SnapshotFile.write(path, new InventorySnapshot(System.currentTimeMillis(), fingerprint, devices, rendered));
+            writeTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            log.info("Wrote snapshot of {} devices and {} rendered configurations to {} ({} bytes)",
+                    devices.size(), rendered.size(), path, Files.size(path));
+        } catch (IOException e) {
+            log.error("Could not write snapshot to {}: {}", path, e.getMessage());
+        }
+    }
+
+    @Override
+    public void destroy() {
+        write();
+    }
+}
@@ -0,0 +1,95 @@
+package com.voxloud.provisioning.util;
+
+/**
+ * Parsing and formatting of 48-bit MAC addresses packed into a {@code long}.
+ * <p>
+ * Accepted notations, in any letter case: {@code aa-bb-cc-dd-ee-ff}, {@code aa:bb:cc:dd:ee:ff},
+ * {@code aabb.ccdd.eeff} and bare {@code aabbccddeeff}. The canonical text form, used for cache keys and
+ * new inventory rows, is lower-case and dash-separated.
+ */
+public final class MacAddress {
+    /**
+     * Returned by {@link #parse(String)} for input that is not a MAC address. Never a valid 48-bit value.
+     */
+    public static final long INVALID = -1L;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private MacAddress() {
+    }
+
+    /**
+     * @return the packed address, or {@link #INVALID} if {@code text} is not a MAC address in a supported notation
+     */
+    public static long parse(String text) {
+        if (text == null) {
+            return INVALID;
+        }
+        switch (text.length()) {
+            case 12:
+                return parse(text, 0, ' ');
+            case 14:
+                return parse(text, 5, '.');
+            case 17:
+                char separator = text.charAt(2);
+                return separator == '-' || separator == ':' ? parse(text, 3, separator) : INVALID;
+            default:
+                return INVALID;
+        }
+    }
+
+    /**
+     * Parses hex digits where every {@code period}-th character (0 for none) must be {@code separator}.
+     */
+    private static long parse(String text, int period, char separator) {
+        long value = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (period > 0 && i % period == period - 1) {
+                if (c != separator) {
+                    return INVALID;
+                }
+                continue;
+            }
+            int nibble = hexValue(c);
+            if (nibble < 0) {
+                return INVALID;
+            }
+            value = (value << 4) | nibble;
+        }
+        return value;
+    }
+
+    private static int hexValue(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        } else if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        } else if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+
+    public static String format(long address) {
+        char[] text = new char[17];
+        for (int octet = 0; octet < 6; octet++) {
+            int value = (int) (address >>> (40 - 8 * octet)) & 0xff;
+            int offset = octet * 3;
+            text[offset] = HEX_DIGITS[value >>> 4];
+            text[offset + 1] = HEX_DIGITS[value & 0xf];
+            if (octet < 5) {
+                text[offset + 2] = '-';
+            }
+        }
+        return new String(text);
+    }
+
+    /**
+     * @return the canonical form of {@code text} if it is a MAC address, otherwise {@code text} unchanged
+     */
+    public static String normalize(String text) {
+        long address = parse(text);
+        return address == INVALID ? text : format(address);
+    }
+}
@@ -0,0 +1,23 @@
+package com.voxloud.provisioning.util;
+
+import com.voxloud.provisioning.ProvisioningApplication;
+import org.springframework.util.DigestUtils;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Digest of everything besides the device row that a rendered configuration depends on: the
+ * {@code provisioning.*} render settings and the strategies shipped with the build. Rendered output kept across
+ * restarts is only reused while the fingerprint is unchanged.
+ */
+public final class RenderFingerprint {
+
+    private RenderFingerprint() {
+    }
+
+    public static String of(String domain, String port, String codecs, boolean prettyPrint) {
+        String renderSettings = String.join("|", domain, port, codecs, String.valueOf(prettyPrint),
+                String.valueOf(ProvisioningApplication.class.getPackage().getImplementationVersion()));
+        return DigestUtils.md5DigestAsHex(renderSettings.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,244 @@
+package com.voxloud.provisioning.warmup;
+
+import com.voxloud.provisioning.cache.RenderedConfigurationCache;
+import com.voxloud.provisioning.entity.BatchProvisioningResult;
+import com.voxloud.provisioning.repository.DeviceRepository;
+import com.voxloud.provisioning.service.ProvisioningService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Renders the whole inventory into the {@link RenderedConfigurationCache} ahead of demand, so the first request
+ * for a device does not pay the render.
+ * <p>
+ * A run pages through all MAC addresses and hands chunks of {@code provisioning.warmup.chunk-size} to
+ * {@link ProvisioningService#provisionBatch}, which resolves the devices (from the index, else one query per
+ * chunk), renders them grouped by model through the configuration strategies and stores the results. Devices
+ * already cached are skipped. Chunks run on {@code provisioning.warmup.parallelism} threads of their own, and
+ * submission is paced to at most {@code provisioning.warmup.max-rate} devices per second, so a run does not
+ * crowd out live requests for CPU or database connections.
+ * <p>
+ * Runs start once the application is ready (unless {@code provisioning.warmup.on-startup} is false) and on
+ * demand; only one runs at a time. Progress is published as {@code provisioning.warmup.progress} (0..1),
+ * {@code provisioning.warmup.eta} (seconds) and {@code provisioning.warmup.devices{status}}.
+ */
+@Component
+@Slf4j
+public class CacheWarmer implements DisposableBean {
+    private final DeviceRepository deviceRepository;
+    private final ProvisioningService provisioningService;
+    private final RenderedConfigurationCache renderedConfigurationCache;
+    private final boolean onStartup;
+    private final int parallelism;
+    private final int chunkSize;
+    private final int pageSize;
+    private final double maxRate;
+    private final ExecutorService coordinator;
+    private final ExecutorService workers;
+    private final Map<BatchProvisioningResult.Status, Counter> devices = new EnumMap<>(BatchProvisioningResult.Status.class);
+
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private volatile boolean running;
+    private volatile long startedNanos;
+    private volatile long finishedNanos;
+
+    @Autowired
+    public CacheWarmer(DeviceRepository deviceRepository, ProvisioningService provisioningService,
+                       RenderedConfigurationCache renderedConfigurationCache,
+                       @Value("${provisioning.warmup.on-startup:true}") boolean onStartup,
+                       @Value("${provisioning.warmup.parallelism:2}") int parallelism,
+                       @Value("${provisioning.warmup.chunk-size:200}") int chunkSize,
+                       @Value("${provisioning.index.load-page-size:10000}") int pageSize,
+                       @Value("${provisioning.warmup.max-rate:5000}") double maxRate,
+                       MeterRegistry meterRegistry) {
+        this.deviceRepository = deviceRepository;
+        this.provisioningService = provisioningService;
+        this.renderedConfigurationCache = renderedConfigurationCache;
+        this.onStartup = onStartup;
+        this.parallelism = parallelism;
+        this.chunkSize = chunkSize;
+        this.pageSize = pageSize;
+        this.maxRate = maxRate;
+        ThreadFactory threadFactory = threadFactory();
+        this.coordinator = Executors.newSingleThreadExecutor(threadFactory);
+        this.workers = Executors.newFixedThreadPool(parallelism, threadFactory);
+
+        Gauge.builder("provisioning.warmup.progress", this, warmer -> warmer.status().getProgress())
+                .description("Fraction of the inventory handled by the current or last pre-warm run")
+                .register(meterRegistry);
+        Gauge.builder("provisioning.warmup.eta", this, warmer -> warmer.status().getEtaSeconds())
+                .description("Estimated time until the running pre-warm completes; -1 if none is running")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+        for (BatchProvisioningResult.Status status : BatchProvisioningResult.Status.values()) {
+            devices.put(status, Counter.builder("provisioning.warmup.devices")
+                    .description("Devices handled by pre-warm runs by result")
+                    .tag("status", status.name().toLowerCase(Locale.ROOT))
+                    .register(meterRegistry));
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmOnStartup() {
+        if (onStartup) {
+            start(false);
+        }
+    }
+
+    /**
+     * Starts a run in the background.
+     *
+     * @param invalidate drop every cached configuration first, e.g. after rendering settings changed
+     * @return {@code false} if a run is already in progress
+     */
+    public synchronized boolean start(boolean invalidate) {
+        if (running) {
+            return false;
+        }
+        running = true;
+        total.set(0);
+        completed.set(0);
+        failed.set(0);
+        startedNanos = System.nanoTime();
+        coordinator.execute(() -> run(invalidate));
+        return true;
+    }
+
+    public CacheWarmupStatus status() {
+        long total = this.total.get();
+        long completed = this.completed.get();
+        boolean running = this.running;
+        long elapsedNanos = (running ? System.nanoTime() : finishedNanos) - startedNanos;
+        double progress = total == 0 ? (running || startedNanos == 0 ? 0 : 1) : Math.min(1, (double) completed / total);
+
+        long eta = -1;
+        if (running && completed > 0 && total > completed) {
+            eta = (long) Math.ceil(elapsedNanos / 1e9 * (total - completed) / completed);
+        }
+        return new CacheWarmupStatus(running, total, completed, failed.get(), progress,
+                startedNanos == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(elapsedNanos), eta);
+    }
+
+    private void run(boolean invalidate) {
+        // Bounds chunks queued ahead of the workers, so a run never holds more than a few pages of MACs
+        Semaphore inFlight = new Semaphore(parallelism * 2);
+        try {
+            if (invalidate) {
+                renderedConfigurationCache.invalidateAll();
+            }
+            total.set(deviceRepository.count());
+            log.info("Pre-warming rendered configurations for {} devices ({} threads, at most {} devices/s)",
+                    total.get(), parallelism, maxRate > 0 ? maxRate : "unlimited");
+
+            long submitted = 0;
+            Slice<String> page = deviceRepository.findAllMacAddresses(PageRequest.of(0, pageSize));
+            while (true) {
+                List<String> macAddresses = page.getContent();
+                for (int from = 0; from < macAddresses.size(); from += chunkSize) {
+                    List<String> chunk = new ArrayList<>(
+                            macAddresses.subList(from, Math.min(from + chunkSize, macAddresses.size())));
+                    pace(submitted + chunk.size());
+                    inFlight.acquire();
+                    workers.execute(() -> {
+                        try {
+                            warm(chunk);
+                        } finally {
+                            inFlight.release();
+                        }
+                    });
+                    submitted += chunk.size();
+                }
+                if (!page.hasNext()) {
+                    break;
+                }
+                page = deviceRepository.findAllMacAddresses(page.nextPageable());
+            }
+            inFlight.acquire(parallelism * 2);
+            // Devices added while the run was paging, or a count taken before concurrent deletes
+            total.set(completed.get());
+            log.info("Pre-warmed {} devices in {} ms ({} failed)", completed.get(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedNanos), failed.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.info("Pre-warm interrupted after {} devices", completed.get());
+        } catch (RuntimeException e) {
+            log.error("Pre-warm aborted after {} devices", completed.get(), e);
+        } finally {
+            finishedNanos = System.nanoTime();
+            running = false;
+        }
+    }
+
+    private void warm(List<String> chunk) {
+        try {
+            provisioningService.provisionBatch(chunk, result -> {
+                devices.get(result.getStatus()).increment();
+                if (result.getStatus() == BatchProvisioningResult.Status.ERROR) {
+                    failed.incrementAndGet();
+                }
+                completed.incrementAndGet();
+            });
+        } catch (RuntimeException e) {
+            log.warn("Pre-warm of {} devices failed: {}", chunk.size(), e.getMessage());
+            devices.get(BatchProvisioningResult.Status.ERROR).increment(chunk.size());
+            failed.addAndGet(chunk.size());
+            completed.addAndGet(chunk.size());
+        }
+    }
+
+    /**
+     * Sleeps until {@code submitted} devices are within the rate budget since the run started.
+     */
+    private void pace(long submitted) throws InterruptedException {
+        if (maxRate <= 0) {
+            return;
+        }
+        long dueNanos = startedNanos + (long) (submitted * 1_000_000_000d / maxRate);
+        long waitNanos = dueNanos - System.nanoTime();
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        coordinator.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    private static ThreadFactory threadFactory() {
+        AtomicInteger sequence = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "cache-warmup-" + sequence.incrementAndGet());
+            thread.setDaemon(true);
+            // Pre-warming is background work; let request threads win contended CPUs
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,20 @@
+package com.voxloud.provisioning.warmup;
+
+import lombok.Value;
+
+/**
+ * Progress of the current or last cache pre-warm run.
+ */
+@Value
+public class CacheWarmupStatus {
+    boolean running;
+    long total;
+    long completed;
+    long failed;
+    double progress;
+    long elapsedMillis;
+    /**
+     * Estimated seconds until the run completes at its current rate; {@code -1} if unknown or not running.
+     */
+    long etaSeconds;
+}
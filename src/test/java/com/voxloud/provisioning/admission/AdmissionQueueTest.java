@@ -0,0 +1,74 @@
+package com.voxloud.provisioning.admission;
+
+import com.voxloud.provisioning.exception.AdmissionRejectedException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AdmissionQueueTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private AdmissionQueue admissionQueue;
+
+    @AfterEach
+    public void shutdown() {
+        admissionQueue.destroy();
+    }
+
+    @Test
+    public void testSubmit_CompletesWithTaskResult() throws Exception {
+        admissionQueue = new AdmissionQueue(2, 4, 1000, meterRegistry);
+
+        assertEquals("done", admissionQueue.submit(() -> "done").get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testSubmit_RejectsWhenQueueIsFull() throws Exception {
+        admissionQueue = new AdmissionQueue(1, 1, 60000, meterRegistry);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+
+        CompletableFuture<String> running = admissionQueue.submit(() -> {
+            started.countDown();
+            release.await();
+            return "running";
+        });
+        started.await(5, TimeUnit.SECONDS);
+        CompletableFuture<String> queued = admissionQueue.submit(() -> "queued");
+        CompletableFuture<String> rejected = admissionQueue.submit(() -> "rejected");
+
+        assertTrue(rejected.isCompletedExceptionally());
+        assertEquals(1, admissionQueue.queueDepth());
+        release.countDown();
+        assertEquals("running", running.get(5, TimeUnit.SECONDS));
+        assertEquals("queued", queued.get(5, TimeUnit.SECONDS));
+        assertEquals(1.0, meterRegistry.get("provisioning.admission.rejected").tag("reason", "queue_full").counter().count());
+    }
+
+    @Test
+    public void testSubmit_ShedsRequestsThatWaitedTooLong() throws Exception {
+        admissionQueue = new AdmissionQueue(1, 4, 50, meterRegistry);
+        CountDownLatch started = new CountDownLatch(1);
+
+        admissionQueue.submit(() -> {
+            started.countDown();
+            Thread.sleep(200);
+            return "slow";
+        });
+        started.await(5, TimeUnit.SECONDS);
+        CompletableFuture<String> stale = admissionQueue.submit(() -> "stale");
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> stale.get(5, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof AdmissionRejectedException);
+        assertEquals(1.0, meterRegistry.get("provisioning.admission.rejected").tag("reason", "queue_timeout").counter().count());
+    }
+}
@@ -0,0 +1,106 @@
+package com.voxloud.provisioning.controller;
+
+import com.voxloud.provisioning.admission.AdmissionQueue;
+import com.voxloud.provisioning.entity.RenderedConfiguration;
+import com.voxloud.provisioning.exception.AdmissionRejectedException;
+import com.voxloud.provisioning.metrics.ProvisioningMetrics;
+import com.voxloud.provisioning.service.ProvisioningService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@WebMvcTest(value = AsyncProvisioningController.class, properties = {
+        "provisioning.admission.enabled=true",
+        "provisioning.admission.retry-after-seconds=5",
+        "provisioning.admission.retry-after-jitter-seconds=10"
+})
+public class AsyncProvisioningControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockBean
+    private ProvisioningService provisioningService;
+
+    @MockBean
+    private ProvisioningMetrics metrics;
+
+    @MockBean
+    private AdmissionQueue admissionQueue;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    public void runSubmittedTasksInline() {
+        when(admissionQueue.submit(any(Callable.class))).thenAnswer(invocation -> {
+            Callable<Object> task = invocation.getArgument(0);
+            return CompletableFuture.completedFuture(task.call());
+        });
+    }
+
+    @Test
+    public void testgetProvisioningFile_Success() throws Exception {
+        String macAddress = "aa-bb-cc-11-22-33";
+        RenderedConfiguration rendered = RenderedConfiguration.of("username=john");
+        when(provisioningService.findRenderedConfiguration(macAddress)).thenReturn(Optional.of(rendered));
+
+        MvcResult result = mockMvc.perform(get("/api/v1/provisioning/" + macAddress))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, rendered.getVersion().getEtag()))
+                .andExpect(content().string("username=john"));
+    }
+
+    @Test
+    public void testgetProvisioningFile_DeviceNotFound() throws Exception {
+        String macAddress = "non-existent";
+        when(provisioningService.findRenderedConfiguration(macAddress)).thenReturn(Optional.empty());
+
+        MvcResult result = mockMvc.perform(get("/api/v1/provisioning/" + macAddress)).andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testgetProvisioningFile_ShedWithJitteredRetryAfter() throws Exception {
+        CompletableFuture<Object> shed = new CompletableFuture<>();
+        shed.completeExceptionally(new AdmissionRejectedException("Admission queue is full"));
+        when(admissionQueue.submit(any(Callable.class))).thenReturn(shed);
+
+        for (int i = 0; i < 20; i++) {
+            MvcResult result = mockMvc.perform(get("/api/v1/provisioning/aa-bb-cc-11-22-33")).andReturn();
+
+            MvcResult dispatched = mockMvc.perform(asyncDispatch(result))
+                    .andExpect(status().isServiceUnavailable())
+                    .andReturn();
+            int retryAfter = Integer.parseInt(dispatched.getResponse().getHeader(HttpHeaders.RETRY_AFTER));
+            assertTrue(retryAfter >= 5 && retryAfter <= 15, "Retry-After out of range: " + retryAfter);
+        }
+        verify(provisioningService, never()).findRenderedConfiguration(any());
+    }
+}
@@ -1,17 +1,44 @@
 package com.voxloud.provisioning.controller;
 
-import com.voxloud.provisioning.exception.DeviceNotFoundException;
+import com.voxloud.provisioning.entity.RenderedConfiguration;
 import com.voxloud.provisioning.exception.ProvisioningException;
+import com.voxloud.provisioning.metrics.ProvisioningMetrics;
+import com.voxloud.provisioning.mirror.MirrorEntry;
+import com.voxloud.provisioning.mirror.MirroredFile;
+import com.voxloud.provisioning.mirror.StaticMirror;
+import com.voxloud.provisioning.ratelimit.ProvisioningRateLimiter;
 import com.voxloud.provisioning.service.ProvisioningService;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpHeaders;
 import org.springframework.test.web.servlet.MockMvc;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @WebMvcTest(ProvisioningController.class)
@@ -23,24 +50,51 @@ public class ProvisioningControllerTest {
     @MockBean
     private ProvisioningService provisioningService;
 
+    @MockBean
+    private ProvisioningMetrics metrics;
+
+    @MockBean
+    private StaticMirror mirror;
+
+    @MockBean
+    private ProvisioningRateLimiter rateLimiter;
+
+    @TempDir
+    Path directory;
+
     @Test
     public void testgetProvisioningFile_Success() throws Exception {
         String macAddress = "aa-bb-cc-11-22-33";
         String expectedConfig = "username=john\npassword=doe\ndomain=sip.voxloud.com\nport=5060\ncodecs=G711,G729,OPUS";
+        RenderedConfiguration rendered = RenderedConfiguration.of(expectedConfig);
 
-        when(provisioningService.getProvisioningFile(macAddress)).thenReturn(expectedConfig);
+        when(provisioningService.findRenderedConfiguration(macAddress)).thenReturn(Optional.of(rendered));
 
         mockMvc.perform(get("/api/v1/provisioning/" + macAddress))
                 .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, rendered.getVersion().getEtag()))
+                .andExpect(header().exists(HttpHeaders.LAST_MODIFIED))
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "no-cache, private"))
                 .andExpect(content().string(expectedConfig));
     }
 
+    @Test
+    public void testgetProvisioningFile_RateLimited() throws Exception {
+        String macAddress = "aa-bb-cc-11-22-33";
+
+        when(rateLimiter.acquire(eq(macAddress), any())).thenReturn(7L);
+
+        mockMvc.perform(get("/api/v1/provisioning/" + macAddress))
+                .andExpect(status().isTooManyRequests())
+                .andExpect(header().string(HttpHeaders.RETRY_AFTER, "7"));
+        verify(provisioningService, never()).findRenderedConfiguration(any());
+    }
+
     @Test
     public void testgetProvisioningFile_DeviceNotFound() throws Exception {
         String macAddress = "non-existent";
 
-        when(provisioningService.getProvisioningFile(macAddress))
-                .thenThrow(new DeviceNotFoundException("Device not found"));
+        when(provisioningService.findRenderedConfiguration(macAddress)).thenReturn(Optional.empty());
 
         mockMvc.perform(get("/api/v1/provisioning/" + macAddress))
                 .andExpect(status().isNotFound());
@@ -50,11 +104,186 @@ public class ProvisioningControllerTest {
     public void testgetProvisioningFile_ProvisioningError() throws Exception {
         String macAddress = "aa-bb-cc-11-22-33";
 
-        when(provisioningService.getProvisioningFile(macAddress))
+        when(provisioningService.findRenderedConfiguration(macAddress))
                 .thenThrow(new ProvisioningException("Error during provisioning"));
 
         mockMvc.perform(get("/api/v1/provisioning/" + macAddress))
                 .andExpect(status().isBadRequest())
                 .andExpect(content().string("Error during provisioning"));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testgetProvisioningFile_NotModifiedFromVersionIndex() throws Exception {
+        String macAddress = "aa-bb-cc-11-22-33";
+        RenderedConfiguration rendered = RenderedConfiguration.of("username=john");
+
+        when(provisioningService.findConfigurationVersion(macAddress)).thenReturn(Optional.of(rendered.getVersion()));
+
+        mockMvc.perform(get("/api/v1/provisioning/" + macAddress)
+                .header(HttpHeaders.IF_NONE_MATCH, "W/" + rendered.getVersion().getEtag()))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, rendered.getVersion().getEtag()))
+                .andExpect(content().string(""));
+
+        verify(provisioningService, never()).findRenderedConfiguration(macAddress);
+    }
+
+    @Test
+    public void testgetProvisioningFile_NotModifiedAfterRender() throws Exception {
+        String macAddress = "aa-bb-cc-11-22-33";
+        RenderedConfiguration rendered = RenderedConfiguration.of("username=john");
+
+        when(provisioningService.findConfigurationVersion(macAddress)).thenReturn(Optional.empty());
+        when(provisioningService.findRenderedConfiguration(macAddress)).thenReturn(Optional.of(rendered));
+
+        mockMvc.perform(get("/api/v1/provisioning/" + macAddress)
+                .header(HttpHeaders.IF_NONE_MATCH, rendered.getVersion().getEtag()))
+                .andExpect(status().isNotModified());
+    }
+
+    @Test
+    public void testgetProvisioningFile_StaleEtag() throws Exception {
+        String macAddress = "aa-bb-cc-11-22-33";
+        RenderedConfiguration rendered = RenderedConfiguration.of("username=john");
+
+        when(provisioningService.findConfigurationVersion(macAddress)).thenReturn(Optional.of(rendered.getVersion()));
+        when(provisioningService.findRenderedConfiguration(macAddress)).thenReturn(Optional.of(rendered));
+
+        mockMvc.perform(get("/api/v1/provisioning/" + macAddress)
+                .header(HttpHeaders.IF_NONE_MATCH, "\"stale\""))
+                .andExpect(status().isOk())
+                .andExpect(content().string("username=john"));
+    }
+
+    @Test
+    public void testgetProvisioningFile_GzipCompressedOncePerVersion() throws Exception {
+        String macAddress = "aa-bb-cc-11-22-33";
+        RenderedConfiguration rendered = RenderedConfiguration.of(largeConfiguration());
+        when(provisioningService.findRenderedConfiguration(macAddress)).thenReturn(Optional.of(rendered));
+
+        for (int i = 0; i < 2; i++) {
+            byte[] body = mockMvc.perform(get("/api/v1/provisioning/" + macAddress)
+                    .header(HttpHeaders.ACCEPT_ENCODING, "deflate;q=0.5, gzip"))
+                    .andExpect(status().isOk())
+                    .andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"))
+                    .andExpect(header().string(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING))
+                    .andExpect(header().string(HttpHeaders.ETAG, "W/" + rendered.getVersion().getEtag()))
+                    .andReturn().getResponse().getContentAsByteArray();
+            assertEquals(rendered.getBody(), inflate(new GZIPInputStream(new ByteArrayInputStream(body))));
+        }
+
+        verify(metrics, times(1)).recordCompression(any());
+        verify(metrics).recordCompressedResponse(any(), eq(false));
+        verify(metrics).recordCompressedResponse(any(), eq(true));
+    }
+
+    @Test
+    public void testgetProvisioningFile_Deflate() throws Exception {
+        String macAddress = "aa-bb-cc-11-22-33";
+        RenderedConfiguration rendered = RenderedConfiguration.of(largeConfiguration());
+        when(provisioningService.findRenderedConfiguration(macAddress)).thenReturn(Optional.of(rendered));
+
+        byte[] body = mockMvc.perform(get("/api/v1/provisioning/" + macAddress)
+                .header(HttpHeaders.ACCEPT_ENCODING, "gzip;q=0, deflate"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "deflate"))
+                .andReturn().getResponse().getContentAsByteArray();
+        assertEquals(rendered.getBody(), inflate(new InflaterInputStream(new ByteArrayInputStream(body))));
+    }
+
+    @Test
+    public void testgetProvisioningFile_SmallBodyNotCompressed() throws Exception {
+        String macAddress = "aa-bb-cc-11-22-33";
+        RenderedConfiguration rendered = RenderedConfiguration.of("username=john");
+        when(provisioningService.findRenderedConfiguration(macAddress)).thenReturn(Optional.of(rendered));
+
+        mockMvc.perform(get("/api/v1/provisioning/" + macAddress)
+                .header(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate"))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist(HttpHeaders.CONTENT_ENCODING))
+                .andExpect(header().string(HttpHeaders.ETAG, rendered.getVersion().getEtag()))
+                .andExpect(content().string("username=john"));
+
+        verify(metrics, never()).recordCompression(any());
+        verify(metrics, never()).recordCompressedResponse(any(), anyBoolean());
+    }
+
+    @Test
+    public void testgetProvisioningFile_ServedFromMirror() throws Exception {
+        String macAddress = "aa-bb-cc-11-22-33";
+        RenderedConfiguration rendered = RenderedConfiguration.of("username=john");
+        Path file = Files.write(directory.resolve(macAddress + ".cfg"),
+                rendered.getBody().getBytes(StandardCharsets.UTF_8));
+        MirrorEntry entry = new MirrorEntry(macAddress, macAddress + ".cfg", "hash", rendered.getVersion().getEtag(),
+                Files.size(file), -1);
+        when(mirror.find(macAddress)).thenReturn(Optional.of(entry));
+        when(mirror.file(entry, false)).thenAnswer(invocation -> MirroredFile.of(file, entry.getLength()));
+
+        mockMvc.perform(get("/api/v1/provisioning/" + macAddress)
+                .header(HttpHeaders.ACCEPT_ENCODING, "gzip"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, rendered.getVersion().getEtag()))
+                .andExpect(header().doesNotExist(HttpHeaders.LAST_MODIFIED))
+                .andExpect(header().doesNotExist(HttpHeaders.CONTENT_ENCODING))
+                .andExpect(header().longValue(HttpHeaders.CONTENT_LENGTH, entry.getLength()))
+                .andExpect(content().string("username=john"));
+        mockMvc.perform(get("/api/v1/provisioning/" + macAddress)
+                .header(HttpHeaders.IF_NONE_MATCH, rendered.getVersion().getEtag()))
+                .andExpect(status().isNotModified());
+
+        verify(mirror, times(1)).file(entry, false);
+        verify(provisioningService, never()).findConfigurationVersion(macAddress);
+        verify(provisioningService, never()).findRenderedConfiguration(macAddress);
+    }
+
+    @Test
+    public void testgetProvisioningFile_MirrorFileHandedToTomcatSendfile() throws Exception {
+        String macAddress = "aa-bb-cc-11-22-33";
+        Path file = Files.write(directory.resolve(macAddress + ".cfg"), "username=john".getBytes(StandardCharsets.UTF_8));
+        MirrorEntry entry = new MirrorEntry(macAddress, macAddress + ".cfg", "hash", "\"etag\"", 13, -1);
+        when(mirror.find(macAddress)).thenReturn(Optional.of(entry));
+        when(mirror.file(entry, false)).thenAnswer(invocation -> MirroredFile.of(file, entry.getLength()));
+
+        mockMvc.perform(get("/api/v1/provisioning/" + macAddress)
+                .requestAttr("org.apache.tomcat.sendfile.support", Boolean.TRUE))
+                .andExpect(status().isOk())
+                .andExpect(header().longValue(HttpHeaders.CONTENT_LENGTH, 13))
+                .andExpect(request().attribute("org.apache.tomcat.sendfile.filename", file.toRealPath().toString()))
+                .andExpect(request().attribute("org.apache.tomcat.sendfile.start", 0L))
+                .andExpect(request().attribute("org.apache.tomcat.sendfile.end", 13L))
+                .andExpect(content().string(""));
+    }
+
+    @Test
+    public void testgetProvisioningFile_MirrorFileGoneFallsBackToRendering() throws Exception {
+        String macAddress = "aa-bb-cc-11-22-33";
+        RenderedConfiguration rendered = RenderedConfiguration.of("username=john");
+        MirrorEntry entry = new MirrorEntry(macAddress, macAddress + ".cfg", "hash", "\"old\"", 13, -1);
+        when(mirror.find(macAddress)).thenReturn(Optional.of(entry));
+        when(mirror.file(entry, false)).thenAnswer(invocation ->
+                MirroredFile.of(directory.resolve(entry.getFileName()), entry.getLength()));
+        when(provisioningService.findRenderedConfiguration(macAddress)).thenReturn(Optional.of(rendered));
+
+        mockMvc.perform(get("/api/v1/provisioning/" + macAddress))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, rendered.getVersion().getEtag()))
+                .andExpect(content().string("username=john"));
+    }
+
+    private static String largeConfiguration() {
+        StringBuilder body = new StringBuilder("{\n");
+        for (int i = 0; i < 100; i++) {
+            body.append("  \"key").append(i).append("\" : \"value").append(i).append("\",\n");
+        }
+        return body.append("  \"username\" : \"john\"\n}").toString();
+    }
+
+    private static String inflate(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        for (int read; (read = in.read(buffer)) > 0; ) {
+            out.write(buffer, 0, read);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
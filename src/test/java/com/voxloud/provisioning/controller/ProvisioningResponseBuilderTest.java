@@ -0,0 +1,28 @@
+package com.voxloud.provisioning.controller;
+
+import com.voxloud.provisioning.entity.ContentEncoding;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class ProvisioningResponseBuilderTest {
+
+    @Test
+    public void testNegotiate_PrefersHighestQuality() {
+        assertEquals(ContentEncoding.GZIP, ProvisioningResponseBuilder.negotiate("gzip, deflate"));
+        assertEquals(ContentEncoding.DEFLATE, ProvisioningResponseBuilder.negotiate("gzip;q=0.5, deflate"));
+        assertEquals(ContentEncoding.GZIP, ProvisioningResponseBuilder.negotiate("br, x-gzip;q=0.8"));
+        assertEquals(ContentEncoding.GZIP, ProvisioningResponseBuilder.negotiate("*"));
+        assertEquals(ContentEncoding.DEFLATE, ProvisioningResponseBuilder.negotiate("gzip;q=0, *;q=0.1"));
+    }
+
+    @Test
+    public void testNegotiate_NothingAcceptable() {
+        assertNull(ProvisioningResponseBuilder.negotiate(null));
+        assertNull(ProvisioningResponseBuilder.negotiate("identity"));
+        assertNull(ProvisioningResponseBuilder.negotiate("br"));
+        assertNull(ProvisioningResponseBuilder.negotiate("gzip;q=0, deflate;q=0"));
+        assertNull(ProvisioningResponseBuilder.negotiate("gzip;q=oops"));
+    }
+}
@@ -0,0 +1,181 @@
+package com.voxloud.provisioning.index;
+
+import com.voxloud.provisioning.entity.Device;
+import com.voxloud.provisioning.event.DeviceChangedEvent;
+import com.voxloud.provisioning.repository.DeviceRepository;
+import com.voxloud.provisioning.util.MacAddress;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+public class DeviceIndexTest {
+
+    @Test
+    public void testMacAddress_AcceptedNotations() {
+        long expected = 0xaabbcc112233L;
+
+        assertEquals(expected, MacAddress.parse("aa-bb-cc-11-22-33"));
+        assertEquals(expected, MacAddress.parse("AA:BB:CC:11:22:33"));
+        assertEquals(expected, MacAddress.parse("aabb.cc11.2233"));
+        assertEquals(expected, MacAddress.parse("AaBbCc112233"));
+        assertEquals("aa-bb-cc-11-22-33", MacAddress.format(expected));
+        assertEquals("aa-bb-cc-11-22-33", MacAddress.normalize("AABB.CC11.2233"));
+    }
+
+    @Test
+    public void testMacAddress_RejectedInput() {
+        assertEquals(MacAddress.INVALID, MacAddress.parse(null));
+        assertEquals(MacAddress.INVALID, MacAddress.parse("test-desk-1"));
+        assertEquals(MacAddress.INVALID, MacAddress.parse("aa-bb:cc-11-22-33"));
+        assertEquals(MacAddress.INVALID, MacAddress.parse("aa-bb-cc-11-22-3g"));
+        assertEquals(MacAddress.INVALID, MacAddress.parse("aabbcc11223"));
+        assertEquals("non-existent", MacAddress.normalize("non-existent"));
+    }
+
+    @Test
+    public void testLongKeyedTable_PutGetRemoveAgainstHashMap() {
+        LongKeyedTable<String> table = new LongKeyedTable<>(4);
+        Map<Long, String> reference = new HashMap<>();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 50_000; i++) {
+            // Small key space forces collisions, updates and removals of existing keys
+            long key = random.nextInt(5_000) | 0x0a0000000000L;
+            if (random.nextInt(3) == 0) {
+                table.remove(key);
+                reference.remove(key);
+            } else {
+                table.put(key, "value" + i);
+                reference.put(key, "value" + i);
+            }
+        }
+
+        assertEquals(reference.size(), table.size());
+        for (long key = 0x0a0000000000L; key < 0x0a0000000000L + 5_000; key++) {
+            assertEquals(reference.get(key), table.get(key));
+        }
+    }
+
+    @Test
+    public void testLongKeyedTable_RejectsReservedKeys() {
+        LongKeyedTable<String> table = new LongKeyedTable<>(4);
+
+        assertThrows(IllegalArgumentException.class, () -> table.put(MacAddress.INVALID, "value"));
+    }
+
+    @Test
+    public void testLongKeyedTable_UnlockedReadsTerminateDuringResize() {
+        AtomicReference<LongKeyedTable<String>> current = new AtomicReference<>(new LongKeyedTable<>(4));
+        AtomicBoolean writing = new AtomicBoolean(true);
+
+        assertTimeoutPreemptively(Duration.ofSeconds(60), () -> {
+            ExecutorService readers = Executors.newFixedThreadPool(4);
+            List<Future<?>> lookups = new ArrayList<>();
+            for (int r = 0; r < 4; r++) {
+                lookups.add(readers.submit(() -> {
+                    Random random = new Random();
+                    while (writing.get()) {
+                        // Answers may be wrong while racing; they must come back, without an exception
+                        current.get().get(random.nextInt(4_096));
+                    }
+                }));
+            }
+            // Fresh tables keep the writer growing through resizes from the smallest capacity
+            for (int round = 0; round < 2_000; round++) {
+                LongKeyedTable<String> table = new LongKeyedTable<>(4);
+                current.set(table);
+                for (long key = 0; key < 4_096; key++) {
+                    table.put(key, "value");
+                }
+            }
+            writing.set(false);
+            for (Future<?> lookup : lookups) {
+                lookup.get();
+            }
+            readers.shutdown();
+        });
+    }
+
+    @Test
+    public void testFind_ConsistentWhileWritersResizeAndShift() {
+        DeviceIndex index = new DeviceIndex(mock(DeviceRepository.class), true, 1000, new SimpleMeterRegistry());
+        List<Device> stable = new ArrayList<>();
+        for (int i = 0; i < 1_000; i++) {
+            stable.add(device(0x0a0000000000L + i));
+        }
+        assertTrue(index.restore(stable));
+
+        assertTimeoutPreemptively(Duration.ofSeconds(60), () -> {
+            ExecutorService readers = Executors.newFixedThreadPool(4);
+            AtomicBoolean writing = new AtomicBoolean(true);
+            List<Future<Integer>> lookups = new ArrayList<>();
+            for (int r = 0; r < 4; r++) {
+                lookups.add(readers.submit(() -> {
+                    Random random = new Random();
+                    int count = 0;
+                    while (writing.get()) {
+                        Device expected = stable.get(random.nextInt(stable.size()));
+                        Optional<Device> found = index.find(expected.getMacAddress());
+                        assertTrue(found.isPresent(), expected.getMacAddress());
+                        assertEquals(expected.getMacAddress(), found.get().getMacAddress());
+                        count++;
+                    }
+                    return count;
+                }));
+            }
+
+            // Each round grows the table through several resizes, then empties it again by backward shifts
+            for (int round = 0; round < 20; round++) {
+                for (long key = 0; key < 20_000; key++) {
+                    index.onDeviceChanged(DeviceChangedEvent.saved(device(0x0b0000000000L + key)));
+                }
+                for (long key = 0; key < 20_000; key++) {
+                    index.onDeviceChanged(DeviceChangedEvent.deleted(MacAddress.format(0x0b0000000000L + key)));
+                }
+            }
+            writing.set(false);
+            for (Future<Integer> lookup : lookups) {
+                assertTrue(lookup.get() > 0);
+            }
+            readers.shutdown();
+            assertTrue(readers.awaitTermination(10, TimeUnit.SECONDS));
+        });
+        assertEquals(1_000, index.size());
+    }
+
+    @Test
+    public void testPut_DevicesOfAProfileShareItsId() {
+        DeviceIndex index = new DeviceIndex(mock(DeviceRepository.class), true, 1000, new SimpleMeterRegistry());
+        Device first = device(0x0a0000000001L);
+        first.setProfileId(new String("tenant-acme".toCharArray()));
+        assertTrue(index.restore(Collections.singletonList(first)));
+
+        Device second = device(0x0a0000000002L);
+        second.setProfileId(new String("tenant-acme".toCharArray()));
+        index.onDeviceChanged(DeviceChangedEvent.saved(second));
+
+        assertSame(index.find(first.getMacAddress()).get().getProfileId(),
+                index.find(second.getMacAddress()).get().getProfileId());
+    }
+
+    private static Device device(long macAddress) {
+        return new Device(MacAddress.format(macAddress), Device.DeviceModel.DESK, null, "user", "secret");
+    }
+}
@@ -0,0 +1,158 @@
+package com.voxloud.provisioning.index;
+
+import com.voxloud.provisioning.entity.Device;
+import com.voxloud.provisioning.event.DeviceChangedEvent;
+import com.voxloud.provisioning.repository.DeviceRepository;
+import com.voxloud.provisioning.util.MacAddress;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.SliceImpl;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class KnownDeviceFilterTest {
+
+    private DeviceRepository deviceRepository;
+    private KnownDeviceFilter filter;
+
+    @BeforeEach
+    public void setup() {
+        deviceRepository = mock(DeviceRepository.class);
+        filter = new KnownDeviceFilter(deviceRepository, true, 1_000, 0.01, 1 << 20, 2, 100,
+                new SimpleMeterRegistry());
+    }
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+        filter.destroy();
+    }
+
+    @Test
+    public void testBloomFilter_NoFalseNegativesAndBoundedFalsePositives() {
+        BloomFilter filter = BloomFilter.create(10_000, 0.01, 1 << 20);
+        for (long key = 0; key < 10_000; key++) {
+            filter.put(0x0a0000000000L + key);
+        }
+
+        for (long key = 0; key < 10_000; key++) {
+            assertTrue(filter.mightContain(0x0a0000000000L + key));
+        }
+        int falsePositives = 0;
+        for (long key = 0; key < 100_000; key++) {
+            if (filter.mightContain(0x0b0000000000L + key)) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < 2_000, "False positives: " + falsePositives);
+        assertEquals(0.01, filter.expectedFalsePositiveRate(), 0.005);
+    }
+
+    @Test
+    public void testBloomFilter_MemoryCap() {
+        BloomFilter filter = BloomFilter.create(10_000_000, 0.001, 4096);
+
+        assertEquals(4096, filter.byteSize());
+    }
+
+    @Test
+    public void testBloomFilter_CappedFilterReportsRaisedFalsePositiveRate() {
+        BloomFilter filter = BloomFilter.create(10_000, 0.001, 2048);
+        for (long key = 0; key < 10_000; key++) {
+            filter.put(0x0a0000000000L + key);
+        }
+
+        int falsePositives = 0;
+        for (long key = 0; key < 100_000; key++) {
+            if (filter.mightContain(0x0b0000000000L + key)) {
+                falsePositives++;
+            }
+        }
+        // The cap wins over the target rate; the reported rate has to follow the observed one
+        double observed = falsePositives / 100_000.0;
+        assertTrue(observed > 0.001, "Observed false-positive rate " + observed);
+        assertEquals(filter.expectedFalsePositiveRate(), observed, 0.02);
+    }
+
+    @Test
+    public void testMightContain_KnownAfterBuildAndEverythingBefore() {
+        when(deviceRepository.count()).thenReturn(2L);
+        when(deviceRepository.findAllMacAddresses(any(Pageable.class)))
+                .thenReturn(new SliceImpl<>(Arrays.asList("aa-bb-cc-00-00-01", "test-desk-1")));
+
+        assertTrue(filter.mightContain("aa-bb-cc-00-00-02"));
+        filter.rebuild();
+
+        assertTrue(filter.mightContain("AA:BB:CC:00:00:01"));
+        assertTrue(filter.mightContain("test-desk-1"));
+        assertFalse(filter.mightContain("aa-bb-cc-00-00-02"));
+        assertFalse(filter.mightContain("test-desk-2"));
+
+        filter.onDeviceChanged(DeviceChangedEvent.saved(device("aa-bb-cc-00-00-02")));
+        assertTrue(filter.mightContain("aa-bb-cc-00-00-02"));
+    }
+
+    @Test
+    public void testRebuild_KeepsDevicesSavedWhileItRuns() {
+        when(deviceRepository.count()).thenReturn(1L);
+        when(deviceRepository.findAllMacAddresses(any(Pageable.class))).thenAnswer(invocation -> {
+            // Committed after this page was read; only the event tells the filter about it
+            filter.onDeviceChanged(DeviceChangedEvent.saved(device("aa-bb-cc-00-00-02")));
+            return new SliceImpl<>(Collections.singletonList("aa-bb-cc-00-00-01"));
+        });
+
+        filter.rebuild();
+
+        assertTrue(filter.mightContain("aa-bb-cc-00-00-01"));
+        assertTrue(filter.mightContain("aa-bb-cc-00-00-02"));
+        // A second build starts from a clean slate
+        when(deviceRepository.findAllMacAddresses(any(Pageable.class)))
+                .thenReturn(new SliceImpl<>(Collections.singletonList("aa-bb-cc-00-00-01")));
+        filter.rebuild();
+        assertFalse(filter.mightContain("aa-bb-cc-00-00-02"));
+    }
+
+    @Test
+    public void testOnDeviceChanged_DeletesTriggerBackgroundRebuild() throws InterruptedException {
+        when(deviceRepository.findAllMacAddresses(any(Pageable.class)))
+                .thenReturn(new SliceImpl<>(Collections.singletonList("aa-bb-cc-00-00-01")));
+        when(deviceRepository.count()).thenReturn(1L);
+        filter.rebuild();
+
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicBoolean rebuilt = new AtomicBoolean();
+        when(deviceRepository.count()).thenAnswer(invocation -> {
+            release.await(10, TimeUnit.SECONDS);
+            rebuilt.set(true);
+            return 1L;
+        });
+        filter.onDeviceChanged(DeviceChangedEvent.deleted("aa-bb-cc-00-00-02"));
+        filter.onDeviceChanged(DeviceChangedEvent.deleted("aa-bb-cc-00-00-03"));
+
+        // The delete that crossed the threshold returned while the rebuild is still scanning
+        verify(deviceRepository, timeout(5_000).times(2)).count();
+        assertFalse(rebuilt.get());
+        release.countDown();
+        verify(deviceRepository, timeout(5_000).times(2)).findAllMacAddresses(any(Pageable.class));
+    }
+
+    private static Device device(String macAddress) {
+        return new Device(MacAddress.normalize(macAddress), Device.DeviceModel.DESK, null, "user", "secret");
+    }
+}
@@ -0,0 +1,109 @@
+package com.voxloud.provisioning.integration;
+
+import com.voxloud.provisioning.ProvisioningApplication;
+import com.voxloud.provisioning.changelog.DeviceChangeLogTailer;
+import com.voxloud.provisioning.entity.Device;
+import com.voxloud.provisioning.entity.ProvisioningProfile;
+import com.voxloud.provisioning.exception.DeviceNotFoundException;
+import com.voxloud.provisioning.profile.ProfileService;
+import com.voxloud.provisioning.repository.DeviceRepository;
+import com.voxloud.provisioning.service.ProvisioningService;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Two application instances sharing one in-memory H2 database, standing in for two nodes behind a load balancer.
+ */
+public class ChangeLogIntegrationTest {
+    private static final String MAC = "aa-bb-cc-dd-00-01";
+    private static final String PROFILE_MAC = "aa-bb-cc-dd-00-02";
+
+    private static ConfigurableApplicationContext nodeA;
+    private static ConfigurableApplicationContext nodeB;
+
+    @BeforeAll
+    public static void startNodes() {
+        nodeA = startNode("node-a");
+        nodeB = startNode("node-b");
+    }
+
+    @AfterAll
+    public static void stopNodes() {
+        nodeB.close();
+        nodeA.close();
+    }
+
+    private static ConfigurableApplicationContext startNode(String nodeId) {
+        return new SpringApplicationBuilder(ProvisioningApplication.class)
+                .web(WebApplicationType.NONE)
+                .run(
+                        "--spring.datasource.url=jdbc:h2:mem:changelog;DB_CLOSE_DELAY=-1",
+                        "--spring.datasource.initialization-mode=never",
+                        "--spring.jmx.enabled=false",
+                        "--provisioning.changelog.enabled=true",
+                        "--provisioning.changelog.node-id=" + nodeId,
+                        // Polled by hand below
+                        "--provisioning.changelog.poll-interval-ms=3600000");
+    }
+
+    @Test
+    public void testWritesOnOneNodeReachTheOther() throws Exception {
+        DeviceRepository repositoryA = nodeA.getBean(DeviceRepository.class);
+        ProvisioningService serviceB = nodeB.getBean(ProvisioningService.class);
+        DeviceChangeLogTailer tailerB = nodeB.getBean(DeviceChangeLogTailer.class);
+
+        // Node B learns about the device only through the log
+        assertFalse(serviceB.findRenderedConfiguration(MAC).isPresent());
+        repositoryA.save(new Device(MAC, Device.DeviceModel.DESK, null, "first", "secret"));
+        tailerB.poll();
+        assertThat(serviceB.getProvisioningFile(MAC), containsString("username=first"));
+
+        Device device = repositoryA.findById(MAC).get();
+        device.setUsername("second");
+        repositoryA.save(device);
+        tailerB.poll();
+        assertThat(serviceB.getProvisioningFile(MAC), containsString("username=second"));
+
+        repositoryA.deleteById(MAC);
+        tailerB.poll();
+        assertThrows(DeviceNotFoundException.class, () -> serviceB.getProvisioningFile(MAC));
+        assertEquals(nodeB.getBean(DeviceChangeLogTailer.class).getLastAppliedId(),
+                nodeA.getBean(com.voxloud.provisioning.repository.DeviceChangeRepository.class).findMaxId());
+    }
+
+    @Test
+    public void testProfileEditsOnOneNodeReachTheOther() throws Exception {
+        ProfileService profilesA = nodeA.getBean(ProfileService.class);
+        ProvisioningService serviceB = nodeB.getBean(ProvisioningService.class);
+        DeviceChangeLogTailer tailerB = nodeB.getBean(DeviceChangeLogTailer.class);
+
+        ProvisioningProfile tenant = new ProvisioningProfile("changelog-tenant", ProvisioningProfile.Level.TENANT, null);
+        tenant.setDomain("sip.first.com");
+        profilesA.save(tenant);
+        Device device = new Device(PROFILE_MAC, Device.DeviceModel.DESK, null, "alice", "secret");
+        device.setProfileId(tenant.getId());
+        nodeA.getBean(DeviceRepository.class).save(device);
+        tailerB.poll();
+        assertThat(serviceB.getProvisioningFile(PROFILE_MAC), containsString("domain=sip.first.com"));
+
+        // Node B holds the resolved profile and the rendered configuration; only the log tells it they are stale
+        tenant.setDomain("sip.second.com");
+        profilesA.save(tenant);
+        tailerB.poll();
+        assertThat(serviceB.getProvisioningFile(PROFILE_MAC), containsString("domain=sip.second.com"));
+
+        nodeA.getBean(DeviceRepository.class).deleteById(PROFILE_MAC);
+        profilesA.delete(tenant.getId());
+        tailerB.poll();
+    }
+}
@@ -1,17 +1,46 @@
 package com.voxloud.provisioning.integration;
 
 import com.voxloud.provisioning.entity.Device;
+import com.voxloud.provisioning.exception.InvalidOverrideFragmentException;
+import com.voxloud.provisioning.repository.CanonicalMacAddressMigration;
 import com.voxloud.provisioning.repository.DeviceRepository;
+import com.voxloud.provisioning.repository.ProvisioningProfileRepository;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.endsWith;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @SpringBootTest
@@ -24,9 +53,16 @@ public class ProvisioningIntegrationTest {
     @Autowired
     private DeviceRepository deviceRepository;
 
+    @Autowired
+    private ProvisioningProfileRepository profileRepository;
+
+    @Autowired
+    private CanonicalMacAddressMigration macAddressMigration;
+
     @BeforeEach
     public void setup() {
         deviceRepository.deleteAll();
+        profileRepository.deleteAll();
 
         // Create test devices
         Device deskDevice = new Device();
@@ -90,9 +126,343 @@ public class ProvisioningIntegrationTest {
                 .andExpect(content().string(containsString("\"codecs\" : [ \"G711\", \"G729\", \"OPUS\" ]")));
     }
 
+    @Test
+    public void testGetCordlessDeviceConfigWithOverride() throws Exception {
+        Device cordlessDevice = new Device();
+        cordlessDevice.setMacAddress("test-cordless-1");
+        cordlessDevice.setModel(Device.DeviceModel.CORDLESS);
+        cordlessDevice.setUsername("dect-user");
+        cordlessDevice.setPassword("dect-pass");
+        cordlessDevice.setOverrideFragment("<configuration><port>5070</port><handsets max=\"4\"/></configuration>");
+        deviceRepository.save(cordlessDevice);
+
+        mockMvc.perform(get("/api/v1/provisioning/test-cordless-1"))
+                .andExpect(status().isOk())
+                .andExpect(content().string(startsWith("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<configuration>")))
+                .andExpect(content().string(containsString("<username>dect-user</username>")))
+                .andExpect(content().string(containsString("<port>5070</port>")))
+                .andExpect(content().string(containsString("<handsets max=\"4\"/>")));
+
+        Device malformed = new Device("test-cordless-2", Device.DeviceModel.CORDLESS, "<configuration><port>",
+                "dect-user", "dect-pass");
+        assertThrows(InvalidOverrideFragmentException.class, () -> deviceRepository.save(malformed));
+    }
+
+    @Test
+    public void testProfileHierarchyLayeredBelowDevice() throws Exception {
+        mockMvc.perform(put("/api/v1/admin/profiles/acme").contentType(MediaType.APPLICATION_JSON)
+                .content("{\"level\":\"TENANT\",\"domain\":\"sip.acme.com\","
+                        + "\"properties\":\"timeout=30\\nvlan=100\"}"))
+                .andExpect(status().isOk());
+        mockMvc.perform(put("/api/v1/admin/profiles/acme-berlin").contentType(MediaType.APPLICATION_JSON)
+                .content("{\"level\":\"SITE\",\"parentId\":\"acme\",\"port\":\"5070\","
+                        + "\"properties\":\"vlan=200\"}"))
+                .andExpect(status().isOk());
+        mockMvc.perform(put("/api/v1/admin/profiles/acme-berlin/devices/test-desk-1"))
+                .andExpect(status().isNoContent());
+        mockMvc.perform(put("/api/v1/admin/profiles/acme-berlin/devices/test-desk-2"))
+                .andExpect(status().isNoContent());
+
+        mockMvc.perform(get("/api/v1/provisioning/test-desk-1"))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString("domain=sip.acme.com")))
+                .andExpect(content().string(containsString("port=5070")))
+                .andExpect(content().string(containsString("codecs=G711,G729,OPUS")))
+                .andExpect(content().string(containsString("timeout=30")))
+                .andExpect(content().string(containsString("vlan=200")));
+        // The device's own override wins over every profile layer
+        mockMvc.perform(get("/api/v1/provisioning/test-desk-2"))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString("domain=sip.test.com")))
+                .andExpect(content().string(containsString("port=5555")))
+                .andExpect(content().string(containsString("timeout=20")))
+                .andExpect(content().string(containsString("vlan=200")));
+
+        // Editing the tenant re-renders the devices of its sites
+        mockMvc.perform(put("/api/v1/admin/profiles/acme").contentType(MediaType.APPLICATION_JSON)
+                .content("{\"level\":\"TENANT\",\"domain\":\"sip.acme.eu\"}"))
+                .andExpect(status().isOk());
+        mockMvc.perform(get("/api/v1/provisioning/test-desk-1"))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString("domain=sip.acme.eu")))
+                .andExpect(content().string(containsString("port=5070")))
+                .andExpect(content().string(not(containsString("timeout="))));
+
+        mockMvc.perform(delete("/api/v1/admin/profiles/acme"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(put("/api/v1/admin/profiles/orphan").contentType(MediaType.APPLICATION_JSON)
+                .content("{\"level\":\"SITE\",\"parentId\":\"unknown\"}"))
+                .andExpect(status().isBadRequest());
+
+        mockMvc.perform(delete("/api/v1/admin/profiles/acme-berlin/devices/test-desk-1"))
+                .andExpect(status().isNoContent());
+        mockMvc.perform(get("/api/v1/provisioning/test-desk-1"))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString("domain=sip.voxloud.com")))
+                .andExpect(content().string(not(containsString("vlan="))));
+    }
+
     @Test
     public void testDeviceNotFound() throws Exception {
         mockMvc.perform(get("/api/v1/provisioning/non-existent"))
                 .andExpect(status().isNotFound());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testDeviceUpdateInvalidatesRenderedConfig() throws Exception {
+        mockMvc.perform(get("/api/v1/provisioning/test-desk-1"))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString("username=test-user")));
+
+        Device device = deviceRepository.findByMacAddress("test-desk-1").orElseThrow(IllegalStateException::new);
+        device.setUsername("renamed-user");
+        deviceRepository.save(device);
+
+        mockMvc.perform(get("/api/v1/provisioning/test-desk-1"))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString("username=renamed-user")));
+    }
+
+    @Test
+    public void testMalformedOverrideRejectedOnWrite() {
+        Device device = new Device();
+        device.setMacAddress("test-conf-2");
+        device.setModel(Device.DeviceModel.CONFERENCE);
+        device.setUsername("conf-user");
+        device.setPassword("conf-pass");
+        device.setOverrideFragment("invalid:json:format");
+
+        assertThrows(InvalidOverrideFragmentException.class, () -> deviceRepository.save(device));
+        assertFalse(deviceRepository.findByMacAddress("test-conf-2").isPresent());
+    }
+
+    @Test
+    public void testReadOnlyLookupMatchesEntityLookup() {
+        Device entity = deviceRepository.findByMacAddress("test-desk-2").orElseThrow(IllegalStateException::new);
+        Device detached = deviceRepository.findForProvisioning("test-desk-2").orElseThrow(IllegalStateException::new);
+
+        assertEquals(entity, detached);
+        assertNotNull(detached.getCompiledOverride());
+        assertFalse(deviceRepository.findForProvisioning("non-existent").isPresent());
+
+        List<Device> devices = deviceRepository.findAllForProvisioning(Arrays.asList("test-desk-1", "test-conf-1", "non-existent"));
+        assertEquals(2, devices.size());
+    }
+
+    @Test
+    public void testBatchProvisioning() throws Exception {
+        MvcResult result = mockMvc.perform(post("/api/v1/provisioning/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("[\"test-desk-1\", \"test-conf-1\", \"non-existent\", \"test-desk-1\"]"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        String body = mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("application/x-ndjson"))
+                .andReturn().getResponse().getContentAsString();
+
+        String[] lines = body.split("\n");
+        assertEquals(3, lines.length);
+        assertTrue(body.contains("{\"macAddress\":\"non-existent\",\"status\":\"NOT_FOUND\"}"));
+        assertTrue(body.contains("\"macAddress\":\"test-desk-1\",\"status\":\"OK\""));
+        assertTrue(body.contains("username=test-user"));
+        assertTrue(body.contains("\"macAddress\":\"test-conf-1\",\"status\":\"OK\""));
+    }
+
+    @Test
+    public void testLookupIsInsensitiveToMacNotation() throws Exception {
+        Device device = new Device();
+        device.setMacAddress("0a-1b-2c-3d-4e-5f");
+        device.setModel(Device.DeviceModel.DESK);
+        device.setUsername("mac-user");
+        device.setPassword("mac-pass");
+        deviceRepository.save(device);
+
+        mockMvc.perform(get("/api/v1/provisioning/0A:1B:2C:3D:4E:5F"))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString("username=mac-user")));
+        mockMvc.perform(get("/api/v1/provisioning/0a1b.2c3d.4e5f"))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString("username=mac-user")));
+
+        deviceRepository.delete(device);
+        mockMvc.perform(get("/api/v1/provisioning/0a1b2c3d4e5f"))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    public void testLegacyMacNotationRewrittenToCanonicalForm() {
+        for (String macAddress : Arrays.asList("0A:1B:2C:3D:4E:60", "0a1b.2c3d.4e61", "0A-1B-2C-3D-4E-62")) {
+            Device device = new Device();
+            device.setMacAddress(macAddress);
+            device.setModel(Device.DeviceModel.DESK);
+            device.setUsername("legacy-user");
+            device.setPassword("legacy-pass");
+            deviceRepository.save(device);
+        }
+
+        assertEquals(3, macAddressMigration.migrate());
+        assertEquals(0, macAddressMigration.migrate());
+
+        assertTrue(deviceRepository.findForProvisioning("0a-1b-2c-3d-4e-60").isPresent());
+        assertEquals(3, deviceRepository.findAllForProvisioning(
+                Arrays.asList("0a-1b-2c-3d-4e-60", "0a-1b-2c-3d-4e-61", "0a-1b-2c-3d-4e-62")).size());
+        // Ids that are not MAC addresses are left alone
+        assertTrue(deviceRepository.findById("test-desk-1").isPresent());
+    }
+
+    @Test
+    public void testProvisioningMetricsExposedToPrometheus() throws Exception {
+        mockMvc.perform(get("/api/v1/provisioning/test-desk-2")).andExpect(status().isOk());
+        mockMvc.perform(get("/api/v1/provisioning/unknown-device")).andExpect(status().isNotFound());
+
+        mockMvc.perform(get("/actuator/prometheus"))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString("provisioning_request_seconds_bucket")))
+                .andExpect(content().string(containsString("provisioning_render_seconds_bucket{model=\"desk\"")))
+                .andExpect(content().string(containsString("provisioning_override_apply_seconds_count{model=\"desk\"")))
+                .andExpect(content().string(containsString("provisioning_response_size_bytes_count")))
+                .andExpect(content().string(containsString("provisioning_requests_total{outcome=\"not_found\"")));
+    }
+
+    @Test
+    public void testImportCsv_ValidRowsImportedAndBadRowsReported() throws Exception {
+        String csv = "macAddress,model,username,password,overrideFragment\n"
+                + "AA:BB:CC:00:00:01,desk,alice,secret,\"domain=sip.imported.com\nport=5070\"\n"
+                + "aa-bb-cc-00-00-02,CONFERENCE,bob,secret,\n"
+                + "not-a-mac,DESK,carol,secret,\n"
+                + "aa-bb-cc-00-00-04,CONFERENCE,dave,secret,\"{\"\"domain\"\": \"\n"
+                + "aa-bb-cc-00-00-05,PHONE,erin,secret,\n";
+
+        mockMvc.perform(post("/api/v1/devices/import").contentType("text/csv").content(csv))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.rowsRead").value(5))
+                .andExpect(jsonPath("$.imported").value(2))
+                .andExpect(jsonPath("$.rejected").value(3))
+                .andExpect(jsonPath("$.errors[0].row").value(3))
+                .andExpect(jsonPath("$.errors[1].message", startsWith("Invalid override fragment")))
+                .andExpect(jsonPath("$.errors[2].message").value("Unknown model: PHONE"));
+
+        mockMvc.perform(get("/api/v1/provisioning/aa-bb-cc-00-00-01"))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString("domain=sip.imported.com")))
+                .andExpect(content().string(containsString("port=5070")));
+        assertTrue(deviceRepository.findById("aa-bb-cc-00-00-02").isPresent());
+    }
+
+    @Test
+    public void testImport_KeepsProfileOfExistingDevice() throws Exception {
+        String row = "{\"macAddress\":\"aa-bb-cc-00-00-07\",\"model\":\"DESK\",\"username\":\"%s\",\"password\":\"p\"}\n";
+        mockMvc.perform(post("/api/v1/devices/import").contentType("application/x-ndjson")
+                .content(String.format(row, "first")))
+                .andExpect(jsonPath("$.imported").value(1));
+        mockMvc.perform(put("/api/v1/admin/profiles/acme").contentType(MediaType.APPLICATION_JSON)
+                .content("{\"level\":\"TENANT\",\"domain\":\"sip.acme.com\"}"))
+                .andExpect(status().isOk());
+        mockMvc.perform(put("/api/v1/admin/profiles/acme/devices/aa-bb-cc-00-00-07"))
+                .andExpect(status().isNoContent());
+
+        mockMvc.perform(post("/api/v1/devices/import").contentType("application/x-ndjson")
+                .content(String.format(row, "second")))
+                .andExpect(jsonPath("$.imported").value(1));
+
+        mockMvc.perform(get("/api/v1/provisioning/aa-bb-cc-00-00-07"))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString("username=second")))
+                .andExpect(content().string(containsString("domain=sip.acme.com")));
+        assertEquals("acme", deviceRepository.findById("aa-bb-cc-00-00-07").get().getProfileId());
+    }
+
+    @Test
+    public void testImportNdjson_UpsertsAndInvalidatesRenderedConfiguration() throws Exception {
+        mockMvc.perform(get("/api/v1/provisioning/test-desk-1")).andExpect(status().isOk());
+        mockMvc.perform(get("/api/v1/provisioning/aa-bb-cc-00-00-09")).andExpect(status().isNotFound());
+
+        String ndjson = "{\"macAddress\":\"aa-bb-cc-00-00-09\",\"model\":\"DESK\",\"username\":\"first\",\"password\":\"p\"}\n"
+                + "{broken\n"
+                + "\n"
+                + "{\"macAddress\":\"aa-bb-cc-00-00-09\",\"model\":\"DESK\",\"username\":\"second\",\"password\":\"p\"}\n";
+
+        mockMvc.perform(post("/api/v1/devices/import").contentType("application/x-ndjson").content(ndjson))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.imported").value(2))
+                .andExpect(jsonPath("$.rejected").value(1))
+                .andExpect(jsonPath("$.errors[0].row").value(2));
+
+        mockMvc.perform(get("/api/v1/provisioning/aa-bb-cc-00-00-09"))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString("username=second")));
+    }
+
+    @Test
+    public void testExportZip_OneEntryPerDeviceAndManifest() throws Exception {
+        MvcResult result = mockMvc.perform(get("/api/v1/export/configurations"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        byte[] archive = mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("application/zip"))
+                .andExpect(header().string("Content-Disposition", containsString("configurations.zip")))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        Map<String, String> entries = new HashMap<>();
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(archive))) {
+            ZipEntry entry;
+            byte[] buffer = new byte[8192];
+            while ((entry = zip.getNextEntry()) != null) {
+                StringBuilder content = new StringBuilder();
+                int read;
+                while ((read = zip.read(buffer)) > 0) {
+                    content.append(new String(buffer, 0, read, StandardCharsets.UTF_8));
+                }
+                entries.put(entry.getName(), content.toString());
+            }
+        }
+
+        assertEquals(4, entries.size());
+        assertTrue(entries.get("test-desk-1.cfg").contains("username=test-user"));
+        assertTrue(entries.get("test-desk-2.cfg").contains("domain=sip.test.com"));
+        assertTrue(entries.get("test-conf-1.json").contains("\"username\""));
+        assertTrue(entries.get("manifest.json").contains("\"exported\" : 3"));
+    }
+
+    @Test
+    public void testExportTar_FilteredByModel() throws Exception {
+        MvcResult result = mockMvc.perform(get("/api/v1/export/configurations")
+                .param("format", "TAR")
+                .param("model", "CONFERENCE"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        byte[] archive = mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("application/x-tar"))
+                .andExpect(header().string("Content-Disposition", endsWith("configurations.tar\"")))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        // ustar: 512-byte header (name at offset 0), content padded to 512 bytes, two zero blocks at the end
+        assertEquals(0, archive.length % 512);
+        assertEquals("test-conf-1.json", new String(archive, 0, 16, StandardCharsets.US_ASCII));
+        String text = new String(archive, StandardCharsets.UTF_8);
+        assertTrue(text.contains("conf-user"));
+        assertTrue(text.contains("manifest.json"));
+        assertFalse(text.contains("test-desk-1"));
+    }
+
+    @Test
+    public void testExport_FilteredByMacPrefixInTheQuery() throws Exception {
+        MvcResult result = mockMvc.perform(get("/api/v1/export/configurations")
+                .param("format", "TAR")
+                .param("macPrefix", "TEST.DESK"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        String text = new String(mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsByteArray(), StandardCharsets.UTF_8);
+
+        assertTrue(text.contains("test-desk-1.cfg"));
+        assertTrue(text.contains("test-desk-2.cfg"));
+        assertFalse(text.contains("test-conf-1"));
+        assertTrue(text.contains("\"exported\" : 2"));
+    }
+}
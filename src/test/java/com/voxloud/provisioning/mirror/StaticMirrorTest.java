@@ -0,0 +1,206 @@
+package com.voxloud.provisioning.mirror;
+
+import com.voxloud.provisioning.entity.BatchProvisioningResult;
+import com.voxloud.provisioning.entity.Device;
+import com.voxloud.provisioning.entity.RenderedConfiguration;
+import com.voxloud.provisioning.event.DeviceChangedEvent;
+import com.voxloud.provisioning.profile.ProfileRegistry;
+import com.voxloud.provisioning.repository.DeviceRepository;
+import com.voxloud.provisioning.repository.ProvisioningProfileRepository;
+import com.voxloud.provisioning.service.ProvisioningService;
+import com.voxloud.provisioning.service.factory.ConfigurationStrategyFactory;
+import com.voxloud.provisioning.service.strategy.ConferenceConfigurationStrategy;
+import com.voxloud.provisioning.service.strategy.DeskConfigurationStrategy;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.SliceImpl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class StaticMirrorTest {
+
+    @TempDir
+    Path directory;
+
+    private DeviceRepository deviceRepository;
+    private ProvisioningService provisioningService;
+    private ConfigurationStrategyFactory strategyFactory;
+    private final List<Device> devices = new ArrayList<>();
+    private final List<StaticMirror> mirrors = new ArrayList<>();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @BeforeEach
+    public void setup() throws Exception {
+        devices.add(new Device("aa-bb-cc-00-00-01", Device.DeviceModel.DESK, null, "alice", "secret"));
+        devices.add(new Device("aa-bb-cc-00-00-02", Device.DeviceModel.CONFERENCE, null, "bob", "secret"));
+        devices.add(new Device("aa-bb-cc-00-00-03", Device.DeviceModel.DESK, null, "carol", "secret"));
+
+        deviceRepository = mock(DeviceRepository.class);
+        when(deviceRepository.findAllBy(any(Pageable.class))).thenAnswer(invocation -> {
+            Pageable pageable = invocation.getArgument(0);
+            int from = (int) pageable.getOffset();
+            int to = Math.min(from + pageable.getPageSize(), devices.size());
+            return new SliceImpl<>(new ArrayList<>(devices.subList(from, to)), pageable, to < devices.size());
+        });
+
+        // Renders "username=<username>" padded to 64 characters, so that it is worth compressing
+        provisioningService = mock(ProvisioningService.class);
+        doAnswer(invocation -> {
+            Collection<String> macAddresses = invocation.getArgument(0);
+            Consumer<BatchProvisioningResult> consumer = invocation.getArgument(1);
+            for (String macAddress : macAddresses) {
+                Optional<Device> device = devices.stream()
+                        .filter(candidate -> candidate.getMacAddress().equals(macAddress))
+                        .findFirst();
+                consumer.accept(device.isPresent()
+                        ? BatchProvisioningResult.ok(macAddress, RenderedConfiguration.of(
+                        String.format("%-64s", "username=" + device.get().getUsername())))
+                        : BatchProvisioningResult.notFound(macAddress));
+            }
+            return null;
+        }).when(provisioningService).provisionBatch(anyCollection(), any());
+
+        DeskConfigurationStrategy deskStrategy = mock(DeskConfigurationStrategy.class);
+        when(deskStrategy.getSupportedModel()).thenReturn(Device.DeviceModel.DESK);
+        when(deskStrategy.getFileExtension()).thenReturn("cfg");
+        ConferenceConfigurationStrategy conferenceStrategy = mock(ConferenceConfigurationStrategy.class);
+        when(conferenceStrategy.getSupportedModel()).thenReturn(Device.DeviceModel.CONFERENCE);
+        when(conferenceStrategy.getFileExtension()).thenReturn("json");
+        strategyFactory = new ConfigurationStrategyFactory(Arrays.asList(deskStrategy, conferenceStrategy));
+    }
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+        for (StaticMirror mirror : mirrors) {
+            mirror.destroy();
+        }
+    }
+
+    @Test
+    public void testSynchronize_WritesFilesAndRendersOnlyChangedDevices() throws IOException {
+        StaticMirror mirror = newMirror();
+        assertFalse(mirror.find("aa-bb-cc-00-00-01").isPresent());
+        mirror.synchronize();
+
+        assertTrue(Files.exists(directory.resolve("aa-bb-cc-00-00-01.cfg")));
+        assertTrue(Files.exists(directory.resolve("aa-bb-cc-00-00-01.cfg.gz")));
+        assertTrue(Files.exists(directory.resolve("aa-bb-cc-00-00-02.json")));
+        assertTrue(Files.exists(directory.resolve(StaticMirror.INDEX_NAME)));
+        MirrorEntry entry = mirror.find("AA:BB:CC:00:00:01").get();
+        assertTrue(entry.hasGzip());
+        assertEquals(RenderedConfiguration.of(String.format("%-64s", "username=alice")).getVersion().getEtag(),
+                entry.getEtag());
+        assertTrue(read(mirror, entry).startsWith("username=alice"));
+
+        // Restart: one device changed, one deleted while the application was down
+        devices.set(0, new Device("aa-bb-cc-00-00-01", Device.DeviceModel.DESK, null, "alice", "changed"));
+        devices.remove(2);
+        clearInvocations(provisioningService);
+        StaticMirror restarted = newMirror();
+        restarted.synchronize();
+
+        ArgumentCaptor<Collection<String>> rendered = captor();
+        verify(provisioningService).provisionBatch(rendered.capture(), any());
+        assertEquals(Collections.singletonList("aa-bb-cc-00-00-01"), new ArrayList<>(rendered.getValue()));
+        assertTrue(restarted.find("aa-bb-cc-00-00-02").isPresent());
+        assertFalse(restarted.find("aa-bb-cc-00-00-03").isPresent());
+        assertFalse(Files.exists(directory.resolve("aa-bb-cc-00-00-03.cfg")));
+        assertFalse(Files.exists(directory.resolve("aa-bb-cc-00-00-03.cfg.gz")));
+
+        // Nothing changed since
+        clearInvocations(provisioningService);
+        newMirror().synchronize();
+        verify(provisioningService, never()).provisionBatch(anyCollection(), any());
+    }
+
+    @Test
+    public void testFile_HitsCountOnlyFilesThatAreThere() throws IOException {
+        StaticMirror mirror = newMirror();
+        mirror.synchronize();
+        MirrorEntry entry = mirror.find("aa-bb-cc-00-00-01").get();
+        assertEquals(0.0, meterRegistry.get("provisioning.mirror.hits").counter().count());
+
+        assertEquals(entry.getGzipLength(), mirror.file(entry, true).getLength());
+        Files.delete(directory.resolve(entry.getFileName()));
+        assertThrows(IOException.class, () -> mirror.file(entry, false));
+        assertEquals(1.0, meterRegistry.get("provisioning.mirror.hits").counter().count());
+    }
+
+    @Test
+    public void testDeviceChanged_NotServedUntilRenderedAgain() throws Exception {
+        StaticMirror mirror = newMirror();
+        mirror.synchronize();
+
+        Device updated = new Device("aa-bb-cc-00-00-02", Device.DeviceModel.DESK, null, "dave", "secret");
+        devices.set(1, updated);
+        mirror.onDeviceChanged(DeviceChangedEvent.saved(updated));
+        mirror.onDeviceChanged(DeviceChangedEvent.deleted("aa-bb-cc-00-00-03"));
+
+        // Both changes are applied in order by the mirror's thread; wait until the second one has been
+        Optional<MirrorEntry> entry = Optional.empty();
+        for (int i = 0; i < 500; i++) {
+            entry = mirror.find("aa-bb-cc-00-00-02");
+            if (entry.isPresent() && !Files.exists(directory.resolve("aa-bb-cc-00-00-03.cfg"))) {
+                break;
+            }
+            Thread.sleep(10);
+        }
+        // Now a desk phone: the conference file made way for the desk one
+        assertEquals("aa-bb-cc-00-00-02.cfg", entry.get().getFileName());
+        assertTrue(read(mirror, entry.get()).startsWith("username=dave"));
+        assertFalse(Files.exists(directory.resolve("aa-bb-cc-00-00-02.json")));
+        assertFalse(mirror.find("aa-bb-cc-00-00-03").isPresent());
+        assertFalse(Files.exists(directory.resolve("aa-bb-cc-00-00-03.cfg")));
+    }
+
+    private StaticMirror newMirror() {
+        ProfileRegistry profileRegistry = new ProfileRegistry(mock(ProvisioningProfileRepository.class),
+                deviceRepository, mock(ApplicationEventPublisher.class), "sip.test.com", "5060", "G711", 10,
+                new SimpleMeterRegistry());
+        StaticMirror mirror = new StaticMirror(deviceRepository, provisioningService, strategyFactory, profileRegistry,
+                directory.toString(), 2, 10, true, 32, 6, "sip.test.com", "5060", "G711", true, meterRegistry);
+        mirrors.add(mirror);
+        return mirror;
+    }
+
+    private static String read(StaticMirror mirror, MirrorEntry entry) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        mirror.file(entry, false).transferTo(out);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ArgumentCaptor<Collection<String>> captor() {
+        return ArgumentCaptor.forClass(Collection.class);
+    }
+}
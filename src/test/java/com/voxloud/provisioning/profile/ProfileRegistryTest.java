@@ -0,0 +1,127 @@
+package com.voxloud.provisioning.profile;
+
+import com.voxloud.provisioning.entity.Device;
+import com.voxloud.provisioning.entity.DeviceConfiguration;
+import com.voxloud.provisioning.entity.ProvisioningProfile;
+import com.voxloud.provisioning.event.DeviceChangedEvent;
+import com.voxloud.provisioning.exception.ProvisioningException;
+import com.voxloud.provisioning.repository.DeviceRepository;
+import com.voxloud.provisioning.repository.ProvisioningProfileRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.SliceImpl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ProfileRegistryTest {
+
+    private ProvisioningProfileRepository profileRepository;
+    private DeviceRepository deviceRepository;
+    private ApplicationEventPublisher eventPublisher;
+    private ProfileRegistry registry;
+
+    private final ProvisioningProfile tenant = new ProvisioningProfile("acme", ProvisioningProfile.Level.TENANT, null);
+    private final ProvisioningProfile site =
+            new ProvisioningProfile("acme-berlin", ProvisioningProfile.Level.SITE, "acme");
+
+    @BeforeEach
+    public void setup() {
+        profileRepository = mock(ProvisioningProfileRepository.class);
+        deviceRepository = mock(DeviceRepository.class);
+        eventPublisher = mock(ApplicationEventPublisher.class);
+        registry = new ProfileRegistry(profileRepository, deviceRepository, eventPublisher, "sip.voxloud.com", "5060",
+                "G711,G729,OPUS", 100, new SimpleMeterRegistry());
+
+        tenant.setDomain("sip.acme.com");
+        tenant.setProperties("timeout=30\nvlan=100");
+        site.setPort("5070");
+        when(profileRepository.findById("acme")).thenReturn(Optional.of(tenant));
+        when(profileRepository.findById("acme-berlin")).thenReturn(Optional.of(site));
+    }
+
+    @Test
+    public void testResolve_LayersTenantAndSiteOverGlobal() throws ProvisioningException {
+        ResolvedProfile resolved = registry.resolve("acme-berlin");
+
+        assertEquals("sip.acme.com", resolved.getDomain());
+        assertEquals("5070", resolved.getPort());
+        assertEquals("G711,G729,OPUS", resolved.getCodecs());
+        assertEquals("30", resolved.getProperties().get("timeout"));
+        // A layer without properties shares its parent's map
+        assertSame(registry.resolve("acme").getProperties(), resolved.getProperties());
+        assertSame(registry.global(), registry.resolve(null));
+
+        Device device = new Device("aa-bb-cc-00-00-01", Device.DeviceModel.DESK, null, "alice", "secret");
+        DeviceConfiguration config = resolved.configurationFor(device);
+        assertEquals("alice", config.getUsername());
+        assertSame(resolved.getProperties(), config.getAdditionalProperties());
+
+        // Merged once, then served from memory
+        registry.resolve("acme-berlin");
+        verify(profileRepository, times(1)).findById("acme-berlin");
+        verify(profileRepository, times(1)).findById("acme");
+    }
+
+    @Test
+    public void testResolve_SiteOverridesTenantProperty() throws ProvisioningException {
+        site.setProperties("vlan=200");
+
+        ResolvedProfile resolved = registry.resolve("acme-berlin");
+
+        assertEquals("200", resolved.getProperties().get("vlan"));
+        assertEquals("30", resolved.getProperties().get("timeout"));
+        assertEquals("100", registry.resolve("acme").getProperties().get("vlan"));
+    }
+
+    @Test
+    public void testResolve_UnknownOrMalformedProfileRejected() {
+        assertThrows(ProvisioningException.class, () -> registry.resolve("unknown"));
+
+        site.setProperties("domain=sip.other.com");
+        assertThrows(ProvisioningException.class, () -> registry.resolve("acme-berlin"));
+    }
+
+    @Test
+    public void testInvalidate_EvictsNodeAndDescendantsAndPublishesDeviceChanges() throws ProvisioningException {
+        String digest = registry.resolve("acme-berlin").getDigest();
+        Device device = new Device("aa-bb-cc-00-00-01", Device.DeviceModel.DESK, null, "alice", "secret");
+        device.setProfileId("acme-berlin");
+        when(profileRepository.findByParentId("acme")).thenReturn(Collections.singletonList(site));
+        when(deviceRepository.findByProfileIdIn(anyCollection(), any(Pageable.class)))
+                .thenReturn(new SliceImpl<>(Collections.singletonList(device)));
+
+        tenant.setDomain("sip.acme.eu");
+        registry.invalidate("acme");
+
+        ArgumentCaptor<DeviceChangedEvent> event = ArgumentCaptor.forClass(DeviceChangedEvent.class);
+        verify(eventPublisher).publishEvent(event.capture());
+        assertEquals(device, event.getValue().getDevice());
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<Collection<String>> profileIds = ArgumentCaptor.forClass(Collection.class);
+        verify(deviceRepository).findByProfileIdIn(profileIds.capture(), any(Pageable.class));
+        assertEquals(Arrays.asList("acme", "acme-berlin"), new ArrayList<>(profileIds.getValue()));
+
+        ResolvedProfile resolved = registry.resolve("acme-berlin");
+        assertEquals("sip.acme.eu", resolved.getDomain());
+        assertNotEquals(digest, resolved.getDigest());
+    }
+}
@@ -0,0 +1,164 @@
+package com.voxloud.provisioning.ratelimit;
+
+import com.voxloud.provisioning.entity.Device;
+import com.voxloud.provisioning.index.DeviceIndex;
+import com.voxloud.provisioning.util.MacAddress;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ProvisioningRateLimiterTest {
+    private static final long START = 1_700_000_000_000L;
+
+    private DeviceIndex deviceIndex;
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    public void setup() {
+        deviceIndex = mock(DeviceIndex.class);
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    private ProvisioningRateLimiter limiter(MockEnvironment environment) {
+        return new ProvisioningRateLimiter(deviceIndex, environment, true, 1024, 6, 3, true, 60_000, 1000, 16,
+                meterRegistry);
+    }
+
+    @Test
+    public void testTable_BurstThenRefillAtRate() {
+        TokenBucketTable table = new TokenBucketTable(64, 60_000, START);
+        RateLimit limit = new RateLimit(6, 3);
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, table.tryAcquire(42, limit, START));
+        }
+        // 6 per minute: the next token is 10 seconds away
+        assertEquals(10_000, table.tryAcquire(42, limit, START));
+        assertEquals(1_000, table.tryAcquire(42, limit, START + 9_000));
+        assertEquals(0, table.tryAcquire(42, limit, START + 10_000));
+        assertTrue(table.tryAcquire(42, limit, START + 10_000) > 0);
+
+        // Other keys have buckets of their own
+        assertEquals(0, table.tryAcquire(43, limit, START));
+    }
+
+    @Test
+    public void testTable_IdleBucketsAreReclaimedWhenFull() {
+        TokenBucketTable table = new TokenBucketTable(4, 30_000, START);
+        RateLimit limit = new RateLimit(6, 3);
+        for (long key = 1; key <= 4; key++) {
+            for (int i = 0; i < 3; i++) {
+                table.tryAcquire(key, limit, START);
+            }
+        }
+
+        // Every slot is still refilling, so a new key shares one and is limited together with its resident
+        long later = START + 10_000;
+        assertEquals(0, table.tryAcquire(5, limit, later));
+        assertTrue(table.tryAcquire(5, limit, later) > 0);
+
+        // Once the buckets have refilled completely, their slots are free for new keys
+        long idle = later + 30_000;
+        for (long key = 6; key <= 9; key++) {
+            for (int i = 0; i < 3; i++) {
+                assertEquals(0, table.tryAcquire(key, limit, idle), "key " + key);
+            }
+        }
+        assertEquals(4, table.capacity());
+    }
+
+    @Test
+    public void testRateLimit_RejectsLimitsTheTableCannotHold() {
+        assertThrows(IllegalArgumentException.class, () -> new RateLimit(0, 1));
+        assertThrows(IllegalArgumentException.class, () -> new RateLimit(60, TokenBucketTable.MAX_BURST + 1));
+    }
+
+    @Test
+    public void testAcquire_RejectsDeviceAfterBurstAndTracksOffender() {
+        ProvisioningRateLimiter limiter = limiter(new MockEnvironment());
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, limiter.acquire("aa-bb-cc-00-00-01", "10.0.0.1"));
+        }
+        long retryAfter = limiter.acquire("AA:BB:CC:00:00:01", "10.0.0.2");
+        assertTrue(retryAfter > 0 && retryAfter <= 10, "retry after " + retryAfter);
+        limiter.acquire("aa-bb-cc-00-00-01", "10.0.0.1");
+        assertEquals(0, limiter.acquire("aa-bb-cc-00-00-02", "10.0.0.1"));
+
+        List<RateLimitOffender> devices = limiter.offenders(10).getDevices();
+        assertEquals(1, devices.size());
+        assertEquals("aa-bb-cc-00-00-01", devices.get(0).getKey());
+        assertEquals(2, devices.get(0).getRejected());
+        assertTrue(limiter.offenders(10).getSources().isEmpty());
+        assertEquals(2.0, meterRegistry.get("provisioning.ratelimit.rejected").tag("scope", "device")
+                .counter().count());
+    }
+
+    @Test
+    public void testAcquire_RejectsSourceAddress() {
+        ProvisioningRateLimiter limiter = new ProvisioningRateLimiter(deviceIndex, new MockEnvironment(), true, 1024,
+                6, 3, true, 60, 2, 16, meterRegistry);
+
+        assertEquals(0, limiter.acquire("aa-bb-cc-00-00-01", "10.0.0.1"));
+        assertEquals(0, limiter.acquire("aa-bb-cc-00-00-02", "10.0.0.1"));
+        assertEquals(1, limiter.acquire("aa-bb-cc-00-00-03", "10.0.0.1"));
+        assertEquals(0, limiter.acquire("aa-bb-cc-00-00-03", "10.0.0.2"));
+
+        assertEquals("10.0.0.1", limiter.offenders(10).getSources().get(0).getKey());
+    }
+
+    @Test
+    public void testAcquire_SourceLimitsOffIgnoreAddress() {
+        ProvisioningRateLimiter limiter = new ProvisioningRateLimiter(deviceIndex, new MockEnvironment(), true, 1024,
+                6, 3, false, 60, 2, 16, meterRegistry);
+
+        // Every device behind one proxy address
+        for (int i = 0; i < 10; i++) {
+            assertEquals(0, limiter.acquire(MacAddress.format(0xaabbcc000000L + i), "10.0.0.1"));
+        }
+        assertTrue(limiter.offenders(10).getSources().isEmpty());
+    }
+
+    @Test
+    public void testAcquire_AppliesModelLimitsFromTheIndex() {
+        MockEnvironment environment = new MockEnvironment()
+                .withProperty("provisioning.ratelimit.device.conference.burst", "1");
+        ProvisioningRateLimiter limiter = limiter(environment);
+        when(deviceIndex.isReady()).thenReturn(true);
+        when(deviceIndex.find("aa-bb-cc-00-00-01")).thenReturn(Optional.of(
+                new Device("aa-bb-cc-00-00-01", Device.DeviceModel.CONFERENCE, null, "alice", "secret")));
+        when(deviceIndex.find("aa-bb-cc-00-00-02")).thenReturn(Optional.of(
+                new Device("aa-bb-cc-00-00-02", Device.DeviceModel.DESK, null, "bob", "secret")));
+
+        assertEquals(0, limiter.acquire("aa-bb-cc-00-00-01", null));
+        assertTrue(limiter.acquire("aa-bb-cc-00-00-01", null) > 0);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, limiter.acquire("aa-bb-cc-00-00-02", null));
+        }
+        // Unknown devices and malformed addresses get the default limit
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, limiter.acquire("not-a-mac", null));
+        }
+        assertTrue(limiter.acquire("not-a-mac", null) > 0);
+    }
+
+    @Test
+    public void testAcquire_DisabledAllowsEverything() {
+        ProvisioningRateLimiter limiter = new ProvisioningRateLimiter(deviceIndex, new MockEnvironment(), false,
+                1024, 6, 1, true, 60, 1, 16, meterRegistry);
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(0, limiter.acquire("aa-bb-cc-00-00-01", "10.0.0.1"));
+        }
+    }
+}
@@ -1,9 +1,20 @@
 package com.voxloud.provisioning.service;
 
+import com.voxloud.provisioning.cache.RenderedConfigurationCache;
+import com.voxloud.provisioning.entity.BatchProvisioningResult;
+import com.voxloud.provisioning.entity.CompiledOverride;
+import com.voxloud.provisioning.entity.ContentEncoding;
 import com.voxloud.provisioning.entity.Device;
+import com.voxloud.provisioning.entity.RenderedConfiguration;
+import com.voxloud.provisioning.event.DeviceChangedEvent;
 import com.voxloud.provisioning.exception.DeviceNotFoundException;
 import com.voxloud.provisioning.exception.ProvisioningException;
+import com.voxloud.provisioning.index.DeviceIndex;
+import com.voxloud.provisioning.index.KnownDeviceFilter;
+import com.voxloud.provisioning.metrics.ProvisioningMetrics;
+import com.voxloud.provisioning.profile.ProfileRegistry;
 import com.voxloud.provisioning.repository.DeviceRepository;
+import com.voxloud.provisioning.repository.ProvisioningProfileRepository;
 import com.voxloud.provisioning.service.factory.ConfigurationStrategyFactory;
 import com.voxloud.provisioning.service.impl.ProvisioningServiceImpl;
 import com.voxloud.provisioning.service.strategy.ConfigurationStrategy;
@@ -13,12 +24,24 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
-import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.context.ApplicationEventPublisher;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.mockito.Spy;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -33,18 +56,37 @@ public class ProvisioningServiceTest {
     @Mock
     private ConfigurationStrategy configurationStrategy;
 
+    @Mock
+    private DeviceIndex deviceIndex;
+
+    @Mock
+    private KnownDeviceFilter knownDevices;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Spy
+    private RenderedConfigurationCache renderedConfigurationCache =
+            new RenderedConfigurationCache(1024 * 1024, 1024, 5000, 30000, 1024, meterRegistry);
+
+    @Spy
+    private ProfileRegistry profileRegistry = new ProfileRegistry(mock(ProvisioningProfileRepository.class),
+            mock(DeviceRepository.class), mock(ApplicationEventPublisher.class), "sip.voxloud.com", "5060",
+            "G711,G729,OPUS", 100, meterRegistry);
+
+    @Spy
+    private ProvisioningMetrics metrics = new ProvisioningMetrics(meterRegistry);
+
     @InjectMocks
     private ProvisioningServiceImpl provisioningService;
 
     private Device deskDevice;
     private Device conferenceDevice;
     private Device deskDeviceWithOverride;
+    private CompiledOverride compiledOverride;
 
     @BeforeEach
     public void setup() {
-        ReflectionTestUtils.setField(provisioningService, "domain", "sip.voxloud.com");
-        ReflectionTestUtils.setField(provisioningService, "port", "5060");
-        ReflectionTestUtils.setField(provisioningService, "codecs", "G711,G729,OPUS");
+        lenient().when(knownDevices.mightContain(any())).thenReturn(true);
 
         deskDevice = new Device();
         deskDevice.setMacAddress("aa-bb-cc-11-22-33");
@@ -63,6 +105,9 @@ public class ProvisioningServiceTest {
                         "timeout=10"
         );
 
+        compiledOverride = new CompiledOverride("sip.anotherdomain.com", "5161",
+                Collections.singletonMap("timeout", "10"));
+
         conferenceDevice = new Device();
         conferenceDevice.setMacAddress("aa-bb-cc-11-33-33");
         conferenceDevice.setModel(Device.DeviceModel.CONFERENCE);
@@ -72,7 +117,7 @@ public class ProvisioningServiceTest {
 
     @Test
     public void testgetProvisioningFile_DeviceNotFound() {
-        when(deviceRepository.findByMacAddress("non-existent")).thenReturn(Optional.empty());
+        when(deviceRepository.findForProvisioning("non-existent")).thenReturn(Optional.empty());
 
         assertThrows(DeviceNotFoundException.class, () -> {
             provisioningService.getProvisioningFile("non-existent");
@@ -81,31 +126,55 @@ public class ProvisioningServiceTest {
 
     @Test
     public void testgetProvisioningFile_WithoutOverride() throws Exception {
-        when(deviceRepository.findByMacAddress("aa-bb-cc-11-22-33")).thenReturn(Optional.of(deskDevice));
+        when(deviceRepository.findForProvisioning("aa-bb-cc-11-22-33")).thenReturn(Optional.of(deskDevice));
         when(strategyFactory.getStrategy(Device.DeviceModel.DESK)).thenReturn(configurationStrategy);
         when(configurationStrategy.generateConfiguration(any(), any())).thenReturn("mockConfig");
 
         String result = provisioningService.getProvisioningFile("aa-bb-cc-11-22-33");
 
         assertEquals("mockConfig", result);
-        verify(configurationStrategy, never()).generateConfigurationWithOverride(any(), any(), any());
+        verify(configurationStrategy, never()).generateConfigurationWithOverride(any(), any(), any(CompiledOverride.class));
+    }
+
+    @Test
+    public void testCompressedFormAdded_CountsAgainstCacheWeight() throws Exception {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            body.append("line").append(i).append('=').append(Integer.toHexString(i * 7919)).append('\n');
+        }
+        when(deviceRepository.findForProvisioning("aa-bb-cc-11-22-33")).thenReturn(Optional.of(deskDevice));
+        when(strategyFactory.getStrategy(Device.DeviceModel.DESK)).thenReturn(configurationStrategy);
+        when(configurationStrategy.generateConfiguration(any(), any())).thenReturn(body.toString());
+
+        RenderedConfiguration rendered = provisioningService.getRenderedConfiguration("AA:BB:CC:11:22:33");
+        long uncompressed = renderedConfigurationCache.weightedSize();
+        int gzipLength = rendered.encode(ContentEncoding.GZIP, 6).getBytes().length;
+        int deflateLength = rendered.encode(ContentEncoding.DEFLATE, 6).getBytes().length;
+        provisioningService.compressedFormAdded("AA:BB:CC:11:22:33", rendered);
+
+        assertEquals("aa-bb-cc-11-22-33".length() + body.length(), uncompressed);
+        assertEquals(uncompressed + gzipLength + deflateLength, renderedConfigurationCache.weightedSize());
     }
 
     @Test
     public void testgetProvisioningFile_WithOverride() throws Exception {
-        when(deviceRepository.findByMacAddress("aa-bb-cc-11-22-44")).thenReturn(Optional.of(deskDeviceWithOverride));
+        when(deviceRepository.findForProvisioning("aa-bb-cc-11-22-44")).thenReturn(Optional.of(deskDeviceWithOverride));
         when(strategyFactory.getStrategy(Device.DeviceModel.DESK)).thenReturn(configurationStrategy);
-        when(configurationStrategy.generateConfigurationWithOverride(any(), any(), any())).thenReturn("mockOverrideConfig");
+        when(configurationStrategy.compileOverride(deskDeviceWithOverride.getOverrideFragment())).thenReturn(compiledOverride);
+        when(configurationStrategy.generateConfigurationWithOverride(any(), any(), eq(compiledOverride))).thenReturn("mockOverrideConfig");
 
         String result = provisioningService.getProvisioningFile("aa-bb-cc-11-22-44");
 
         assertEquals("mockOverrideConfig", result);
         verify(configurationStrategy, never()).generateConfiguration(any(), any());
+        assertEquals(1, meterRegistry.get("provisioning.lookup").tag("source", "repository").timer().count());
+        assertEquals(1, meterRegistry.get("provisioning.render").tag("model", "desk").timer().count());
+        assertEquals(1, meterRegistry.get("provisioning.override.apply").tag("model", "desk").timer().count());
     }
 
     @Test
     public void testgetProvisioningFile_StrategyThrowsException() throws Exception {
-        when(deviceRepository.findByMacAddress("aa-bb-cc-11-22-33")).thenReturn(Optional.of(deskDevice));
+        when(deviceRepository.findForProvisioning("aa-bb-cc-11-22-33")).thenReturn(Optional.of(deskDevice));
         when(strategyFactory.getStrategy(Device.DeviceModel.DESK)).thenReturn(configurationStrategy);
         when(configurationStrategy.generateConfiguration(any(), any())).thenThrow(new ProvisioningException("Test error"));
 
@@ -113,4 +182,219 @@ public class ProvisioningServiceTest {
             provisioningService.getProvisioningFile("aa-bb-cc-11-22-33");
         });
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testgetProvisioningFile_ServedFromCache() throws Exception {
+        when(deviceRepository.findForProvisioning("aa-bb-cc-11-22-33")).thenReturn(Optional.of(deskDevice));
+        when(strategyFactory.getStrategy(Device.DeviceModel.DESK)).thenReturn(configurationStrategy);
+        when(configurationStrategy.generateConfiguration(any(), any())).thenReturn("mockConfig");
+
+        assertEquals("mockConfig", provisioningService.getProvisioningFile("aa-bb-cc-11-22-33"));
+        assertEquals("mockConfig", provisioningService.getProvisioningFile("aa-bb-cc-11-22-33"));
+
+        verify(deviceRepository, times(1)).findForProvisioning("aa-bb-cc-11-22-33");
+        verify(configurationStrategy, times(1)).generateConfiguration(any(), any());
+        assertEquals(1, renderedConfigurationCache.stats().hitCount());
+        assertEquals(1, renderedConfigurationCache.stats().missCount());
+    }
+
+    @Test
+    public void testgetProvisioningFile_InvalidatedOnDeviceChange() throws Exception {
+        when(deviceRepository.findForProvisioning("aa-bb-cc-11-22-33")).thenReturn(Optional.of(deskDevice));
+        when(strategyFactory.getStrategy(Device.DeviceModel.DESK)).thenReturn(configurationStrategy);
+        when(configurationStrategy.generateConfiguration(any(), any())).thenReturn("mockConfig", "updatedConfig");
+
+        assertEquals("mockConfig", provisioningService.getProvisioningFile("aa-bb-cc-11-22-33"));
+        renderedConfigurationCache.onDeviceChanged(new DeviceChangedEvent("aa-bb-cc-11-22-33"));
+
+        assertEquals("updatedConfig", provisioningService.getProvisioningFile("aa-bb-cc-11-22-33"));
+        verify(deviceRepository, times(2)).findForProvisioning("aa-bb-cc-11-22-33");
+    }
+
+    @Test
+    public void testgetProvisioningFile_RacingInvalidationOnlyDropsSameDevice() throws Exception {
+        when(deviceRepository.findForProvisioning("aa-bb-cc-11-22-33")).thenAnswer(invocation -> {
+            renderedConfigurationCache.onDeviceChanged(new DeviceChangedEvent("aa-bb-cc-11-33-33"));
+            return Optional.of(deskDevice);
+        });
+        when(deviceRepository.findForProvisioning("aa-bb-cc-11-22-44")).thenAnswer(invocation -> {
+            renderedConfigurationCache.onDeviceChanged(new DeviceChangedEvent("aa-bb-cc-11-22-44"));
+            return Optional.of(deskDevice);
+        });
+        when(strategyFactory.getStrategy(Device.DeviceModel.DESK)).thenReturn(configurationStrategy);
+        when(configurationStrategy.generateConfiguration(any(), any())).thenReturn("mockConfig");
+
+        provisioningService.getProvisioningFile("aa-bb-cc-11-22-33");
+        provisioningService.getProvisioningFile("aa-bb-cc-11-22-44");
+
+        // Only the load that raced with a change of its own device is discarded
+        assertNotNull(renderedConfigurationCache.getIfPresent("aa-bb-cc-11-22-33"));
+        assertNull(renderedConfigurationCache.getIfPresent("aa-bb-cc-11-22-44"));
+    }
+
+    @Test
+    public void testgetProvisioningFile_NotFoundIsNegativeCached() throws Exception {
+        when(deviceRepository.findForProvisioning("non-existent")).thenReturn(Optional.empty());
+
+        assertThrows(DeviceNotFoundException.class, () -> provisioningService.getProvisioningFile("non-existent"));
+        assertFalse(provisioningService.findRenderedConfiguration("non-existent").isPresent());
+        verify(deviceRepository, times(1)).findForProvisioning("non-existent");
+
+        // Saving the device clears the negative entry
+        renderedConfigurationCache.onDeviceChanged(new DeviceChangedEvent("non-existent"));
+        assertFalse(provisioningService.findRenderedConfiguration("non-existent").isPresent());
+        verify(deviceRepository, times(2)).findForProvisioning("non-existent");
+    }
+
+    @Test
+    public void testFindRenderedConfiguration_RuledOutByBloomFilter() throws Exception {
+        when(knownDevices.mightContain("aa-bb-cc-99-99-99")).thenReturn(false);
+
+        assertFalse(provisioningService.findRenderedConfiguration("AA:BB:CC:99:99:99").isPresent());
+        verify(deviceRepository, never()).findForProvisioning(any());
+        verify(deviceIndex, never()).find(any());
+    }
+
+    @Test
+    public void testgetProvisioningFile_UsesPrecompiledOverride() throws Exception {
+        deskDeviceWithOverride.setCompiledOverride(compiledOverride);
+        when(deviceRepository.findForProvisioning("aa-bb-cc-11-22-44")).thenReturn(Optional.of(deskDeviceWithOverride));
+        when(strategyFactory.getStrategy(Device.DeviceModel.DESK)).thenReturn(configurationStrategy);
+        when(configurationStrategy.generateConfigurationWithOverride(any(), any(), eq(compiledOverride))).thenReturn("mockOverrideConfig");
+
+        assertEquals("mockOverrideConfig", provisioningService.getProvisioningFile("aa-bb-cc-11-22-44"));
+        verify(configurationStrategy, never()).compileOverride(any());
+    }
+
+    @Test
+    public void testFindConfigurationVersion_KnownAfterRender() throws Exception {
+        when(deviceRepository.findForProvisioning("aa-bb-cc-11-22-33")).thenReturn(Optional.of(deskDevice));
+        when(strategyFactory.getStrategy(Device.DeviceModel.DESK)).thenReturn(configurationStrategy);
+        when(configurationStrategy.generateConfiguration(any(), any())).thenReturn("mockConfig");
+
+        assertFalse(provisioningService.findConfigurationVersion("aa-bb-cc-11-22-33").isPresent());
+        String etag = provisioningService.getRenderedConfiguration("aa-bb-cc-11-22-33").getVersion().getEtag();
+
+        assertEquals(etag, provisioningService.findConfigurationVersion("aa-bb-cc-11-22-33").get().getEtag());
+        renderedConfigurationCache.invalidate("aa-bb-cc-11-22-33");
+        assertFalse(provisioningService.findConfigurationVersion("aa-bb-cc-11-22-33").isPresent());
+    }
+
+    @Test
+    public void testProvisionBatch_SingleQueryWithInlineNotFound() throws Exception {
+        when(deviceRepository.findAllForProvisioning(Arrays.asList("aa-bb-cc-11-22-33", "aa-bb-cc-11-33-33", "non-existent")))
+                .thenReturn(Arrays.asList(deskDevice, conferenceDevice));
+        when(strategyFactory.getStrategy(any())).thenReturn(configurationStrategy);
+        when(configurationStrategy.generateConfiguration(any(), any())).thenReturn("mockConfig");
+
+        List<BatchProvisioningResult> results = new ArrayList<>();
+        provisioningService.provisionBatch(
+                Arrays.asList("aa-bb-cc-11-22-33", "aa-bb-cc-11-33-33", "non-existent", "aa-bb-cc-11-22-33"),
+                results::add);
+
+        assertEquals(3, results.size());
+        assertEquals(BatchProvisioningResult.notFound("non-existent"), results.get(0));
+        assertEquals(BatchProvisioningResult.Status.OK, results.get(1).getStatus());
+        assertEquals(BatchProvisioningResult.Status.OK, results.get(2).getStatus());
+        verify(deviceRepository, times(1)).findAllForProvisioning(any());
+        verify(deviceRepository, never()).findForProvisioning(any());
+
+        // Rendered results are cached for subsequent single-device requests
+        assertEquals("mockConfig", provisioningService.getProvisioningFile("aa-bb-cc-11-22-33"));
+        verify(deviceRepository, never()).findForProvisioning(any());
+    }
+
+    @Test
+    public void testgetProvisioningFile_FromIndexInAnyNotation() throws Exception {
+        when(deviceIndex.isReady()).thenReturn(true);
+        when(deviceIndex.find("aa-bb-cc-11-22-33")).thenReturn(Optional.of(deskDevice));
+        when(strategyFactory.getStrategy(Device.DeviceModel.DESK)).thenReturn(configurationStrategy);
+        when(configurationStrategy.generateConfiguration(any(), any())).thenReturn("mockConfig");
+
+        assertEquals("mockConfig", provisioningService.getProvisioningFile("AA:BB:CC:11:22:33"));
+        assertEquals("mockConfig", provisioningService.getProvisioningFile("aabb.cc11.2233"));
+
+        verify(deviceIndex, times(1)).find("aa-bb-cc-11-22-33");
+        verify(deviceRepository, never()).findForProvisioning(any());
+    }
+
+    @Test
+    public void testgetProvisioningFile_UnknownInIndex() {
+        when(deviceIndex.isReady()).thenReturn(true);
+        when(deviceIndex.find("aa-bb-cc-99-99-99")).thenReturn(Optional.empty());
+
+        assertThrows(DeviceNotFoundException.class, () -> provisioningService.getProvisioningFile("aa-bb-cc-99-99-99"));
+        verify(deviceRepository, never()).findForProvisioning(any());
+    }
+
+    @Test
+    public void testgetProvisioningFile_ConcurrentRequestsCoalesced() throws Exception {
+        int callers = 8;
+        CountDownLatch release = new CountDownLatch(1);
+        when(deviceRepository.findForProvisioning("aa-bb-cc-11-22-33")).thenAnswer(invocation -> {
+            release.await(5, TimeUnit.SECONDS);
+            return Optional.of(deskDevice);
+        });
+        when(strategyFactory.getStrategy(Device.DeviceModel.DESK)).thenReturn(configurationStrategy);
+        when(configurationStrategy.generateConfiguration(any(), any())).thenReturn("mockConfig");
+
+        ExecutorService executor = Executors.newFixedThreadPool(callers);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < callers; i++) {
+                results.add(executor.submit(() -> provisioningService.getProvisioningFile("aa-bb-cc-11-22-33")));
+            }
+            // Hold the first load until everybody else has joined it
+            long deadline = System.currentTimeMillis() + 5000;
+            while (meterRegistry.get("provisioning.coalescing.coalesced").counter().count() < callers - 1
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            release.countDown();
+
+            for (Future<String> result : results) {
+                assertEquals("mockConfig", result.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        verify(deviceRepository, times(1)).findForProvisioning("aa-bb-cc-11-22-33");
+        verify(configurationStrategy, times(1)).generateConfiguration(any(), any());
+        assertEquals(callers - 1, meterRegistry.get("provisioning.coalescing.coalesced").counter().count());
+    }
+
+    @Test
+    public void testgetProvisioningFile_CoalescedDespiteChangeOfOtherDevice() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(deviceRepository.findForProvisioning("aa-bb-cc-11-22-33")).thenAnswer(invocation -> {
+            loading.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return Optional.of(deskDevice);
+        });
+        when(strategyFactory.getStrategy(Device.DeviceModel.DESK)).thenReturn(configurationStrategy);
+        when(configurationStrategy.generateConfiguration(any(), any())).thenReturn("mockConfig");
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> leader = executor.submit(() -> provisioningService.getProvisioningFile("aa-bb-cc-11-22-33"));
+            assertTrue(loading.await(5, TimeUnit.SECONDS));
+            renderedConfigurationCache.onDeviceChanged(new DeviceChangedEvent("aa-bb-cc-11-33-33"));
+            Future<String> follower = executor.submit(() -> provisioningService.getProvisioningFile("aa-bb-cc-11-22-33"));
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (meterRegistry.get("provisioning.coalescing.coalesced").counter().count() < 1
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            release.countDown();
+
+            assertEquals("mockConfig", leader.get(5, TimeUnit.SECONDS));
+            assertEquals("mockConfig", follower.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+        verify(deviceRepository, times(1)).findForProvisioning("aa-bb-cc-11-22-33");
+        assertEquals(1, meterRegistry.get("provisioning.coalescing.coalesced").counter().count());
+    }
+}
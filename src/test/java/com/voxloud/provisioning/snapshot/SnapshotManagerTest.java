@@ -0,0 +1,189 @@
+package com.voxloud.provisioning.snapshot;
+
+import com.voxloud.provisioning.cache.RenderedConfigurationCache;
+import com.voxloud.provisioning.entity.CompiledOverride;
+import com.voxloud.provisioning.entity.ConfigurationVersion;
+import com.voxloud.provisioning.entity.Device;
+import com.voxloud.provisioning.entity.RenderedConfiguration;
+import com.voxloud.provisioning.event.DeviceChangedEvent;
+import com.voxloud.provisioning.exception.ProvisioningException;
+import com.voxloud.provisioning.index.DeviceIndex;
+import com.voxloud.provisioning.profile.ProfileRegistry;
+import com.voxloud.provisioning.repository.DeviceRepository;
+import com.voxloud.provisioning.service.strategy.OverrideFragmentCompiler;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class SnapshotManagerTest {
+
+    @TempDir
+    Path directory;
+
+    private Path path;
+    private DeviceRepository deviceRepository;
+    private DeviceIndex deviceIndex;
+    private RenderedConfigurationCache cache;
+    private ProfileRegistry profileRegistry;
+    private OverrideFragmentCompiler overrideFragmentCompiler;
+    private ApplicationEventPublisher eventPublisher;
+
+    private final Device desk = new Device("aa-bb-cc-00-00-01", Device.DeviceModel.DESK, null, "alice", "secret");
+    private final Device conference = new Device("aa-bb-cc-00-00-02", Device.DeviceModel.CONFERENCE,
+            "{\"timeout\":10}", "bob", "secret");
+    private final CompiledOverride compiledOverride = new CompiledOverride(null, null,
+            Collections.singletonMap("timeout", 10));
+
+    @BeforeEach
+    public void setup() throws ProvisioningException {
+        path = directory.resolve("snapshot.bin");
+        deviceRepository = mock(DeviceRepository.class);
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        deviceIndex = new DeviceIndex(deviceRepository, true, 100, meterRegistry);
+        cache = new RenderedConfigurationCache(1 << 20, 1000, 1000, 1000, 1000, meterRegistry);
+        eventPublisher = mock(ApplicationEventPublisher.class);
+        profileRegistry = mock(ProfileRegistry.class);
+        when(profileRegistry.fingerprint()).thenReturn("profiles");
+        conference.setProfileId("acme-berlin");
+        overrideFragmentCompiler = mock(OverrideFragmentCompiler.class);
+        when(overrideFragmentCompiler.compile(any(Device.class))).thenAnswer(invocation ->
+                invocation.<Device>getArgument(0).getOverrideFragment() != null ? compiledOverride : null);
+    }
+
+    @Test
+    public void testSnapshotFile_RoundTrip() throws IOException {
+        // Not the digest of the body: the stored ETag is restored as it was
+        RenderedConfiguration rendered =
+                RenderedConfiguration.of("username=alice", new ConfigurationVersion("\"stored\"", 1000L));
+        SnapshotFile.write(path, new InventorySnapshot(1234L, "fingerprint", Arrays.asList(desk, conference),
+                Collections.singletonMap(desk.getMacAddress(), rendered)));
+
+        InventorySnapshot snapshot = SnapshotFile.read(path);
+        assertEquals(1234L, snapshot.getCreatedAt());
+        assertEquals("fingerprint", snapshot.getRenderFingerprint());
+        assertEquals(Arrays.asList(desk, conference), snapshot.getDevices());
+        assertEquals(rendered, snapshot.getRendered().get(desk.getMacAddress()));
+        assertEquals(rendered.getVersion(), snapshot.getRendered().get(desk.getMacAddress()).getVersion());
+        assertNull(snapshot.getDevices().get(0).getOverrideFragment());
+        assertEquals("acme-berlin", snapshot.getDevices().get(1).getProfileId());
+    }
+
+    @Test
+    public void testSnapshotFile_CorruptionDetected() throws IOException {
+        SnapshotFile.write(path, new InventorySnapshot(1234L, "fingerprint", Arrays.asList(desk, conference),
+                Collections.emptyMap()));
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            file.seek(SnapshotFile.HEADER_SIZE + 20);
+            int b = file.read();
+            file.seek(SnapshotFile.HEADER_SIZE + 20);
+            file.write(b ^ 0xff);
+        }
+        IOException e = assertThrows(IOException.class, () -> SnapshotFile.read(path));
+        assertEquals("Snapshot checksum mismatch", e.getMessage());
+
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            file.setLength(file.length() - 1);
+        }
+        assertThrows(IOException.class, () -> SnapshotFile.read(path));
+    }
+
+    @Test
+    public void testRestore_SeedsIndexAndCache() throws IOException {
+        SnapshotManager manager = manager(Duration.ofHours(1));
+        writeSnapshot(manager, System.currentTimeMillis());
+        when(deviceRepository.count()).thenReturn(2L);
+
+        assertEquals(SnapshotManager.RestoreResult.RESTORED, manager.restore());
+        assertTrue(deviceIndex.isReady());
+        assertEquals(conference, deviceIndex.find("AA:BB:CC:00:00:02").orElse(null));
+        assertEquals(compiledOverride, deviceIndex.find("AA:BB:CC:00:00:02").get().getCompiledOverride());
+        assertNull(deviceIndex.find("AA:BB:CC:00:00:01").get().getCompiledOverride());
+        assertEquals("username=alice", cache.getIfPresent(desk.getMacAddress()).getBody());
+    }
+
+    @Test
+    public void testRestore_MissingOrStaleSnapshotIgnored() throws IOException {
+        SnapshotManager manager = manager(Duration.ofHours(1));
+        assertEquals(SnapshotManager.RestoreResult.MISSING, manager.restore());
+
+        writeSnapshot(manager, System.currentTimeMillis() - Duration.ofHours(2).toMillis());
+        assertEquals(SnapshotManager.RestoreResult.STALE, manager.restore());
+
+        writeSnapshot(manager, System.currentTimeMillis());
+        when(deviceRepository.count()).thenReturn(3L);
+        assertEquals(SnapshotManager.RestoreResult.STALE, manager.restore());
+        assertFalse(deviceIndex.isReady());
+    }
+
+    @Test
+    public void testRestore_ProfileChangeDiscardsRenderedConfigurations() throws IOException {
+        SnapshotManager manager = manager(Duration.ofHours(1));
+        writeSnapshot(manager, System.currentTimeMillis());
+        when(deviceRepository.count()).thenReturn(2L);
+        when(profileRegistry.fingerprint()).thenReturn("profiles-edited");
+
+        assertEquals(SnapshotManager.RestoreResult.RESTORED, manager.restore());
+        assertEquals(conference, deviceIndex.find("AA:BB:CC:00:00:02").orElse(null));
+        assertNull(cache.getIfPresent(desk.getMacAddress()));
+    }
+
+    @Test
+    public void testReconcile_PublishesChangesSinceSnapshot() throws IOException {
+        SnapshotManager manager = manager(Duration.ofHours(1));
+        writeSnapshot(manager, System.currentTimeMillis());
+        when(deviceRepository.count()).thenReturn(2L);
+        manager.restore();
+
+        // Desk unchanged, conference deleted, a new device added
+        Device added = new Device("aa-bb-cc-00-00-03", Device.DeviceModel.DESK, null, "carol", "secret");
+        List<Device> current = Arrays.asList(desk, added);
+        when(deviceRepository.findAll(any(Pageable.class))).thenReturn(new PageImpl<>(current));
+        manager.reconcile();
+
+        ArgumentCaptor<DeviceChangedEvent> events = ArgumentCaptor.forClass(DeviceChangedEvent.class);
+        verify(eventPublisher, times(2)).publishEvent(events.capture());
+        assertEquals(added.getMacAddress(), events.getAllValues().get(0).getMacAddress());
+        assertFalse(events.getAllValues().get(0).isDeleted());
+        assertEquals(conference.getMacAddress(), events.getAllValues().get(1).getMacAddress());
+        assertTrue(events.getAllValues().get(1).isDeleted());
+    }
+
+    private SnapshotManager manager(Duration maxAge) {
+        return new SnapshotManager(deviceRepository, deviceIndex, cache, profileRegistry, overrideFragmentCompiler,
+                eventPublisher, path.toString(), true, maxAge, 100, "sip.voxloud.com", "5060", "G711", true,
+                new SimpleMeterRegistry());
+    }
+
+    private void writeSnapshot(SnapshotManager manager, long createdAt) throws IOException {
+        // Taken by a manager with the same render settings, so rendered entries are restored
+        Map<String, RenderedConfiguration> rendered =
+                Collections.singletonMap(desk.getMacAddress(), RenderedConfiguration.of("username=alice"));
+        SnapshotFile.write(path, new InventorySnapshot(createdAt, manager.getRenderFingerprint(),
+                Arrays.asList(desk, conference), rendered));
+    }
+}
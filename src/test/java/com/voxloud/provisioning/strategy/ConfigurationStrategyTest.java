@@ -2,16 +2,34 @@ package com.voxloud.provisioning.strategy;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.voxloud.provisioning.entity.CompiledOverride;
 import com.voxloud.provisioning.entity.Device;
 import com.voxloud.provisioning.entity.DeviceConfiguration;
+import com.voxloud.provisioning.entity.ProvisioningProfile;
 import com.voxloud.provisioning.exception.ProvisioningException;
+import com.voxloud.provisioning.profile.ResolvedProfile;
+import com.voxloud.provisioning.service.factory.ConfigurationStrategyFactory;
 import com.voxloud.provisioning.service.strategy.ConferenceConfigurationStrategy;
+import com.voxloud.provisioning.service.strategy.CordlessConfigurationStrategy;
 import com.voxloud.provisioning.service.strategy.DeskConfigurationStrategy;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
 
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Properties;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -19,6 +37,7 @@ public class ConfigurationStrategyTest {
 
     private DeskConfigurationStrategy deskStrategy;
     private ConferenceConfigurationStrategy conferenceStrategy;
+    private CordlessConfigurationStrategy cordlessStrategy;
     private Device device;
     private DeviceConfiguration baseConfig;
     private ObjectMapper objectMapper;
@@ -27,6 +46,7 @@ public class ConfigurationStrategyTest {
     public void setup() {
         deskStrategy = new DeskConfigurationStrategy();
         conferenceStrategy = new ConferenceConfigurationStrategy();
+        cordlessStrategy = new CordlessConfigurationStrategy();
         objectMapper = new ObjectMapper();
 
         device = new Device();
@@ -161,4 +181,351 @@ public class ConfigurationStrategyTest {
             conferenceStrategy.generateConfigurationWithOverride(device, baseConfig, invalidOverride);
         });
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testDeskStrategy_CompileOverride() throws Exception {
+        CompiledOverride override = deskStrategy.compileOverride("domain=sip.override.com\nport=5555\ntimeout=20");
+
+        assertEquals("sip.override.com", override.getDomain());
+        assertEquals("5555", override.getPort());
+        assertEquals("20", override.getAdditionalProperties().get("timeout"));
+        assertThrows(UnsupportedOperationException.class, () -> override.getAdditionalProperties().put("key", "value"));
+    }
+
+    @Test
+    public void testDeskStrategy_InvalidOverride() {
+        assertThrows(ProvisioningException.class, () -> deskStrategy.compileOverride("key=\\uZZZZ"));
+    }
+
+    @Test
+    public void testConferenceStrategy_CompileOverride() throws Exception {
+        CompiledOverride override = conferenceStrategy.compileOverride("{\"port\":\"5555\",\"timeout\":20}");
+
+        assertNull(override.getDomain());
+        assertEquals("5555", override.getPort());
+        assertEquals(20, override.getAdditionalProperties().get("timeout"));
+    }
+
+    @Test
+    public void testConferenceStrategy_NonObjectOverride() {
+        assertThrows(ProvisioningException.class, () -> conferenceStrategy.compileOverride("[1, 2, 3]"));
+    }
+
+    @Test
+    public void testPrecompiledOverride_MatchesFragmentRendering() throws Exception {
+        String overrideFragment = "{\"domain\":\"sip.override.com\",\"port\":\"5555\",\"timeout\":20}";
+        CompiledOverride override = conferenceStrategy.compileOverride(overrideFragment);
+
+        assertEquals(conferenceStrategy.generateConfigurationWithOverride(device, baseConfig, overrideFragment),
+                conferenceStrategy.generateConfigurationWithOverride(device, baseConfig, override));
+        assertEquals("sip.test.com", baseConfig.getDomain());
+    }
+
+    @Test
+    public void testConferenceStrategy_StreamingMatchesTreeRendering() throws Exception {
+        Map<String, Object> additionalProps = new HashMap<>();
+        additionalProps.put("timeout", 10);
+        additionalProps.put("retries", 3000000000L);
+        additionalProps.put("ratio", 0.75);
+        additionalProps.put("enabled", true);
+        additionalProps.put("label", "Room \"A\" \u00e9\n\\");
+        additionalProps.put("missing", null);
+        for (int i = 0; i < 20; i++) {
+            additionalProps.put("key" + i, "value" + i);
+        }
+
+        DeviceConfiguration[] configs = {
+                baseConfig,
+                baseConfig.toBuilder().additionalProperties(additionalProps).build(),
+                baseConfig.toBuilder().username(null).codecs("G711").additionalProperties(new HashMap<>()).build(),
+                // Additional keys that reuse standard keys replace the value in place
+                baseConfig.toBuilder().additionalProperties(overrides("port", 5161, "codecs", "OPUS", "username", "x")).build()
+        };
+
+        for (DeviceConfiguration config : configs) {
+            assertEquals(renderAsTree(config, true), conferenceStrategy.generateConfiguration(device, config));
+            assertEquals(renderAsTree(config, false),
+                    new ConferenceConfigurationStrategy(false).generateConfiguration(device, config));
+        }
+    }
+
+    @Test
+    public void testConferenceStrategy_CompactOutput() throws Exception {
+        String jsonConfig = new ConferenceConfigurationStrategy(false).generateConfiguration(device, baseConfig);
+
+        assertEquals("{\"username\":\"test-user\",\"password\":\"test-pass\",\"domain\":\"sip.test.com\","
+                + "\"port\":\"5060\",\"codecs\":[\"G711\",\"G729\",\"OPUS\"]}", jsonConfig);
+    }
+
+    @Test
+    public void testConferenceStrategy_MissingCodecs() {
+        DeviceConfiguration config = baseConfig.toBuilder().codecs(null).build();
+
+        assertThrows(ProvisioningException.class, () -> conferenceStrategy.generateConfiguration(device, config));
+    }
+
+    private static Map<String, Object> overrides(Object... keysAndValues) {
+        Map<String, Object> map = new HashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            map.put((String) keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return map;
+    }
+
+    /**
+     * Reference rendering through an {@link ObjectNode} tree, as the conference strategy originally did.
+     */
+    private String renderAsTree(DeviceConfiguration config, boolean pretty) throws Exception {
+        ObjectNode rootNode = objectMapper.createObjectNode();
+        rootNode.put("username", config.getUsername());
+        rootNode.put("password", config.getPassword());
+        rootNode.put("domain", config.getDomain());
+        rootNode.put("port", config.getPort());
+        ArrayNode codecsNode = rootNode.putArray("codecs");
+        Arrays.stream(config.getCodecs().split(",")).forEach(codecsNode::add);
+
+        if (config.getAdditionalProperties() != null) {
+            for (Map.Entry<String, Object> entry : config.getAdditionalProperties().entrySet()) {
+                Object value = entry.getValue();
+                if (value instanceof Integer) {
+                    rootNode.put(entry.getKey(), (Integer) value);
+                } else if (value instanceof Long) {
+                    rootNode.put(entry.getKey(), (Long) value);
+                } else if (value instanceof Double) {
+                    rootNode.put(entry.getKey(), (Double) value);
+                } else if (value instanceof Boolean) {
+                    rootNode.put(entry.getKey(), (Boolean) value);
+                } else {
+                    rootNode.put(entry.getKey(), String.valueOf(value));
+                }
+            }
+        }
+
+        return pretty
+                ? objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(rootNode)
+                : objectMapper.writeValueAsString(rootNode);
+    }
+
+    @Test
+    public void testDeskStrategy_ExactOutput() throws Exception {
+        String config = deskStrategy.generateConfiguration(device, baseConfig);
+
+        assertEquals("username=test-user\npassword=test-pass\ndomain=sip.test.com\nport=5060\ncodecs=G711,G729,OPUS\n", config);
+    }
+
+    @Test
+    public void testDeskStrategy_SpecialCharactersRoundTrip() throws Exception {
+        Map<String, Object> additionalProps = new HashMap<>();
+        additionalProps.put("key with=separators:#!", "value\\with\nnewline=and:colon");
+        additionalProps.put("url", "http://example.com/#fragment");
+        additionalProps.put("padded", "  leading spaces");
+
+        DeviceConfiguration config = baseConfig.toBuilder()
+                .password("p@ss=w:rd\\")
+                .additionalProperties(additionalProps)
+                .build();
+
+        Properties properties = new Properties();
+        properties.load(new StringReader(deskStrategy.generateConfiguration(device, config)));
+
+        assertEquals("p@ss=w:rd\\", properties.getProperty("password"));
+        assertEquals("value\\with\nnewline=and:colon", properties.getProperty("key with=separators:#!"));
+        assertEquals("http://example.com/#fragment", properties.getProperty("url"));
+        assertEquals("  leading spaces", properties.getProperty("padded"));
+        assertEquals(8, properties.size());
+    }
+
+    @Test
+    public void testDeskStrategy_TemplateFollowsBaseValues() throws Exception {
+        assertTrue(deskStrategy.generateConfiguration(device, baseConfig).contains("domain=sip.test.com\n"));
+
+        DeviceConfiguration changed = baseConfig.toBuilder().domain("sip.changed.com").codecs("OPUS").build();
+        String config = deskStrategy.generateConfiguration(device, changed);
+
+        assertTrue(config.contains("domain=sip.changed.com\n"));
+        assertTrue(config.contains("codecs=OPUS\n"));
+        assertTrue(deskStrategy.generateConfiguration(device, baseConfig).contains("domain=sip.test.com\n"));
+    }
+
+    @Test
+    public void testDeskStrategy_OverrideDoesNotReplaceTemplate() throws Exception {
+        CompiledOverride override = deskStrategy.compileOverride("domain=sip.override.com");
+
+        String overridden = deskStrategy.generateConfigurationWithOverride(device, baseConfig, override);
+        String plain = deskStrategy.generateConfiguration(device, baseConfig);
+
+        assertTrue(overridden.contains("domain=sip.override.com\n"));
+        assertTrue(plain.contains("domain=sip.test.com\n"));
+    }
+
+    @Test
+    public void testCordlessStrategy_ExactOutput() throws Exception {
+        String config = cordlessStrategy.generateConfiguration(device, baseConfig);
+
+        assertEquals("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<configuration>\n"
+                + "  <username>test-user</username>\n"
+                + "  <password>test-pass</password>\n"
+                + "  <domain>sip.test.com</domain>\n"
+                + "  <port>5060</port>\n"
+                + "  <codecs>\n"
+                + "    <codec>G711</codec>\n"
+                + "    <codec>G729</codec>\n"
+                + "    <codec>OPUS</codec>\n"
+                + "  </codecs>\n"
+                + "</configuration>\n", config);
+        assertEquals("xml", cordlessStrategy.getFileExtension());
+    }
+
+    @Test
+    public void testCordlessStrategy_StreamingMatchesDomRendering() throws Exception {
+        Map<String, Object> additionalProps = new LinkedHashMap<>();
+        additionalProps.put("timeout", 10);
+        additionalProps.put("enabled", true);
+        additionalProps.put("label", "Room <A> & \"B\" \u00e9");
+        additionalProps.put("missing", null);
+        for (int i = 0; i < 20; i++) {
+            additionalProps.put("key" + i, "value" + i);
+        }
+
+        DeviceConfiguration[] configs = {
+                baseConfig,
+                baseConfig.toBuilder().additionalProperties(additionalProps).build(),
+                baseConfig.toBuilder().codecs("G711").additionalProperties(new HashMap<>()).build(),
+                // Additional keys that reuse standard keys replace the element in place
+                baseConfig.toBuilder().additionalProperties(overrides("port", 5161, "username", "x")).build()
+        };
+
+        for (DeviceConfiguration config : configs) {
+            Document rendered = parseXml(cordlessStrategy.generateConfiguration(device, config));
+            assertTrue(renderAsDom(config).getDocumentElement().isEqualNode(rendered.getDocumentElement()),
+                    () -> "Differs from DOM rendering: " + config);
+        }
+    }
+
+    @Test
+    public void testCordlessStrategy_WithOverride() throws Exception {
+        String overrideFragment = "<configuration>\n"
+                + "  <domain>sip.override.com</domain>\n"
+                + "  <port>5555</port>\n"
+                + "  <!-- added -->\n"
+                + "  <timeout>20</timeout>\n"
+                + "  <network vlan=\"10\"><dhcp>true</dhcp><ntp><![CDATA[pool.ntp.org]]></ntp></network>\n"
+                + "  <codecs><codec>OPUS</codec></codecs>\n"
+                + "</configuration>";
+        CompiledOverride override = cordlessStrategy.compileOverride(overrideFragment);
+        assertEquals("sip.override.com", override.getDomain());
+        assertEquals("20", override.getAdditionalProperties().get("timeout"));
+
+        String config = cordlessStrategy.generateConfigurationWithOverride(device, baseConfig, override);
+        assertEquals(config, cordlessStrategy.generateConfigurationWithOverride(device, baseConfig, overrideFragment));
+        assertTrue(config.contains("  <domain>sip.override.com</domain>\n  <port>5555</port>\n"
+                + "  <codecs>\n    <codec>OPUS</codec>\n  </codecs>\n  <timeout>20</timeout>\n"
+                + "  <network vlan=\"10\">\n    <dhcp>true</dhcp>\n    <ntp>pool.ntp.org</ntp>\n  </network>\n"));
+        assertEquals("sip.test.com", baseConfig.getDomain());
+    }
+
+    @Test
+    public void testCordlessStrategy_OverrideReplacesProfileProperty() throws Exception {
+        ProvisioningProfile tenant = new ProvisioningProfile("acme", ProvisioningProfile.Level.TENANT, null);
+        tenant.setProperties("network=dhcp\ntimezone=Europe/Rome");
+        DeviceConfiguration config = ResolvedProfile.global("sip.test.com", "5060", "G711,G729,OPUS")
+                .extend(tenant).configurationFor(device);
+
+        CompiledOverride override = cordlessStrategy.compileOverride("<configuration>"
+                + "<network vlan=\"10\"><ntp>ntp.example.com</ntp></network><qos>ef</qos></configuration>");
+
+        String rendered = cordlessStrategy.generateConfigurationWithOverride(device, config, override);
+        assertTrue(rendered.contains("  <network vlan=\"10\">\n    <ntp>ntp.example.com</ntp>\n  </network>\n"
+                + "  <timezone>Europe/Rome</timezone>\n  <qos>ef</qos>\n"), rendered);
+        assertFalse(rendered.contains("dhcp"));
+    }
+
+    @Test
+    public void testCordlessStrategy_InvalidOverride() {
+        assertThrows(ProvisioningException.class, () -> cordlessStrategy.compileOverride("<configuration><domain>"));
+        assertThrows(ProvisioningException.class, () -> cordlessStrategy.compileOverride("domain=sip.test.com"));
+        assertThrows(ProvisioningException.class,
+                () -> cordlessStrategy.compileOverride("<configuration><port><value>1</value></port></configuration>"));
+        // No DTDs, so no entity expansion or external entities
+        assertThrows(ProvisioningException.class, () -> cordlessStrategy.compileOverride(
+                "<!DOCTYPE configuration [<!ENTITY xxe SYSTEM \"file:///etc/passwd\">]>"
+                        + "<configuration><timeout>&xxe;</timeout></configuration>"));
+        assertThrows(ProvisioningException.class, () -> cordlessStrategy.generateConfiguration(device,
+                baseConfig.toBuilder().additionalProperties(overrides("not a name", 1)).build()));
+    }
+
+    @Test
+    public void testStrategyFactory_ResolvesEveryModel() throws Exception {
+        ConfigurationStrategyFactory factory = new ConfigurationStrategyFactory(
+                Arrays.asList(deskStrategy, conferenceStrategy, cordlessStrategy));
+        for (Device.DeviceModel model : Device.DeviceModel.values()) {
+            assertEquals(model, factory.getStrategy(model).getSupportedModel());
+        }
+
+        ConfigurationStrategyFactory partial = new ConfigurationStrategyFactory(Collections.singletonList(deskStrategy));
+        assertThrows(ProvisioningException.class, () -> partial.getStrategy(Device.DeviceModel.CORDLESS));
+        assertThrows(IllegalStateException.class,
+                () -> new ConfigurationStrategyFactory(Arrays.asList(deskStrategy, new DeskConfigurationStrategy())));
+    }
+
+    /**
+     * Reference rendering through a DOM tree.
+     */
+    private static Document renderAsDom(DeviceConfiguration config) throws Exception {
+        Map<String, Object> additionalProperties = config.getAdditionalProperties() != null
+                ? config.getAdditionalProperties()
+                : Collections.<String, Object>emptyMap();
+        Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+        Element root = document.createElement("configuration");
+        document.appendChild(root);
+        String[][] standard = {{"username", config.getUsername()}, {"password", config.getPassword()},
+                {"domain", config.getDomain()}, {"port", config.getPort()}};
+        for (String[] entry : standard) {
+            appendTextElement(root, entry[0], additionalProperties.containsKey(entry[0])
+                    ? additionalProperties.get(entry[0]) : entry[1]);
+        }
+        Element codecs = document.createElement("codecs");
+        root.appendChild(codecs);
+        for (String codec : config.getCodecs().split(",")) {
+            appendTextElement(codecs, "codec", codec);
+        }
+        for (Map.Entry<String, Object> entry : additionalProperties.entrySet()) {
+            if (!Arrays.asList("username", "password", "domain", "port", "codecs").contains(entry.getKey())) {
+                appendTextElement(root, entry.getKey(), entry.getValue());
+            }
+        }
+        return document;
+    }
+
+    private static void appendTextElement(Element parent, String name, Object value) {
+        Element element = parent.getOwnerDocument().createElement(name);
+        if (value != null) {
+            element.setTextContent(String.valueOf(value));
+        }
+        parent.appendChild(element);
+    }
+
+    /**
+     * Parses {@code xml} dropping the indentation, so that documents compare by elements, attributes and text.
+     */
+    private static Document parseXml(String xml) throws Exception {
+        Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                .parse(new InputSource(new StringReader(xml)));
+        removeWhitespace(document.getDocumentElement());
+        return document;
+    }
+
+    private static void removeWhitespace(Node node) {
+        NodeList children = node.getChildNodes();
+        for (int i = children.getLength() - 1; i >= 0; i--) {
+            Node child = children.item(i);
+            if (child.getNodeType() == Node.TEXT_NODE && child.getTextContent().trim().isEmpty()
+                    && children.getLength() > 1) {
+                node.removeChild(child);
+            } else if (child.getNodeType() == Node.ELEMENT_NODE) {
+                removeWhitespace(child);
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.voxloud.provisioning.warmup;
+
+import com.voxloud.provisioning.cache.RenderedConfigurationCache;
+import com.voxloud.provisioning.entity.BatchProvisioningResult;
+import com.voxloud.provisioning.entity.RenderedConfiguration;
+import com.voxloud.provisioning.repository.DeviceRepository;
+import com.voxloud.provisioning.service.ProvisioningService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.SliceImpl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CacheWarmerTest {
+
+    private DeviceRepository deviceRepository;
+    private ProvisioningService provisioningService;
+    private RenderedConfigurationCache cache;
+    private SimpleMeterRegistry meterRegistry;
+    private CacheWarmer warmer;
+
+    @BeforeEach
+    public void setup() {
+        deviceRepository = mock(DeviceRepository.class);
+        provisioningService = mock(ProvisioningService.class);
+        cache = mock(RenderedConfigurationCache.class);
+        meterRegistry = new SimpleMeterRegistry();
+
+        // 25 devices in pages of 10, the last one failing to render
+        List<String> macAddresses = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            macAddresses.add(String.format("aa-bb-cc-00-00-%02x", i));
+        }
+        when(deviceRepository.count()).thenReturn(25L);
+        when(deviceRepository.findAllMacAddresses(any(Pageable.class))).thenAnswer(invocation -> {
+            Pageable pageable = invocation.getArgument(0);
+            int from = (int) pageable.getOffset();
+            int to = Math.min(from + pageable.getPageSize(), macAddresses.size());
+            return new SliceImpl<>(macAddresses.subList(from, to), pageable, to < macAddresses.size());
+        });
+        doAnswer(invocation -> {
+            Collection<String> chunk = invocation.getArgument(0);
+            Consumer<BatchProvisioningResult> consumer = invocation.getArgument(1);
+            for (String macAddress : chunk) {
+                consumer.accept(macAddress.equals("aa-bb-cc-00-00-18")
+                        ? BatchProvisioningResult.error(macAddress, "boom")
+                        : BatchProvisioningResult.ok(macAddress, RenderedConfiguration.of("username=" + macAddress)));
+            }
+            return null;
+        }).when(provisioningService).provisionBatch(anyCollection(), any());
+    }
+
+    @AfterEach
+    public void tearDown() {
+        warmer.destroy();
+    }
+
+    @Test
+    public void testWarmup_ProvisionsWholeInventoryInChunks() throws InterruptedException {
+        warmer = new CacheWarmer(deviceRepository, provisioningService, cache, false, 2, 4, 10, 0, meterRegistry);
+
+        assertTrue(warmer.start(true));
+        awaitCompletion();
+
+        CacheWarmupStatus status = warmer.status();
+        assertEquals(25, status.getTotal());
+        assertEquals(25, status.getCompleted());
+        assertEquals(1, status.getFailed());
+        assertEquals(1.0, status.getProgress());
+        assertEquals(-1, status.getEtaSeconds());
+        // Pages of 10 in chunks of 4: 3 + 3 + 2 chunks
+        verify(provisioningService, times(8)).provisionBatch(anyCollection(), any());
+        verify(cache).invalidateAll();
+        assertEquals(24, meterRegistry.get("provisioning.warmup.devices").tag("status", "ok").counter().count());
+        assertEquals(1.0, meterRegistry.get("provisioning.warmup.progress").gauge().value());
+    }
+
+    @Test
+    public void testWarmup_PacedToMaxRate() throws InterruptedException {
+        warmer = new CacheWarmer(deviceRepository, provisioningService, cache, false, 2, 5, 10, 100, meterRegistry);
+
+        long start = System.nanoTime();
+        assertTrue(warmer.start(false));
+        assertFalse(warmer.start(false));
+        awaitCompletion();
+
+        // 25 devices at 100/s: the last chunk may not be submitted before 250 ms
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 250);
+        assertEquals(25, warmer.status().getCompleted());
+    }
+
+    private void awaitCompletion() throws InterruptedException {
+        for (int i = 0; i < 500 && warmer.status().isRunning(); i++) {
+            Thread.sleep(10);
+        }
+        assertFalse(warmer.status().isRunning());
+    }
+}